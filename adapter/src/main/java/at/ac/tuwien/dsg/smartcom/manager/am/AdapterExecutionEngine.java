@@ -18,9 +18,10 @@
 package at.ac.tuwien.dsg.smartcom.manager.am;
 
 import at.ac.tuwien.dsg.smartcom.adapter.*;
+import at.ac.tuwien.dsg.smartcom.adapter.annotations.MessageOrdering;
 import at.ac.tuwien.dsg.smartcom.adapter.util.TaskScheduler;
 import at.ac.tuwien.dsg.smartcom.broker.*;
-import at.ac.tuwien.dsg.smartcom.broker.policy.DynamicReplicationPolicy;
+import at.ac.tuwien.dsg.smartcom.broker.policy.LatencyReplicationPolicy;
 import at.ac.tuwien.dsg.smartcom.manager.am.adapter.InputAdapterExecution;
 import at.ac.tuwien.dsg.smartcom.manager.am.adapter.OutputAdapterExecution;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
@@ -53,9 +54,15 @@ public class AdapterExecutionEngine implements TaskScheduler{
     @Inject
     private MessageBroker broker; //used to send and receive messages
 
+    @Inject
+    private InputFlowControl inputFlowControl; //limits the input of pull adapters
+
     @Inject
     private StatisticBean statistic;
 
+    @Inject
+    private ReplicaScheduler replicaScheduler; //runs the replicas of stateless output adapters
+
     private final Map<Identifier, InputAdapterExecution> inputAdapterMap = new HashMap<>(); //map of identifiers of adapters and the corresponding adapter executions
     private final Map<Identifier, InputPushAdapter> pushAdapterFacadeMap = new HashMap<>();
     private final Map<Identifier, List<TimerTask>> taskMap = new HashMap<>();
@@ -149,7 +156,7 @@ public class AdapterExecutionEngine implements TaskScheduler{
      */
     void addInputAdapter(InputPullAdapter adapter, Identifier id, boolean deleteIfSuccessful) {
         log.info("Adding pull adapter with id {}", id);
-        InputAdapterExecution execution = new InputAdapterExecution(adapter, id, broker, deleteIfSuccessful, statistic);
+        InputAdapterExecution execution = new InputAdapterExecution(adapter, id, broker, new CreditBasedInputPublisher(broker, inputFlowControl), deleteIfSuccessful, statistic);
 
         //start executing the pull adapter within an adapter execution
         Future<?> submit = executor.submit(execution);
@@ -192,8 +199,10 @@ public class AdapterExecutionEngine implements TaskScheduler{
      *
      * @param adapter instance of the output adapter
      * @param id of the output adapter
+     * @param stateful true if the adapter is stateful
+     * @param ordering of the messages of a stateless adapter
      */
-    void addOutputAdapter(final OutputAdapter adapter, final Identifier id, boolean stateful) {
+    void addOutputAdapter(final OutputAdapter adapter, final Identifier id, boolean stateful, MessageOrdering ordering) {
         log.debug("Adding adapter with id {}", id);
 
         if (stateful) {
@@ -209,7 +218,8 @@ public class AdapterExecutionEngine implements TaskScheduler{
                 public MessageListener createReplication() {
                     return new OutputAdapterExecution(adapter, addressResolver, id, broker, statistic);
                 }
-            }, new DynamicReplicationPolicy());
+            }, new LatencyReplicationPolicy(), replicaScheduler, ReplicatingMessageListener.DEFAULT_MAX_REPLICAS, 1, getOrderingKey(ordering));
+            listener.observeBrokerQueue(broker, BrokerMonitor.TASK_QUEUE_PREFIX + id.getId());
 
             statefulOutputAdapterMap.put(id, execution);
             statelessOutputAdapterMap.put(id, listener);
@@ -217,6 +227,17 @@ public class AdapterExecutionEngine implements TaskScheduler{
         }
     }
 
+    private OrderingKey getOrderingKey(MessageOrdering ordering) {
+        switch (ordering) {
+            case CONVERSATION:
+                return OrderingKey.CONVERSATION;
+            case RECEIVER:
+                return OrderingKey.RECEIVER;
+            default:
+                return null;
+        }
+    }
+
     /**
      * remove an output adapter instance with a given id from the execution of the execution engine.
      *
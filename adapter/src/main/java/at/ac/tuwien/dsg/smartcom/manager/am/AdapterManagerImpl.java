@@ -22,6 +22,9 @@ import at.ac.tuwien.dsg.smartcom.adapter.InputPullAdapter;
 import at.ac.tuwien.dsg.smartcom.adapter.InputPushAdapter;
 import at.ac.tuwien.dsg.smartcom.adapter.OutputAdapter;
 import at.ac.tuwien.dsg.smartcom.adapter.annotations.Adapter;
+import at.ac.tuwien.dsg.smartcom.adapter.annotations.MessageOrdering;
+import at.ac.tuwien.dsg.smartcom.broker.CreditBasedInputPublisher;
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
 import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
 import at.ac.tuwien.dsg.smartcom.exception.CommunicationException;
 import at.ac.tuwien.dsg.smartcom.exception.ErrorCode;
@@ -60,6 +63,9 @@ public class AdapterManagerImpl implements AdapterManager {
     @Inject
     private MessageBroker broker; //sending and receiving messages
 
+    @Inject
+    private InputFlowControl inputFlowControl; //limits the input of push adapters
+
     @Inject
     private AddressResolver addressResolver; //to resolve addresses of peers
 
@@ -96,7 +102,7 @@ public class AdapterManagerImpl implements AdapterManager {
         Identifier id = Identifier.adapter(generateAdapterId(adapter));
 
         //Set the input publisher and the scheduler for push adapters
-        adapter.setInputPublisher(broker);
+        adapter.setInputPublisher(new CreditBasedInputPublisher(broker, inputFlowControl));
         adapter.setScheduler(executionEngine);
 
         //init the adapter
@@ -153,7 +159,7 @@ public class AdapterManagerImpl implements AdapterManager {
             //if the adapter is not stateful, instantiate it immediately and start executing it
             try {
                 OutputAdapter instance = instantiateClass(adapter);
-                executionEngine.addOutputAdapter(instance, id, false);
+                executionEngine.addOutputAdapter(instance, id, false, annotation.ordering());
                 stateless.add(id);
             } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
                 log.error("Could not instantiate class "+adapter.toString(), e);
@@ -315,7 +321,7 @@ public class AdapterManagerImpl implements AdapterManager {
                         }
 
                         //start executing the new adapter
-                        executionEngine.addOutputAdapter(outputAdapter, newId, true);
+                        executionEngine.addOutputAdapter(outputAdapter, newId, true, MessageOrdering.NONE);
                         adapters.add(newId);
                         instances.add(newId);
                     }
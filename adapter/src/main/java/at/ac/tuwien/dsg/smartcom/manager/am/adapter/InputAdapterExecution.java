@@ -20,6 +20,7 @@ package at.ac.tuwien.dsg.smartcom.manager.am.adapter;
 import at.ac.tuwien.dsg.smartcom.adapter.InputAdapter;
 import at.ac.tuwien.dsg.smartcom.adapter.InputPullAdapter;
 import at.ac.tuwien.dsg.smartcom.adapter.exception.AdapterException;
+import at.ac.tuwien.dsg.smartcom.broker.InputPublisher;
 import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
@@ -27,6 +28,8 @@ import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
  * Execution environment for an input pull adapter instance. It handles automatically pull requests and the publishing
  * of messages to the system.
@@ -37,25 +40,39 @@ import org.slf4j.LoggerFactory;
 public class InputAdapterExecution implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(InputAdapterExecution.class);
 
+    /**
+     * Maximum number of pull requests that are received at once
+     */
+    public static final int MAX_REQUESTS = 10;
+
+    /**
+     * Time in milliseconds to wait for requests until the execution checks if it has been interrupted
+     */
+    public static final long RECEIVE_TIMEOUT = 1000;
+
     private final InputPullAdapter adapter; //adapter that is handled by this execution environment
     private final Identifier id; //id of the adapter and the execution environment
-    private final MessageBroker broker; //broker used to publish received message
+    private final MessageBroker broker; //broker used to receive requests
+    private final InputPublisher publisher; //publisher used to publish received messages
     private final boolean deleteIfSuccessful;
 
     private final StatisticBean statistic;
 
     /**
-     * Create a new Input Adapter Execution for a given adapter and id. The broker is used to publish the received messages
+     * Create a new Input Adapter Execution for a given adapter and id. The broker is used to receive the pull requests
+     * and the publisher is used to publish the received messages
      * @param adapter that will be handled by the input adapter execution
      * @param id of the adapter
-     * @param broker that is used to publish messages
+     * @param broker that is used to receive requests
+     * @param publisher that is used to publish messages
      * @param deleteIfSuccessful delete the adapter if it has been executed successfully
      * @param statistic
      */
-    public InputAdapterExecution(InputPullAdapter adapter, Identifier id, MessageBroker broker, boolean deleteIfSuccessful, StatisticBean statistic) {
+    public InputAdapterExecution(InputPullAdapter adapter, Identifier id, MessageBroker broker, InputPublisher publisher, boolean deleteIfSuccessful, StatisticBean statistic) {
         this.adapter = adapter;
         this.id = id;
         this.broker = broker;
+        this.publisher = publisher;
         this.deleteIfSuccessful = deleteIfSuccessful;
         this.statistic = statistic;
     }
@@ -72,33 +89,41 @@ public class InputAdapterExecution implements Runnable {
     public void run() {
         while (!Thread.currentThread().isInterrupted()) {
             log.trace("Adapter {}: Waiting for requests...", id.getId());
-            Message message = broker.receiveRequests(id);
-            statistic.requestReceived();
-            log.trace("Adapter {}: Received request {}", id.getId(), message);
-            if (message == null) {
-                log.debug("Adapter {}: Received interrupted!", id.getId());
-                break;
-            }
-            Message response = null;
-            try {
-                response = adapter.pull();
-            } catch (AdapterException e) {
-                log.error("Adapter {}: Error while checking response", id.getId(), e);
-                //TODO should we raise an error message here too? similar to the one in OutputAdapterExecution
+            //the timeout allows to check for an interruption regularly
+            List<Message> requests = broker.receiveRequestsBatch(id, deleteIfSuccessful ? 1 : MAX_REQUESTS, RECEIVE_TIMEOUT);
+            for (Message message : requests) {
+                statistic.requestReceived();
+                log.trace("Adapter {}: Received request {}", id.getId(), message);
+                if (handleRequest() && deleteIfSuccessful) {
+                    return;
+                }
             }
-            if (response != null) {
-                enhanceMessage(response);
-                log.debug("Adapter {}: Received response {}", id.getId(), response);
+        }
+        log.debug("Adapter {}: Received interrupted!", id.getId());
+    }
 
-                broker.publishInput(response);
+    /**
+     * pulls the adapter once for a request and publishes the response
+     * @return true if a response has been published
+     */
+    private boolean handleRequest() {
+        Message response = null;
+        try {
+            response = adapter.pull();
+        } catch (AdapterException e) {
+            log.error("Adapter {}: Error while checking response", id.getId(), e);
+            //TODO should we raise an error message here too? similar to the one in OutputAdapterExecution
+        }
+        if (response != null) {
+            enhanceMessage(response);
+            log.debug("Adapter {}: Received response {}", id.getId(), response);
 
-                if (deleteIfSuccessful) {
-                    break;
-                }
-            } else {
-                handleNoMessageReceived();
-            }
+            publisher.publishInput(response);
+            return true;
         }
+
+        handleNoMessageReceived();
+        return false;
     }
 
     /**
@@ -29,6 +29,8 @@ import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.function.Function;
+
 /**
  * Execution environment for an output adapter instance. It handles automatically tasks and tells the adapter to send
  * messages to peers.
@@ -70,14 +72,37 @@ public class OutputAdapterExecution implements MessageListener {
     public void onMessage(Message message) {
         statistic.outputReceived();
         log.debug("Adapter {}: Received task {}", id, message);
+        if (message.isExpired(System.currentTimeMillis())) {
+            log.debug("Adapter {}: Dropping expired message {}", id, message);
+            statistic.outputExpired();
+            publishControl(PredefinedMessageHelper.createTimeoutMessage(message, "Message expired before it could be delivered."));
+            return;
+        }
+
         PeerChannelAddress peerChannelAddress = address.getPeerAddress(message.getReceiverId(), id);
 
         log.debug("Adapter {}: Sending message {} to peer {}", id, message, peerChannelAddress);
         try {
             adapter.push(message, peerChannelAddress);
-            broker.publishControl(PredefinedMessageHelper.createAcknowledgeMessage(message)); //this is the internal acknowledgment message used to determine if the delivery policies will hold.
+            publishControl(PredefinedMessageHelper.createAcknowledgeMessage(message)); //this is the internal acknowledgment message used to determine if the delivery policies will hold.
         } catch (Exception e) {
-            broker.publishControl(PredefinedMessageHelper.createCommunicationErrorMessage(message, e.getMessage()));
+            publishControl(PredefinedMessageHelper.createCommunicationErrorMessage(message, e.getMessage()));
         }
     }
+
+    /**
+     * Publishes a control message without waiting for the broker, so that the adapter
+     * can continue with the next task in the meantime.
+     *
+     * @param control message that should be published
+     */
+    protected void publishControl(final Message control) {
+        broker.publishControlAsync(control).exceptionally(new Function<Throwable, Void>() {
+            @Override
+            public Void apply(Throwable throwable) {
+                log.error("Adapter {}: Could not publish control message {}", id, control, throwable);
+                return null;
+            }
+        });
+    }
 }
@@ -18,7 +18,9 @@
 package at.ac.tuwien.dsg.smartcom.manager.am;
 
 import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
 import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
 import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
 import at.ac.tuwien.dsg.smartcom.exception.CommunicationException;
 import at.ac.tuwien.dsg.smartcom.manager.AdapterManager;
@@ -73,6 +75,8 @@ public class AdapterManagerIT {
         pico.as(Characteristics.CACHE).addComponent(AdapterExecutionEngine.class);
         pico.as(Characteristics.CACHE).addComponent(AddressResolver.class);
         pico.as(Characteristics.CACHE).addComponent(StatisticBean.class);
+        pico.as(Characteristics.CACHE).addComponent(InputFlowControl.class);
+        pico.as(Characteristics.CACHE).addComponent(ReplicaScheduler.class);
 
         broker = pico.getComponent(SimpleMessageBroker.class);
         manager = pico.getComponent(AdapterManagerImpl.class);
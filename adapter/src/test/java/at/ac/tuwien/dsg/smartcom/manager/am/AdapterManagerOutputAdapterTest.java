@@ -19,7 +19,9 @@ package at.ac.tuwien.dsg.smartcom.manager.am;
 
 import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
 import at.ac.tuwien.dsg.smartcom.adapter.InputPullAdapter;
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
 import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
 import at.ac.tuwien.dsg.smartcom.exception.CommunicationException;
 import at.ac.tuwien.dsg.smartcom.manager.AdapterManager;
 import at.ac.tuwien.dsg.smartcom.manager.am.adapter.StatefulAdapter;
@@ -69,6 +71,8 @@ public class AdapterManagerOutputAdapterTest {
         pico.as(Characteristics.CACHE).addComponent(AdapterExecutionEngine.class);
         pico.as(Characteristics.CACHE).addComponent(AddressResolver.class);
         pico.as(Characteristics.CACHE).addComponent(StatisticBean.class);
+        pico.as(Characteristics.CACHE).addComponent(InputFlowControl.class);
+        pico.as(Characteristics.CACHE).addComponent(ReplicaScheduler.class);
 
         broker = pico.getComponent(SimpleMessageBroker.class);
         manager = pico.getComponent(AdapterManagerImpl.class);
@@ -213,4 +217,33 @@ public class AdapterManagerOutputAdapterTest {
         assertEquals("CONTROL", control.getType());
         assertEquals("COMERROR", control.getSubtype());
     }
-}
\ No newline at end of file
+
+    @Test(timeout = 5000l)
+    public void testExpiredMessageIsNotPushed() throws Exception {
+        manager.registerOutputAdapter(StatelessAdapter.class);
+
+        Identifier routing = manager.createEndpointForPeer(peerInfo1).get(0);
+
+        Message msg = new Message.MessageBuilder()
+                .setId(Identifier.message("expired"))
+                .setSenderId(Identifier.component("sender"))
+                .setReceiverId(peerId1)
+                .setExpiration(System.currentTimeMillis() - 1000)
+                .create();
+
+        broker.publishOutput(routing, msg);
+
+        //the control message is published asynchronously
+        Message control;
+        while ((control = broker.receiveControl()) == null) {
+            Thread.sleep(10);
+        }
+
+        assertEquals("CONTROL", control.getType());
+        assertEquals("TIMEOUT", control.getSubtype());
+        assertEquals(msg.getId(), control.getRefersTo());
+        assertEquals(peerId1, control.getSenderId());
+        assertEquals(msg.getSenderId(), control.getReceiverId());
+        assertEquals(1, pico.getComponent(StatisticBean.class).getStatistic().getBroker().getOutputMessageExpired());
+    }
+}
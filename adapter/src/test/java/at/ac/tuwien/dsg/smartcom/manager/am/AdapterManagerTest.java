@@ -21,7 +21,9 @@ import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
 import at.ac.tuwien.dsg.smartcom.adapter.InputPullAdapter;
 import at.ac.tuwien.dsg.smartcom.adapter.InputPushAdapter;
 import at.ac.tuwien.dsg.smartcom.adapter.PushTask;
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
 import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
 import at.ac.tuwien.dsg.smartcom.exception.CommunicationException;
 import at.ac.tuwien.dsg.smartcom.manager.AdapterManager;
 import at.ac.tuwien.dsg.smartcom.manager.am.adapter.AdapterWithoutAnnotation;
@@ -69,6 +71,8 @@ public class AdapterManagerTest {
         pico.as(Characteristics.CACHE).addComponent(AdapterExecutionEngine.class);
         pico.as(Characteristics.CACHE).addComponent(AddressResolver.class);
         pico.as(Characteristics.CACHE).addComponent(StatisticBean.class);
+        pico.as(Characteristics.CACHE).addComponent(InputFlowControl.class);
+        pico.as(Characteristics.CACHE).addComponent(ReplicaScheduler.class);
 
         broker = pico.getComponent(SimpleMessageBroker.class);
         manager = pico.getComponent(AdapterManagerImpl.class);
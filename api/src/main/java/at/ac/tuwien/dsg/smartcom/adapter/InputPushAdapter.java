@@ -18,6 +18,7 @@
 package at.ac.tuwien.dsg.smartcom.adapter;
 
 import at.ac.tuwien.dsg.smartcom.adapter.util.TaskScheduler;
+import at.ac.tuwien.dsg.smartcom.broker.FlowControlledInputPublisher;
 import at.ac.tuwien.dsg.smartcom.broker.InputPublisher;
 import at.ac.tuwien.dsg.smartcom.model.Message;
 
@@ -58,6 +59,23 @@ public abstract class InputPushAdapter implements InputAdapter {
         inputPublisher.publishInput(message);
     }
 
+    /**
+     * Publish a message that has been received without waiting for the system
+     * to catch up. If the system is overloaded, the message is rejected and the
+     * adapter should signal the back-pressure to the external tool/peer (e.g.,
+     * by responding with an error code that asks to retry later).
+     *
+     * @param message Message that has been received.
+     * @return true if the message has been published, false if it has been rejected
+     */
+    protected final boolean tryPublishMessage(Message message) {
+        if (inputPublisher instanceof FlowControlledInputPublisher) {
+            return ((FlowControlledInputPublisher) inputPublisher).tryPublishInput(message);
+        }
+        inputPublisher.publishInput(message);
+        return true;
+    }
+
     public final void setInputPublisher(InputPublisher inputPublisher) {
         if (this.inputPublisher == null)
             this.inputPublisher = inputPublisher;
@@ -42,4 +42,11 @@ public @interface Adapter {
      * @return true if adapter is stateful
      */
     boolean stateful() default false;
+
+    /**
+     * Indicates which messages a stateless adapter has to push in order (default: none).
+     * Stateful adapters push all messages of a peer in order anyway.
+     * @return the ordering of the messages
+     */
+    MessageOrdering ordering() default MessageOrdering.NONE;
 }
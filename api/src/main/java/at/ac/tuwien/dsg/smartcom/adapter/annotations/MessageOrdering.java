@@ -15,30 +15,28 @@
  *    See the License for the specific language governing permissions and
  *    limitations under the License.
  */
-package at.ac.tuwien.dsg.smartcom.manager.am.util;
+package at.ac.tuwien.dsg.smartcom.adapter.annotations;
 
-import at.ac.tuwien.dsg.smartcom.utils.ExpiringCounter;
-import org.junit.Test;
-
-import java.util.concurrent.TimeUnit;
-
-import static org.junit.Assert.assertEquals;
-
-public class ExpiringCounterTest {
-
-    @Test
-    public void testIncrease() throws Exception {
-        ExpiringCounter counter = new ExpiringCounter(5, TimeUnit.SECONDS);
-        counter.increase();
-        counter.increase();
-        counter.increase();
-        counter.increase();
-        counter.increase();
+/**
+ * Defines which messages a stateless output adapter has to push in the order
+ * they have been sent. Messages that don't have to be ordered are pushed in parallel.
+ *
+ * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
+ * @version 1.0
+ */
+public enum MessageOrdering {
+    /**
+     * Messages are pushed in any order
+     */
+    NONE,
 
-        synchronized (this) {
-            wait(6000);
-        }
+    /**
+     * Messages of the same conversation are pushed in order
+     */
+    CONVERSATION,
 
-        assertEquals(0, counter.getCounter());
-    }
-}
\ No newline at end of file
+    /**
+     * Messages to the same peer are pushed in order
+     */
+    RECEIVER
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.model.Message;
+
+/**
+ * Input publisher that limits the amount of input messages which have been
+ * published but not yet handled by the system. Each published message takes a
+ * credit which is returned as soon as the message has been handled.
+ *
+ * If there are no credits left, publishInput blocks until a credit
+ * becomes available, whereas tryPublishInput returns immediately and leaves it
+ * to the adapter to signal the back-pressure to its source (e.g., by responding
+ * with a 503 status code).
+ *
+ * @version 1.0
+ */
+public interface FlowControlledInputPublisher extends InputPublisher {
+
+    /**
+     * Publish a new message that has been received if there is a credit
+     * available.
+     *
+     * @param message that has been received
+     * @return true if the message has been published, false if there
+     *          are no credits left and the message has been rejected
+     */
+    public boolean tryPublishInput(Message message);
+
+    /**
+     * Returns the amount of credits that are currently available, i.e., the
+     * amount of messages that can be published without being blocked or rejected.
+     *
+     * @return available credits
+     */
+    public int getAvailableCredits();
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.callback;
+
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.PeerInfo;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Optional extension of the PeerInfoCallback that resolves the information of several
+ * peers in a single request. If the callback implements this interface, the middleware
+ * collects concurrent requests for unknown peers and resolves them at once, which
+ * avoids a round trip to the peer manager for every single peer (e.g., when sending
+ * a message to a large collective).
+ *
+ * @version 1.0
+ */
+public interface BulkPeerInfoCallback extends PeerInfoCallback {
+
+    /**
+     * Resolves the information about the given peers.
+     *
+     * @param ids ids of the requested peers
+     * @return information about the peers by their id, peers that don't exist are missing in the result
+     */
+    public Map<Identifier, PeerInfo> getPeerInfos(Collection<Identifier> ids);
+}
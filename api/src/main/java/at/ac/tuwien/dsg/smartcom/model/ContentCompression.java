@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.model;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the content of messages. Large contents are compressed with
+ * Deflate (optimized for speed) when a message is encoded or persisted and
+ * decompressed lazily when the content is accessed (see {@link Message#getContent()}).
+ *
+ * The compressed form consists of the length of the UTF-8 encoded content
+ * (4 bytes, big-endian) followed by the deflated bytes.
+ *
+ * @version 1.0
+ */
+public final class ContentCompression {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Default size in bytes of the UTF-8 encoded content above which it is compressed
+     */
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    private ContentCompression() {
+    }
+
+    /**
+     * Compresses the content if it exceeds the threshold and if compression
+     * actually reduces its size.
+     *
+     * @param content that should be compressed
+     * @param threshold size in bytes above which the content is compressed, 0 or less disables compression
+     * @return compressed content or null if the content should be transferred uncompressed
+     */
+    public static byte[] compress(String content, int threshold) {
+        if (content == null || threshold <= 0 || content.length() < threshold / 3) {
+            return null;
+        }
+
+        byte[] data = content.getBytes(UTF8);
+        if (data.length < threshold || data.length <= 4) {
+            return null;
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            //compressed content is only used if it is smaller than the uncompressed one
+            byte[] buffer = new byte[data.length];
+            buffer[0] = (byte) (data.length >>> 24);
+            buffer[1] = (byte) (data.length >>> 16);
+            buffer[2] = (byte) (data.length >>> 8);
+            buffer[3] = (byte) data.length;
+
+            int size = 4;
+            while (!deflater.finished() && size < buffer.length) {
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+
+            if (!deflater.finished()) {
+                return null;
+            }
+            return Arrays.copyOf(buffer, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses content that has been compressed by {@link #compress(String, int)}.
+     *
+     * @param compressed compressed content
+     * @return the original content
+     * @throws IllegalArgumentException if the data is not a valid compressed content
+     */
+    public static String decompress(byte[] compressed) {
+        if (compressed.length < 4) {
+            throw new IllegalArgumentException("Invalid compressed content");
+        }
+
+        int length = ((compressed[0] & 0xFF) << 24) | ((compressed[1] & 0xFF) << 16)
+                | ((compressed[2] & 0xFF) << 8) | (compressed[3] & 0xFF);
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid compressed content");
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, 4, compressed.length - 4);
+
+            byte[] data = new byte[length];
+            int size = 0;
+            while (size < length) {
+                int read = inflater.inflate(data, size, length - size);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += read;
+            }
+
+            if (size != length) {
+                throw new IllegalArgumentException("Invalid compressed content");
+            }
+            return new String(data, UTF8);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed content", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
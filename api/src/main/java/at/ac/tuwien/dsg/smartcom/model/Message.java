@@ -33,16 +33,19 @@ public class Message implements Serializable, Cloneable {
 
     private Identifier id;
     private String content;
+    private byte[] compressedContent; //compressed form of the content, the content is decompressed lazily
     private String type;
     private String subtype;
     private Identifier senderId;
     private Identifier receiverId;
     private String conversationId;
     private long ttl;
+    private long expiration; //point in time (ms) after which the message must not be delivered anymore, 0 if it never expires
     private String language;
     private String securityToken;
     private DeliveryPolicy.Message delivery = DeliveryPolicy.Message.UNACKNOWLEDGED;
     
+    private String creditOwner; //flow control that holds the credit of an input message, null if the message holds no credit
     private Identifier refersTo; //in case of a control message, reporting failed delivery message, or ACK, this field indicates the Identifier of the original message that the control message refers to. 
 
     public Identifier getId() {
@@ -54,11 +57,40 @@ public class Message implements Serializable, Cloneable {
     }
 
     public String getContent() {
+        if (content == null && compressedContent != null) {
+            content = ContentCompression.decompress(compressedContent);
+        }
         return content;
     }
 
     public void setContent(String content) {
         this.content = content;
+        this.compressedContent = null;
+    }
+
+    /**
+     * Returns the compressed content of the message if it has been received
+     * in compressed form (see {@link ContentCompression}).
+     *
+     * @return the compressed content or null if the content is not compressed
+     */
+    public byte[] getCompressedContent() {
+        return compressedContent;
+    }
+
+    /**
+     * Sets the content in compressed form, it is decompressed when the
+     * content is accessed for the first time.
+     *
+     * @param compressedContent content compressed by {@link ContentCompression}
+     */
+    public void setCompressedContent(byte[] compressedContent) {
+        this.compressedContent = compressedContent;
+        this.content = null;
+    }
+
+    public boolean isContentCompressed() {
+        return compressedContent != null;
     }
 
     public String getType() {
@@ -109,6 +141,31 @@ public class Message implements Serializable, Cloneable {
         this.ttl = ttl;
     }
 
+    /**
+     * Returns the point in time (in milliseconds since the epoch) after which
+     * the message must not be delivered anymore. The expiration is derived from
+     * the time to live of the message when it is sent.
+     *
+     * @return the expiration of the message or 0 if the message does not expire
+     */
+    public long getExpiration() {
+        return expiration;
+    }
+
+    public void setExpiration(long expiration) {
+        this.expiration = expiration;
+    }
+
+    /**
+     * Checks if the message has expired.
+     *
+     * @param now current time in milliseconds since the epoch
+     * @return true if the message has an expiration that lies before now
+     */
+    public boolean isExpired(long now) {
+        return expiration > 0 && expiration < now;
+    }
+
     public String getLanguage() {
         return language;
     }
@@ -133,6 +190,21 @@ public class Message implements Serializable, Cloneable {
 		this.refersTo = refersTo;
 	}
 
+    /**
+     * Returns the id of the input flow control that holds the credit of this
+     * message. Only the owner returns the credit after the message has been
+     * handled, because the input queue is shared by several nodes.
+     *
+     * @return id of the owner or null if the message holds no credit
+     */
+    public String getCreditOwner() {
+        return creditOwner;
+    }
+
+    public void setCreditOwner(String creditOwner) {
+        this.creditOwner = creditOwner;
+    }
+
     public DeliveryPolicy.Message getDelivery() {
         return delivery;
     }
@@ -148,6 +220,7 @@ public class Message implements Serializable, Cloneable {
             msg.id = this.id.clone();
         }
         msg.content = this.content;
+        msg.compressedContent = this.compressedContent;
         msg.type = this.type;
         msg.subtype = this.subtype;
         if (senderId != null) {
@@ -158,9 +231,14 @@ public class Message implements Serializable, Cloneable {
         }
         msg.conversationId = this.conversationId;
         msg.ttl = this.ttl;
+        msg.expiration = this.expiration;
         msg.language = this.language;
         msg.securityToken = this.securityToken;
         msg.delivery = this.delivery;
+        msg.creditOwner = this.creditOwner;
+        if (refersTo != null) {
+            msg.refersTo = this.refersTo.clone();
+        }
         return msg;
     }
 
@@ -168,13 +246,14 @@ public class Message implements Serializable, Cloneable {
     public String toString() {
         return "Message{" +
                 "id ='" + id + '\'' +
-                ", content='" + content + '\'' +
+                ", content='" + getContent() + '\'' +
                 ", type='" + type + '\'' +
                 ", subtype='" + subtype + '\'' +
                 ", senderId='" + senderId + '\'' +
                 ", receiverId='" + receiverId + '\'' +
                 ", conversationId='" + conversationId + '\'' +
                 ", ttl=" + ttl +
+                ", expiration=" + expiration +
                 ", language='" + language + '\'' +
                 ", securityToken='" + securityToken + '\'' +
                 ", refersTo='" + refersTo + '\'' +
@@ -214,6 +293,7 @@ public class Message implements Serializable, Cloneable {
 
         public MessageBuilder setContent(String content) {
             msg.content = content;
+            msg.compressedContent = null;
             return this;
         }
 
@@ -247,6 +327,11 @@ public class Message implements Serializable, Cloneable {
             return this;
         }
 
+        public MessageBuilder setExpiration(long expiration) {
+            msg.expiration = expiration;
+            return this;
+        }
+
         public MessageBuilder setLanguage(String language) {
             msg.language = language;
             return this;
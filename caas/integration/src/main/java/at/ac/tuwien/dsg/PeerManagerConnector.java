@@ -17,9 +17,9 @@
  */
 package at.ac.tuwien.dsg;
 
+import at.ac.tuwien.dsg.smartcom.callback.BulkPeerInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.CollectiveInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.PeerAuthenticationCallback;
-import at.ac.tuwien.dsg.smartcom.callback.PeerInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchCollectiveException;
 import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchPeerException;
 import at.ac.tuwien.dsg.smartcom.callback.exception.PeerAuthenticationException;
@@ -28,17 +28,21 @@ import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.PeerInfo;
 import org.glassfish.jersey.client.ClientProperties;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.*;
 
 /**
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @version 1.0
  */
-public class PeerManagerConnector implements PeerInfoCallback, CollectiveInfoCallback, PeerAuthenticationCallback {
+public class PeerManagerConnector implements BulkPeerInfoCallback, CollectiveInfoCallback, PeerAuthenticationCallback {
 
     private final Client client;
     private final String collectiveURL;
@@ -88,4 +92,36 @@ public class PeerManagerConnector implements PeerInfoCallback, CollectiveInfoCal
         return response.readEntity(PeerInfo.class);
     }
 
+    /**
+     * Resolves the peers with a single request. Unknown peers are missing in the result,
+     * a WebApplicationException is thrown if the peer manager fails to handle the request.
+     */
+    @Override
+    public Map<Identifier, PeerInfo> getPeerInfos(Collection<Identifier> ids) {
+        List<String> peerIds = new ArrayList<>(ids.size());
+        for (Identifier id : ids) {
+            peerIds.add(id.getId());
+        }
+
+        WebTarget target = client.target(peerURL);
+        Response response = target.request(MediaType.APPLICATION_JSON).post(Entity.json(peerIds));
+
+        Map<Identifier, PeerInfo> peerInfos = new HashMap<>();
+        if (Response.Status.NOT_FOUND.getStatusCode() == response.getStatus()) {
+            response.close();
+            return peerInfos;
+        }
+
+        if (Response.Status.Family.SUCCESSFUL != response.getStatusInfo().getFamily()) {
+            response.close();
+            throw new WebApplicationException(response);
+        }
+
+        List<PeerInfo> infos = response.readEntity(new GenericType<List<PeerInfo>>() {});
+        for (PeerInfo info : infos) {
+            peerInfos.put(info.getId(), info);
+        }
+        return peerInfos;
+    }
+
 }
@@ -33,8 +33,11 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.ws.rs.WebApplicationException;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -42,6 +45,7 @@ public class PeerManagerConnectorTest {
 
     private HttpServer server;
     private PeerManagerConnector connector;
+    private String serverURL;
 
     @Before
     public void setUp() throws Exception {
@@ -55,7 +59,8 @@ public class PeerManagerConnectorTest {
             e.printStackTrace();
         }
 
-        connector = new PeerManagerConnector("http://localhost:" + freePort + "/test");
+        serverURL = "http://localhost:" + freePort + "/test";
+        connector = new PeerManagerConnector(serverURL);
     }
 
     @After
@@ -88,6 +93,28 @@ public class PeerManagerConnectorTest {
         assertThat(peerInfo.getAddresses(), Matchers.hasSize(0));
     }
 
+    @Test
+    public void testGetPeerInfos() throws Exception {
+        Map<Identifier, PeerInfo> peerInfos = connector.getPeerInfos(Arrays.asList(Identifier.peer("1"), Identifier.peer("2")));
+        assertEquals(2, peerInfos.size());
+
+        PeerInfo peerInfo = peerInfos.get(Identifier.peer("2"));
+        assertNotNull(peerInfo);
+        assertEquals(Identifier.peer("2"), peerInfo.getId());
+        assertEquals(DeliveryPolicy.Peer.AT_LEAST_ONE, peerInfo.getDeliveryPolicy());
+    }
+
+    @Test(expected = WebApplicationException.class)
+    public void testGetPeerInfos_serverError() throws Exception {
+        connector.getPeerInfos(Arrays.asList(Identifier.peer("1"), Identifier.peer("error")));
+    }
+
+    @Test
+    public void testGetPeerInfos_notFound() throws Exception {
+        PeerManagerConnector unknown = new PeerManagerConnector(serverURL + "/unknown");
+        assertTrue(unknown.getPeerInfos(Arrays.asList(Identifier.peer("1"))).isEmpty());
+    }
+
 
     private class RESTApplication extends ResourceConfig {
         private RESTApplication() {
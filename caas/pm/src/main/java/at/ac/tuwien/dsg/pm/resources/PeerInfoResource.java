@@ -51,6 +51,28 @@ public class PeerInfoResource {
             throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).build());
         }
 
+        return createPeerInfo(peer);
+    }
+
+    /**
+     * Resolves the information of several peers with a single request.
+     *
+     * @param ids of the requested peers
+     * @return information about the peers, peers that don't exist are missing in the result
+     */
+    @POST
+    public List<PeerInfo> getPeerInfos(List<String> ids) {
+        List<PeerInfo> infos = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Peer peer = manager.getPeer(id);
+            if (peer != null) {
+                infos.add(createPeerInfo(peer));
+            }
+        }
+        return infos;
+    }
+
+    private PeerInfo createPeerInfo(Peer peer) {
         PeerInfo info = new PeerInfo();
         info.setId(Identifier.peer(peer.getId()));
         info.setDeliveryPolicy(peer.getDeliveryPolicy());
@@ -34,7 +34,9 @@ import org.junit.Test;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.Arrays;
@@ -107,6 +109,21 @@ public class PeerManagerPeerInfoResourceTest {
         assertEquals(Response.Status.NOT_FOUND.getStatusCode(), response.getStatus());
     }
 
+    @Test
+    public void testPeerInfos() throws Exception {
+        Peer peer1 = createAndAddPeer("1", "Peer1");
+        Peer peer2 = createAndAddPeer("2", "Peer2");
+
+        WebTarget target = client.target(url);
+        List<PeerInfo> peerInfos = target.request(MediaType.APPLICATION_JSON)
+                .post(Entity.json(Arrays.asList(peer1.getId(), "3", peer2.getId())), new GenericType<List<PeerInfo>>() {});
+
+        assertEquals(2, peerInfos.size());
+        assertEquals(peer1.getId(), peerInfos.get(0).getId().getId());
+        assertEquals(peer2.getId(), peerInfos.get(1).getId().getId());
+        assertEquals(peer2.getPeerAddressList().size(), peerInfos.get(1).getAddresses().size());
+    }
+
     private Peer createAndAddPeer(String id, String name) {
         Peer peer = new Peer();
         peer.setId(id);
@@ -75,6 +75,7 @@ public class Launcher {
                 .setRestApiPort(smartcomApiPort)
                 .setMessageInfoServicePort(smartcomMisPort)
                 .useLocalMessageQueue(true)
+                .useMessageReferencePassing(true)
                 .create();
         System.out.println("Running the the SmartCom rest service on port ["+smartcomApiPort+"] and path 'SmartCom'");
 
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broker monitor that samples the queues of a broker on demand. Samples are
+ * cached for the sample interval, therefore concurrent callers (e.g., the
+ * replication handlers of several listeners) share a single sample. The
+ * enqueue and dequeue rates are derived from the counters of two consecutive
+ * samples.
+ *
+ * Monitors that are created with an executor sample the queues in the background,
+ * callers never wait for a sample and get the latest one that is available instead
+ * (none until the first sample has completed). If sampling fails, the previous sample
+ * is kept and the interval until the next attempt is doubled for every consecutive
+ * failure (up to MAX_BACKOFF times the sample interval).
+ *
+ * Queues that have been requested by getQueueStatistic are observed (see isObserved),
+ * subclasses can restrict expensive parts of a sample to these queues.
+ *
+ * @version 1.0
+ */
+public abstract class AbstractBrokerMonitor implements BrokerMonitor {
+    private static final Logger log = LoggerFactory.getLogger(AbstractBrokerMonitor.class);
+
+    /**
+     * Default time in milliseconds a sample is reused
+     */
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Maximum factor of the sample interval between two attempts after failures
+     */
+    static final int MAX_BACKOFF = 32;
+
+    private final long sampleIntervalNanos;
+    private final Executor executor;
+    private final Set<String> observed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile Map<String, QueueStatistic> statistics = Collections.emptyMap();
+
+    //guarded by this
+    private long lastSample;
+    private boolean sampled = false;
+    private long lastAttempt;
+    private boolean attempted = false;
+    private boolean sampling = false;
+    private int failures = 0;
+
+    protected AbstractBrokerMonitor() {
+        this(DEFAULT_SAMPLE_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param sampleIntervalMillis time in milliseconds a sample is reused
+     */
+    protected AbstractBrokerMonitor(long sampleIntervalMillis) {
+        this(sampleIntervalMillis, null);
+    }
+
+    /**
+     * @param sampleIntervalMillis time in milliseconds a sample is reused
+     * @param executor that samples the queues in the background, null if the callers should sample them
+     */
+    protected AbstractBrokerMonitor(long sampleIntervalMillis, Executor executor) {
+        this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sampleIntervalMillis);
+        this.executor = executor;
+    }
+
+    @Override
+    public List<QueueStatistic> getQueueStatistics() {
+        refresh();
+        return new ArrayList<>(statistics.values());
+    }
+
+    @Override
+    public QueueStatistic getQueueStatistic(String queue) {
+        observed.add(queue);
+        refresh();
+        return statistics.get(queue);
+    }
+
+    /**
+     * Checks if the statistic of a queue has been requested explicitly
+     *
+     * @param queue name of the queue (see {@link BrokerMonitor})
+     * @return true if the queue is observed
+     */
+    protected boolean isObserved(String queue) {
+        return observed.contains(queue);
+    }
+
+    /**
+     * Samples the queues if the current sample is older than the sample interval
+     * (or the backoff after a failure) and no other sample is in progress.
+     */
+    private void refresh() {
+        synchronized (this) {
+            long now = System.nanoTime();
+            long interval = sampleIntervalNanos * Math.min(MAX_BACKOFF, 1L << Math.min(failures, 31));
+            if (sampling || (attempted && now - lastAttempt < interval)) {
+                return;
+            }
+            sampling = true;
+            attempted = true;
+            lastAttempt = now;
+        }
+
+        if (executor == null) {
+            update();
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    update();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Could not schedule sample of the queues, monitor has been closed");
+            synchronized (this) {
+                sampling = false;
+            }
+        }
+    }
+
+    /**
+     * Takes a new sample and calculates the rates based on the previous one.
+     */
+    private void update() {
+        long now = System.nanoTime();
+        Collection<QueueStatistic> samples = null;
+        try {
+            samples = sample();
+        } catch (Exception e) {
+            log.warn("Could not sample the queues of the broker", e);
+        }
+
+        synchronized (this) {
+            sampling = false;
+            if (samples == null) {
+                failures++;
+                return;
+            }
+            failures = 0;
+
+            double seconds = (now - lastSample) / (double) TimeUnit.SECONDS.toNanos(1);
+            Map<String, QueueStatistic> previous = statistics;
+            Map<String, QueueStatistic> current = new HashMap<>();
+            for (QueueStatistic statistic : samples) {
+                QueueStatistic last = previous.get(statistic.getName());
+                if (sampled && last != null && seconds > 0) {
+                    //counters might have been reset in the meantime
+                    statistic.setEnqueueRate(Math.max(0, statistic.getEnqueueCount() - last.getEnqueueCount()) / seconds);
+                    statistic.setDequeueRate(Math.max(0, statistic.getDequeueCount() - last.getDequeueCount()) / seconds);
+                }
+                current.put(statistic.getName(), statistic);
+            }
+
+            statistics = current;
+            lastSample = now;
+            sampled = true;
+        }
+    }
+
+    /**
+     * Samples the current state of all queues of the broker. The rates of the
+     * returned statistics are calculated by this class.
+     *
+     * @return statistics of the queues
+     * @throws Exception if the queues could not be sampled
+     */
+    protected abstract Collection<QueueStatistic> sample() throws Exception;
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thrown if a batch could only be published partially. It holds the messages of the batch
+ * that have not been published, hence the caller is able to retry them or report their
+ * delivery as failed. All other messages of the batch have been published.
+ *
+ * @version 1.0
+ */
+public class BatchPublishException extends RuntimeException {
+
+    private final Map<Identifier, List<Message>> unpublished;
+
+    /**
+     * @param cause of the failure
+     * @param unpublished messages that have not been published grouped by their receiver destination
+     *                    id, the key is null for messages of queues that are not specific to an adapter
+     */
+    public BatchPublishException(Throwable cause, Map<Identifier, List<Message>> unpublished) {
+        super(cause);
+        this.unpublished = Collections.unmodifiableMap(unpublished);
+    }
+
+    /**
+     * @return messages that have not been published grouped by their receiver destination id (null for
+     * messages of queues that are not specific to an adapter)
+     */
+    public Map<Identifier, List<Message>> getUnpublished() {
+        return unpublished;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+
+import java.util.List;
+
+/**
+ * Provides the depth, the enqueue and dequeue rates and the age of the oldest
+ * message of the queues of a message broker. Message brokers that support
+ * monitoring implement this interface in addition to {@link MessageBroker}.
+ *
+ * Queues are named independently of the broker implementation, the queues of
+ * adapters are named by the prefix followed by the id of the adapter.
+ *
+ * @version 1.0
+ */
+public interface BrokerMonitor {
+
+    public static final String INPUT_QUEUE = "input";
+    public static final String CONTROL_QUEUE = "control";
+    public static final String AUTH_QUEUE = "auth";
+    public static final String MESSAGE_INFO_QUEUE = "messageInfo";
+    public static final String METRICS_QUEUE = "metrics";
+    public static final String LOG_QUEUE = "log";
+    public static final String REQUEST_QUEUE_PREFIX = "request.";
+    public static final String TASK_QUEUE_PREFIX = "task.";
+
+    /**
+     * Returns the statistics of all queues of the broker.
+     *
+     * @return statistics of the queues
+     */
+    public List<QueueStatistic> getQueueStatistics();
+
+    /**
+     * Returns the statistic of a single queue.
+     *
+     * @param queue name of the queue
+     * @return statistic of the queue or null if the queue is not known
+     */
+    public QueueStatistic getQueueStatistic(String queue);
+}
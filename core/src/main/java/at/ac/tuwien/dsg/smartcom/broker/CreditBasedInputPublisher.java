@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Input publisher that takes a credit of the input flow control for every
+ * message before it is published to the broker.
+ *
+ * Pull adapters and push adapters that use publishMessage are slowed down by
+ * blocking them until a credit becomes available. Push adapters that use
+ * tryPublishMessage get rejected instead.
+ *
+ * @version 1.0
+ */
+public class CreditBasedInputPublisher implements FlowControlledInputPublisher {
+    private static final Logger log = LoggerFactory.getLogger(CreditBasedInputPublisher.class);
+
+    private final MessageBroker broker;
+    private final InputFlowControl flowControl;
+
+    public CreditBasedInputPublisher(MessageBroker broker, InputFlowControl flowControl) {
+        this.broker = broker;
+        this.flowControl = flowControl;
+    }
+
+    /**
+     * Publishes the message as soon as there is a credit available. If the thread
+     * gets interrupted while waiting, the message is published nevertheless to
+     * avoid losing it (exceeding the credits) and the interrupted flag is restored.
+     *
+     * @param message that has been received
+     */
+    @Override
+    public void publishInput(Message message) {
+        try {
+            flowControl.acquire();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for a credit, publishing message {} anyway", message.getId());
+            flowControl.forceAcquire();
+            Thread.currentThread().interrupt();
+        }
+        publish(message);
+    }
+
+    @Override
+    public boolean tryPublishInput(Message message) {
+        if (!flowControl.tryAcquire()) {
+            log.debug("No credits left, rejecting message {}", message.getId());
+            return false;
+        }
+        publish(message);
+        return true;
+    }
+
+    /**
+     * Publishes a message that holds a credit. The credit is returned if the
+     * message could not be published, because nobody else will return it.
+     */
+    private void publish(Message message) {
+        boolean published = false;
+        try {
+            flowControl.takeCredit(message);
+            broker.publishInput(message);
+            published = true;
+        } finally {
+            if (!published) {
+                flowControl.release();
+            }
+        }
+    }
+
+    @Override
+    public int getAvailableCredits() {
+        return flowControl.getAvailableCredits();
+    }
+}
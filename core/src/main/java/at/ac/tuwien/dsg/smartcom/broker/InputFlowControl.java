@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.model.Message;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Credit based flow control between the input adapters and the component that
+ * handles the input messages (i.e., the Messaging and Routing Manager).
+ *
+ * Every input message that is published by an adapter takes a credit (see
+ * CreditBasedInputPublisher). The credit is returned by calling release after
+ * the message has been handled. Therefore the amount of credits is an upper
+ * bound for the amount of input messages that are waiting in the broker and
+ * in the queues of the handler.
+ *
+ * The credits are local to a node but the input queue of the broker might be
+ * shared by several nodes. Therefore every message is tagged with the id of
+ * the flow control that holds its credit (see Message#getCreditOwner) and
+ * handlers return credits using release(Message), which ignores messages
+ * whose credit is held by another node. Releasing them would exceed the
+ * credits of this node, while the publishing node never gets them back either.
+ * The flow control is therefore meant for a single node that consumes the
+ * input queue, on several nodes it only prevents that credits are returned
+ * to the wrong node.
+ *
+ * @version 1.0
+ */
+public class InputFlowControl {
+
+    /**
+     * Default amount of input messages that can be in-flight
+     */
+    public static final int DEFAULT_CREDITS = 10000;
+
+    /**
+     * Interval in which blocked publishers check for credits, in case
+     * they missed a notification.
+     */
+    private static final long WAIT_INTERVAL_MILLIS = 100;
+
+    private final int credits;
+    private final String id = UUID.randomUUID().toString();
+
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicInteger waiting = new AtomicInteger(0);
+    private final Object lock = new Object();
+
+    public InputFlowControl() {
+        this(DEFAULT_CREDITS);
+    }
+
+    public InputFlowControl(int credits) {
+        if (credits <= 0) {
+            throw new IllegalArgumentException("Credits must be positive but was "+credits);
+        }
+        this.credits = credits;
+    }
+
+    /**
+     * Takes a credit if there is one available.
+     *
+     * @return true if a credit has been taken, false otherwise
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= credits) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes a credit and waits until there is one available if necessary.
+     *
+     * @throws InterruptedException if the thread has been interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        if (tryAcquire()) {
+            return;
+        }
+
+        waiting.incrementAndGet();
+        try {
+            synchronized (lock) {
+                while (!tryAcquire()) {
+                    lock.wait(WAIT_INTERVAL_MILLIS);
+                }
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes a credit even if there is none available. Used for messages that have to be
+     * published without waiting (e.g., after an interrupt), hence the credit that is
+     * returned after the message has been handled does not belong to another message.
+     */
+    void forceAcquire() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Marks the message as holder of a credit of this flow control.
+     */
+    void takeCredit(Message message) {
+        message.setCreditOwner(id);
+    }
+
+    /**
+     * Returns the credit of an input message that has been handled if the credit is held
+     * by this flow control. Messages that hold no credit or a credit of another node are
+     * ignored.
+     *
+     * @param message that has been handled
+     */
+    public void release(Message message) {
+        if (id.equals(message.getCreditOwner())) {
+            release();
+        }
+    }
+
+    /**
+     * Returns a credit of an input message that has been handled. Blocked publishers
+     * will be notified that there is a new credit available.
+     */
+    public void release() {
+        while (true) {
+            int current = inFlight.get();
+            if (current <= 0) {
+                //there is no credit in use that could be returned
+                return;
+            }
+            if (inFlight.compareAndSet(current, current - 1)) {
+                break;
+            }
+        }
+
+        if (waiting.get() > 0) {
+            synchronized (lock) {
+                lock.notify();
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of credits that are currently available
+     *
+     * @return available credits
+     */
+    public int getAvailableCredits() {
+        return Math.max(0, credits - inFlight.get());
+    }
+
+    /**
+     * Returns the maximum amount of credits
+     *
+     * @return maximum amount of credits
+     */
+    public int getCredits() {
+        return credits;
+    }
+
+    /**
+     * Returns the id that identifies the credits of this flow control in input messages
+     *
+     * @return id of the flow control
+     */
+    public String getId() {
+        return id;
+    }
+}
@@ -20,6 +20,10 @@ package at.ac.tuwien.dsg.smartcom.broker;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A broker that will be used to send messages using a queue or a
  * similar mechanism. Will only be used internally.
@@ -37,6 +41,17 @@ public interface MessageBroker extends InputPublisher {
      */
     public Message receiveInput();
 
+    /**
+     * Receives a batch of input messages. Waits at most for the given timeout until
+     * there is a message available and returns up to maxMessages messages that are
+     * available at that point. The messages of a batch are acknowledged at once.
+     *
+     * @param maxMessages maximum number of messages of the batch
+     * @param timeout maximum time in milliseconds to wait for the first message
+     * @return the messages in the order of the queue, an empty list if the timeout elapsed
+     */
+    public List<Message> receiveInputBatch(int maxMessages, long timeout);
+
     /**
      * Register a message listener that will be notified on the arrival of
      * new input messages. Note that a message listener will consume the message
@@ -47,6 +62,16 @@ public interface MessageBroker extends InputPublisher {
      */
     public CancelableListener registerInputListener(MessageListener listener);
 
+    /**
+     * Publish an input message asynchronously. The returned future completes
+     * when the broker has accepted the message or completes exceptionally if
+     * the message could not be published.
+     *
+     * @param message that has been received
+     * @return future that completes once the message has been published
+     */
+    public CompletableFuture<Void> publishInputAsync(Message message);
+
     /**
      * Receives request messages for a given id. Might block until there
      * is a message available.
@@ -56,6 +81,17 @@ public interface MessageBroker extends InputPublisher {
      */
     public Message receiveRequests(Identifier id);
 
+    /**
+     * Receives a batch of request messages for a given id
+     * (see {@link #receiveInputBatch(int, long)}).
+     *
+     * @param id that the request messages are assigned to
+     * @param maxMessages maximum number of messages of the batch
+     * @param timeout maximum time in milliseconds to wait for the first message
+     * @return the messages in the order of the queue, an empty list if the timeout elapsed
+     */
+    public List<Message> receiveRequestsBatch(Identifier id, int maxMessages, long timeout);
+
     /**
      * Register a message listener that will be notified on the arrival of
      * new request messages for a given receiver. Note that a message listener
@@ -75,6 +111,16 @@ public interface MessageBroker extends InputPublisher {
      */
     public void publishRequest(Identifier id, Message message);
 
+    /**
+     * Publish a new request message for a given id asynchronously
+     * (see {@link #publishInputAsync(Message)}).
+     *
+     * @param id that the messages is dedicated to
+     * @param message that should be published
+     * @return future that completes once the message has been published
+     */
+    public CompletableFuture<Void> publishRequestAsync(Identifier id, Message message);
+
     /**
      * Receives output messages for a given id. Might block until there
      * is a message available.
@@ -84,6 +130,17 @@ public interface MessageBroker extends InputPublisher {
      */
     public Message receiveOutput(Identifier id);
 
+    /**
+     * Receives a batch of output messages for a given id
+     * (see {@link #receiveInputBatch(int, long)}).
+     *
+     * @param id that the task messages are assigned to
+     * @param maxMessages maximum number of messages of the batch
+     * @param timeout maximum time in milliseconds to wait for the first message
+     * @return the messages in the order of the queue, an empty list if the timeout elapsed
+     */
+    public List<Message> receiveOutputBatch(Identifier id, int maxMessages, long timeout);
+
     /**
      * Register a message listener that will be notified on the arrival of
      * new output messages for a given receiver. Note that a message listener
@@ -106,6 +163,27 @@ public interface MessageBroker extends InputPublisher {
      */
     public void publishOutput(Identifier id, Message message);
 
+    /**
+     * Publish an output message for a given receiver destination id asynchronously
+     * (see {@link #publishInputAsync(Message)}).
+     *
+     * @param id of the receiver destination
+     * @param message that should be published
+     * @return future that completes once the message has been published
+     */
+    public CompletableFuture<Void> publishOutputAsync(Identifier id, Message message);
+
+    /**
+     * Publish a batch of output messages. The messages are grouped by their receiver
+     * destination id (see {@link #publishOutput(Identifier, Message)}). Implementations
+     * may use fewer round trips to the underlying broker than publishing every message
+     * on its own. The order of the messages per receiver destination id is preserved.
+     *
+     * @param messages output messages grouped by the id of the receiver destination
+     * @throws BatchPublishException if only a part of the messages has been published
+     */
+    public void publishOutputBatch(Map<Identifier, List<Message>> messages);
+
     /**
      * Publish a control message.
      *
@@ -113,6 +191,22 @@ public interface MessageBroker extends InputPublisher {
      */
     public void publishControl(Message message);
 
+    /**
+     * Publish a control message asynchronously (see {@link #publishInputAsync(Message)}).
+     *
+     * @param message control message
+     * @return future that completes once the message has been published
+     */
+    public CompletableFuture<Void> publishControlAsync(Message message);
+
+    /**
+     * Publish a batch of control messages in the given order.
+     *
+     * @param messages control messages
+     * @throws BatchPublishException if only a part of the messages has been published
+     */
+    public void publishControlBatch(List<Message> messages);
+
     /**
      * Receives control messages. Might block until there
      * is a message available.
@@ -138,6 +232,14 @@ public interface MessageBroker extends InputPublisher {
      */
     public void publishAuthRequest(Message message);
 
+    /**
+     * Publish authentication request message asynchronously (see {@link #publishInputAsync(Message)}).
+     *
+     * @param message that should be published
+     * @return future that completes once the message has been published
+     */
+    public CompletableFuture<Void> publishAuthRequestAsync(Message message);
+
     /**
      * Receives authentication messages. Might block until there
      * is a message available.
@@ -163,6 +265,14 @@ public interface MessageBroker extends InputPublisher {
      */
     public void publishMessageInfoRequest(Message message);
 
+    /**
+     * publish message info request message asynchronously (see {@link #publishInputAsync(Message)}).
+     *
+     * @param message that should be published
+     * @return future that completes once the message has been published
+     */
+    public CompletableFuture<Void> publishMessageInfoRequestAsync(Message message);
+
     /**
      * Receives message info request messages. Might block until there
      * is a message available.
@@ -188,6 +298,14 @@ public interface MessageBroker extends InputPublisher {
      */
     public void publishMetricsRequest(Message message);
 
+    /**
+     * publishes a metrics request message asynchronously (see {@link #publishInputAsync(Message)}).
+     *
+     * @param message that should be published
+     * @return future that completes once the message has been published
+     */
+    public CompletableFuture<Void> publishMetricsRequestAsync(Message message);
+
     /**
      * Receives metrics request messages. Might block until there
      * is a message available.
@@ -213,6 +331,22 @@ public interface MessageBroker extends InputPublisher {
      */
     public void publishLog(Message message);
 
+    /**
+     * publishes a log message asynchronously (see {@link #publishInputAsync(Message)}).
+     *
+     * @param message that should be published
+     * @return future that completes once the message has been published
+     */
+    public CompletableFuture<Void> publishLogAsync(Message message);
+
+    /**
+     * publishes a batch of log messages in the given order
+     *
+     * @param messages that should be published
+     * @throws BatchPublishException if only a part of the messages has been published
+     */
+    public void publishLogBatch(List<Message> messages);
+
     /**
      * Receives log messages. Might block until there
      * is a message available.
@@ -221,6 +355,15 @@ public interface MessageBroker extends InputPublisher {
      */
     public Message receiveLog();
 
+    /**
+     * Receives a batch of log messages (see {@link #receiveInputBatch(int, long)}).
+     *
+     * @param maxMessages maximum number of messages of the batch
+     * @param timeout maximum time in milliseconds to wait for the first message
+     * @return the messages in the order of the queue, an empty list if the timeout elapsed
+     */
+    public List<Message> receiveLogBatch(int maxMessages, long timeout);
+
     /**
      * Register a message listener that will be notified on the arrival of
      * new log messages. Note that a message listener will consume the message
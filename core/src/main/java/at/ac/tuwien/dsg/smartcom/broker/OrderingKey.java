@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.model.Message;
+
+/**
+ * Determines the key of a message whose messages have to be handled in the order
+ * they have been received (e.g., messages of the same conversation).
+ * Messages with different keys may be handled in parallel.
+ *
+ * @version 1.0
+ */
+public interface OrderingKey {
+
+    /**
+     * Messages of the same conversation are handled in order
+     */
+    OrderingKey CONVERSATION = new OrderingKey() {
+        @Override
+        public Object getKey(Message message) {
+            return message.getConversationId();
+        }
+    };
+
+    /**
+     * Messages to the same receiver are handled in order
+     */
+    OrderingKey RECEIVER = new OrderingKey() {
+        @Override
+        public Object getKey(Message message) {
+            return message.getReceiverId();
+        }
+    };
+
+    /**
+     * @param message that should be handled
+     * @return the ordering key of the message or null if the message can be handled in any order
+     */
+    Object getKey(Message message);
+}
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Shared scheduler for the replicas of all replicating message listeners. The replicas
+ * run as tasks on a common thread pool whose size is the global thread budget, instead
+ * of having dedicated threads per listener.
+ *
+ * Every listener registers a share of the budget. The share guarantees the listener a
+ * minimum amount of replicas and limits it to a maximum that is proportional to its
+ * weight. Replicas beyond the minimum are granted only as long as the minimums of all
+ * other shares are still covered by the budget (bulkheads), so that a single listener
+ * under high load can't starve the others.
+ *
+ * If the minimums of all shares exceed the budget (e.g., many adapters with a listener
+ * each), the thread pool grows beyond the budget to cover them, otherwise the minimum
+ * replicas would wait in the queue of the pool behind replicas that block. Replicas
+ * beyond the minimums are not granted as long as the minimums exceed the budget.
+ *
+ * The replication rounds of the listeners run on a single timer thread of the scheduler.
+ *
+ * @version 1.0
+ */
+public class ReplicaScheduler {
+    private static final Logger log = LoggerFactory.getLogger(ReplicaScheduler.class);
+
+    /**
+     * Default size of the global thread budget
+     */
+    public static final int DEFAULT_THREADS = Math.max(32, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+    private int poolSize; //guarded by this
+    private final ScheduledExecutorService timer;
+    private final List<Share> shares = new ArrayList<>();
+
+    public ReplicaScheduler() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * @param threads global thread budget of all replicas
+     */
+    public ReplicaScheduler(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive but was " + threads);
+        }
+        this.threads = threads;
+        this.poolSize = threads;
+
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("REPLICA-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("REPLICATION-TIMER-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Registers a share of the thread budget. The thread pool grows if the minimums of
+     * all shares exceed the budget.
+     *
+     * @param name of the share, used for logging
+     * @param minReplicas replicas that are guaranteed to the share
+     * @param maxReplicas upper bound of the replicas of the share, regardless of its weight
+     * @param weight of the share in relation to the other shares
+     * @return the share
+     */
+    public synchronized Share register(String name, int minReplicas, int maxReplicas, int weight) {
+        if (minReplicas < 1 || maxReplicas < minReplicas || weight < 1) {
+            throw new IllegalArgumentException("Invalid share " + name + " (min " + minReplicas + ", max " + maxReplicas + ", weight " + weight + ")");
+        }
+
+        Share share = new Share(name, minReplicas, maxReplicas, weight);
+        shares.add(share);
+        resizePool();
+        return share;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return the current size of the thread pool, the budget or the sum of the minimums of all shares if it is larger
+     */
+    public synchronized int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Adapts the thread pool so that there is a thread for every granted replica.
+     */
+    private void resizePool() {
+        int minimums = 0;
+        for (Share share : shares) {
+            minimums += share.minReplicas;
+        }
+
+        int size = Math.max(threads, minimums);
+        if (size == poolSize) {
+            return;
+        }
+        if (size > poolSize) {
+            log.info("Minimum replicas of all shares exceed the thread budget of {} threads, growing the pool to {} threads", threads, size);
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+        poolSize = size;
+    }
+
+    private int getReserved() {
+        int reserved = 0;
+        for (Share share : shares) {
+            reserved += Math.max(share.granted, share.minReplicas);
+        }
+        return reserved;
+    }
+
+    private int getTotalWeight() {
+        int weight = 0;
+        for (Share share : shares) {
+            weight += share.weight;
+        }
+        return weight;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Share of the thread budget that belongs to a single listener.
+     */
+    public class Share {
+        private final String name;
+        private final int minReplicas;
+        private final int maxReplicas;
+        private final int weight;
+
+        private int granted = 0; //guarded by the scheduler
+
+        private Share(String name, int minReplicas, int maxReplicas, int weight) {
+            this.name = name;
+            this.minReplicas = minReplicas;
+            this.maxReplicas = maxReplicas;
+            this.weight = weight;
+        }
+
+        /**
+         * Requests additional replicas.
+         *
+         * @param replicas amount of additional replicas
+         * @return the amount of replicas that have been granted, might be less than requested
+         */
+        public int acquire(int replicas) {
+            synchronized (ReplicaScheduler.this) {
+                int limit = getLimit();
+                int available = threads - (getReserved() - Math.max(granted, minReplicas));
+                int amount = Math.max(0, Math.min(replicas, Math.max(minReplicas, Math.min(limit, available)) - granted));
+                granted += amount;
+                return amount;
+            }
+        }
+
+        /**
+         * Returns replicas that are not needed anymore.
+         *
+         * @param replicas amount of replicas
+         */
+        public void release(int replicas) {
+            synchronized (ReplicaScheduler.this) {
+                granted = Math.max(0, granted - replicas);
+            }
+        }
+
+        /**
+         * @return the maximum amount of replicas of this share based on its weight
+         */
+        public int getLimit() {
+            synchronized (ReplicaScheduler.this) {
+                int weighted = (int) ((long) threads * weight / getTotalWeight());
+                return Math.min(maxReplicas, Math.max(minReplicas, weighted));
+            }
+        }
+
+        public int getGranted() {
+            synchronized (ReplicaScheduler.this) {
+                return granted;
+            }
+        }
+
+        /**
+         * Runs a task of a replica on the shared thread pool.
+         *
+         * @param task of the replica
+         */
+        public void execute(Runnable task) {
+            executor.execute(task);
+        }
+
+        /**
+         * Runs the replication round of the listener in a fixed interval.
+         *
+         * @param round replication round
+         * @param interval between two rounds
+         * @param unit of the interval
+         * @return future that can be used to cancel the rounds
+         */
+        public ScheduledFuture<?> scheduleRounds(final Runnable round, long interval, TimeUnit unit) {
+            return timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        round.run();
+                    } catch (RuntimeException e) {
+                        log.error("Replication round of {} failed", name, e);
+                    }
+                }
+            }, interval, interval, unit);
+        }
+
+        /**
+         * Removes the share from the scheduler, all its replicas are released.
+         */
+        public void unregister() {
+            synchronized (ReplicaScheduler.this) {
+                shares.remove(this);
+                granted = 0;
+                resizePool();
+            }
+        }
+    }
+}
@@ -21,27 +21,46 @@ import at.ac.tuwien.dsg.smartcom.broker.policy.ReplicationPolicy;
 import at.ac.tuwien.dsg.smartcom.broker.policy.ReplicationPolicyResult;
 import at.ac.tuwien.dsg.smartcom.broker.policy.TresholdReplicationPolicy;
 import at.ac.tuwien.dsg.smartcom.model.Message;
-import at.ac.tuwien.dsg.smartcom.utils.ExpiringCounter;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+import at.ac.tuwien.dsg.smartcom.utils.SlidingWindowCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * MessageListener that handles the scalability of a message listener by replicating
  * it when there is a high load and by removing replicas when there is a low load.
  *
- * It keeps an internal queue of messages which will be consumed by the replicas. A
+ * It keeps an internal queue of messages which will be consumed by the replicas. The
+ * queue is bounded by a limit per replica, producers are blocked if the queue is full
+ * and resumed as soon as a replica took a message from the queue. A
  * replication handler will be called in certain intervals and decides based on
  * the replication policy whether to scale up, down or do not do anyhting at all.
  *
- * The creating of replicas is handled by a replication factory.
+ * The creating of replicas is handled by a replication factory. Replicas don't own a
+ * thread, they run as tasks on a {@link ReplicaScheduler} that might be shared with other
+ * listeners and grants replicas within its thread budget. A replica handles the messages
+ * of the queue until it is empty and yields its thread after a number of messages, so
+ * that replicas of other listeners get their turn.
+ *
+ * If an ordering key is defined, messages are partitioned by their key onto a fixed
+ * number of lanes. A lane is handled by at most one replica at a time, therefore messages
+ * with the same key are handled in the order they have been received, while messages with
+ * different keys are handled in parallel. Replicas claim lanes dynamically, so adding or
+ * removing replicas never moves a key while it still has messages in flight.
+ *
+ * If the broker supports monitoring, the backlog of the broker queue that is
+ * consumed by the listener is passed to the replication policy as well.
  *
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @version 1.0
  */
 public class ReplicatingMessageListener implements MessageListener {
+    private static final Logger log = LoggerFactory.getLogger(ReplicatingMessageListener.class);
     private static final AtomicInteger instanceCounter = new AtomicInteger(0);
 
     /**
@@ -56,24 +75,51 @@ public class ReplicatingMessageListener implements MessageListener {
     private static final int COUNTER_TIMER_SECONDS = 10;
 
     /**
-     * Defines the maximum amount of replicas
+     * Defines the default maximum amount of replicas
+     */
+    public static final int DEFAULT_MAX_REPLICAS = 30;
+
+    /**
+     * Defines the amount of messages a replica handles before it yields its thread
      */
-    private static final int MAX_UPSCALE = 30;
+    private static final int MESSAGES_PER_TURN = 100;
 
-    private final ExpiringCounter replicaCounter;
-    private final ExpiringCounter handledCounter;
+    /**
+     * Defines the amount of lanes if messages have to be ordered (has to be a power of two)
+     */
+    private static final int ORDERING_LANES = 128;
+
+    private final SlidingWindowCounter replicaCounter;
+    private final SlidingWindowCounter handledCounter;
+    private final SlidingWindowCounter serviceTimeCounter; //nanoseconds spent for handling messages
     private final BlockingDeque<Message> messageQueue;
-    private final Queue<ReplicaHandler> handlerQueue;
+    private final QueueCapacity capacity;
+    private final Queue<Replica> idleReplicas;
+
+    private final OrderingKey orderingKey; //null if messages can be handled in any order
+    private final Lane[] lanes;
+    private final Queue<Lane> readyLanes; //lanes with messages that are not handled by a replica
+    private final AtomicInteger pending = new AtomicInteger(0); //messages in the lanes
 
-    private final ExecutorService executor;
-    private final ReplicationTimer replicationTimer;
+    private final AtomicInteger replicas = new AtomicInteger(0);
+    private final AtomicInteger retiring = new AtomicInteger(0); //replicas that stop after their current message
+    private volatile boolean stopped = false;
+
+    private final ReplicaScheduler scheduler;
+    private final boolean ownScheduler;
+    private final ReplicaScheduler.Share share;
+    private final ScheduledFuture<?> replicationRounds;
 
     private final String name;
     private final ReplicationFactory factory;
     private final ReplicationPolicy policy;
+    private final int maxReplicas;
 
     private final AtomicInteger counter = new AtomicInteger(0);
 
+    private volatile BrokerMonitor brokerMonitor;
+    private volatile String brokerQueue;
+
     public ReplicatingMessageListener(MessageListener listener, ReplicationFactory factory) {
         this(String.valueOf(instanceCounter.getAndIncrement()), listener, factory, new TresholdReplicationPolicy());
     }
@@ -83,154 +129,444 @@ public class ReplicatingMessageListener implements MessageListener {
     }
 
     public ReplicatingMessageListener(String name, MessageListener listener, ReplicationFactory factory, ReplicationPolicy policy) {
+        this(name, listener, factory, policy, DEFAULT_MAX_REPLICAS);
+    }
+
+    /**
+     * Creates a listener that uses its own scheduler with a thread for each replica.
+     *
+     * @param name of the listener, used for logging
+     * @param listener initial replica
+     * @param factory that creates further replicas
+     * @param policy that decides when to add or remove replicas
+     * @param maxReplicas maximum number of replicas of this listener
+     */
+    public ReplicatingMessageListener(String name, MessageListener listener, ReplicationFactory factory, ReplicationPolicy policy, int maxReplicas) {
+        this(name, listener, factory, policy, new ReplicaScheduler(maxReplicas), true, maxReplicas, 1, null);
+    }
+
+    /**
+     * Creates a listener whose replicas run on a shared scheduler.
+     *
+     * @param name of the listener, used for logging
+     * @param listener initial replica
+     * @param factory that creates further replicas
+     * @param policy that decides when to add or remove replicas
+     * @param scheduler that runs the replicas
+     */
+    public ReplicatingMessageListener(String name, MessageListener listener, ReplicationFactory factory, ReplicationPolicy policy, ReplicaScheduler scheduler) {
+        this(name, listener, factory, policy, scheduler, DEFAULT_MAX_REPLICAS, 1);
+    }
+
+    /**
+     * Creates a listener whose replicas run on a shared scheduler.
+     *
+     * @param name of the listener, used for logging
+     * @param listener initial replica
+     * @param factory that creates further replicas
+     * @param policy that decides when to add or remove replicas
+     * @param scheduler that runs the replicas
+     * @param maxReplicas maximum number of replicas of this listener
+     * @param weight of the listener's share of the thread budget of the scheduler
+     */
+    public ReplicatingMessageListener(String name, MessageListener listener, ReplicationFactory factory, ReplicationPolicy policy,
+                                      ReplicaScheduler scheduler, int maxReplicas, int weight) {
+        this(name, listener, factory, policy, scheduler, false, maxReplicas, weight, null);
+    }
+
+    /**
+     * Creates a listener whose replicas run on a shared scheduler and that handles messages
+     * with the same ordering key in the order they have been received.
+     *
+     * @param name of the listener, used for logging
+     * @param listener initial replica
+     * @param factory that creates further replicas
+     * @param policy that decides when to add or remove replicas
+     * @param scheduler that runs the replicas
+     * @param maxReplicas maximum number of replicas of this listener
+     * @param weight of the listener's share of the thread budget of the scheduler
+     * @param orderingKey that determines the messages that have to be handled in order
+     */
+    public ReplicatingMessageListener(String name, MessageListener listener, ReplicationFactory factory, ReplicationPolicy policy,
+                                      ReplicaScheduler scheduler, int maxReplicas, int weight, OrderingKey orderingKey) {
+        this(name, listener, factory, policy, scheduler, false, maxReplicas, weight, orderingKey);
+    }
+
+    private ReplicatingMessageListener(String name, MessageListener listener, ReplicationFactory factory, ReplicationPolicy policy,
+                                       ReplicaScheduler scheduler, boolean ownScheduler, int maxReplicas, int weight,
+                                       OrderingKey orderingKey) {
+        if (maxReplicas < 1) {
+            throw new IllegalArgumentException("At least one replica is required");
+        }
         this.name = name;
         this.factory = factory;
         this.policy = policy;
+        this.maxReplicas = maxReplicas;
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
 
-        replicaCounter = new ExpiringCounter(10, TimeUnit.SECONDS);
-        handledCounter = new ExpiringCounter(10, TimeUnit.SECONDS);
+        replicaCounter = new SlidingWindowCounter(COUNTER_TIMER_SECONDS, TimeUnit.SECONDS);
+        handledCounter = new SlidingWindowCounter(COUNTER_TIMER_SECONDS, TimeUnit.SECONDS);
+        serviceTimeCounter = new SlidingWindowCounter(COUNTER_TIMER_SECONDS, TimeUnit.SECONDS);
         messageQueue = new LinkedBlockingDeque<>();
-        handlerQueue = new LinkedBlockingDeque<>();
+        capacity = new QueueCapacity();
+        idleReplicas = new ConcurrentLinkedQueue<>();
+
+        this.orderingKey = orderingKey;
+        if (orderingKey != null) {
+            lanes = new Lane[ORDERING_LANES];
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new Lane();
+            }
+        } else {
+            lanes = null;
+        }
+        readyLanes = new ConcurrentLinkedQueue<>();
+
+        share = scheduler.register(name, 1, maxReplicas, weight);
+        share.acquire(1); //the first replica is guaranteed
+        addReplica(listener);
+
+        replicationRounds = share.scheduleRounds(new Runnable() {
+            @Override
+            public void run() {
+                replicate();
+            }
+        }, COUNTER_TIMER_SECONDS, TimeUnit.SECONDS);
+    }
 
-        String format = "REPLICA-"+name+"-%d";
-        executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat(format).build());
+    /**
+     * Observe the broker queue that is consumed by this listener. Has no effect
+     * if the broker does not support monitoring.
+     *
+     * @param broker that delivers the messages to this listener
+     * @param queue name of the queue (see {@link BrokerMonitor})
+     */
+    public void observeBrokerQueue(MessageBroker broker, String queue) {
+        if (broker instanceof BrokerMonitor) {
+            this.brokerQueue = queue;
+            this.brokerMonitor = (BrokerMonitor) broker;
+        }
+    }
 
-        replicationTimer = new ReplicationTimer();
-        executor.submit(replicationTimer);
-        scaleUp(listener);
+    /**
+     * @return the amount of replicas of this listener
+     */
+    public int getReplicas() {
+        return replicas.get();
     }
 
     public void shutdown() {
-        replicaCounter.destroy();
-        handledCounter.destroy();
+        stopped = true;
+        replicationRounds.cancel(false);
+        share.unregister();
 
-        replicationTimer.stop();
-        for (ReplicaHandler replicaHandler : handlerQueue) {
-            replicaHandler.stop();
-        }
+        //nobody consumes the queue anymore, release blocked producers
+        capacity.release(Integer.MAX_VALUE / 2);
 
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
-                executor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            executor.shutdownNow();
+        if (ownScheduler) {
+            scheduler.shutdown();
         }
     }
 
+    /**
+     * Adds the message to the internal queue. Blocks if the queue has reached its limit
+     * until one of the replicas took a message from the queue.
+     *
+     * @param message that should be handled
+     */
     @Override
     public void onMessage(Message message) {
-        counter.incrementAndGet();
+        int number = counter.incrementAndGet();
         replicaCounter.increase();
-        messageQueue.add(message);
 
-        waitIfQueueIsTooFull();
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            //don't lose the message, the replica will release the permit that has not been acquired
+            capacity.shrink(1);
+            Thread.currentThread().interrupt();
+        }
+        if (orderingKey == null) {
+            messageQueue.add(message);
+        } else {
+            getLane(message, number).add(message);
+        }
+
+        dispatch();
     }
 
-    void waitIfQueueIsTooFull() {
-        if (messageQueue.size() > QUEUE_SIZE_LIMIT_PER_LISTENER *handlerQueue.size()) {
-            try {
-                synchronized (this) {
-                    wait(1000);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Determines the lane of a message. Messages without an ordering key are
+     * distributed over all lanes.
+     */
+    private Lane getLane(Message message, int number) {
+        Object key = orderingKey.getKey(message);
+
+        int hash = number;
+        if (key != null) {
+            hash = key.hashCode();
+            hash ^= (hash >>> 16);
         }
+        return lanes[hash & (lanes.length - 1)];
     }
 
-    private class ReplicationTimer implements Runnable {
+    private int getPending() {
+        return orderingKey == null ? messageQueue.size() : pending.get();
+    }
 
-        private boolean run = true;
+    private boolean hasPending() {
+        return orderingKey == null ? !messageQueue.isEmpty() : !readyLanes.isEmpty();
+    }
 
-        protected void stop() {
-            run = false;
+    /**
+     * Starts an idle replica if there is one.
+     */
+    private void dispatch() {
+        Replica replica = idleReplicas.poll();
+        if (replica != null) {
+            execute(replica);
         }
+    }
 
-        @Override
-        public void run() {
-            while (!Thread.currentThread().isInterrupted() && run) {
-                synchronized (this) {
-                    try {
-                        wait(TimeUnit.SECONDS.toMillis(COUNTER_TIMER_SECONDS));
-                    } catch (InterruptedException e) {
-                        continue;
-                    }
-                }
+    private void execute(Replica replica) {
+        try {
+            share.execute(replica);
+        } catch (RejectedExecutionException e) {
+            log.debug("Scheduler of listener {} does not accept replicas anymore", name);
+        }
+    }
 
-                ReplicationPolicyResult policyResult = policy.determineReplicationPolicy(replicaCounter.getCounter(),
-                        handlerQueue.size(), messageQueue.size(), handledCounter.getCounter());
+    /**
+     * Replication round that asks the replication policy whether replicas should be added or removed.
+     * Runs in a fixed interval on the timer of the scheduler.
+     */
+    void replicate() {
+        if (stopped) {
+            return;
+        }
 
-                switch(policyResult.getType()) {
-                    case UPSCALE:
-                        int times = policyResult.getAmount();
-                        int remain = Math.min(MAX_UPSCALE - handlerQueue.size(), times);
+        int handlers = replicas.get();
+        ReplicationPolicyResult policyResult = policy.determineReplicationPolicy(replicaCounter.getCounter(),
+                handlers, getPending(), handledCounter.getCounter(), getBrokerQueueStatistic(),
+                serviceTimeCounter.getSum(), serviceTimeCounter.getWindowMillis());
 
-                        if (remain > 0) {
-//                            System.out.println("UPSCALE "+name+" x" + remain + " (" + handlerQueue.size() + " Instances)");
+        switch(policyResult.getType()) {
+            case UPSCALE:
+                int remain = Math.min(maxReplicas - handlers, policyResult.getAmount());
 
-                            for (int i = 0; i < remain; i++) {
-                                scaleUp(factory.createReplication());
-                            }
-                        }
-                        break;
+                if (remain > 0) {
+                    int granted = share.acquire(remain);
+                    log.debug("Listener {}: adding {} of {} replicas ({} replicas)", name, granted, remain, handlers);
 
-                    case DOWNSCALE:
-                        times = policyResult.getAmount();
-                        remain = Math.min(handlerQueue.size() - 1, times);
+                    for (int i = 0; i < granted; i++) {
+                        addReplica(factory.createReplication());
+                    }
+                }
+                break;
 
-                        if (remain > 0) {
-//                            System.out.println("DOWNSCALE "+name+" x" + remain + " (" + handlerQueue.size() + " Instances)");
+            case DOWNSCALE:
+                remain = Math.min(handlers - 1, policyResult.getAmount());
 
-                            for (int i = 0; i < remain; i++) {
-                                scaleDown();
-                            }
-                        }
-                        break;
+                if (remain > 0) {
+                    log.debug("Listener {}: removing {} replicas ({} replicas)", name, remain, handlers);
 
-                    case NOSCALE:
-                        //do nothing
-                        break;
+                    for (int i = 0; i < remain; i++) {
+                        removeReplica();
+                    }
                 }
-            }
+                break;
+
+            case NOSCALE:
+                //do nothing
+                break;
         }
     }
 
-    private void scaleDown() {
-        ReplicaHandler handler = handlerQueue.poll();
-        handler.stop();
+    private QueueStatistic getBrokerQueueStatistic() {
+        BrokerMonitor monitor = brokerMonitor;
+        if (monitor == null) {
+            return null;
+        }
+        return monitor.getQueueStatistic(brokerQueue);
     }
 
-    private void scaleUp(MessageListener replication) {
-        ReplicaHandler handler = new ReplicaHandler(replication);
-        handlerQueue.add(handler);
-        executor.submit(handler);
+    private void addReplica(MessageListener replication) {
+        replicas.incrementAndGet();
+        capacity.release(QUEUE_SIZE_LIMIT_PER_LISTENER);
+        idleReplicas.add(new Replica(replication));
+
+        if (hasPending()) {
+            dispatch();
+        }
     }
 
-    private class ReplicaHandler implements Runnable {
+    private void removeReplica() {
+        replicas.decrementAndGet();
+        capacity.shrink(QUEUE_SIZE_LIMIT_PER_LISTENER);
 
-        private final MessageListener listener;
-        private boolean run = true;
+        Replica idle = idleReplicas.poll();
+        if (idle != null) {
+            share.release(1);
+            return;
+        }
 
-        private ReplicaHandler(MessageListener listener) {
-            this.listener = listener;
+        //all replicas are busy, one of them stops after its current message
+        retiring.incrementAndGet();
+
+        //a replica might have become idle in the meantime
+        idle = idleReplicas.poll();
+        if (idle != null && !retire()) {
+            idleReplicas.add(idle);
         }
+    }
 
-        protected void stop() {
-            run = false;
+    /**
+     * Retires the calling replica if a replica should be removed.
+     *
+     * @return true if the replica has been retired
+     */
+    private boolean retire() {
+        int current;
+        while ((current = retiring.get()) > 0) {
+            if (retiring.compareAndSet(current, current - 1)) {
+                share.release(1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class Replica implements Runnable {
+
+        private final MessageListener listener;
+        private Lane lane; //lane that is currently handled by this replica
+
+        private Replica(MessageListener listener) {
+            this.listener = listener;
         }
 
         @Override
         public void run() {
-            while (!Thread.currentThread().isInterrupted() && run) {
+            for (int i = 0; i < MESSAGES_PER_TURN; i++) {
+                if (stopped || retire()) {
+                    //hand over the lane to the other replicas
+                    if (releaseLane()) {
+                        dispatch();
+                    }
+                    return;
+                }
+
+                Message message = poll();
+                if (message == null) {
+                    idleReplicas.add(this);
+
+                    //a message might have been added before this replica became idle
+                    if (hasPending() && idleReplicas.remove(this)) {
+                        continue;
+                    }
+                    return;
+                }
+
+                capacity.release();
+                handledCounter.increase();
+
+                long start = System.nanoTime();
                 try {
-                    handledCounter.increase();
-                    this.listener.onMessage(messageQueue.take());
-                } catch (InterruptedException e) {
-                    break;
+                    this.listener.onMessage(message);
+                } catch (RuntimeException e) {
+                    log.error("Listener {}: replica failed to handle message {}", name, message, e);
+                } finally {
+                    serviceTimeCounter.add(System.nanoTime() - start);
+                }
+            }
+
+            //yield the thread and the lane to other replicas
+            releaseLane();
+            execute(this);
+        }
+
+        private Message poll() {
+            if (orderingKey == null) {
+                return messageQueue.poll();
+            }
+
+            while (true) {
+                if (lane == null && (lane = readyLanes.poll()) == null) {
+                    return null;
+                }
+
+                Message message = lane.poll();
+                if (message != null) {
+                    return message;
                 }
+                releaseLane();
             }
         }
+
+        /**
+         * @return true if the lane still has messages and has been handed over to the other replicas
+         */
+        private boolean releaseLane() {
+            if (lane == null) {
+                return false;
+            }
+
+            boolean ready = lane.release();
+            lane = null;
+            return ready;
+        }
+    }
+
+    /**
+     * Messages of the same ordering key, handled by at most one replica at a time.
+     */
+    private class Lane {
+        private final Queue<Message> messages = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean claimed = new AtomicBoolean(false); //true if ready or handled by a replica
+
+        private void add(Message message) {
+            pending.incrementAndGet();
+            messages.add(message);
+            schedule();
+        }
+
+        private Message poll() {
+            Message message = messages.poll();
+            if (message != null) {
+                pending.decrementAndGet();
+            }
+            return message;
+        }
+
+        private boolean release() {
+            claimed.set(false);
+            return schedule();
+        }
+
+        /**
+         * Makes the lane available to the replicas if it has messages and is not handled already.
+         */
+        private boolean schedule() {
+            if (!messages.isEmpty() && claimed.compareAndSet(false, true)) {
+                readyLanes.add(this);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Free slots of the internal queue, the capacity grows and shrinks with the replicas.
+     */
+    private static class QueueCapacity extends Semaphore {
+
+        private QueueCapacity() {
+            super(0);
+        }
+
+        private void shrink(int slots) {
+            reducePermits(slots);
+        }
     }
 }
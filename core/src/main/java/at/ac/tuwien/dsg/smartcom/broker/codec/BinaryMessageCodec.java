@@ -0,0 +1,445 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.codec;
+
+import at.ac.tuwien.dsg.smartcom.model.ContentCompression;
+import at.ac.tuwien.dsg.smartcom.model.DeliveryPolicy;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.IdentifierType;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary message codec. Every field of a message is written as a tag
+ * (field number and wire type) followed by its value, fields that are not set
+ * are omitted. Numbers are written as variable length integers and strings as
+ * their length followed by the UTF-8 bytes. Predefined types and subtypes
+ * (see {@link PredefinedMessageHelper}) are written as an index into a table
+ * instead of the string itself.
+ *
+ * Contents that exceed the compression threshold are written compressed (see
+ * {@link ContentCompression}) in a separate field, receivers decompress them lazily
+ * when the content is accessed. Messages that have been received in compressed
+ * form are written without decompressing them again.
+ *
+ * Unknown fields are skipped during decoding, therefore new fields can be added
+ * without breaking receivers that use an older version of the codec. Field
+ * numbers and table entries must never be changed or reused, new entries have
+ * to be appended.
+ *
+ * @version 1.0
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int VERSION = 1;
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private static final int FIELD_ID = 1;
+    private static final int FIELD_CONTENT = 2;
+    private static final int FIELD_TYPE = 3;
+    private static final int FIELD_SUBTYPE = 4;
+    private static final int FIELD_SENDER = 5;
+    private static final int FIELD_RECEIVER = 6;
+    private static final int FIELD_CONVERSATION = 7;
+    private static final int FIELD_TTL = 8;
+    private static final int FIELD_LANGUAGE = 9;
+    private static final int FIELD_SECURITY_TOKEN = 10;
+    private static final int FIELD_DELIVERY = 11;
+    private static final int FIELD_REFERS_TO = 12;
+    private static final int FIELD_COMPRESSED_CONTENT = 13;
+    private static final int FIELD_EXPIRATION = 14;
+    private static final int FIELD_CREDIT_OWNER = 15;
+
+    private static final String[] TYPES = {
+            PredefinedMessageHelper.AUTH_TYPE,
+            PredefinedMessageHelper.CONTROL_TYPE,
+            PredefinedMessageHelper.DATA_TYPE
+    };
+
+    private static final String[] SUBTYPES = {
+            PredefinedMessageHelper.ACK_SUBTYPE,
+            PredefinedMessageHelper.ACK_SUBTYPE_CHECKED,
+            PredefinedMessageHelper.COMERROR_SUBTYPE,
+            PredefinedMessageHelper.DELIVERY_ERROR_SUBTYPE,
+            PredefinedMessageHelper.TIMEOUT_SUBTYPE,
+            PredefinedMessageHelper.REQUEST_SUBTYPE,
+            PredefinedMessageHelper.REPLY_SUBTYPE,
+            PredefinedMessageHelper.FAILED_SUBTYPE,
+            PredefinedMessageHelper.ERROR_SUBTYPE
+    };
+
+    private static final Map<String, Integer> TYPE_INDEX = index(TYPES);
+    private static final Map<String, Integer> SUBTYPE_INDEX = index(SUBTYPES);
+
+    private static final IdentifierType[] IDENTIFIER_TYPES = IdentifierType.values();
+    private static final DeliveryPolicy.Message[] DELIVERY_POLICIES = DeliveryPolicy.Message.values();
+
+    private static Map<String, Integer> index(String[] table) {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < table.length; i++) {
+            map.put(table[i], i);
+        }
+        return map;
+    }
+
+    private final int compressionThreshold;
+
+    public BinaryMessageCodec() {
+        this(ContentCompression.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param compressionThreshold size in bytes above which the content is compressed, 0 or less disables compression
+     */
+    public BinaryMessageCodec(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public byte[] encode(Message message) throws IOException {
+        Writer writer = new Writer();
+        writer.writeVarint(VERSION);
+
+        writeIdentifier(writer, FIELD_ID, message.getId());
+        writeContent(writer, message);
+        writeInterned(writer, FIELD_TYPE, message.getType(), TYPE_INDEX);
+        writeInterned(writer, FIELD_SUBTYPE, message.getSubtype(), SUBTYPE_INDEX);
+        writeIdentifier(writer, FIELD_SENDER, message.getSenderId());
+        writeIdentifier(writer, FIELD_RECEIVER, message.getReceiverId());
+        writeString(writer, FIELD_CONVERSATION, message.getConversationId());
+        if (message.getTtl() != 0) {
+            writer.writeTag(FIELD_TTL, WIRE_VARINT);
+            writer.writeVarint(zigZag(message.getTtl()));
+        }
+        if (message.getExpiration() != 0) {
+            writer.writeTag(FIELD_EXPIRATION, WIRE_VARINT);
+            writer.writeVarint(zigZag(message.getExpiration()));
+        }
+        writeString(writer, FIELD_LANGUAGE, message.getLanguage());
+        writeString(writer, FIELD_SECURITY_TOKEN, message.getSecurityToken());
+
+        //the delivery policy has a default value, therefore null has to be written explicitly
+        writer.writeTag(FIELD_DELIVERY, WIRE_VARINT);
+        writer.writeVarint(message.getDelivery() == null ? 0 : message.getDelivery().ordinal() + 1);
+
+        writeIdentifier(writer, FIELD_REFERS_TO, message.getRefersTo());
+        writeString(writer, FIELD_CREDIT_OWNER, message.getCreditOwner());
+
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Message decode(byte[] data) throws IOException {
+        Reader reader = new Reader(data);
+        int version = (int) reader.readVarint();
+        if (version != VERSION) {
+            throw new IOException("Unsupported message format version " + version);
+        }
+
+        Message message = new Message();
+        while (reader.hasRemaining()) {
+            int tag = (int) reader.readVarint();
+            int field = tag >>> 3;
+            int wireType = tag & 0x7;
+
+            switch (field) {
+                case FIELD_ID:
+                    message.setId(readIdentifier(reader, wireType));
+                    break;
+                case FIELD_CONTENT:
+                    message.setContent(readString(reader, wireType));
+                    break;
+                case FIELD_COMPRESSED_CONTENT:
+                    expect(wireType, WIRE_LENGTH_DELIMITED);
+                    message.setCompressedContent(reader.readBytes());
+                    break;
+                case FIELD_TYPE:
+                    message.setType(readInterned(reader, wireType, TYPES));
+                    break;
+                case FIELD_SUBTYPE:
+                    message.setSubtype(readInterned(reader, wireType, SUBTYPES));
+                    break;
+                case FIELD_SENDER:
+                    message.setSenderId(readIdentifier(reader, wireType));
+                    break;
+                case FIELD_RECEIVER:
+                    message.setReceiverId(readIdentifier(reader, wireType));
+                    break;
+                case FIELD_CONVERSATION:
+                    message.setConversationId(readString(reader, wireType));
+                    break;
+                case FIELD_TTL:
+                    expect(wireType, WIRE_VARINT);
+                    message.setTtl(unZigZag(reader.readVarint()));
+                    break;
+                case FIELD_EXPIRATION:
+                    expect(wireType, WIRE_VARINT);
+                    message.setExpiration(unZigZag(reader.readVarint()));
+                    break;
+                case FIELD_LANGUAGE:
+                    message.setLanguage(readString(reader, wireType));
+                    break;
+                case FIELD_SECURITY_TOKEN:
+                    message.setSecurityToken(readString(reader, wireType));
+                    break;
+                case FIELD_DELIVERY:
+                    expect(wireType, WIRE_VARINT);
+                    int delivery = (int) reader.readVarint();
+                    message.setDelivery(delivery == 0 ? null : DELIVERY_POLICIES[checkIndex(delivery - 1, DELIVERY_POLICIES.length)]);
+                    break;
+                case FIELD_REFERS_TO:
+                    message.setRefersTo(readIdentifier(reader, wireType));
+                    break;
+                case FIELD_CREDIT_OWNER:
+                    message.setCreditOwner(readString(reader, wireType));
+                    break;
+                default:
+                    skip(reader, wireType);
+            }
+        }
+        return message;
+    }
+
+    private void writeContent(Writer writer, Message message) {
+        byte[] compressed = message.getCompressedContent();
+        if (compressed == null) {
+            compressed = ContentCompression.compress(message.getContent(), compressionThreshold);
+        }
+
+        if (compressed == null) {
+            writeString(writer, FIELD_CONTENT, message.getContent());
+        } else {
+            writer.writeTag(FIELD_COMPRESSED_CONTENT, WIRE_LENGTH_DELIMITED);
+            writer.writeBytes(compressed);
+        }
+    }
+
+    private static void writeString(Writer writer, int field, String value) {
+        if (value == null) {
+            return;
+        }
+        writer.writeTag(field, WIRE_LENGTH_DELIMITED);
+        writer.writeBytes(value.getBytes(UTF8));
+    }
+
+    private static String readString(Reader reader, int wireType) throws IOException {
+        expect(wireType, WIRE_LENGTH_DELIMITED);
+        return new String(reader.readBytes(), UTF8);
+    }
+
+    private static void writeInterned(Writer writer, int field, String value, Map<String, Integer> index) {
+        if (value == null) {
+            return;
+        }
+
+        Integer i = index.get(value);
+        if (i == null) {
+            writeString(writer, field, value);
+        } else {
+            writer.writeTag(field, WIRE_VARINT);
+            writer.writeVarint(i);
+        }
+    }
+
+    private static String readInterned(Reader reader, int wireType, String[] table) throws IOException {
+        if (wireType == WIRE_VARINT) {
+            return table[checkIndex((int) reader.readVarint(), table.length)];
+        }
+        return readString(reader, wireType);
+    }
+
+    private static void writeIdentifier(Writer writer, int field, Identifier identifier) {
+        if (identifier == null) {
+            return;
+        }
+
+        Writer nested = new Writer();
+        nested.writeVarint(identifier.getType() == null ? 0 : identifier.getType().ordinal() + 1);
+        nested.writeNullableString(identifier.returnIdWithoutPostfix());
+        nested.writeNullableString(identifier.getPostfix());
+
+        writer.writeTag(field, WIRE_LENGTH_DELIMITED);
+        writer.writeBytes(nested.buffer, nested.size);
+    }
+
+    private static Identifier readIdentifier(Reader outer, int wireType) throws IOException {
+        expect(wireType, WIRE_LENGTH_DELIMITED);
+        Reader reader = new Reader(outer.readBytes());
+
+        int type = (int) reader.readVarint();
+        String id = reader.readNullableString();
+        String postfix = reader.readNullableString();
+
+        return new Identifier(type == 0 ? null : IDENTIFIER_TYPES[checkIndex(type - 1, IDENTIFIER_TYPES.length)], id, postfix);
+    }
+
+    private static void skip(Reader reader, int wireType) throws IOException {
+        switch (wireType) {
+            case WIRE_VARINT:
+                reader.readVarint();
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                reader.readBytes();
+                break;
+            default:
+                throw new IOException("Unknown wire type " + wireType);
+        }
+    }
+
+    private static void expect(int wireType, int expected) throws IOException {
+        if (wireType != expected) {
+            throw new IOException("Unexpected wire type " + wireType + ", expected " + expected);
+        }
+    }
+
+    private static int checkIndex(int index, int length) throws IOException {
+        if (index < 0 || index >= length) {
+            throw new IOException("Unknown table index " + index);
+        }
+        return index;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Growable byte buffer that supports the primitives of the wire format
+     */
+    private static class Writer {
+        private byte[] buffer = new byte[128];
+        private int size = 0;
+
+        void writeTag(int field, int wireType) {
+            writeVarint((field << 3) | wireType);
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeBytes(bytes, bytes.length);
+        }
+
+        void writeBytes(byte[] bytes, int length) {
+            writeVarint(length);
+            ensureCapacity(length);
+            System.arraycopy(bytes, 0, buffer, size, length);
+            size += length;
+        }
+
+        /**
+         * Writes the length + 1 of the string followed by its bytes, 0 denotes null
+         */
+        void writeNullableString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarint(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private int position = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasRemaining() {
+            return position < data.length;
+        }
+
+        long readVarint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= data.length) {
+                    throw new IOException("Unexpected end of message");
+                }
+                byte b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed variable length integer");
+        }
+
+        byte[] readBytes() throws IOException {
+            return read(readLength(0));
+        }
+
+        String readNullableString() throws IOException {
+            int length = readLength(1);
+            if (length < 0) {
+                return null;
+            }
+            return new String(read(length), UTF8);
+        }
+
+        private int readLength(int offset) throws IOException {
+            long length = readVarint() - offset;
+            if (length < -offset || length > data.length - position) {
+                throw new IOException("Unexpected end of message");
+            }
+            return (int) length;
+        }
+
+        private byte[] read(int length) {
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.codec;
+
+import at.ac.tuwien.dsg.smartcom.model.Message;
+
+import java.io.IOException;
+
+/**
+ * Converts messages into their wire format and back. Message brokers use
+ * a codec to transfer messages over the underlying communication channel.
+ * Implementations have to be thread-safe.
+ *
+ * @version 1.0
+ */
+public interface MessageCodec {
+
+    /**
+     * Encodes a message into its wire format.
+     *
+     * @param message that should be encoded
+     * @return encoded message
+     * @throws IOException if the message could not be encoded
+     */
+    public byte[] encode(Message message) throws IOException;
+
+    /**
+     * Decodes a message from its wire format.
+     *
+     * @param data encoded message
+     * @return the decoded message
+     * @throws IOException if the data could not be decoded
+     */
+    public Message decode(byte[] data) throws IOException;
+}
@@ -33,12 +33,12 @@ public class DynamicReplicationPolicy implements ReplicationPolicy {
 
         if ((remainingMessages * 0.99f) > messagesHandled) {
             int deviationPerHandler = remainingMessages/handlers;
-            int handledPerHandler = messagesHandled/handlers;
+            int handledPerHandler = Math.max(messagesHandled/handlers, 1);
 
             return new ReplicationPolicyResult(ReplicationType.UPSCALE, deviationPerHandler/handledPerHandler);
         } else if ((remainingMessages * 1.01f) < messagesHandled || messagesPending < 100) {
             int deviation = messagesHandled - remainingMessages;
-            int handledPerHandler = Math.min(messagesHandled/handlers, 1);
+            int handledPerHandler = Math.max(messagesHandled/handlers, 1);
 
             return new ReplicationPolicyResult(ReplicationType.DOWNSCALE, (deviation/handledPerHandler) - 1);
         } else {
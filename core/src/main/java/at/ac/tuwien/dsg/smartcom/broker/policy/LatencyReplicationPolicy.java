@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.policy;
+
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Policy that sizes the replicas based on the measured arrival rate and service time
+ * of the messages (Little's law). The number of replicas that is required is
+ *
+ * <pre>
+ *     ceil(arrivalRate * serviceTime / targetUtilization + backlog * serviceTime / targetDelay)
+ * </pre>
+ *
+ * The first term are the replicas that are busy with the arriving messages at the target
+ * utilization, the second term the replicas that are required to work off the messages that
+ * are already waiting (in the internal queue and in the broker queue) within the target delay.
+ *
+ * To prevent oscillations, the policy only scales down if the required replicas fall below
+ * the current replicas by more than the hysteresis and it does not scale again for a number
+ * of rounds (calls of the policy) after it scaled.
+ *
+ * The policy does not limit the replicas, the listener caps them at its own maximum
+ * (see ReplicatingMessageListener).
+ *
+ * @version 1.0
+ */
+public class LatencyReplicationPolicy implements ReplicationPolicy {
+
+    public static final long DEFAULT_TARGET_DELAY_MILLIS = 500;
+    public static final float DEFAULT_TARGET_UTILIZATION = 0.8f;
+    public static final float DEFAULT_HYSTERESIS = 0.25f;
+    public static final int DEFAULT_COOLDOWN_ROUNDS = 2;
+
+    private final long targetDelayNanos;
+    private final float targetUtilization;
+    private final float hysteresis;
+    private final int cooldownRounds;
+
+    private double serviceTimeNanos = 0; //last known mean service time per message
+    private int cooldown = 0;
+
+    public LatencyReplicationPolicy() {
+        this(DEFAULT_TARGET_DELAY_MILLIS);
+    }
+
+    /**
+     * @param targetDelayMillis maximum time in milliseconds a message should wait before it is handled
+     */
+    public LatencyReplicationPolicy(long targetDelayMillis) {
+        this(targetDelayMillis, DEFAULT_TARGET_UTILIZATION, DEFAULT_HYSTERESIS, DEFAULT_COOLDOWN_ROUNDS);
+    }
+
+    /**
+     * @param targetDelayMillis maximum time in milliseconds a message should wait before it is handled
+     * @param targetUtilization utilization of the replicas (0-1] that should not be exceeded
+     * @param hysteresis relative deviation [0-1) below the current replicas that is tolerated before scaling down
+     * @param cooldownRounds number of calls after a scaling decision in which the policy does not scale
+     */
+    public LatencyReplicationPolicy(long targetDelayMillis, float targetUtilization, float hysteresis, int cooldownRounds) {
+        if (targetDelayMillis <= 0 || targetUtilization <= 0 || targetUtilization > 1
+                || hysteresis < 0 || hysteresis >= 1 || cooldownRounds < 0) {
+            throw new IllegalArgumentException("Invalid replication policy parameters");
+        }
+        this.targetDelayNanos = TimeUnit.MILLISECONDS.toNanos(targetDelayMillis);
+        this.targetUtilization = targetUtilization;
+        this.hysteresis = hysteresis;
+        this.cooldownRounds = cooldownRounds;
+    }
+
+    /**
+     * Without a service time measurement the policy can't size the replicas, therefore it does not scale.
+     */
+    @Override
+    public ReplicationPolicyResult determineReplicationPolicy(int messagesReceived, int handlers, int messagesPending, int messagesHandled) {
+        return new ReplicationPolicyResult(ReplicationType.NOSCALE, 0);
+    }
+
+    @Override
+    public synchronized ReplicationPolicyResult determineReplicationPolicy(int messagesReceived, int handlers, int messagesPending,
+                                                                           int messagesHandled, QueueStatistic brokerQueue,
+                                                                           long serviceTimeNanos, long windowMillis) {
+        if (messagesHandled > 0) {
+            this.serviceTimeNanos = ((double) serviceTimeNanos) / messagesHandled;
+        }
+
+        if (cooldown > 0) {
+            cooldown--;
+            return new ReplicationPolicyResult(ReplicationType.NOSCALE, 0);
+        }
+
+        if (this.serviceTimeNanos <= 0 || windowMillis <= 0) {
+            return new ReplicationPolicyResult(ReplicationType.NOSCALE, 0);
+        }
+
+        long backlog = messagesPending;
+        if (brokerQueue != null) {
+            backlog += brokerQueue.getDepth();
+        }
+
+        double arrivalRate = messagesReceived / (double) TimeUnit.MILLISECONDS.toNanos(windowMillis); //per nanosecond
+        double required = arrivalRate * this.serviceTimeNanos / targetUtilization
+                + backlog * this.serviceTimeNanos / targetDelayNanos;
+        int replicas = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.ceil(required)));
+
+        if (replicas > handlers) {
+            cooldown = cooldownRounds;
+            return new ReplicationPolicyResult(ReplicationType.UPSCALE, replicas - handlers);
+        } else if (replicas < handlers * (1 - hysteresis)) {
+            cooldown = cooldownRounds;
+            return new ReplicationPolicyResult(ReplicationType.DOWNSCALE, handlers - replicas);
+        } else {
+            return new ReplicationPolicyResult(ReplicationType.NOSCALE, 0);
+        }
+    }
+}
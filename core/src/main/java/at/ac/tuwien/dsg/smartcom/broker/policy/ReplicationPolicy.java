@@ -17,6 +17,8 @@
  */
 package at.ac.tuwien.dsg.smartcom.broker.policy;
 
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+
 /**
  * Defines the policy on when to scale up, down or do not scale at all.
  *
@@ -36,4 +38,45 @@ public interface ReplicationPolicy {
      * @return the decision whether to scale up, down or not at all as well as the number of resources that should be added/removed
      */
     ReplicationPolicyResult determineReplicationPolicy(int messagesReceived, int handlers, int messagesPending, int messagesHandled);
+
+    /**
+     * Defines the replication policy and takes the backlog of the broker queue, which is consumed by the
+     * handlers, into account. By default the messages that are waiting in the broker queue are added to the
+     * pending messages, policies that can make use of the rates or the age of the oldest message should
+     * override this method.
+     *
+     * @param messagesReceived number of messages that have been received since the last call
+     * @param handlers number of handlers that are already handling the messages
+     * @param messagesPending messages that are currently waiting in the queue to be processed
+     * @param messagesHandled messages handled since the last call
+     * @param brokerQueue statistic of the broker queue, null if it is not available
+     * @return the decision whether to scale up, down or not at all as well as the number of resources that should be added/removed
+     */
+    default ReplicationPolicyResult determineReplicationPolicy(int messagesReceived, int handlers, int messagesPending,
+                                                               int messagesHandled, QueueStatistic brokerQueue) {
+        if (brokerQueue != null) {
+            messagesPending = (int) Math.min(Integer.MAX_VALUE, messagesPending + brokerQueue.getDepth());
+        }
+        return determineReplicationPolicy(messagesReceived, handlers, messagesPending, messagesHandled);
+    }
+
+    /**
+     * Defines the replication policy and takes the time that has been spent for handling the messages
+     * into account. Policies that size the handlers based on the service time of the messages should
+     * override this method, by default the service time is ignored.
+     *
+     * @param messagesReceived number of messages that have been received within the window
+     * @param handlers number of handlers that are already handling the messages
+     * @param messagesPending messages that are currently waiting in the queue to be processed
+     * @param messagesHandled messages handled within the window
+     * @param brokerQueue statistic of the broker queue, null if it is not available
+     * @param serviceTimeNanos time in nanoseconds the handlers spent for handling the messages within the window
+     * @param windowMillis length of the window in milliseconds
+     * @return the decision whether to scale up, down or not at all as well as the number of resources that should be added/removed
+     */
+    default ReplicationPolicyResult determineReplicationPolicy(int messagesReceived, int handlers, int messagesPending,
+                                                               int messagesHandled, QueueStatistic brokerQueue,
+                                                               long serviceTimeNanos, long windowMillis) {
+        return determineReplicationPolicy(messagesReceived, handlers, messagesPending, messagesHandled, brokerQueue);
+    }
 }
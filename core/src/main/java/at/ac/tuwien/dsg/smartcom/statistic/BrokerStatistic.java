@@ -30,6 +30,7 @@ public class BrokerStatistic {
     private int controlMessagePublished;
     private int outputMessageReceived;
     private int outputMessagePublished;
+    private int outputMessageExpired;
     private int requestMessageReceived;
     private int requestMessagePublished;
 
@@ -116,6 +117,14 @@ public class BrokerStatistic {
         this.outputMessagePublished = outputMessagePublished;
     }
 
+    public int getOutputMessageExpired() {
+        return outputMessageExpired;
+    }
+
+    public void setOutputMessageExpired(int outputMessageExpired) {
+        this.outputMessageExpired = outputMessageExpired;
+    }
+
     public int getRequestMessageReceived() {
         return requestMessageReceived;
     }
@@ -136,7 +145,7 @@ public class BrokerStatistic {
     public String toString() {
         return "BrokerStatistic{" +
                 "input: " + inputMessageReceived + "/" + inputMessagePublished +
-                ", output: " + outputMessageReceived + "/" + outputMessagePublished +
+                ", output: " + outputMessageReceived + "/" + outputMessagePublished + " (expired: " + outputMessageExpired + ")" +
                 ", control: " + controlMessageReceived + "/" + controlMessagePublished +
                 ", request: " + requestMessageReceived + "/" + requestMessagePublished +
                 ", log: " + logMessageReceived + "/" + logMessagePublished +
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.statistic;
+
+/**
+ * Statistic of a queue of the message broker that has been sampled by a
+ * {@link at.ac.tuwien.dsg.smartcom.broker.BrokerMonitor}.
+ *
+ * @version 1.0
+ */
+public class QueueStatistic {
+    private String name;
+    private long depth;
+    private long consumers;
+    private long enqueueCount;
+    private long dequeueCount;
+    private double enqueueRate;
+    private double dequeueRate;
+    private long oldestMessageAge;
+
+    public QueueStatistic() {}
+
+    public QueueStatistic(String name, long depth, long consumers, long enqueueCount, long dequeueCount, long oldestMessageAge) {
+        this.name = name;
+        this.depth = depth;
+        this.consumers = consumers;
+        this.enqueueCount = enqueueCount;
+        this.dequeueCount = dequeueCount;
+        this.oldestMessageAge = oldestMessageAge;
+    }
+
+    /**
+     * @return name of the queue (see {@link at.ac.tuwien.dsg.smartcom.broker.BrokerMonitor})
+     */
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return number of messages that are waiting in the queue
+     */
+    public long getDepth() {
+        return depth;
+    }
+
+    public void setDepth(long depth) {
+        this.depth = depth;
+    }
+
+    public long getConsumers() {
+        return consumers;
+    }
+
+    public void setConsumers(long consumers) {
+        this.consumers = consumers;
+    }
+
+    public long getEnqueueCount() {
+        return enqueueCount;
+    }
+
+    public void setEnqueueCount(long enqueueCount) {
+        this.enqueueCount = enqueueCount;
+    }
+
+    public long getDequeueCount() {
+        return dequeueCount;
+    }
+
+    public void setDequeueCount(long dequeueCount) {
+        this.dequeueCount = dequeueCount;
+    }
+
+    /**
+     * @return messages enqueued per second since the previous sample
+     */
+    public double getEnqueueRate() {
+        return enqueueRate;
+    }
+
+    public void setEnqueueRate(double enqueueRate) {
+        this.enqueueRate = enqueueRate;
+    }
+
+    /**
+     * @return messages dequeued per second since the previous sample
+     */
+    public double getDequeueRate() {
+        return dequeueRate;
+    }
+
+    public void setDequeueRate(double dequeueRate) {
+        this.dequeueRate = dequeueRate;
+    }
+
+    /**
+     * @return age in milliseconds of the oldest message in the queue, 0 if the queue is empty
+     */
+    public long getOldestMessageAge() {
+        return oldestMessageAge;
+    }
+
+    public void setOldestMessageAge(long oldestMessageAge) {
+        this.oldestMessageAge = oldestMessageAge;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueStatistic{" +
+                "name='" + name + '\'' +
+                ", depth=" + depth +
+                ", consumers=" + consumers +
+                ", enqueueCount=" + enqueueCount +
+                ", dequeueCount=" + dequeueCount +
+                ", enqueueRate=" + enqueueRate +
+                ", dequeueRate=" + dequeueRate +
+                ", oldestMessageAge=" + oldestMessageAge +
+                '}';
+    }
+}
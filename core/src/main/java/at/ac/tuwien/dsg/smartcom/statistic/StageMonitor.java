@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.statistic;
+
+import java.util.List;
+
+/**
+ * Provides the statistics of the stages of a component that processes messages
+ * in several stages.
+ *
+ * @version 1.0
+ */
+public interface StageMonitor {
+
+    /**
+     * Returns the statistics of all stages.
+     *
+     * @return statistics of the stages
+     */
+    public List<StageStatistic> getStageStatistics();
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.statistic;
+
+/**
+ * Statistic of a stage of the message processing pipeline (e.g., routing,
+ * peer resolution, publishing) that has been sampled by a {@link StageMonitor}.
+ * Latencies and the throughput refer to the recent past of the stage.
+ *
+ * @version 1.0
+ */
+public class StageStatistic {
+    private String name;
+    private int threads;
+    private int activeThreads;
+    private int depth;
+    private int capacity;
+    private long completed;
+    private long overloaded;
+    private double throughput;
+    private double queueLatency;
+    private double serviceLatency;
+
+    public StageStatistic() {}
+
+    public StageStatistic(String name, int threads, int activeThreads, int depth, int capacity, long completed, long overloaded) {
+        this.name = name;
+        this.threads = threads;
+        this.activeThreads = activeThreads;
+        this.depth = depth;
+        this.capacity = capacity;
+        this.completed = completed;
+        this.overloaded = overloaded;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getActiveThreads() {
+        return activeThreads;
+    }
+
+    public void setActiveThreads(int activeThreads) {
+        this.activeThreads = activeThreads;
+    }
+
+    /**
+     * @return number of tasks that are waiting in the queue of the stage
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * @return maximum number of tasks that can wait in the queue of the stage
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(long completed) {
+        this.completed = completed;
+    }
+
+    /**
+     * @return number of tasks that have been submitted while the queue of the stage was full
+     */
+    public long getOverloaded() {
+        return overloaded;
+    }
+
+    public void setOverloaded(long overloaded) {
+        this.overloaded = overloaded;
+    }
+
+    /**
+     * @return tasks completed per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public void setThroughput(double throughput) {
+        this.throughput = throughput;
+    }
+
+    /**
+     * @return average time in milliseconds a task waited in the queue of the stage
+     */
+    public double getQueueLatency() {
+        return queueLatency;
+    }
+
+    public void setQueueLatency(double queueLatency) {
+        this.queueLatency = queueLatency;
+    }
+
+    /**
+     * @return average time in milliseconds the stage needed to handle a task
+     */
+    public double getServiceLatency() {
+        return serviceLatency;
+    }
+
+    public void setServiceLatency(double serviceLatency) {
+        this.serviceLatency = serviceLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "StageStatistic{" +
+                "name='" + name + '\'' +
+                ", threads=" + threads +
+                ", activeThreads=" + activeThreads +
+                ", depth=" + depth +
+                ", capacity=" + capacity +
+                ", completed=" + completed +
+                ", overloaded=" + overloaded +
+                ", throughput=" + throughput +
+                ", queueLatency=" + queueLatency +
+                ", serviceLatency=" + serviceLatency +
+                '}';
+    }
+}
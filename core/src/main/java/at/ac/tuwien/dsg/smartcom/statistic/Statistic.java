@@ -17,6 +17,8 @@
  */
 package at.ac.tuwien.dsg.smartcom.statistic;
 
+import java.util.List;
+
 /**
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @version 1.0
@@ -32,6 +34,8 @@ public class Statistic {
     private int logMessage;
 
     private BrokerStatistic broker;
+    private List<QueueStatistic> queues;
+    private List<StageStatistic> stages;
 
     public Statistic() {}
 
@@ -59,6 +63,22 @@ public class Statistic {
         this.broker = broker;
     }
 
+    public List<QueueStatistic> getQueues() {
+        return queues;
+    }
+
+    public void setQueues(List<QueueStatistic> queues) {
+        this.queues = queues;
+    }
+
+    public List<StageStatistic> getStages() {
+        return stages;
+    }
+
+    public void setStages(List<StageStatistic> stages) {
+        this.stages = stages;
+    }
+
     public int getSendingRequest() {
         return sendingRequest;
     }
@@ -135,6 +155,8 @@ public class Statistic {
                 ", callbackMessage=" + callbackMessage +
                 ", logMessage=" + logMessage +
                 ", broker: "+broker.toString()+
+                ", queues: "+queues+
+                ", stages: "+stages+
                 '}';
     }
 }
@@ -17,6 +17,8 @@
  */
 package at.ac.tuwien.dsg.smartcom.statistic;
 
+import at.ac.tuwien.dsg.smartcom.broker.BrokerMonitor;
+
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -34,6 +36,27 @@ public class StatisticBean {
     private AtomicInteger callbackMessage = new AtomicInteger(0);
     private AtomicInteger logMessage = new AtomicInteger(0);
 
+    private volatile BrokerMonitor brokerMonitor;
+    private volatile StageMonitor stageMonitor;
+
+    /**
+     * Sets the monitor that provides the statistics of the broker queues
+     *
+     * @param brokerMonitor monitor of the message broker
+     */
+    public void setBrokerMonitor(BrokerMonitor brokerMonitor) {
+        this.brokerMonitor = brokerMonitor;
+    }
+
+    /**
+     * Sets the monitor that provides the statistics of the stages of the messaging and routing manager
+     *
+     * @param stageMonitor monitor of the stages
+     */
+    public void setStageMonitor(StageMonitor stageMonitor) {
+        this.stageMonitor = stageMonitor;
+    }
+
     public void sendingRequestReceived() {
         sendingRequest.incrementAndGet();
     }
@@ -67,7 +90,7 @@ public class StatisticBean {
     }
 
     public Statistic getStatistic() {
-        return new Statistic(
+        Statistic statistic = new Statistic(
                 sendingRequest.get(),
                 internalSendingRequest.get(),
                 externalSendingRequest.get(),
@@ -90,6 +113,18 @@ public class StatisticBean {
                 )
 
         );
+        statistic.getBroker().setOutputMessageExpired(outputMessageExpired.get());
+
+        BrokerMonitor monitor = brokerMonitor;
+        if (monitor != null) {
+            statistic.setQueues(monitor.getQueueStatistics());
+        }
+
+        StageMonitor stages = stageMonitor;
+        if (stages != null) {
+            statistic.setStages(stages.getStageStatistics());
+        }
+        return statistic;
     }
 
     /* ##################
@@ -110,6 +145,7 @@ public class StatisticBean {
 
     private AtomicInteger outputMessageReceived = new AtomicInteger(0);
     private AtomicInteger outputMessagePublished = new AtomicInteger(0);
+    private AtomicInteger outputMessageExpired = new AtomicInteger(0);
 
     private AtomicInteger requestMessageReceived = new AtomicInteger(0);
     private AtomicInteger requestMessagePublished = new AtomicInteger(0);
@@ -126,6 +162,10 @@ public class StatisticBean {
         logMessagePublished.incrementAndGet();
     }
 
+    public void brokerPublishLog(int amount) {
+        logMessagePublished.addAndGet(amount);
+    }
+
     public void logReceived() {
         logMessageReceived.incrementAndGet();
     }
@@ -134,6 +174,10 @@ public class StatisticBean {
         controlMessagePublished.incrementAndGet();
     }
 
+    public void brokerPublishControl(int amount) {
+        controlMessagePublished.addAndGet(amount);
+    }
+
     public void controlReceived() {
         controlMessageReceived.incrementAndGet();
     }
@@ -142,10 +186,18 @@ public class StatisticBean {
         outputMessagePublished.incrementAndGet();
     }
 
+    public void brokerPublishOutput(int amount) {
+        outputMessagePublished.addAndGet(amount);
+    }
+
     public void outputReceived() {
         outputMessageReceived.incrementAndGet();
     }
 
+    public void outputExpired() {
+        outputMessageExpired.incrementAndGet();
+    }
+
     public void brokerPublishRequest() {
         requestMessagePublished.incrementAndGet();
     }
@@ -201,6 +201,7 @@ public final class PredefinedMessageHelper {
     public static Message createTimeoutMessage(Message message, String error) {
         return new Message.MessageBuilder()
                 .setSenderId(message.getReceiverId())
+                .setReceiverId(message.getSenderId())
                 .setConversationId(message.getConversationId())
                 .setRefersTo(message.getId())
                 .setContent(error)
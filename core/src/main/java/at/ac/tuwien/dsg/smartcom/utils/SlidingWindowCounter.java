@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events (or sums up amounts) within a sliding time window. The window is divided into a fixed
+ * ring of buckets, each bucket counts the events of one time slice. Buckets are
+ * recycled lazily once their time slice has left the window, therefore the counter
+ * needs neither a background thread nor an allocation per event.
+ *
+ * The counter is approximate: the window moves in steps of one bucket and events
+ * that are counted concurrently with the recycling of their bucket may get lost.
+ *
+ * @version 1.0
+ */
+public class SlidingWindowCounter {
+
+    /**
+     * Default number of buckets the window is divided into
+     */
+    public static final int DEFAULT_BUCKETS = 10;
+
+    private final long bucketMillis;
+    private final LongAdder[] buckets;
+    private final AtomicLongArray slices; //time slice that is currently counted by each bucket
+
+    public SlidingWindowCounter(long duration, TimeUnit unit) {
+        this(duration, unit, DEFAULT_BUCKETS);
+    }
+
+    public SlidingWindowCounter(long duration, TimeUnit unit, int buckets) {
+        if (buckets < 1) {
+            throw new IllegalArgumentException("At least one bucket is required");
+        }
+        this.bucketMillis = Math.max(1, unit.toMillis(duration) / buckets);
+        this.buckets = new LongAdder[buckets];
+        this.slices = new AtomicLongArray(buckets);
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new LongAdder();
+            this.slices.set(i, -1);
+        }
+    }
+
+    /**
+     * @return the length of the window in milliseconds
+     */
+    public long getWindowMillis() {
+        return bucketMillis * buckets.length;
+    }
+
+    public void increase() {
+        add(1, System.currentTimeMillis());
+    }
+
+    void increase(long now) {
+        add(1, now);
+    }
+
+    /**
+     * Adds an amount to the window, e.g., the duration of an event.
+     *
+     * @param amount that should be added
+     */
+    public void add(long amount) {
+        add(amount, System.currentTimeMillis());
+    }
+
+    void add(long amount, long now) {
+        long slice = now / bucketMillis;
+        int index = (int) (slice % buckets.length);
+
+        long current = slices.get(index);
+        if (slice > current && slices.compareAndSet(index, current, slice)) {
+            buckets[index].reset();
+        }
+        buckets[index].add(amount);
+    }
+
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            slices.set(i, -1);
+            buckets[i].reset();
+        }
+    }
+
+    /**
+     * @return the number of events within the window
+     */
+    public int getCounter() {
+        return getCounter(System.currentTimeMillis());
+    }
+
+    int getCounter(long now) {
+        return (int) Math.min(getSum(now), Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the sum of the amounts within the window
+     */
+    public long getSum() {
+        return getSum(System.currentTimeMillis());
+    }
+
+    long getSum(long now) {
+        long slice = now / bucketMillis;
+
+        long sum = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            long bucketSlice = slices.get(i);
+            if (bucketSlice > slice - buckets.length && bucketSlice <= slice) {
+                sum += buckets[i].sum();
+            }
+        }
+        return sum;
+    }
+}
@@ -26,10 +26,15 @@ import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
@@ -77,6 +82,12 @@ public final class SimpleMessageBroker implements MessageBroker {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> publishInputAsync(Message message) {
+        publishInput(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public Message receiveInput() {
         try {
@@ -87,6 +98,11 @@ public final class SimpleMessageBroker implements MessageBroker {
         }
     }
 
+    @Override
+    public List<Message> receiveInputBatch(int maxMessages, long timeout) {
+        return receiveBatch(inputQueue, maxMessages, timeout);
+    }
+
     @Override
     public at.ac.tuwien.dsg.smartcom.broker.CancelableListener registerInputListener(MessageListener listener) {
         synchronized (inputQueue) {
@@ -116,6 +132,19 @@ public final class SimpleMessageBroker implements MessageBroker {
         }
     }
 
+    @Override
+    public List<Message> receiveRequestsBatch(Identifier id, int maxMessages, long timeout) {
+        BlockingDeque<Message> queue;
+        synchronized (requestQueues) {
+            queue = requestQueues.get(id);
+            if (queue == null) {
+                queue = new LinkedBlockingDeque<>();
+                requestQueues.put(id, queue);
+            }
+        }
+        return receiveBatch(queue, maxMessages, timeout);
+    }
+
     @Override
     public at.ac.tuwien.dsg.smartcom.broker.CancelableListener registerRequestListener(Identifier id, MessageListener listener) {
         synchronized (requestListeners) {
@@ -148,6 +177,12 @@ public final class SimpleMessageBroker implements MessageBroker {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> publishRequestAsync(Identifier id, Message message) {
+        publishRequest(id, message);
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public Message receiveOutput(Identifier id) {
         try {
@@ -167,6 +202,19 @@ public final class SimpleMessageBroker implements MessageBroker {
         }
     }
 
+    @Override
+    public List<Message> receiveOutputBatch(Identifier id, int maxMessages, long timeout) {
+        BlockingDeque<Message> queue;
+        synchronized (taskQueues) {
+            queue = taskQueues.get(id);
+            if (queue == null) {
+                queue = new LinkedBlockingDeque<>();
+                taskQueues.put(id, queue);
+            }
+        }
+        return receiveBatch(queue, maxMessages, timeout);
+    }
+
     @Override
     public at.ac.tuwien.dsg.smartcom.broker.CancelableListener registerOutputListener(Identifier id, MessageListener listener) {
         synchronized (taskListeners) {
@@ -199,11 +247,39 @@ public final class SimpleMessageBroker implements MessageBroker {
         }
     }
 
+    @Override
+    public CompletableFuture<Void> publishOutputAsync(Identifier id, Message message) {
+        publishOutput(id, message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void publishOutputBatch(Map<Identifier, List<Message>> messages) {
+        for (Map.Entry<Identifier, List<Message>> entry : messages.entrySet()) {
+            for (Message message : entry.getValue()) {
+                publishOutput(entry.getKey(), message);
+            }
+        }
+    }
+
     @Override
     public void publishControl(Message message) {
         publishSpecial(CONTROL_QUEUE, message);
     }
 
+    @Override
+    public CompletableFuture<Void> publishControlAsync(Message message) {
+        publishControl(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void publishControlBatch(List<Message> messages) {
+        for (Message message : messages) {
+            publishControl(message);
+        }
+    }
+
     @Override
     public Message receiveControl() {
         return receiveSpecial(CONTROL_QUEUE);
@@ -220,6 +296,12 @@ public final class SimpleMessageBroker implements MessageBroker {
         publishSpecial(AUTH_QUEUE, message);
     }
 
+    @Override
+    public CompletableFuture<Void> publishAuthRequestAsync(Message message) {
+        publishAuthRequest(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public Message receiveAuthRequest() {
         return receiveSpecial(AUTH_QUEUE);
@@ -236,6 +318,12 @@ public final class SimpleMessageBroker implements MessageBroker {
         publishSpecial(MIS_QUEUE, message);
     }
 
+    @Override
+    public CompletableFuture<Void> publishMessageInfoRequestAsync(Message message) {
+        publishMessageInfoRequest(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public Message receiveMessageInfoRequest() {
         return receiveSpecial(MIS_QUEUE);
@@ -252,6 +340,12 @@ public final class SimpleMessageBroker implements MessageBroker {
         publishSpecial(MPS_QUEUE, message);
     }
 
+    @Override
+    public CompletableFuture<Void> publishMetricsRequestAsync(Message message) {
+        publishMetricsRequest(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public Message receiveMetricsRequest() {
         return receiveSpecial(MPS_QUEUE);
@@ -268,11 +362,29 @@ public final class SimpleMessageBroker implements MessageBroker {
         publishSpecial(LOG_QUEUE, message);
     }
 
+    @Override
+    public CompletableFuture<Void> publishLogAsync(Message message) {
+        publishLog(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void publishLogBatch(List<Message> messages) {
+        for (Message message : messages) {
+            publishLog(message);
+        }
+    }
+
     @Override
     public Message receiveLog() {
         return receiveSpecial(LOG_QUEUE);
     }
 
+    @Override
+    public List<Message> receiveLogBatch(int maxMessages, long timeout) {
+        return receiveBatch(specialQueues.get(LOG_QUEUE), maxMessages, timeout);
+    }
+
     @Override
     public at.ac.tuwien.dsg.smartcom.broker.CancelableListener registerLogListener(MessageListener listener) {
         specialListeners.put(LOG_QUEUE, listener);
@@ -299,6 +411,22 @@ public final class SimpleMessageBroker implements MessageBroker {
         return specialQueues.get(id).poll();
     }
 
+    private List<Message> receiveBatch(BlockingDeque<Message> queue, int maxMessages, long timeout) {
+        try {
+            Message message = queue.poll(timeout, TimeUnit.MILLISECONDS);
+            if (message == null) {
+                return Collections.emptyList();
+            }
+            List<Message> messages = new ArrayList<>();
+            messages.add(message);
+            queue.drainTo(messages, maxMessages - 1);
+            return messages;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+    }
+
     private class CancelableListenerImpl implements CancelableListener {
 
         @Override
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AbstractBrokerMonitorTest {
+
+    private ExecutorService executor;
+
+    @After
+    public void tearDown() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 5000l)
+    public void testSampleIsCached() throws Exception {
+        final AtomicInteger samples = new AtomicInteger();
+        AbstractBrokerMonitor monitor = new AbstractBrokerMonitor(60000) {
+            @Override
+            protected Collection<QueueStatistic> sample() {
+                samples.incrementAndGet();
+                return Collections.singletonList(new QueueStatistic("queue", 1, 0, 0, 0, 0));
+            }
+        };
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, monitor.getQueueStatistic("queue").getDepth());
+        }
+        assertEquals(1, samples.get());
+    }
+
+    @Test(timeout = 5000l)
+    public void testFailedSampleBacksOff() throws Exception {
+        final AtomicInteger samples = new AtomicInteger();
+        AbstractBrokerMonitor monitor = new AbstractBrokerMonitor(60000) {
+            @Override
+            protected Collection<QueueStatistic> sample() throws Exception {
+                samples.incrementAndGet();
+                throw new IllegalStateException("broker unavailable");
+            }
+        };
+
+        //callers don't sample again until the backoff has elapsed
+        for (int i = 0; i < 10; i++) {
+            assertNull(monitor.getQueueStatistic("queue"));
+        }
+        assertEquals(1, samples.get());
+    }
+
+    @Test(timeout = 5000l)
+    public void testSampleInBackground() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean callerThread = new AtomicBoolean(false);
+        final Thread caller = Thread.currentThread();
+        AbstractBrokerMonitor monitor = new AbstractBrokerMonitor(0, executor) {
+            @Override
+            protected Collection<QueueStatistic> sample() throws Exception {
+                callerThread.compareAndSet(false, Thread.currentThread() == caller);
+                release.await();
+                return Collections.singletonList(new QueueStatistic("queue", 1, 0, 0, 0, 0));
+            }
+        };
+
+        //the caller is not blocked by a slow sample
+        assertNull(monitor.getQueueStatistic("queue"));
+        assertNull(monitor.getQueueStatistic("queue"));
+
+        release.countDown();
+        QueueStatistic statistic = monitor.getQueueStatistic("queue");
+        while (statistic == null) {
+            Thread.sleep(10);
+            statistic = monitor.getQueueStatistic("queue");
+        }
+        assertEquals(1, statistic.getDepth());
+        assertFalse(callerThread.get());
+    }
+
+    @Test(timeout = 5000l)
+    public void testObservedQueues() throws Exception {
+        AbstractBrokerMonitor monitor = new AbstractBrokerMonitor() {
+            @Override
+            protected Collection<QueueStatistic> sample() {
+                return Collections.emptyList();
+            }
+        };
+
+        monitor.getQueueStatistics();
+        assertFalse(monitor.isObserved("queue"));
+        monitor.getQueueStatistic("queue");
+        assertTrue(monitor.isObserved("queue"));
+        assertFalse(monitor.isObserved("other"));
+    }
+}
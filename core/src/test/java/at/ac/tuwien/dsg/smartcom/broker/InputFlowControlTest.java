@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InputFlowControlTest {
+
+    private static final int CREDITS = 5;
+
+    private SimpleMessageBroker broker;
+    private InputFlowControl flowControl;
+    private CreditBasedInputPublisher publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new SimpleMessageBroker();
+        flowControl = new InputFlowControl(CREDITS);
+        publisher = new CreditBasedInputPublisher(broker, flowControl);
+    }
+
+    @Test(timeout = 5000l)
+    public void testTryPublishInput() throws Exception {
+        for (int i = 0; i < CREDITS; i++) {
+            assertTrue(publisher.tryPublishInput(createMessage(i)));
+        }
+        assertEquals(0, flowControl.getAvailableCredits());
+        assertFalse(publisher.tryPublishInput(createMessage(CREDITS)));
+
+        flowControl.release();
+        assertEquals(1, flowControl.getAvailableCredits());
+        assertTrue(publisher.tryPublishInput(createMessage(CREDITS)));
+
+        for (int i = 0; i <= CREDITS; i++) {
+            assertNotNull(broker.receiveInput());
+        }
+    }
+
+    @Test(timeout = 5000l)
+    public void testPublishInput_blocksUntilRelease() throws Exception {
+        for (int i = 0; i < CREDITS; i++) {
+            publisher.publishInput(createMessage(i));
+        }
+
+        final CountDownLatch published = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                publisher.publishInput(createMessage(CREDITS));
+                published.countDown();
+            }
+        });
+        thread.start();
+
+        assertFalse("Publisher should wait for a credit", published.await(300, TimeUnit.MILLISECONDS));
+
+        flowControl.release();
+        assertTrue("Publisher should have been notified", published.await(1, TimeUnit.SECONDS));
+        assertEquals(0, flowControl.getAvailableCredits());
+    }
+
+    @Test(timeout = 5000l)
+    public void testRelease_withoutCredit() throws Exception {
+        flowControl.release();
+        assertEquals(CREDITS, flowControl.getAvailableCredits());
+    }
+
+    @Test(timeout = 5000l)
+    public void testPublishInput_brokerFailure() throws Exception {
+        MessageBroker failingBroker = (MessageBroker) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{MessageBroker.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                //like the broker does if the connection has been lost
+                throw new IllegalStateException("broker unavailable");
+            }
+        });
+        publisher = new CreditBasedInputPublisher(failingBroker, flowControl);
+
+        for (int i = 0; i < 2 * CREDITS; i++) {
+            try {
+                publisher.publishInput(createMessage(i));
+                fail("Publishing should have failed");
+            } catch (IllegalStateException ignored) {
+            }
+
+            try {
+                publisher.tryPublishInput(createMessage(i));
+                fail("Publishing should have failed");
+            } catch (IllegalStateException ignored) {
+            }
+        }
+
+        assertEquals("Credits of failed messages should be returned", CREDITS, flowControl.getAvailableCredits());
+    }
+
+    @Test(timeout = 5000l)
+    public void testPublishInput_interrupted() throws Exception {
+        for (int i = 0; i < CREDITS; i++) {
+            publisher.publishInput(createMessage(i));
+        }
+
+        Thread.currentThread().interrupt();
+        publisher.publishInput(createMessage(CREDITS));
+        assertTrue(Thread.interrupted());
+        assertNotNull(broker.receiveInput());
+
+        //the handler returns the credit of the message that has been published after the interrupt
+        flowControl.release();
+        assertEquals("Credits of the other messages are still in use", 0, flowControl.getAvailableCredits());
+
+        for (int i = 0; i < CREDITS; i++) {
+            flowControl.release();
+        }
+        assertEquals(CREDITS, flowControl.getAvailableCredits());
+    }
+
+    @Test(timeout = 5000l)
+    public void testRelease_creditsOfOtherNodes() throws Exception {
+        InputFlowControl otherFlowControl = new InputFlowControl(CREDITS);
+        CreditBasedInputPublisher otherPublisher = new CreditBasedInputPublisher(broker, otherFlowControl);
+
+        publisher.publishInput(createMessage(0));
+        otherPublisher.publishInput(createMessage(1));
+
+        //both nodes consume the shared input queue
+        Message message = broker.receiveInput();
+        Message otherMessage = broker.receiveInput();
+        assertEquals(flowControl.getId(), message.getCreditOwner());
+        assertEquals(otherFlowControl.getId(), otherMessage.getCreditOwner());
+
+        flowControl.release(otherMessage);
+        assertEquals("Credit of another node must not be released", CREDITS - 1, flowControl.getAvailableCredits());
+        flowControl.release(createMessage(2));
+        assertEquals("Message without credit must not release one", CREDITS - 1, flowControl.getAvailableCredits());
+
+        flowControl.release(message);
+        assertEquals(CREDITS, flowControl.getAvailableCredits());
+        otherFlowControl.release(otherMessage);
+        assertEquals(CREDITS, otherFlowControl.getAvailableCredits());
+    }
+
+    private Message createMessage(int i) {
+        return new Message.MessageBuilder().setContent("" + i).create();
+    }
+}
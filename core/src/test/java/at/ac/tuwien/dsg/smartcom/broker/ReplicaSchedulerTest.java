@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker;
+
+import at.ac.tuwien.dsg.smartcom.broker.policy.TresholdReplicationPolicy;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplicaSchedulerTest {
+
+    private static final int THREADS = 10;
+
+    private ReplicaScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new ReplicaScheduler(THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testAcquire_weightedLimit() throws Exception {
+        ReplicaScheduler.Share share1 = scheduler.register("share1", 1, THREADS, 1);
+        ReplicaScheduler.Share share2 = scheduler.register("share2", 1, THREADS, 1);
+
+        assertEquals(THREADS / 2, share1.getLimit());
+        assertEquals(THREADS / 2, share1.acquire(THREADS));
+        assertEquals(0, share1.acquire(1));
+        assertEquals(THREADS / 2, share2.acquire(THREADS));
+
+        share1.release(2);
+        assertEquals(THREADS / 2 - 2, share1.getGranted());
+        assertEquals(2, share1.acquire(THREADS));
+    }
+
+    @Test
+    public void testAcquire_maxReplicas() throws Exception {
+        ReplicaScheduler.Share share = scheduler.register("share", 1, 3, 1);
+
+        assertEquals(3, share.getLimit());
+        assertEquals(3, share.acquire(THREADS));
+    }
+
+    @Test
+    public void testAcquire_minimumGuaranteed() throws Exception {
+        ReplicaScheduler.Share greedy = scheduler.register("greedy", 1, THREADS, 9);
+        ReplicaScheduler.Share small = scheduler.register("small", 3, THREADS, 1);
+
+        //the greedy share must not take the minimum of the small one
+        assertEquals(9, greedy.getLimit());
+        assertEquals(THREADS - 3, greedy.acquire(THREADS));
+        assertEquals(3, small.acquire(THREADS));
+        assertEquals(0, small.acquire(1));
+
+        //the greedy share gets the threads as soon as the small one is gone
+        small.unregister();
+        assertEquals(3, greedy.acquire(THREADS));
+        assertEquals(THREADS, greedy.getGranted());
+    }
+
+    @Test(timeout = 5000l)
+    public void testAcquire_minimumsExceedBudget() throws Exception {
+        final CountDownLatch running = new CountDownLatch(THREADS + 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        List<ReplicaScheduler.Share> shares = new ArrayList<>();
+        for (int i = 0; i < THREADS + 2; i++) {
+            shares.add(scheduler.register("share" + i, 1, THREADS, 1));
+        }
+        assertEquals(THREADS + 2, scheduler.getPoolSize());
+
+        try {
+            //every share gets its minimum and a thread for it, but nothing beyond
+            for (ReplicaScheduler.Share share : shares) {
+                assertEquals(1, share.acquire(2));
+                share.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        running.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                });
+            }
+            assertTrue("Minimum replicas should not wait for threads", running.await(2, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+
+        for (ReplicaScheduler.Share share : shares) {
+            share.unregister();
+        }
+        assertEquals(THREADS, scheduler.getPoolSize());
+    }
+
+    @Test(timeout = 10000l)
+    public void testSharedReplicas_bulkhead() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        MessageListener blockingListener = new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+
+        final int messages = 100;
+        final CountDownLatch handled = new CountDownLatch(messages);
+        MessageListener countingListener = new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                handled.countDown();
+            }
+        };
+
+        ReplicatingMessageListener slow = createListener("slow", blockingListener);
+        ReplicatingMessageListener fast = createListener("fast", countingListener);
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                slow.onMessage(new Message());
+            }
+            assertTrue(blocked.await(1, TimeUnit.SECONDS));
+
+            for (int i = 0; i < messages; i++) {
+                fast.onMessage(new Message());
+            }
+            assertTrue("Stuck listener should not block the other listener", handled.await(5, TimeUnit.SECONDS));
+            assertEquals(1, slow.getReplicas());
+        } finally {
+            release.countDown();
+            slow.shutdown();
+            fast.shutdown();
+        }
+    }
+
+    private ReplicatingMessageListener createListener(String name, final MessageListener listener) {
+        return new ReplicatingMessageListener(name, listener, new ReplicationFactory() {
+            @Override
+            public MessageListener createReplication() {
+                return listener;
+            }
+        }, new TresholdReplicationPolicy(), scheduler);
+    }
+}
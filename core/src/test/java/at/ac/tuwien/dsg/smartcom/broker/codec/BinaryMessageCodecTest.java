@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.codec;
+
+import at.ac.tuwien.dsg.smartcom.model.DeliveryPolicy;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BinaryMessageCodecTest {
+
+    private final MessageCodec codec = new BinaryMessageCodec();
+
+    @Test
+    public void testEncodeDecode() throws Exception {
+        Message message = new Message.MessageBuilder()
+                .setId(Identifier.message("id"))
+                .setContent("content \u00e4\u00f6\u00fc \u20ac")
+                .setType(PredefinedMessageHelper.CONTROL_TYPE)
+                .setSubtype(PredefinedMessageHelper.ACK_SUBTYPE)
+                .setSenderId(Identifier.adapter("adapter", "peer"))
+                .setReceiverId(Identifier.peer("peer"))
+                .setConversationId("conversation")
+                .setTtl(-5000l)
+                .setExpiration(1400000000000l)
+                .setLanguage("language")
+                .setSecurityToken("token")
+                .setRefersTo(Identifier.message("original"))
+                .setDeliveryPolicy(DeliveryPolicy.Message.ACKNOWLEDGED)
+                .create();
+        message.setCreditOwner("node");
+
+        assertMessageEquals(message, codec.decode(codec.encode(message)));
+    }
+
+    @Test
+    public void testEncodeDecode_customTypes() throws Exception {
+        Message message = new Message.MessageBuilder()
+                .setType("CUSTOM")
+                .setSubtype("SUBTYPE")
+                .setTtl(Long.MAX_VALUE)
+                .create();
+
+        assertMessageEquals(message, codec.decode(codec.encode(message)));
+    }
+
+    @Test
+    public void testEncodeDecode_emptyMessage() throws Exception {
+        Message message = new Message();
+        message.setDelivery(null);
+
+        Message decoded = codec.decode(codec.encode(message));
+        assertMessageEquals(message, decoded);
+        assertNull(decoded.getDelivery());
+    }
+
+    @Test
+    public void testEncodedSize() throws Exception {
+        Message message = new Message.MessageBuilder()
+                .setId(Identifier.message("id"))
+                .setContent("content")
+                .setType(PredefinedMessageHelper.DATA_TYPE)
+                .setSubtype(PredefinedMessageHelper.REQUEST_SUBTYPE)
+                .setSenderId(Identifier.component("sender"))
+                .setReceiverId(Identifier.peer("receiver"))
+                .create();
+
+        byte[] binary = codec.encode(message);
+        byte[] serialized = new SerializationMessageCodec().encode(message);
+        assertTrue("Binary encoding should be smaller than the serialized one", binary.length * 5 < serialized.length);
+    }
+
+    @Test
+    public void testEncodeDecode_compressedContent() throws Exception {
+        Message message = new Message.MessageBuilder()
+                .setId(Identifier.message("id"))
+                .setContent(largeContent())
+                .setType(PredefinedMessageHelper.DATA_TYPE)
+                .create();
+
+        byte[] data = codec.encode(message);
+        assertTrue("Large content should be compressed", data.length * 10 < message.getContent().length());
+
+        Message decoded = codec.decode(data);
+        assertTrue(decoded.isContentCompressed());
+        assertMessageEquals(message, decoded);
+
+        //relaying a received message uses the compressed content as it is
+        Message relayed = codec.decode(codec.encode(decoded.clone()));
+        assertArrayEquals(decoded.getCompressedContent(), relayed.getCompressedContent());
+        assertEquals(message.getContent(), relayed.getContent());
+    }
+
+    @Test
+    public void testEncodeDecode_compressionDisabled() throws Exception {
+        Message message = new Message.MessageBuilder()
+                .setContent(largeContent())
+                .create();
+
+        MessageCodec codec = new BinaryMessageCodec(0);
+        Message decoded = codec.decode(codec.encode(message));
+        assertFalse(decoded.isContentCompressed());
+        assertEquals(message.getContent(), decoded.getContent());
+    }
+
+    @Test
+    public void testEncodeDecode_changedContent() throws Exception {
+        Message decoded = codec.decode(codec.encode(new Message.MessageBuilder().setContent(largeContent()).create()));
+        decoded.setContent("changed");
+
+        Message message = codec.decode(codec.encode(decoded));
+        assertFalse(message.isContentCompressed());
+        assertEquals("changed", message.getContent());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_truncated() throws Exception {
+        Message message = new Message.MessageBuilder()
+                .setContent("content")
+                .create();
+
+        byte[] data = codec.encode(message);
+        codec.decode(Arrays.copyOf(data, 5)); //cut within the content
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecode_unknownVersion() throws Exception {
+        codec.decode(new byte[]{(byte) (BinaryMessageCodec.VERSION + 1)});
+    }
+
+    @Test
+    public void testSerializationCodec() throws Exception {
+        MessageCodec codec = new SerializationMessageCodec();
+        Message message = new Message.MessageBuilder()
+                .setId(Identifier.message("id"))
+                .setContent("content")
+                .setType("type")
+                .setSenderId(Identifier.adapter("adapter", "peer"))
+                .create();
+
+        assertMessageEquals(message, codec.decode(codec.encode(message)));
+    }
+
+    private String largeContent() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.append("task description ").append(i % 10).append(" \u00e4\u00f6\u00fc\n");
+        }
+        return builder.toString();
+    }
+
+    private void assertMessageEquals(Message expected, Message actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSubtype(), actual.getSubtype());
+        assertEquals(expected.getSenderId(), actual.getSenderId());
+        assertEquals(expected.getReceiverId(), actual.getReceiverId());
+        assertEquals(expected.getConversationId(), actual.getConversationId());
+        assertEquals(expected.getTtl(), actual.getTtl());
+        assertEquals(expected.getExpiration(), actual.getExpiration());
+        assertEquals(expected.getLanguage(), actual.getLanguage());
+        assertEquals(expected.getSecurityToken(), actual.getSecurityToken());
+        assertEquals(expected.getDelivery(), actual.getDelivery());
+        assertEquals(expected.getRefersTo(), actual.getRefersTo());
+        assertEquals(expected.getCreditOwner(), actual.getCreditOwner());
+    }
+}
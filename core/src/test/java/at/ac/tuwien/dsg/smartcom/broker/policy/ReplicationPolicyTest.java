@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.policy;
+
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplicationPolicyTest {
+
+    private static final long WINDOW = 10000;
+    private static final long SERVICE_TIME = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void testLatencyPolicy_steadyLoad() throws Exception {
+        ReplicationPolicy policy = new LatencyReplicationPolicy(500, 0.8f, 0.25f, 2);
+
+        //100 messages per second with 10ms service time require 1.25 replicas at 80% utilization
+        assertResult(ReplicationType.UPSCALE, 1, determine(policy, 1000, 1, 0));
+
+        //cool-down
+        assertResult(ReplicationType.NOSCALE, 0, determine(policy, 1000, 2, 0));
+        assertResult(ReplicationType.NOSCALE, 0, determine(policy, 1000, 2, 0));
+
+        for (int i = 0; i < 10; i++) {
+            assertResult(ReplicationType.NOSCALE, 0, determine(policy, 1000, 2, 0));
+        }
+    }
+
+    @Test
+    public void testLatencyPolicy_backlog() throws Exception {
+        ReplicationPolicy policy = new LatencyReplicationPolicy(500, 0.8f, 0.25f, 0);
+
+        //500 pending messages have to be handled within 500ms: 10 replicas + 2 for the arrivals
+        assertResult(ReplicationType.UPSCALE, 10, determine(policy, 1000, 2, 500));
+
+        //broker backlog is taken into account, the replicas are limited by the listener
+        QueueStatistic brokerQueue = new QueueStatistic("queue", 100000, 0, 0, 0, 0);
+        assertResult(ReplicationType.UPSCALE, 2000, policy.determineReplicationPolicy(1000, 2, 0, 1000, brokerQueue, 1000 * SERVICE_TIME, WINDOW));
+    }
+
+    @Test
+    public void testLatencyPolicy_hysteresis() throws Exception {
+        ReplicationPolicy policy = new LatencyReplicationPolicy(500, 0.8f, 0.25f, 0);
+
+        //3 replicas required, 4 are within the hysteresis
+        assertResult(ReplicationType.NOSCALE, 0, determine(policy, 2000, 4, 0));
+
+        //2 replicas required
+        assertResult(ReplicationType.DOWNSCALE, 2, determine(policy, 1000, 4, 0));
+    }
+
+    @Test
+    public void testLatencyPolicy_idle() throws Exception {
+        ReplicationPolicy policy = new LatencyReplicationPolicy(500, 0.8f, 0.25f, 0);
+
+        //no measurement yet
+        assertResult(ReplicationType.NOSCALE, 0, policy.determineReplicationPolicy(0, 5, 0, 0, null, 0, WINDOW));
+
+        determine(policy, 1000, 2, 0);
+
+        //no messages arrive anymore, the last known service time is used
+        assertResult(ReplicationType.DOWNSCALE, 4, policy.determineReplicationPolicy(0, 5, 0, 0, null, 0, WINDOW));
+    }
+
+    @Test
+    public void testDynamicPolicy_nothingHandled() throws Exception {
+        ReplicationPolicy policy = new DynamicReplicationPolicy();
+
+        assertEquals(ReplicationType.UPSCALE, policy.determineReplicationPolicy(1000, 2, 500, 0).getType());
+        assertEquals(ReplicationType.DOWNSCALE, policy.determineReplicationPolicy(0, 2, 0, 0).getType());
+    }
+
+    private ReplicationPolicyResult determine(ReplicationPolicy policy, int messages, int handlers, int pending) {
+        return policy.determineReplicationPolicy(messages, handlers, pending, messages, null, messages * SERVICE_TIME, WINDOW);
+    }
+
+    private void assertResult(ReplicationType type, int amount, ReplicationPolicyResult result) {
+        assertEquals(type, result.getType());
+        assertEquals(amount, result.getAmount());
+    }
+}
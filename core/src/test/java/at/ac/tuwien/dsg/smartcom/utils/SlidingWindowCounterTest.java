@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlidingWindowCounterTest {
+
+    @Test
+    public void testIncrease() throws Exception {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10, TimeUnit.SECONDS, 10);
+        counter.increase(0);
+        counter.increase(500);
+        counter.increase(1500);
+        counter.increase(9999);
+
+        assertEquals(4, counter.getCounter(9999));
+        assertEquals(2, counter.getCounter(10000)); //first bucket left the window
+        assertEquals(1, counter.getCounter(11000));
+        assertEquals(0, counter.getCounter(20000));
+    }
+
+    @Test
+    public void testIncrease_recycledBucket() throws Exception {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10, TimeUnit.SECONDS, 10);
+        counter.increase(100);
+        counter.increase(200);
+
+        //same bucket, one window later
+        counter.increase(10100);
+
+        assertEquals(1, counter.getCounter(10100));
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10, TimeUnit.SECONDS, 10);
+        counter.add(1500, 0);
+        counter.add(2500, 5000);
+
+        assertEquals(4000, counter.getSum(5000));
+        assertEquals(2500, counter.getSum(10000));
+        assertEquals(10000, counter.getWindowMillis());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        SlidingWindowCounter counter = new SlidingWindowCounter(10, TimeUnit.SECONDS);
+        counter.increase();
+        counter.increase();
+        counter.clear();
+
+        assertEquals(0, counter.getCounter());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        SlidingWindowCounter counter = new SlidingWindowCounter(500, TimeUnit.MILLISECONDS);
+        counter.increase();
+        counter.increase();
+        counter.increase();
+        assertEquals(3, counter.getCounter());
+
+        synchronized (this) {
+            wait(1000);
+        }
+
+        assertEquals(0, counter.getCounter());
+    }
+
+    @Test(timeout = 10000l)
+    public void testIncrease_concurrent() throws Exception {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(1, TimeUnit.HOURS);
+        final int threads = 8;
+        final int increments = 10000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < increments; j++) {
+                        counter.increase();
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        executor.shutdown();
+
+        //increments that race with the first use of a bucket may get lost
+        assertEquals(threads * increments, counter.getCounter(), threads);
+    }
+}
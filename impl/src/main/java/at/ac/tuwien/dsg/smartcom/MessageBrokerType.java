@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom;
+
+/**
+ * Message broker implementations that can be used by SmartCom
+ *
+ * @version 1.0
+ */
+public enum MessageBrokerType {
+    /**
+     * Apache ActiveMQ, either embedded or an external instance
+     */
+    ACTIVE_MQ,
+
+    /**
+     * In-process broker based on ring buffers, for single node deployments only
+     */
+    RING_BUFFER,
+
+    /**
+     * In-process broker based on memory-mapped journal files, durable but for single node deployments only
+     */
+    JOURNAL
+}
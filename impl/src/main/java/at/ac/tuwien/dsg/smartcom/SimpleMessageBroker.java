@@ -17,59 +17,84 @@
  */
 package at.ac.tuwien.dsg.smartcom;
 
+import at.ac.tuwien.dsg.smartcom.broker.AbstractBrokerMonitor;
+import at.ac.tuwien.dsg.smartcom.broker.BrokerMonitor;
 import at.ac.tuwien.dsg.smartcom.broker.CancelableListener;
 import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
 import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Simple in-memory message broker. Each destination has a lock-free queue and at most
+ * one listener. Messages of a destination with a listener are delivered by a serial
+ * executor on top of a shared thread pool, i.e., the messages of a destination are
+ * delivered in order and one at a time while different destinations are handled
+ * in parallel.
+ *
+ * The queues are monitored by internal counters of the destinations.
+ *
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @version 1.0
  */
-public final class SimpleMessageBroker implements MessageBroker {
+public final class SimpleMessageBroker implements MessageBroker, BrokerMonitor {
     private static final Logger log = LoggerFactory.getLogger(SimpleMessageBroker.class);
 
-    private final static String AUTH_QUEUE = "AUTH_QUEUE";
-    private final static String MIS_QUEUE = "MIS_QUEUE";
-    private final static String MPS_QUEUE = "MPS_QUEUE";
-    private final static String CONTROL_QUEUE = "CONTROL_QUEUE";
-    private final static String LOG_QUEUE = "LOG_QUEUE";
+    /**
+     * Maximum number of messages that are delivered by a serial executor before it
+     * releases its thread to other destinations
+     */
+    private static final int MAX_MESSAGES_PER_RUN = 100;
 
-    private final BlockingDeque<Message> inputQueue = new LinkedBlockingDeque<>();
-    private final Map<Identifier,BlockingDeque<Message>> requestQueues = new HashMap<>();
-    private final Map<Identifier,BlockingDeque<Message>> taskQueues = new HashMap<>();
-    private final Map<String, BlockingDeque<Message>> specialQueues = new HashMap<>();
+    private static final int THREADS = 40;
 
-    private MessageListener inputListener = null;
-    private final Map<Identifier,MessageListener> requestListeners = new HashMap<>();
-    private final Map<Identifier,MessageListener> taskListeners = new HashMap<>();
-    private final Map<String, MessageListener> specialListeners = new HashMap<>();
+    private final Destination inputQueue = new Destination(INPUT_QUEUE);
+    private final Destination authQueue = new Destination(AUTH_QUEUE);
+    private final Destination misQueue = new Destination(MESSAGE_INFO_QUEUE);
+    private final Destination mpsQueue = new Destination(METRICS_QUEUE);
+    private final Destination controlQueue = new Destination(CONTROL_QUEUE);
+    private final Destination logQueue = new Destination(LOG_QUEUE);
 
-    public SimpleMessageBroker() {
-        specialQueues.put(AUTH_QUEUE, new LinkedBlockingDeque<Message>());
-        specialQueues.put(MIS_QUEUE, new LinkedBlockingDeque<Message>());
-        specialQueues.put(MPS_QUEUE, new LinkedBlockingDeque<Message>());
-        specialQueues.put(CONTROL_QUEUE, new LinkedBlockingDeque<Message>());
-        specialQueues.put(LOG_QUEUE, new LinkedBlockingDeque<Message>());
-    }
+    private final ConcurrentMap<Identifier, Destination> requestQueues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Identifier, Destination> taskQueues = new ConcurrentHashMap<>();
 
     private ExecutorService executor;
 
+    private final AbstractBrokerMonitor monitor = new AbstractBrokerMonitor() {
+        @Override
+        protected Collection<QueueStatistic> sample() {
+            List<QueueStatistic> statistics = new ArrayList<>();
+            for (Destination destination : new Destination[]{inputQueue, authQueue, misQueue, mpsQueue, controlQueue, logQueue}) {
+                statistics.add(destination.getStatistic());
+            }
+            for (Destination destination : requestQueues.values()) {
+                statistics.add(destination.getStatistic());
+            }
+            for (Destination destination : taskQueues.values()) {
+                statistics.add(destination.getStatistic());
+            }
+            return statistics;
+        }
+    };
+
     @PostConstruct
     public void init() {
-        executor = Executors.newFixedThreadPool(40);
+        executor = Executors.newFixedThreadPool(THREADS);
     }
 
     @PreDestroy
@@ -79,265 +104,389 @@ public final class SimpleMessageBroker implements MessageBroker {
 
     @Override
     public void publishInput(final Message message) {
-        synchronized (inputQueue) {
-            if (inputListener == null) {
-                inputQueue.add(message);
-                log.trace("Published input {}", message);
-            } else {
-                executor.submit(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        inputListener.onMessage(message);
-                    }
-                });
-                log.trace("Called listener on input {}", message);
-            }
-        }
+        inputQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishInputAsync(Message message) {
+        publishInput(message);
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public Message receiveInput() {
-        try {
-            log.trace("Receiving input...");
-            return inputQueue.take();
-        } catch (InterruptedException e) {
-            return null;
-        }
+        return inputQueue.receive();
+    }
+
+    @Override
+    public List<Message> receiveInputBatch(int maxMessages, long timeout) {
+        return inputQueue.receive(maxMessages, timeout);
     }
 
     @Override
     public CancelableListener registerInputListener(MessageListener listener) {
-        synchronized (inputQueue) {
-            log.trace("added input listener");
-            inputListener = listener;
-        }
-        return new CancelableListenerImpl();
+        return inputQueue.register(listener);
     }
 
     @Override
     public Message receiveRequests(Identifier id) {
-        try {
-            BlockingDeque<Message> queue = requestQueues.get(id);
-            if (queue == null) {
-                synchronized (requestQueues) {
-                    queue = requestQueues.get(id);
-                    if (queue == null) {
-                        queue = new LinkedBlockingDeque<>();
-                        requestQueues.put(id, queue);
-                    }
-                }
-            }
-            log.trace("Receiving requests with id {}", id);
-            return queue.take();
-        } catch (InterruptedException e) {
-            return null;
-        }
+        return getDestination(requestQueues, REQUEST_QUEUE_PREFIX, id).receive();
+    }
+
+    @Override
+    public List<Message> receiveRequestsBatch(Identifier id, int maxMessages, long timeout) {
+        return getDestination(requestQueues, REQUEST_QUEUE_PREFIX, id).receive(maxMessages, timeout);
     }
 
     @Override
     public CancelableListener registerRequestListener(Identifier id, MessageListener listener) {
-        synchronized (requestListeners) {
-            log.trace("registered request listener");
-            requestListeners.put(id, listener);
-        }
-        return new CancelableListenerImpl();
+        return getDestination(requestQueues, REQUEST_QUEUE_PREFIX, id).register(listener);
     }
 
     @Override
     public void publishRequest(Identifier id, final Message message) {
-        BlockingDeque<Message> queue = requestQueues.get(id);
-        if (queue == null) {
-            synchronized (requestQueues) {
-                queue = requestQueues.get(id);
-
-                if (queue == null) {
-                    queue = new LinkedBlockingDeque<>();
-                    requestQueues.put(id, queue);
-                }
-            }
-        }
-        final MessageListener listener = requestListeners.get(id);
-        if (listener != null) {
-            log.trace("called listener on request {} and id {}", message, id);
-            executor.submit(new Runnable() {
-
-                @Override
-                public void run() {
-                    listener.onMessage(message);
-                }
-            });
-        } else {
-            log.trace("Published request {} and id {}", message, id);
-            queue.add(message);
-        }
+        getDestination(requestQueues, REQUEST_QUEUE_PREFIX, id).publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishRequestAsync(Identifier id, Message message) {
+        publishRequest(id, message);
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public Message receiveOutput(Identifier id) {
-        try {
-            BlockingDeque<Message> queue;
-            synchronized (taskQueues) {
-                queue = taskQueues.get(id);
-
-                if (queue == null) {
-                    queue = new LinkedBlockingDeque<>();
-                    taskQueues.put(id, queue);
-                }
-            }
-            log.trace("Receiving task with id {}", id);
-            return queue.take();
-        } catch (InterruptedException e) {
-            return null;
-        }
+        return getDestination(taskQueues, TASK_QUEUE_PREFIX, id).receive();
+    }
+
+    @Override
+    public List<Message> receiveOutputBatch(Identifier id, int maxMessages, long timeout) {
+        return getDestination(taskQueues, TASK_QUEUE_PREFIX, id).receive(maxMessages, timeout);
     }
 
     @Override
     public CancelableListener registerOutputListener(Identifier id, MessageListener listener) {
-        synchronized (taskListeners) {
-            log.trace("Registered task listener with id {}", id);
-            taskListeners.put(id, listener);
-        }
-        return new CancelableListenerImpl();
+        return getDestination(taskQueues, TASK_QUEUE_PREFIX, id).register(listener);
     }
 
     @Override
     public void publishOutput(Identifier id, final Message message) {
-        BlockingDeque<Message> queue = taskQueues.get(id);
-        if (queue == null) {
-            synchronized (taskQueues) {
-                queue = taskQueues.get(id);
-
-                if (queue == null) {
-                    queue = new LinkedBlockingDeque<>();
-                    taskQueues.put(id, queue);
-                }
+        getDestination(taskQueues, TASK_QUEUE_PREFIX, id).publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishOutputAsync(Identifier id, Message message) {
+        publishOutput(id, message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void publishOutputBatch(Map<Identifier, List<Message>> messages) {
+        for (Map.Entry<Identifier, List<Message>> entry : messages.entrySet()) {
+            Destination destination = getDestination(taskQueues, TASK_QUEUE_PREFIX, entry.getKey());
+            for (Message message : entry.getValue()) {
+                destination.publish(message);
             }
         }
-        final MessageListener listener = taskListeners.get(id);
-        if (listener != null) {
-            log.trace("Called listener on task {} and id {}", message, id);
-            executor.submit(new Runnable() {
-
-                @Override
-                public void run() {
-                    listener.onMessage(message);
-                }
-            });
-        } else {
-            log.trace("Published task {} and id {}", message, id);
-            queue.add(message);
-        }
     }
 
     @Override
     public void publishControl(Message message) {
-        publishSpecial(CONTROL_QUEUE, message);
+        controlQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishControlAsync(Message message) {
+        publishControl(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void publishControlBatch(List<Message> messages) {
+        for (Message message : messages) {
+            controlQueue.publish(message);
+        }
     }
 
     @Override
     public Message receiveControl() {
-        return receiveSpecial(CONTROL_QUEUE);
+        return controlQueue.poll();
     }
 
     @Override
     public CancelableListener registerControlListener(MessageListener listener) {
-        specialListeners.put(CONTROL_QUEUE, listener);
-        return new CancelableListenerImpl();
+        return controlQueue.register(listener);
     }
 
     @Override
     public void publishAuthRequest(Message message) {
-        publishSpecial(AUTH_QUEUE, message);
+        authQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAuthRequestAsync(Message message) {
+        publishAuthRequest(message);
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public Message receiveAuthRequest() {
-        return receiveSpecial(AUTH_QUEUE);
+        return authQueue.poll();
     }
 
     @Override
     public CancelableListener registerAuthListener(MessageListener listener) {
-        specialListeners.put(AUTH_QUEUE, listener);
-        return new CancelableListenerImpl();
+        return authQueue.register(listener);
     }
 
     @Override
     public void publishMessageInfoRequest(Message message) {
-        publishSpecial(MIS_QUEUE, message);
+        misQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMessageInfoRequestAsync(Message message) {
+        publishMessageInfoRequest(message);
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public Message receiveMessageInfoRequest() {
-        return receiveSpecial(MIS_QUEUE);
+        return misQueue.poll();
     }
 
     @Override
     public CancelableListener registerMessageInfoListener(MessageListener listener) {
-        specialListeners.put(MIS_QUEUE, listener);
-        return new CancelableListenerImpl();
+        return misQueue.register(listener);
     }
 
     @Override
     public void publishMetricsRequest(Message message) {
-        publishSpecial(MPS_QUEUE, message);
+        mpsQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMetricsRequestAsync(Message message) {
+        publishMetricsRequest(message);
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public Message receiveMetricsRequest() {
-        return receiveSpecial(MPS_QUEUE);
+        return mpsQueue.poll();
     }
 
     @Override
     public CancelableListener registerMetricsListener(MessageListener listener) {
-        specialListeners.put(MPS_QUEUE, listener);
-        return new CancelableListenerImpl();
+        return mpsQueue.register(listener);
     }
 
     @Override
     public void publishLog(Message message) {
-        publishSpecial(LOG_QUEUE, message);
+        logQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishLogAsync(Message message) {
+        publishLog(message);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void publishLogBatch(List<Message> messages) {
+        for (Message message : messages) {
+            logQueue.publish(message);
+        }
     }
 
     @Override
     public Message receiveLog() {
-        return receiveSpecial(LOG_QUEUE);
+        return logQueue.poll();
+    }
+
+    @Override
+    public List<Message> receiveLogBatch(int maxMessages, long timeout) {
+        return logQueue.receive(maxMessages, timeout);
     }
 
     @Override
     public CancelableListener registerLogListener(MessageListener listener) {
-        specialListeners.put(LOG_QUEUE, listener);
-        return new CancelableListenerImpl();
+        return logQueue.register(listener);
+    }
+
+    @Override
+    public List<QueueStatistic> getQueueStatistics() {
+        return monitor.getQueueStatistics();
     }
 
-    private void publishSpecial(String id, final Message message) {
-        BlockingDeque<Message> messages = specialQueues.get(id);
-        final MessageListener listener = specialListeners.get(id);
-        if (listener != null) {
-            log.trace("Called listener for {} on {}", id, message);
-            executor.submit(new Runnable() {
+    @Override
+    public QueueStatistic getQueueStatistic(String queue) {
+        return monitor.getQueueStatistic(queue);
+    }
+
+    private Destination getDestination(ConcurrentMap<Identifier, Destination> destinations, String prefix, Identifier id) {
+        Destination destination = destinations.get(id);
+        if (destination == null) {
+            destination = new Destination(prefix + id.getId());
+            Destination existing = destinations.putIfAbsent(id, destination);
+            if (existing != null) {
+                destination = existing;
+            }
+        }
+        return destination;
+    }
+
+    /**
+     * Queue of a destination with its listener. Acts as serial executor that delivers
+     * the queued messages to the listener.
+     */
+    private class Destination implements Runnable {
+        private final String name;
+        private final BlockingQueue<Entry> queue = new LinkedTransferQueue<>();
+        private final AtomicReference<MessageListener> listener = new AtomicReference<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final LongAdder enqueued = new LongAdder();
+        private final LongAdder dequeued = new LongAdder();
+
+        private Destination(String name) {
+            this.name = name;
+        }
+
+        void publish(Message message) {
+            enqueued.increment();
+            queue.add(new Entry(message));
+            log.trace("Published {} {}", name, message);
+            schedule();
+        }
+
+        Message receive() {
+            try {
+                log.trace("Receiving {}", name);
+                return dequeue(queue.take());
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+
+        Message poll() {
+            log.trace("Receiving {}", name);
+            return dequeue(queue.poll());
+        }
+
+        List<Message> receive(int maxMessages, long timeout) {
+            try {
+                log.trace("Receiving batch of {}", name);
+                Entry first = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    return Collections.emptyList();
+                }
+
+                List<Entry> entries = new ArrayList<>();
+                entries.add(first);
+                queue.drainTo(entries, maxMessages - 1);
+
+                List<Message> messages = new ArrayList<>(entries.size());
+                for (Entry entry : entries) {
+                    messages.add(entry.message);
+                }
+                dequeued.add(entries.size());
+                return messages;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Collections.emptyList();
+            }
+        }
+
+        private Message dequeue(Entry entry) {
+            if (entry == null) {
+                return null;
+            }
+            dequeued.increment();
+            return entry.message;
+        }
+
+        QueueStatistic getStatistic() {
+            long dequeuedMessages = dequeued.sum();
+            long enqueuedMessages = enqueued.sum();
+            Entry oldest = queue.peek();
+            long age = oldest == null ? 0 : Math.max(0, System.currentTimeMillis() - oldest.enqueued);
+            return new QueueStatistic(name, Math.max(0, enqueuedMessages - dequeuedMessages),
+                    listener.get() == null ? 0 : 1, enqueuedMessages, dequeuedMessages, age);
+        }
+
+        CancelableListener register(MessageListener listener) {
+            log.trace("Registered listener for {}", name);
+            this.listener.set(listener);
+            schedule();
+            return new CancelableListenerImpl(this, listener);
+        }
+
+        void deregister(MessageListener listener) {
+            if (this.listener.compareAndSet(listener, null)) {
+                log.trace("Removed listener for {}", name);
+            }
+        }
 
-                @Override
-                public void run() {
-                    listener.onMessage(message);
+        private void schedule() {
+            if (listener.get() != null && !queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    log.debug("Could not deliver messages of {}, broker has been shut down", name);
                 }
-            });
-        } else {
-            log.trace("Published {} {}", id, message);
-            messages.add(message);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < MAX_MESSAGES_PER_RUN; i++) {
+                    MessageListener current = listener.get();
+                    if (current == null) {
+                        break;
+                    }
+
+                    Message message = dequeue(queue.poll());
+                    if (message == null) {
+                        break;
+                    }
+
+                    log.trace("Called listener for {} on {}", name, message);
+                    try {
+                        current.onMessage(message);
+                    } catch (Exception e) {
+                        log.error("Error in listener of {}", name, e);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                schedule();
+            }
         }
     }
 
-    private Message receiveSpecial(String id) {
-        log.trace("Receiving {}", id);
-        return specialQueues.get(id).poll();
+    private static class Entry {
+        private final Message message;
+        private final long enqueued = System.currentTimeMillis();
+
+        private Entry(Message message) {
+            this.message = message;
+        }
     }
 
     private class CancelableListenerImpl implements CancelableListener {
+        private final Destination destination;
+        private final MessageListener listener;
+
+        private CancelableListenerImpl(Destination destination, MessageListener listener) {
+            this.destination = destination;
+            this.listener = listener;
+        }
 
         @Override
         public void cancel() {
-
+            destination.deregister(listener);
         }
     }
 }
@@ -21,7 +21,13 @@ import at.ac.tuwien.dsg.smartcom.adapters.AndroidOutputAdapter;
 import at.ac.tuwien.dsg.smartcom.adapters.DropboxOutputAdapter;
 import at.ac.tuwien.dsg.smartcom.adapters.EmailOutputAdapter;
 import at.ac.tuwien.dsg.smartcom.adapters.RESTOutputAdapter;
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
+import at.ac.tuwien.dsg.smartcom.broker.codec.BinaryMessageCodec;
 import at.ac.tuwien.dsg.smartcom.broker.impl.ApacheActiveMQMessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.impl.JournalMessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.impl.RingBufferMessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.impl.ShardedMessageBroker;
 import at.ac.tuwien.dsg.smartcom.broker.utils.ApacheActiveMQUtils;
 import at.ac.tuwien.dsg.smartcom.callback.CollectiveInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.PeerAuthenticationCallback;
@@ -37,6 +43,8 @@ import at.ac.tuwien.dsg.smartcom.manager.auth.AuthenticationRequestHandler;
 import at.ac.tuwien.dsg.smartcom.manager.auth.dao.MongoDBAuthenticationSessionDAO;
 import at.ac.tuwien.dsg.smartcom.manager.dao.MongoDBPeerChannelAddressResolverDAO;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.MessagingAndRoutingManagerImpl;
+import at.ac.tuwien.dsg.smartcom.manager.messaging.MessagingLanes;
+import at.ac.tuwien.dsg.smartcom.manager.messaging.MessagingStages;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.PeerInfoService;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.PeerInfoServiceImpl;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.logging.LoggingService;
@@ -58,6 +66,12 @@ import org.picocontainer.PicoBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @version 1.0
@@ -115,6 +129,8 @@ public class SmartCom {
         pico.addComponent(StatisticBean.class);
 
         initMessageBroker();
+        initInputFlowControl();
+        initReplicaScheduler();
         initAdapterManager();
         initMessagingAndRouting();
         initAuthenticationManager();
@@ -163,14 +179,27 @@ public class SmartCom {
 
         //Messaging and Routing Manager
         pico.addComponent(MessageLogLevel.class, this.configuration.messageLogLevel);
+        pico.addComponent(new MessagingLanes(this.configuration.controlThreads, this.configuration.authThreads,
+                this.configuration.dataThreads, MessagingLanes.DEFAULT_QUEUE_CAPACITY));
+        pico.addComponent(this.configuration.messagingStages);
         pico.addComponent(MessagingAndRoutingManager.class, MessagingAndRoutingManagerImpl.class);
         pico.addComponent(PeerInfoService.class, PeerInfoServiceImpl.class);
 
         //Logging
-        pico.addComponent(LoggingDAO.class, new MongoDBLoggingDAO(this.configuration.mongoClient, this.configuration.mongoDBDatabaseName, "logging"));
+        pico.addComponent(LoggingDAO.class, new MongoDBLoggingDAO(this.configuration.mongoClient, this.configuration.mongoDBDatabaseName, "logging", this.configuration.compressionThreshold));
         pico.addComponent(LoggingService.class);
     }
 
+    private void initInputFlowControl() {
+        log.debug("Initializing input flow control");
+        pico.addComponent(new InputFlowControl(this.configuration.inputCredits));
+    }
+
+    private void initReplicaScheduler() {
+        log.debug("Initializing replica scheduler");
+        pico.addComponent(new ReplicaScheduler(this.configuration.replicaThreads));
+    }
+
     private void initAdapterManager() throws CommunicationException {
         log.debug("Initializing adapter manager");
         pico.as(Characteristics.CACHE).addComponent(new MongoDBPeerChannelAddressResolverDAO(this.configuration.mongoClient, this.configuration.mongoDBDatabaseName, "resolver"));
@@ -186,9 +215,28 @@ public class SmartCom {
     }
 
     private ApacheActiveMQMessageBroker messageBroker;
+    private final List<ApacheActiveMQMessageBroker> shardBrokers = new ArrayList<>();
+    private JournalMessageBroker journalBroker;
 
     private void initMessageBroker() throws CommunicationException {
         log.debug("Initializing message broker");
+        if (this.configuration.messageBroker == MessageBrokerType.RING_BUFFER) {
+            //lifecycle is handled by pico
+            pico.addComponent(RingBufferMessageBroker.class);
+            return;
+        }
+
+        if (this.configuration.messageBroker == MessageBrokerType.JOURNAL) {
+            try {
+                journalBroker = new JournalMessageBroker(new File(this.configuration.journalDirectory), pico.getComponent(StatisticBean.class),
+                        new BinaryMessageCodec(this.configuration.compressionThreshold));
+            } catch (IOException e) {
+                throw new CommunicationException(e, new ErrorCode(10, "Could not initialize message broker"));
+            }
+            pico.addComponent(journalBroker);
+            return;
+        }
+
         if (this.configuration.initActiveMQ) {
             try {
                 ApacheActiveMQUtils.startActiveMQWithoutPersistence(this.configuration.activeMQPort); //uses standard port
@@ -196,8 +244,45 @@ public class SmartCom {
                 throw new CommunicationException(e, new ErrorCode(10, "Could not initialize message broker"));
             }
         }
-        messageBroker = new ApacheActiveMQMessageBroker(this.configuration.activeMqHost, this.configuration.activeMQPort, this.configuration.useLocalMQ, pico.getComponent(StatisticBean.class));
-        pico.addComponent(messageBroker);
+        messageBroker = new ApacheActiveMQMessageBroker(this.configuration.activeMqHost, this.configuration.activeMQPort, this.configuration.useLocalMQ,
+                pico.getComponent(StatisticBean.class), new BinaryMessageCodec(this.configuration.compressionThreshold));
+        messageBroker.setChannelTaskQueues(this.configuration.channelTaskQueues);
+        messageBroker.setConsumerPoolLimits(this.configuration.consumerConnections,
+                this.configuration.consumersPerConnection, this.configuration.consumersPerSession);
+        messageBroker.setJmxUrl(this.configuration.activeMQJmxUrl);
+        if (this.configuration.useLocalMQ) {
+            messageBroker.setReferencePassing(this.configuration.referencePassing);
+        }
+
+        if (this.configuration.messageBrokerShards.isEmpty()) {
+            pico.addComponent(messageBroker);
+            pico.getComponent(StatisticBean.class).setBrokerMonitor(messageBroker);
+            return;
+        }
+
+        //distribute the queues over the default broker and the additional shards
+        List<ApacheActiveMQMessageBroker> shards = new ArrayList<>();
+        shards.add(messageBroker);
+        for (int i = 0; i < this.configuration.messageBrokerShards.size(); i++) {
+            InetSocketAddress address = this.configuration.messageBrokerShards.get(i);
+            ApacheActiveMQMessageBroker shard = new ApacheActiveMQMessageBroker(address.getHostString(), address.getPort(), false,
+                    pico.getComponent(StatisticBean.class), new BinaryMessageCodec(this.configuration.compressionThreshold));
+            shard.setChannelTaskQueues(this.configuration.channelTaskQueues);
+            shard.setConsumerPoolLimits(this.configuration.consumerConnections,
+                    this.configuration.consumersPerConnection, this.configuration.consumersPerSession);
+
+            //the platform MBean server only contains brokers of this JVM
+            String jmxUrl = this.configuration.messageBrokerShardJmxUrls.get(i);
+            if (jmxUrl == null) {
+                log.warn("No JMX URL for message broker shard {}, its queues can't be monitored", address);
+            }
+            shard.setJmxUrl(jmxUrl);
+            shards.add(shard);
+            shardBrokers.add(shard);
+        }
+        ShardedMessageBroker shardedBroker = new ShardedMessageBroker(shards);
+        pico.addComponent(shardedBroker);
+        pico.getComponent(StatisticBean.class).setBrokerMonitor(shardedBroker);
 //        pico.addComponent(MessageBroker.class, SimpleMessageBroker.class); //enables this line and disable the ones above for a fast local execution
     }
 
@@ -211,6 +296,13 @@ public class SmartCom {
         if (messageBroker != null) {
             messageBroker.cleanUp();
         }
+        for (ApacheActiveMQMessageBroker shard : shardBrokers) {
+            shard.cleanUp();
+        }
+
+        if (journalBroker != null) {
+            journalBroker.cleanUp();
+        }
 
         this.configuration.mongoClient.close();
 
@@ -218,7 +310,7 @@ public class SmartCom {
             this.configuration.mongoDB.tearDown();
         }
 
-        if (this.configuration.initActiveMQ) {
+        if (this.configuration.initActiveMQ && messageBroker != null) {
             try {
                 ApacheActiveMQUtils.stopActiveMQ();
             } catch (Exception e) {
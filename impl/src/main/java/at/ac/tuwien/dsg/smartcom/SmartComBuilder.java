@@ -22,11 +22,14 @@ import at.ac.tuwien.dsg.smartcom.callback.PeerAuthenticationCallback;
 import at.ac.tuwien.dsg.smartcom.callback.PeerInfoCallback;
 import at.ac.tuwien.dsg.smartcom.exception.CommunicationException;
 import at.ac.tuwien.dsg.smartcom.exception.ErrorCode;
+import at.ac.tuwien.dsg.smartcom.manager.messaging.MessagingStages;
+import at.ac.tuwien.dsg.smartcom.manager.messaging.Stage;
 import at.ac.tuwien.dsg.smartcom.model.MessageLogLevel;
 import at.ac.tuwien.dsg.smartcom.utils.MongoDBInstance;
 import com.mongodb.MongoClient;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 
 /**
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
@@ -77,11 +80,139 @@ public class SmartComBuilder {
         return this;
     }
 
+    public SmartComBuilder setMessageBroker(MessageBrokerType messageBroker) {
+        this.configuration.messageBroker = messageBroker;
+        return this;
+    }
+
+    /**
+     * Set the directory of the journal files, only used by the JOURNAL message broker.
+     */
+    public SmartComBuilder setJournalDirectory(String journalDirectory) {
+        this.configuration.journalDirectory = journalDirectory;
+        return this;
+    }
+
     public SmartComBuilder useLocalMessageQueue(boolean useLocalMQ) {
         this.configuration.useLocalMQ = useLocalMQ;
         return this;
     }
 
+    /**
+     * Pass snapshots of the messages by reference instead of serializing them. Only applies if
+     * the local message queue is used (see {@link #useLocalMessageQueue(boolean)}), i.e., all
+     * components run in the same JVM.
+     */
+    public SmartComBuilder useMessageReferencePassing(boolean referencePassing) {
+        this.configuration.referencePassing = referencePassing;
+        return this;
+    }
+
+    /**
+     * Use a single task queue for all instances of an output adapter (e.g., the stateful adapters
+     * of the peers) instead of one task queue per instance.
+     */
+    public SmartComBuilder useChannelTaskQueues(boolean channelTaskQueues) {
+        this.configuration.channelTaskQueues = channelTaskQueues;
+        return this;
+    }
+
+    /**
+     * Set the limits of the connections that are shared by the consumers of the listeners of the
+     * ActiveMQ message broker (and its shards). By default every listener has its own session,
+     * more consumers per session save threads but the listeners of a session are invoked
+     * sequentially, hence a slow or blocking listener delays the others.
+     */
+    public SmartComBuilder setConsumerPoolLimits(int maxConnections, int maxConsumersPerConnection, int maxConsumersPerSession) {
+        this.configuration.consumerConnections = maxConnections;
+        this.configuration.consumersPerConnection = maxConsumersPerConnection;
+        this.configuration.consumersPerSession = maxConsumersPerSession;
+        return this;
+    }
+
+    /**
+     * Set the maximum amount of input messages that have been published by the input adapters
+     * but not yet handled by the middleware. Adapters are slowed down or rejected if this
+     * amount is exceeded.
+     */
+    public SmartComBuilder setInputCredits(int inputCredits) {
+        this.configuration.inputCredits = inputCredits;
+        return this;
+    }
+
+    /**
+     * Set the number of threads that are shared by the replicas of the message listeners
+     * (e.g., stateless output adapters, logging). Each listener is guaranteed one thread
+     * and gets a weighted share of the remaining threads under load.
+     */
+    public SmartComBuilder setReplicaThreads(int replicaThreads) {
+        this.configuration.replicaThreads = replicaThreads;
+        return this;
+    }
+
+    /**
+     * Set the number of threads of the messaging and routing manager that handle control
+     * messages, authentication requests and all other messages. Control messages and
+     * authentication requests are therefore never delayed by a backlog of data messages.
+     */
+    public SmartComBuilder setMessagingThreads(int controlThreads, int authThreads, int dataThreads) {
+        this.configuration.controlThreads = controlThreads;
+        this.configuration.authThreads = authThreads;
+        this.configuration.dataThreads = dataThreads;
+        return this;
+    }
+
+    /**
+     * Configure a stage of the messaging and routing manager that follows the routing of a message
+     * (see {@link MessagingStages}): the number of threads, the maximum number of waiting tasks and
+     * the behaviour if the stage is overloaded.
+     */
+    public SmartComBuilder setMessagingStage(MessagingStages.Type stage, int threads, int queueCapacity, Stage.Overload overload) {
+        this.configuration.messagingStages.configure(stage, threads, queueCapacity, overload);
+        return this;
+    }
+
+    /**
+     * Set the size in bytes above which the content of a message is compressed when it is
+     * transferred by the message broker or persisted in the message log. A threshold of 0
+     * disables the compression.
+     */
+    public SmartComBuilder setCompressionThreshold(int compressionThreshold) {
+        this.configuration.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    /**
+     * Set the URL of the JMX connector of the ActiveMQ instance, which is used to monitor
+     * the queues of the broker (e.g., service:jmx:rmi:///jndi/rmi://host:1099/jmxrmi).
+     * Not required if ActiveMQ is started by the middleware.
+     */
+    public SmartComBuilder setActiveMQJmxUrl(String jmxUrl) {
+        this.configuration.activeMQJmxUrl = jmxUrl;
+        return this;
+    }
+
+    /**
+     * Add an additional ActiveMQ broker. The queues of the middleware will be distributed over
+     * the default broker and all additional brokers (e.g., to scale the broker tier horizontally).
+     * All nodes of a cluster have to add the same brokers in the same order.
+     * The queues of the broker can't be monitored without the URL of its JMX connector
+     * (see {@link #addMessageBrokerShard(String, int, String)}).
+     */
+    public SmartComBuilder addMessageBrokerShard(String host, int port) {
+        return addMessageBrokerShard(host, port, null);
+    }
+
+    /**
+     * Add an additional ActiveMQ broker (see {@link #addMessageBrokerShard(String, int)}) and the
+     * URL of its JMX connector, which is used to monitor the queues of the broker.
+     */
+    public SmartComBuilder addMessageBrokerShard(String host, int port, String jmxUrl) {
+        this.configuration.messageBrokerShards.add(InetSocketAddress.createUnresolved(host, port));
+        this.configuration.messageBrokerShardJmxUrls.add(jmxUrl);
+        return this;
+    }
+
     public SmartComBuilder setMongoDBDatabaseName(String databaseName) {
         this.configuration.mongoDBDatabaseName = databaseName;
         return this;
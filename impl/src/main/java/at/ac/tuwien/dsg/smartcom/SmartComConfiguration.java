@@ -17,13 +17,23 @@
  */
 package at.ac.tuwien.dsg.smartcom;
 
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
+import at.ac.tuwien.dsg.smartcom.broker.impl.ApacheActiveMQMessageBroker;
 import at.ac.tuwien.dsg.smartcom.callback.CollectiveInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.PeerAuthenticationCallback;
 import at.ac.tuwien.dsg.smartcom.callback.PeerInfoCallback;
+import at.ac.tuwien.dsg.smartcom.manager.messaging.MessagingLanes;
+import at.ac.tuwien.dsg.smartcom.manager.messaging.MessagingStages;
+import at.ac.tuwien.dsg.smartcom.model.ContentCompression;
 import at.ac.tuwien.dsg.smartcom.model.MessageLogLevel;
 import at.ac.tuwien.dsg.smartcom.utils.MongoDBInstance;
 import com.mongodb.MongoClient;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
 * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
 * @version 1.0
@@ -36,6 +46,18 @@ public class SmartComConfiguration {
     public static final int MIS_API_DEFAULT_PORT = 8081;
     public static final boolean ADAPTER_INITIALISATION_DEFAULT = true;
     public static final MessageLogLevel DEFAULT_MESSAGE_LOGLEVEL = MessageLogLevel.NONE;
+    public static final boolean CHANNEL_TASK_QUEUES_DEFAULT = false;
+    public static final MessageBrokerType DEFAULT_MESSAGE_BROKER = MessageBrokerType.ACTIVE_MQ;
+    public static final String JOURNAL_DEFAULT_DIRECTORY = "smartcom-journal";
+    public static final int INPUT_CREDITS_DEFAULT = InputFlowControl.DEFAULT_CREDITS;
+    public static final int REPLICA_THREADS_DEFAULT = ReplicaScheduler.DEFAULT_THREADS;
+    public static final int CONTROL_THREADS_DEFAULT = MessagingLanes.DEFAULT_CONTROL_THREADS;
+    public static final int AUTH_THREADS_DEFAULT = MessagingLanes.DEFAULT_AUTH_THREADS;
+    public static final int DATA_THREADS_DEFAULT = MessagingLanes.DEFAULT_DATA_THREADS;
+    public static final int COMPRESSION_THRESHOLD_DEFAULT = ContentCompression.DEFAULT_THRESHOLD;
+    public static final int CONSUMER_CONNECTIONS_DEFAULT = ApacheActiveMQMessageBroker.DEFAULT_CONSUMER_CONNECTIONS;
+    public static final int CONSUMERS_PER_CONNECTION_DEFAULT = ApacheActiveMQMessageBroker.DEFAULT_CONSUMERS_PER_CONNECTION;
+    public static final int CONSUMERS_PER_SESSION_DEFAULT = ApacheActiveMQMessageBroker.DEFAULT_CONSUMERS_PER_SESSION;
 
     //Dependencies configuration
     PeerAuthenticationCallback peerManager;
@@ -47,12 +69,30 @@ public class SmartComConfiguration {
     MongoDBInstance mongoDB;
     String mongoDBDatabaseName = MONGODB_DATABASE;
 
+    MessageBrokerType messageBroker = DEFAULT_MESSAGE_BROKER;
+    String journalDirectory = JOURNAL_DEFAULT_DIRECTORY;
+
     //ActiveMQ configuration
     boolean useLocalMQ = false;
+    boolean referencePassing = false;
     boolean initActiveMQ = true;
     String activeMqHost = ACTIVE_MQ_DEFAULT_HOST;
     int activeMQPort = ACTIVE_MQ_DEFAULT_PORT;
+    String activeMQJmxUrl = null;
+    boolean channelTaskQueues = CHANNEL_TASK_QUEUES_DEFAULT;
+    List<InetSocketAddress> messageBrokerShards = new ArrayList<>();
+    List<String> messageBrokerShardJmxUrls = new ArrayList<>();
+    int consumerConnections = CONSUMER_CONNECTIONS_DEFAULT;
+    int consumersPerConnection = CONSUMERS_PER_CONNECTION_DEFAULT;
+    int consumersPerSession = CONSUMERS_PER_SESSION_DEFAULT;
     MessageLogLevel messageLogLevel = DEFAULT_MESSAGE_LOGLEVEL;
+    int inputCredits = INPUT_CREDITS_DEFAULT;
+    int replicaThreads = REPLICA_THREADS_DEFAULT;
+    int controlThreads = CONTROL_THREADS_DEFAULT;
+    int authThreads = AUTH_THREADS_DEFAULT;
+    int dataThreads = DATA_THREADS_DEFAULT;
+    MessagingStages messagingStages = new MessagingStages();
+    int compressionThreshold = COMPRESSION_THRESHOLD_DEFAULT;
 
     int restAPIPort = REST_API_DEFAULT_PORT;
     boolean initAdapters = ADAPTER_INITIALISATION_DEFAULT;
@@ -50,6 +50,11 @@ import java.net.URI;
 public class RESTInputAdapter extends InputPushAdapter {
     private static final Logger log = LoggerFactory.getLogger(RESTOutputAdapter.class);
 
+    /**
+     * Seconds a client should wait before retrying a rejected message
+     */
+    static final int RETRY_AFTER_SECONDS = 1;
+
     private HttpServer server;
     private final URI serverURI;
 
@@ -104,7 +109,10 @@ public class RESTInputAdapter extends InputPushAdapter {
             throw new WebApplicationException();
         }
 
-        publishMessage(message.createMessage());
+        if (!tryPublishMessage(message.createMessage())) {
+            //the middleware is overloaded, the client should retry later
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", RETRY_AFTER_SECONDS).build();
+        }
 
         return Response.status(Response.Status.OK).build();
     }
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom;
+
+import at.ac.tuwien.dsg.smartcom.broker.BrokerMonitor;
+import at.ac.tuwien.dsg.smartcom.broker.CancelableListener;
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SimpleMessageBrokerTest {
+
+    private SimpleMessageBroker broker;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new SimpleMessageBroker();
+        broker.init();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.destroy();
+    }
+
+    @Test(timeout = 20000l)
+    public void testOrderPerDestination() throws Exception {
+        final int destinations = 10;
+        final int amount = 1000;
+        final CountDownLatch latch = new CountDownLatch(destinations * amount);
+
+        List<List<String>> received = new ArrayList<>();
+        for (int i = 0; i < destinations; i++) {
+            final List<String> list = Collections.synchronizedList(new ArrayList<String>());
+            received.add(list);
+            broker.registerOutputListener(Identifier.adapter("adapter" + i), new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    list.add(message.getContent());
+                    latch.countDown();
+                }
+            });
+        }
+
+        for (int j = 0; j < amount; j++) {
+            for (int i = 0; i < destinations; i++) {
+                broker.publishOutput(Identifier.adapter("adapter" + i), new Message.MessageBuilder().setContent("" + j).create());
+            }
+        }
+
+        latch.await();
+        for (List<String> list : received) {
+            for (int j = 0; j < amount; j++) {
+                assertEquals("" + j, list.get(j));
+            }
+        }
+    }
+
+    @Test(timeout = 5000l)
+    public void testMessagesBeforeListener() throws Exception {
+        broker.publishInput(new Message.MessageBuilder().setContent("before").create());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        broker.registerInputListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                if ("before".equals(message.getContent())) {
+                    latch.countDown();
+                }
+            }
+        });
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000l)
+    public void testCancel() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Identifier id = Identifier.adapter("adapter");
+        CancelableListener listener = broker.registerRequestListener(id, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                latch.countDown();
+            }
+        });
+
+        broker.publishRequest(id, new Message.MessageBuilder().setContent("first").create());
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+
+        listener.cancel();
+        broker.publishRequest(id, new Message.MessageBuilder().setContent("second").create());
+        assertEquals("second", broker.receiveRequests(id).getContent());
+    }
+
+    @Test
+    public void testQueueStatistic() throws Exception {
+        Identifier id = Identifier.adapter("adapter");
+        for (int i = 0; i < 3; i++) {
+            broker.publishOutput(id, new Message.MessageBuilder().setContent("" + i).create());
+        }
+        assertEquals("0", broker.receiveOutput(id).getContent());
+
+        QueueStatistic statistic = broker.getQueueStatistic(BrokerMonitor.TASK_QUEUE_PREFIX + id.getId());
+        assertNotNull(statistic);
+        assertEquals(2, statistic.getDepth());
+        assertEquals(3, statistic.getEnqueueCount());
+        assertEquals(1, statistic.getDequeueCount());
+        assertEquals(0, statistic.getConsumers());
+        assertTrue(statistic.getOldestMessageAge() >= 0);
+
+        assertNull(broker.getQueueStatistic(BrokerMonitor.TASK_QUEUE_PREFIX + "unknown"));
+    }
+}
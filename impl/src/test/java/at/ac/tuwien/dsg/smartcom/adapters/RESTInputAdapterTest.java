@@ -20,6 +20,7 @@ package at.ac.tuwien.dsg.smartcom.adapters;
 import at.ac.tuwien.dsg.smartcom.adapter.PushTask;
 import at.ac.tuwien.dsg.smartcom.adapter.util.TaskScheduler;
 import at.ac.tuwien.dsg.smartcom.adapters.rest.JsonMessageDTO;
+import at.ac.tuwien.dsg.smartcom.broker.FlowControlledInputPublisher;
 import at.ac.tuwien.dsg.smartcom.broker.InputPublisher;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
@@ -42,6 +43,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -156,6 +158,57 @@ public class RESTInputAdapterTest {
 
     }
 
+    @Test(timeout = 20000l)
+    public void testRESTInputAdapter_noCredits() throws Exception {
+        RejectingPublisher rejectingPublisher = new RejectingPublisher();
+        int rejectingPort = FreePortProviderUtil.getFreePort();
+
+        RESTInputAdapter rejectingAdapter = new RESTInputAdapter(rejectingPort, "test");
+        rejectingAdapter.setInputPublisher(rejectingPublisher);
+        rejectingAdapter.setScheduler(new Scheduler());
+        rejectingAdapter.init();
+
+        try {
+            WebTarget target = client.target("http://localhost:" + rejectingPort + "/test");
+            Message message = new Message.MessageBuilder()
+                    .setContent("testContent")
+                    .setType("testType")
+                    .create();
+
+            Response response = target.request(MediaType.APPLICATION_JSON).post(Entity.json(new JsonMessageDTO(message)), Response.class);
+            assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus());
+            assertEquals(String.valueOf(RESTInputAdapter.RETRY_AFTER_SECONDS), response.getHeaderString("Retry-After"));
+            assertEquals(1, rejectingPublisher.getRejected());
+        } finally {
+            rejectingAdapter.cleanUp();
+        }
+    }
+
+    private class RejectingPublisher implements FlowControlledInputPublisher {
+
+        private final AtomicInteger rejected = new AtomicInteger(0);
+
+        @Override
+        public boolean tryPublishInput(Message message) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        @Override
+        public int getAvailableCredits() {
+            return 0;
+        }
+
+        @Override
+        public void publishInput(Message message) {
+            fail("Message should not be published without a credit");
+        }
+
+        public int getRejected() {
+            return rejected.get();
+        }
+    }
+
     private class Publisher implements InputPublisher {
 
         private CountDownLatch latch;
@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import at.ac.tuwien.dsg.smartcom.broker.AbstractBrokerMonitor;
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.JMSException;
+import javax.jms.QueueBrowser;
+import javax.jms.Session;
+import javax.management.Attribute;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Monitors the queues of an ActiveMQ broker. The depth, consumer count and the enqueue
+ * and dequeue counters are read from the JMX MBeans of the broker, the age of the oldest
+ * message is determined by browsing the first message of each non-empty queue that is
+ * observed (i.e., whose statistic has been requested explicitly). The age of the other
+ * queues is reported as 0.
+ *
+ * The queues are sampled by a background thread of the monitor, hence the callers
+ * (e.g., the timer of the replica scheduler) are never blocked by JMX or browsing.
+ *
+ * By default the platform MBean server is used, which contains the MBeans of brokers
+ * that are embedded in this JVM. Remote brokers require the URL of their JMX connector.
+ *
+ * @version 1.0
+ */
+class ActiveMQBrokerMonitor extends AbstractBrokerMonitor {
+    private static final Logger log = LoggerFactory.getLogger(ActiveMQBrokerMonitor.class);
+
+    private static final String QUEUE_MBEANS = "org.apache.activemq:type=Broker,brokerName=*,destinationType=Queue,destinationName=*";
+    private static final String[] ATTRIBUTES = {"QueueSize", "ConsumerCount", "EnqueueCount", "DequeueCount"};
+
+    private final ActiveMQConnectionFactory connectionFactory;
+    private final ExecutorService sampler;
+
+    private String jmxUrl;
+    private JMXConnector jmxConnector;
+    private MBeanServerConnection mBeanServer;
+
+    private ActiveMQConnection connection;
+    private Session session;
+    private boolean closed = false;
+
+    ActiveMQBrokerMonitor(ActiveMQConnectionFactory connectionFactory) {
+        this(connectionFactory, Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("BROKER-MONITOR-%d").setDaemon(true).build()));
+    }
+
+    private ActiveMQBrokerMonitor(ActiveMQConnectionFactory connectionFactory, ExecutorService sampler) {
+        super(DEFAULT_SAMPLE_INTERVAL_MILLIS, sampler);
+        this.connectionFactory = connectionFactory;
+        this.sampler = sampler;
+    }
+
+    /**
+     * Sets the URL of the JMX connector of the broker, null if the platform MBean server should be used
+     */
+    synchronized void setJmxUrl(String jmxUrl) {
+        closeJmxConnector();
+        this.jmxUrl = jmxUrl;
+    }
+
+    @Override
+    protected synchronized Collection<QueueStatistic> sample() throws Exception {
+        if (closed) {
+            throw new IllegalStateException("Monitor has been closed");
+        }
+        MBeanServerConnection server = getMBeanServer();
+        initSession();
+
+        String brokerName = connection.getBrokerName();
+        List<QueueStatistic> statistics = new ArrayList<>();
+        for (ObjectName name : server.queryNames(new ObjectName(QUEUE_MBEANS), null)) {
+            String destination = name.getKeyProperty("destinationName");
+            if (destination == null || !destination.startsWith(ApacheActiveMQMessageBroker.QUEUE_PREFIX)) {
+                continue;
+            }
+            if (brokerName != null && !brokerName.equals(name.getKeyProperty("brokerName"))) {
+                continue;
+            }
+
+            Map<String, Long> values = new HashMap<>();
+            for (Attribute attribute : server.getAttributes(name, ATTRIBUTES).asList()) {
+                values.put(attribute.getName(), ((Number) attribute.getValue()).longValue());
+            }
+
+            String queue = destination.substring(ApacheActiveMQMessageBroker.QUEUE_PREFIX.length());
+            long depth = get(values, "QueueSize");
+            statistics.add(new QueueStatistic(queue, depth,
+                    get(values, "ConsumerCount"), get(values, "EnqueueCount"), get(values, "DequeueCount"),
+                    depth > 0 && isObserved(queue) ? getOldestMessageAge(destination) : 0));
+        }
+        return statistics;
+    }
+
+    private static long get(Map<String, Long> values, String attribute) {
+        Long value = values.get(attribute);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Browses the first message of a queue and returns its age
+     */
+    private long getOldestMessageAge(String destination) throws JMSException {
+        QueueBrowser browser = session.createBrowser(session.createQueue(destination));
+        try {
+            Enumeration<?> enumeration = browser.getEnumeration();
+            if (enumeration.hasMoreElements()) {
+                javax.jms.Message message = (javax.jms.Message) enumeration.nextElement();
+                if (message.getJMSTimestamp() > 0) {
+                    return Math.max(0, System.currentTimeMillis() - message.getJMSTimestamp());
+                }
+            }
+            return 0;
+        } finally {
+            browser.close();
+        }
+    }
+
+    private MBeanServerConnection getMBeanServer() throws IOException {
+        if (mBeanServer == null) {
+            if (jmxUrl == null) {
+                mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            } else {
+                jmxConnector = JMXConnectorFactory.connect(new JMXServiceURL(jmxUrl));
+                mBeanServer = jmxConnector.getMBeanServerConnection();
+            }
+        }
+        return mBeanServer;
+    }
+
+    private void initSession() throws JMSException {
+        if (session == null) {
+            connection = (ActiveMQConnection) connectionFactory.createConnection();
+            //only the first message of a queue is browsed
+            connection.getPrefetchPolicy().setQueueBrowserPrefetch(1);
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        }
+    }
+
+    private void closeJmxConnector() {
+        if (jmxConnector != null) {
+            try {
+                jmxConnector.close();
+            } catch (IOException e) {
+                log.warn("Error while closing JMX connector!", e);
+            }
+            jmxConnector = null;
+        }
+        mBeanServer = null;
+    }
+
+    void close() {
+        sampler.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            closeConnections();
+        }
+    }
+
+    private void closeConnections() {
+        closeJmxConnector();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (JMSException e) {
+                log.warn("Error while closing monitor connection!", e);
+            }
+            connection = null;
+            session = null;
+        }
+    }
+}
@@ -17,43 +17,133 @@
  */
 package at.ac.tuwien.dsg.smartcom.broker.impl;
 
+import at.ac.tuwien.dsg.smartcom.broker.BatchPublishException;
+import at.ac.tuwien.dsg.smartcom.broker.BrokerMonitor;
 import at.ac.tuwien.dsg.smartcom.broker.CancelableListener;
 import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
 import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.codec.BinaryMessageCodec;
+import at.ac.tuwien.dsg.smartcom.broker.codec.MessageCodec;
 import at.ac.tuwien.dsg.smartcom.broker.utils.BrokerErrorUtils;
 import at.ac.tuwien.dsg.smartcom.exception.CommunicationException;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
 import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
+import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.ActiveMQPrefetchPolicy;
+import org.apache.activemq.AsyncCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.jms.*;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Apache ActiveMQ Message Broker
+ * Apache ActiveMQ Message Broker. The queues of the broker are monitored using
+ * JMX (see {@link #setJmxUrl(String)}).
  *
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @version 1.0
  */
-public class ApacheActiveMQMessageBroker implements MessageBroker {
+public class ApacheActiveMQMessageBroker implements MessageBroker, BrokerMonitor {
     private static final Logger log = LoggerFactory.getLogger(ApacheActiveMQMessageBroker.class);
-    private static final String requestQueuePrefix = "SmartCom.request.";
-    private static final String taskQueuePrefix = "SmartCom.task.";
+    static final String QUEUE_PREFIX = "SmartCom.";
+    private static final String requestQueuePrefix = QUEUE_PREFIX + REQUEST_QUEUE_PREFIX;
+    private static final String taskQueuePrefix = QUEUE_PREFIX + TASK_QUEUE_PREFIX;
     public static final int TCP_CONNECTIONS = 50;
     public static final int VM_CONNECTIONS = 10;
 
+    /**
+     * Default number of messages after which a batch transaction is committed
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Default time in microseconds after which a batch transaction is committed
+     */
+    public static final long DEFAULT_BATCH_INTERVAL_MICROS = 1000;
+
+    /**
+     * Default maximum number of connections that are shared by the consumers of the listeners
+     */
+    public static final int DEFAULT_CONSUMER_CONNECTIONS = 20;
+
+    /**
+     * Default maximum number of listener consumers per connection
+     */
+    public static final int DEFAULT_CONSUMERS_PER_CONNECTION = 2000;
+
+    /**
+     * Default maximum number of listener consumers per session. The listeners of a session are invoked
+     * sequentially and listeners might block (e.g., a replicated listener with a full queue or a stateful
+     * output adapter), therefore every listener gets its own session by default.
+     */
+    public static final int DEFAULT_CONSUMERS_PER_SESSION = 1;
+
+    /**
+     * Message property that holds the instance (i.e., the postfix of the adapter id) of a message
+     * on the task queue of a channel
+     */
+    static final String INSTANCE_PROPERTY = "SmartComInstance";
+
+    /**
+     * JMS priority of control messages, these are delivered before any other pending message
+     */
+    public static final int CONTROL_PRIORITY = 9;
+
+    /**
+     * JMS priority of authentication requests
+     */
+    public static final int AUTH_PRIORITY = 7;
+
+    /**
+     * Number of connections that are reserved for the consumers of the control and auth listeners
+     */
+    public static final int PRIORITY_CONSUMER_CONNECTIONS = 2;
+
+    /**
+     * Time in milliseconds that expired messages are kept by the broker beyond their expiration,
+     * so that the receiver is still able to report the timeout of the message.
+     */
+    public static final long EXPIRATION_GRACE_PERIOD = 60000;
+
+    /**
+     * Maximum number of consumers that are cached per receiving thread, the least recently
+     * used consumer is closed if a thread receives from more destinations.
+     */
+    public static final int MAX_LOCAL_CONSUMERS = 16;
+
     private Connection connection;
+    private Connection receiveConnection;
     private Session session;
 
     private ThreadLocal<Session> localSession;
     private ThreadLocal<MessageProducer> localProducer;
-    private List<Session> sessions;
+    private ThreadLocal<Session> localBatchSession;
+    private ThreadLocal<MessageProducer> localBatchProducer;
+    private ThreadLocal<Session> localReceiveSession;
+    private ThreadLocal<Map<String, MessageConsumer>> localConsumers;
+    private Map<Session, Thread> sessions;
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long batchIntervalNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_BATCH_INTERVAL_MICROS);
+
+    private volatile boolean channelTaskQueues = false;
+    private boolean local = false;
+    private volatile boolean referencePassing = false;
 
     private Queue inputQueue;
     private Queue controlQueue;
@@ -63,16 +153,24 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
     private Queue logQueue;
 
     private java.util.Queue<Connection> connectionQueue;
-    private List<Connection> consumerConnections;
+    private ConsumerConnectionPool consumerPool;
+    private ConsumerConnectionPool priorityConsumerPool;
+    private ActiveMQBrokerMonitor monitor;
 
     private final StatisticBean statistic;
+    private final MessageCodec codec;
     private ActiveMQConnectionFactory connectionFactory;
 
-    public ApacheActiveMQMessageBroker(String host, int port, boolean local, StatisticBean statistic) throws CommunicationException {
+    public ApacheActiveMQMessageBroker(String host, int port, boolean local, StatisticBean statistic, MessageCodec codec) throws CommunicationException {
         this.statistic = statistic;
+        this.codec = codec;
         setUp(host, port, local);
     }
 
+    public ApacheActiveMQMessageBroker(String host, int port, boolean local, StatisticBean statistic) throws CommunicationException {
+        this(host, port, local, statistic, new BinaryMessageCodec());
+    }
+
     public ApacheActiveMQMessageBroker(String host, int port, StatisticBean statistic) throws CommunicationException {
         this(host, port, false, statistic);
     }
@@ -87,15 +185,19 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
      * @throws CommunicationException
      */
     private void setUp(String host, int port, boolean local) throws CommunicationException {
+        this.local = local;
         try {
             log.debug("Initialising Apache ActiveMQ Message Broker!");
 
             //ConnectionFactory for the Apache ActiveMQ instance
             connectionQueue = new LinkedBlockingDeque<>();
-            consumerConnections = new ArrayList<>();
             int connections = 0;
             if (local) {
                 connectionFactory = new ActiveMQConnectionFactory("vm://" + host + "?create=false&jms.prefetchPolicy.all=1000");
+                //JMS messages are created for each send and never modified afterwards, therefore the
+                //vm transport does not have to copy them (see setReferencePassing)
+                connectionFactory.setCopyMessageOnSend(false);
+                connectionFactory.setObjectMessageSerializationDefered(true);
                 connections = VM_CONNECTIONS;
             } else {
                 connectionFactory = new ActiveMQConnectionFactory("tcp://" + host + ":" + port);
@@ -114,8 +216,26 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
                 connectionQueue.add(con);
             }
 
+            //the consumers of receive calls are cached per thread and might be idle for a long time,
+            //therefore they must not prefetch messages that other consumers could handle
+            ActiveMQPrefetchPolicy receivePrefetchPolicy = new ActiveMQPrefetchPolicy();
+            receivePrefetchPolicy.setQueuePrefetch(0);
+            receiveConnection = connectionFactory.createConnection();
+            ((ActiveMQConnection) receiveConnection).setPrefetchPolicy(receivePrefetchPolicy);
+            receiveConnection.start();
+
+            consumerPool = new ConsumerConnectionPool(connectionFactory, DEFAULT_CONSUMER_CONNECTIONS,
+                    DEFAULT_CONSUMERS_PER_CONNECTION, DEFAULT_CONSUMERS_PER_SESSION);
+
+            //control and auth consumers get their own connections and sessions, therefore they are
+            //never invoked sequentially after a listener of a data queue.
+            priorityConsumerPool = new ConsumerConnectionPool(connectionFactory, PRIORITY_CONSUMER_CONNECTIONS,
+                    DEFAULT_CONSUMERS_PER_CONNECTION, 1);
+
+            monitor = new ActiveMQBrokerMonitor(connectionFactory);
+
             //since one connection per thread is allowed by AMQ
-            sessions = Collections.synchronizedList(new ArrayList<Session>());
+            sessions = new HashMap<>();
 
             //Sessions for this broker
             session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
@@ -125,6 +245,10 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
 
             localSession = new ThreadLocal<>();
             localProducer = new ThreadLocal<>();
+            localBatchSession = new ThreadLocal<>();
+            localBatchProducer = new ThreadLocal<>();
+            localReceiveSession = new ThreadLocal<>();
+            localConsumers = new ThreadLocal<>();
         } catch (JMSException e) {
             throw BrokerErrorUtils.createBrokerException(e);
         }
@@ -132,35 +256,127 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
 
     private void setUpDestinations(Session session) throws JMSException {
         //these will be shared by different threads, as the name of the queue is unique.
-    	inputQueue = session.createQueue("SmartCom.input");
-        controlQueue = session.createQueue("SmartCom.control");
-        authQueue = session.createQueue("SmartCom.auth");
-        messageInfoQueue = session.createQueue("SmartCom.messageInfo");
-        metricsQueue = session.createQueue("SmartCom.metrics");
-        logQueue = session.createQueue("SmartCom.log");
+    	inputQueue = session.createQueue(QUEUE_PREFIX + INPUT_QUEUE);
+        controlQueue = session.createQueue(QUEUE_PREFIX + CONTROL_QUEUE);
+        authQueue = session.createQueue(QUEUE_PREFIX + AUTH_QUEUE);
+        messageInfoQueue = session.createQueue(QUEUE_PREFIX + MESSAGE_INFO_QUEUE);
+        metricsQueue = session.createQueue(QUEUE_PREFIX + METRICS_QUEUE);
+        logQueue = session.createQueue(QUEUE_PREFIX + LOG_QUEUE);
+    }
+
+    /**
+     * Sets the number of messages after which a transaction of a batch publish is committed.
+     *
+     * @param batchSize maximum number of messages per transaction
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size has to be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the time after which a transaction of a batch publish is committed, even
+     * if the batch size has not been reached yet.
+     *
+     * @param micros maximum time in microseconds a transaction stays open
+     */
+    public void setBatchInterval(long micros) {
+        this.batchIntervalNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    /**
+     * Sets the limits of the connection pool that is used by the consumers of registered
+     * listeners. Listeners that have already been registered are not affected. More than
+     * one consumer per session saves threads, but a listener that blocks or takes long
+     * delays the other listeners of its session.
+     *
+     * @param maxConnections maximum number of consumer connections
+     * @param maxConsumersPerConnection maximum number of consumers per connection
+     * @param maxConsumersPerSession maximum number of consumers per session
+     */
+    public void setConsumerPoolLimits(int maxConnections, int maxConsumersPerConnection, int maxConsumersPerSession) {
+        consumerPool.setLimits(maxConnections, maxConsumersPerConnection, maxConsumersPerSession);
+    }
+
+    /**
+     * Enables or disables channel task queues. If enabled, all instances of a channel (i.e., the
+     * stateful output adapters of the peers) share a single task queue instead of having a queue
+     * for each instance. The listener of an instance consumes only the messages of its instance
+     * (using a selector), hence the instances of a channel might be registered on different nodes
+     * and a listener that blocks does not delay the messages of other instances.
+     *
+     * Note that this setting has to be made before any output listener is registered.
+     *
+     * @param channelTaskQueues true if channel task queues should be used
+     */
+    public void setChannelTaskQueues(boolean channelTaskQueues) {
+        this.channelTaskQueues = channelTaskQueues;
+    }
+
+    /**
+     * Enables the passing of messages by reference, which is only supported if the ActiveMQ
+     * instance runs in the same JVM (i.e., the broker uses the vm transport). Instead of
+     * encoding a message, a snapshot of the message is handed over to the receiver without
+     * any serialization, as long as the ActiveMQ instance does not persist it.
+     *
+     * The snapshot is taken when the message is published, therefore later modifications of
+     * a published message are not visible to the receiver. Received messages might be redelivered
+     * as the same instance and should therefore not be modified by the receiver.
+     *
+     * @param referencePassing true if messages should be passed by reference
+     */
+    public void setReferencePassing(boolean referencePassing) {
+        if (referencePassing && !local) {
+            log.warn("Passing messages by reference requires a local ActiveMQ instance, messages will be encoded");
+            return;
+        }
+        this.referencePassing = referencePassing;
+    }
+
+    /**
+     * Sets the URL of the JMX connector of the ActiveMQ instance that is used to monitor
+     * its queues (e.g., service:jmx:rmi:///jndi/rmi://host:1099/jmxrmi). By default, the
+     * platform MBean server is used, which is only sufficient for embedded instances.
+     *
+     * @param jmxUrl URL of the JMX connector, null to use the platform MBean server
+     */
+    public void setJmxUrl(String jmxUrl) {
+        monitor.setJmxUrl(jmxUrl);
+    }
+
+    @Override
+    public List<QueueStatistic> getQueueStatistics() {
+        return monitor.getQueueStatistics();
+    }
+
+    @Override
+    public QueueStatistic getQueueStatistic(String queue) {
+        return monitor.getQueueStatistic(queue);
     }
 
     public void cleanUp() throws CommunicationException {
+        monitor.close();
         try {
-            for (Session session : sessions) {
-                try {
-                    session.close();
-                } catch (JMSException e) {
-                    log.warn("Error while closing session!", e);
+            synchronized (sessions) {
+                for (Session session : sessions.keySet()) {
+                    closeSession(session);
                 }
+                sessions.clear();
             }
 
             session.close();
             connection.close();
+            receiveConnection.close();
 
             Connection connection1;
             while ((connection1 = connectionQueue.poll()) != null) {
                 connection1.close();
             }
 
-            for (Connection consumerConnection : consumerConnections) {
-                consumerConnection.close();
-            }
+            consumerPool.close();
+            priorityConsumerPool.close();
         } catch (JMSException e) {
             throw BrokerErrorUtils.createBrokerException(e);
         }
@@ -171,6 +387,11 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         return receiveMessage(inputQueue);
     }
 
+    @Override
+    public List<Message> receiveInputBatch(int maxMessages, long timeout) {
+        return receiveBatch(inputQueue, maxMessages, timeout);
+    }
+
     @Override
     public CancelableListener registerInputListener(final MessageListener listener) {
         return setListener(listener, inputQueue);
@@ -182,37 +403,219 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         sendMessage(message, inputQueue);
     }
 
+    @Override
+    public CompletableFuture<Void> publishInputAsync(Message message) {
+        CompletableFuture<Void> future = sendMessageAsync(message, inputQueue, null);
+        statistic.brokerPublishInput();
+        return future;
+    }
+
     /**
      * Receive a message from a destination. Invoked by the consumer on the queue. Blocks until a msg is available.
      * @param destination of the message
      * @return the received message
      */
     private Message receiveMessage(Destination destination) {
+        return receiveMessage(destination, null);
+    }
+
+    /**
+     * Receive a message from a destination that matches the selector. Blocks until a msg is available.
+     * The message is acknowledged after it has been decoded, otherwise it is redelivered (and moved to
+     * the dead letter queue by ActiveMQ if it can't be decoded repeatedly).
+     * @param destination of the message
+     * @param selector of the message, null if all messages are accepted
+     * @return the received message, null if the receiving thread has been interrupted
+     */
+    private Message receiveMessage(Destination destination, String selector) {
         log.trace("Waiting for message in queue {}", destination);
-        MessageConsumer consumer = null;
         try {
-            initLocalSessionAndProducer();
+            MessageConsumer consumer = getLocalConsumer(destination, selector);
 
-            consumer = localSession.get().createConsumer(destination);
+            javax.jms.Message message = consumer.receive();
+            if (message == null) {
+                //the consumer might still have a pending pull request
+                closeLocalConsumer(destination, selector);
+                return null;
+            }
+            Message decoded = decode(message);
+            message.acknowledge();
+            return decoded;
+        } catch (JMSException | RuntimeException e) {
+            log.error("Error while receiving "+destination.toString(), e);
+            recoverLocalSession();
+            closeLocalConsumer(destination, selector);
+            throw e instanceof RuntimeException ? (RuntimeException) e : BrokerErrorUtils.createRuntimeBrokerException(e);
+        }
+    }
 
-            Message msg =  (Message) ((ObjectMessage) consumer.receive()).getObject();
+    private List<Message> receiveBatch(Destination destination, int maxMessages, long timeout) {
+        return receiveBatch(destination, null, maxMessages, timeout);
+    }
 
-            consumer.close();
+    /**
+     * Receive up to maxMessages messages from a destination that match the selector. Waits at most
+     * for the timeout until the first message is available and takes the remaining messages only if
+     * they are available immediately. The messages are acknowledged at once after all of them have
+     * been decoded. If decoding fails, none of them is acknowledged and they are redelivered.
+     *
+     * @param destination of the messages
+     * @param selector of the messages, null if all messages are accepted
+     * @param maxMessages maximum number of messages
+     * @param timeout maximum time in milliseconds to wait for the first message
+     * @return the received messages, an empty list if the timeout elapsed
+     */
+    private List<Message> receiveBatch(Destination destination, String selector, int maxMessages, long timeout) {
+        log.trace("Waiting for up to {} messages in queue {}", maxMessages, destination);
+        try {
+            MessageConsumer consumer = getLocalConsumer(destination, selector);
+
+            List<javax.jms.Message> received = new ArrayList<>();
+            javax.jms.Message message = timeout > 0 ? consumer.receive(timeout) : consumer.receiveNoWait();
+            while (message != null) {
+                received.add(message);
+                if (received.size() >= maxMessages) {
+                    break;
+                }
+                message = consumer.receiveNoWait();
+            }
 
-            return msg;
-        } catch (JMSException e) {
+            if (received.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            List<Message> messages = new ArrayList<>(received.size());
+            for (javax.jms.Message jmsMessage : received) {
+                messages.add(decode(jmsMessage));
+            }
+
+            //acknowledges all messages that have been consumed by the session of this thread
+            received.get(received.size() - 1).acknowledge();
+            return messages;
+        } catch (JMSException | RuntimeException e) {
             log.error("Error while receiving "+destination.toString(), e);
-            if (consumer != null) {
-                try {
-                    consumer.close();
-                } catch (JMSException e1) {
-                    throw BrokerErrorUtils.createRuntimeBrokerException(e);
+            recoverLocalSession();
+            closeLocalConsumer(destination, selector);
+            throw e instanceof RuntimeException ? (RuntimeException) e : BrokerErrorUtils.createRuntimeBrokerException(e);
+        }
+    }
+
+    /**
+     * Redelivers the messages that have been consumed but not acknowledged by the receive session
+     * of the invoking thread.
+     */
+    private void recoverLocalSession() {
+        Session session = localReceiveSession.get();
+        if (session != null) {
+            try {
+                session.recover();
+            } catch (JMSException e) {
+                log.warn("Could not recover receive session", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the consumer of the invoking thread for a destination and selector. The consumer
+     * is created if there is none yet and reused by subsequent receive calls of the thread. At most
+     * MAX_LOCAL_CONSUMERS consumers are kept per thread, the least recently used one is closed.
+     */
+    private MessageConsumer getLocalConsumer(Destination destination, String selector) throws JMSException {
+        if (localReceiveSession.get() == null) {
+            localReceiveSession.set(receiveConnection.createSession(false, Session.CLIENT_ACKNOWLEDGE));
+            registerSession(localReceiveSession.get());
+            localConsumers.set(new LinkedHashMap<String, MessageConsumer>(MAX_LOCAL_CONSUMERS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MessageConsumer> eldest) {
+                    if (size() <= MAX_LOCAL_CONSUMERS) {
+                        return false;
+                    }
+                    closeConsumer(eldest.getValue());
+                    return true;
+                }
+            });
+        }
+
+        String key = getConsumerKey(destination, selector);
+        MessageConsumer consumer = localConsumers.get().get(key);
+        if (consumer == null) {
+            consumer = localReceiveSession.get().createConsumer(destination, selector);
+            localConsumers.get().put(key, consumer);
+        }
+        return consumer;
+    }
+
+    /**
+     * Closes the consumer of the invoking thread for a destination and selector, unacknowledged
+     * messages of the consumer are redelivered.
+     */
+    private void closeLocalConsumer(Destination destination, String selector) {
+        Map<String, MessageConsumer> consumers = localConsumers.get();
+        if (consumers == null) {
+            return;
+        }
+
+        MessageConsumer consumer = consumers.remove(getConsumerKey(destination, selector));
+        if (consumer != null) {
+            closeConsumer(consumer);
+        }
+    }
+
+    private static void closeConsumer(MessageConsumer consumer) {
+        try {
+            consumer.close();
+        } catch (JMSException e) {
+            log.warn("Error while closing consumer!", e);
+        }
+    }
+
+    /**
+     * Registers a thread local session of the invoking thread, so that it is closed on clean up.
+     * The sessions of threads that have terminated in the meantime are closed and removed.
+     */
+    private void registerSession(Session session) {
+        synchronized (sessions) {
+            Iterator<Map.Entry<Session, Thread>> iterator = sessions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Session, Thread> entry = iterator.next();
+                if (!entry.getValue().isAlive()) {
+                    iterator.remove();
+                    closeSession(entry.getKey());
                 }
             }
-            throw BrokerErrorUtils.createRuntimeBrokerException(e);
+            sessions.put(session, Thread.currentThread());
         }
     }
 
+    private static void closeSession(Session session) {
+        try {
+            session.close();
+        } catch (JMSException e) {
+            log.warn("Error while closing session!", e);
+        }
+    }
+
+    /**
+     * @return the number of thread local sessions that are currently open
+     */
+    int getSessionCount() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /**
+     * @return the number of consumers that are cached for the invoking thread
+     */
+    int getLocalConsumerCount() {
+        Map<String, MessageConsumer> consumers = localConsumers.get();
+        return consumers == null ? 0 : consumers.size();
+    }
+
+    private static String getConsumerKey(Destination destination, String selector) {
+        return selector == null ? destination.toString() : destination.toString() + "?" + selector;
+    }
+
     /**
      * registers a listener on the destination. This should be the preferred way to receive messages from a queue, rather that calling receiveMessage(), 
      * also because it is cancelable,
@@ -220,32 +623,142 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
      * @param destination for the listener
      */
     private CancelableListener setListener(final MessageListener listener, final Destination destination) {
+        return setListener(listener, destination, null);
+    }
+
+    /**
+     * registers a listener for the messages of the destination that match the selector
+     * @param listener that has to be registered
+     * @param destination for the listener
+     * @param selector of the messages, null if all messages are accepted
+     */
+    private CancelableListener setListener(final MessageListener listener, final Destination destination, String selector) {
         try {
             log.trace("Setting listener for destination {}", destination);
 
-            Connection connection = connectionFactory.createConnection();
-            connection.start();
-            consumerConnections.add(connection);
+            ConsumerConnectionPool pool = getConsumerPool(destination);
+            ConsumerConnectionPool.PooledConsumer consumer = pool.createConsumer(destination, selector, createJMSListener(listener, destination));
+            //differently than in receiveMessage, the consumer is not shared with other calls, we rather return a cancellable listener.
+            return new CancelableListenerImpl(pool, consumer);
+        } catch (JMSException e) {
+            log.error("Error while setting "+destination.toString()+" listener", e);
+            throw BrokerErrorUtils.createRuntimeBrokerException(e);
+        }
+    }
 
-            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            sessions.add(session);
+    /**
+     * Returns the consumer pool for the listeners of a destination. Control and auth
+     * listeners use a dedicated pool so that they do not wait for data listeners.
+     *
+     * @param destination of the listener
+     * @return pool that should be used for the consumer of the listener
+     */
+    private ConsumerConnectionPool getConsumerPool(Destination destination) {
+        if (controlQueue.equals(destination) || authQueue.equals(destination)) {
+            return priorityConsumerPool;
+        }
+        return consumerPool;
+    }
 
-            MessageConsumer consumer = session.createConsumer(destination);
-            consumer.setMessageListener(new javax.jms.MessageListener() {
-                @Override
-                public void onMessage(javax.jms.Message message) {
-                    try {
-                        listener.onMessage((Message) ((ObjectMessage) message).getObject());
-                    } catch (JMSException e) {
-                        log.error("Error in message listener for "+destination.toString(), e);
-                        throw BrokerErrorUtils.createRuntimeBrokerException(e);
-                    }
+    /**
+     * Returns the JMS priority of messages that are sent to a destination. Control messages
+     * and auth requests overtake pending messages of lower priority.
+     *
+     * @param destination of the message
+     * @return JMS priority of the message
+     */
+    private int getPriority(Destination destination) {
+        if (controlQueue.equals(destination)) {
+            return CONTROL_PRIORITY;
+        }
+        if (authQueue.equals(destination)) {
+            return AUTH_PRIORITY;
+        }
+        return javax.jms.Message.DEFAULT_PRIORITY;
+    }
+
+    /**
+     * Returns the JMS time to live of a message. Messages with an expiration are discarded
+     * by the broker once the expiration and the grace period (see {@link #EXPIRATION_GRACE_PERIOD})
+     * elapsed, messages without an expiration use the time to live of the producer.
+     *
+     * @param producer that sends the message
+     * @param message that should be sent
+     * @return JMS time to live of the message
+     * @throws JMSException if the time to live of the producer can't be determined
+     */
+    private long getTimeToLive(MessageProducer producer, Message message) throws JMSException {
+        if (message.getExpiration() <= 0) {
+            return producer.getTimeToLive();
+        }
+        return Math.max(message.getExpiration() - System.currentTimeMillis(), 0) + EXPIRATION_GRACE_PERIOD;
+    }
+
+    private javax.jms.MessageListener createJMSListener(final MessageListener listener, final Destination destination) {
+        return new javax.jms.MessageListener() {
+            @Override
+            public void onMessage(javax.jms.Message message) {
+                try {
+                    listener.onMessage(decode(message));
+                } catch (JMSException e) {
+                    log.error("Error in message listener for "+destination.toString(), e);
+                    throw BrokerErrorUtils.createRuntimeBrokerException(e);
                 }
-            });
-            //differently than in receiveMessage, we now do not close the consumer, but rather return a cancellable listener.
-            return new CancelableListenerImpl(consumer, session);
-        } catch (JMSException e) {
-            log.error("Error while setting "+destination.toString()+" listener", e);
+            }
+        };
+    }
+
+    /**
+     * Encodes a message with the codec of this broker or wraps a snapshot of the message
+     * if messages are passed by reference.
+     *
+     * @param session that is used to create the JMS message
+     * @param message that should be encoded
+     * @param instance adapter instance that receives the message, null if there is none
+     * @return JMS message that contains the encoded message
+     * @throws JMSException if the JMS message could not be created
+     */
+    private javax.jms.Message encode(Session session, Message message, Identifier instance) throws JMSException {
+        javax.jms.Message msg;
+        if (referencePassing) {
+            msg = session.createObjectMessage(message.clone());
+        } else {
+            BytesMessage bytesMessage = session.createBytesMessage();
+            try {
+                bytesMessage.writeBytes(codec.encode(message));
+            } catch (IOException e) {
+                log.error("Could not encode message {}", message, e);
+                throw BrokerErrorUtils.createRuntimeBrokerException(e);
+            }
+            msg = bytesMessage;
+        }
+
+        if (channelTaskQueues && instance != null && instance.getPostfix() != null && !instance.getPostfix().isEmpty()) {
+            msg.setStringProperty(INSTANCE_PROPERTY, instance.getPostfix());
+        }
+        return msg;
+    }
+
+    /**
+     * Decodes a received JMS message. Messages that have been passed by reference or
+     * sent as serialized objects are accepted as well.
+     *
+     * @param message JMS message that has been received
+     * @return the decoded message
+     * @throws JMSException if the content of the JMS message could not be read
+     */
+    private Message decode(javax.jms.Message message) throws JMSException {
+        if (message instanceof ObjectMessage) {
+            return (Message) ((ObjectMessage) message).getObject();
+        }
+
+        BytesMessage bytesMessage = (BytesMessage) message;
+        byte[] data = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(data);
+        try {
+            return codec.decode(data);
+        } catch (IOException e) {
+            log.error("Could not decode message {}", message, e);
             throw BrokerErrorUtils.createRuntimeBrokerException(e);
         }
     }
@@ -258,18 +771,173 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
      * @param destination of the message
      */
     private void sendMessage(final Message message, final Destination destination) {
+        sendMessage(message, destination, null);
+    }
+
+    /**
+     * Send a message to a specific destination.
+     *
+     * @param message that should be sent
+     * @param destination of the message
+     * @param instance adapter instance that receives the message, null if there is none
+     */
+    private void sendMessage(final Message message, final Destination destination, final Identifier instance) {
         log.trace("Sending message {} to queue {}", message, destination);
         try {
             initLocalSessionAndProducer();
 
-            ObjectMessage msg = localSession.get().createObjectMessage(message);
-            localProducer.get().send(destination, msg);
+            MessageProducer producer = localProducer.get();
+            producer.send(destination, encode(localSession.get(), message, instance),
+                    producer.getDeliveryMode(), getPriority(destination), getTimeToLive(producer, message));
         } catch (JMSException e) {
             log.error("Error while sending " + destination.toString() + " message", e);
             throw BrokerErrorUtils.createRuntimeBrokerException(e);
         }
     }
 
+    /**
+     * Send a message to a specific destination without waiting for the broker. The returned
+     * future is completed by the ActiveMQ async send callback once the broker acknowledged the
+     * message or failed to handle it.
+     *
+     * @param message that should be sent
+     * @param destination of the message
+     * @param instance adapter instance that receives the message, null if there is none
+     * @return future that completes once the message has been sent
+     */
+    private CompletableFuture<Void> sendMessageAsync(final Message message, final Destination destination, final Identifier instance) {
+        log.trace("Sending message {} asynchronously to queue {}", message, destination);
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            initLocalSessionAndProducer();
+
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) localProducer.get();
+            producer.send(destination, encode(localSession.get(), message, instance),
+                    producer.getDeliveryMode(), getPriority(destination), getTimeToLive(producer, message), new AsyncCallback() {
+                @Override
+                public void onSuccess() {
+                    future.complete(null);
+                }
+
+                @Override
+                public void onException(JMSException e) {
+                    log.error("Error while sending " + destination.toString() + " message", e);
+                    future.completeExceptionally(BrokerErrorUtils.createBrokerException(e));
+                }
+            });
+        } catch (JMSException | RuntimeException e) {
+            log.error("Error while sending " + destination.toString() + " message", e);
+            future.completeExceptionally(BrokerErrorUtils.createBrokerException(e));
+        }
+        return future;
+    }
+
+    /**
+     * Send a batch of messages to their destinations within transacted sessions. The transaction
+     * is committed whenever the batch size has been reached or the batch interval elapsed, and
+     * once all messages have been sent. If sending fails, the open transaction is rolled back,
+     * the session of the thread is discarded and a BatchPublishException reports the messages
+     * that have not been committed.
+     *
+     * @param batch messages grouped by their targets
+     */
+    private void sendBatch(final Map<Target, List<Message>> batch) {
+        log.trace("Sending batch of messages to queues {}", batch.keySet());
+        Session session = null;
+        int committed = 0;
+        try {
+            initLocalBatchSessionAndProducer();
+
+            session = localBatchSession.get();
+            MessageProducer producer = localBatchProducer.get();
+
+            int sent = 0;
+            long lastCommit = System.nanoTime();
+            for (Map.Entry<Target, List<Message>> entry : batch.entrySet()) {
+                Target target = entry.getKey();
+                for (Message message : entry.getValue()) {
+                    producer.send(target.destination, encode(session, message, target.instance),
+                            producer.getDeliveryMode(), getPriority(target.destination), getTimeToLive(producer, message));
+                    sent++;
+
+                    if (sent - committed >= batchSize || (System.nanoTime() - lastCommit) >= batchIntervalNanos) {
+                        session.commit();
+                        committed = sent;
+                        lastCommit = System.nanoTime();
+                    }
+                }
+            }
+
+            if (sent > committed) {
+                session.commit();
+            }
+        } catch (JMSException | RuntimeException e) {
+            log.error("Error while sending batch to " + batch.keySet(), e);
+            if (session != null) {
+                try {
+                    session.rollback();
+                } catch (JMSException e1) {
+                    log.error("Could not roll back batch transaction", e1);
+                }
+                discardLocalBatchSession(session);
+            }
+            throw new BatchPublishException(BrokerErrorUtils.createBrokerException(e), getUncommitted(batch, committed));
+        }
+    }
+
+    /**
+     * Returns the messages of a batch that follow the committed ones grouped by their receiver
+     * destination id (null for the shared queues).
+     */
+    private static Map<Identifier, List<Message>> getUncommitted(Map<Target, List<Message>> batch, int committed) {
+        Map<Identifier, List<Message>> uncommitted = new LinkedHashMap<>();
+        int skip = committed;
+        for (Map.Entry<Target, List<Message>> entry : batch.entrySet()) {
+            List<Message> messages = entry.getValue();
+            if (skip >= messages.size()) {
+                skip -= messages.size();
+                continue;
+            }
+
+            List<Message> list = uncommitted.get(entry.getKey().instance);
+            if (list == null) {
+                list = new ArrayList<>();
+                uncommitted.put(entry.getKey().instance, list);
+            }
+            list.addAll(messages.subList(skip, messages.size()));
+            skip = 0;
+        }
+        return uncommitted;
+    }
+
+    /**
+     * Closes the transacted session of the invoking thread after a failure, the next batch
+     * of the thread uses a new session.
+     */
+    private void discardLocalBatchSession(Session session) {
+        localBatchSession.remove();
+        localBatchProducer.remove();
+        synchronized (sessions) {
+            sessions.remove(session);
+        }
+        closeSession(session);
+    }
+
+    /**
+     * initialize thread local transacted session and producer for batches if there are no such
+     * @throws JMSException
+     */
+    private void initLocalBatchSessionAndProducer() throws JMSException {
+        if (localBatchSession.get() == null) {
+            Connection connection = connectionQueue.poll();
+            localBatchSession.set(connection.createSession(true, Session.SESSION_TRANSACTED));
+            registerSession(localBatchSession.get());
+            connectionQueue.add(connection);
+
+            localBatchProducer.set(localBatchSession.get().createProducer(null));
+        }
+    }
+
     /**
      * initialize thread local session and producer if there are no such
      * @throws JMSException
@@ -279,7 +947,7 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         if (localSession.get() == null) {
             Connection connection = connectionQueue.poll();
             localSession.set(connection.createSession(false, Session.AUTO_ACKNOWLEDGE));
-            sessions.add(localSession.get());
+            registerSession(localSession.get());
             connectionQueue.add(connection);
 
             MessageProducer producer = localSession.get().createProducer(null);
@@ -294,9 +962,18 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         return receiveMessage(createDestination(requestQueuePrefix, id));
     }
 
+    @Override
+    public List<Message> receiveRequestsBatch(Identifier id, int maxMessages, long timeout) {
+        return receiveBatch(createDestination(requestQueuePrefix, id), maxMessages, timeout);
+    }
+
     private Destination createDestination(String prefix, Identifier id) {
+        return createDestination(prefix, id.getId());
+    }
+
+    private Destination createDestination(String prefix, String id) {
         try {
-            return session.createQueue(prefix + id.getId());
+            return session.createQueue(prefix + id);
         } catch (JMSException e) {
             log.error("Error while sending message to queue '{}' with id {} message", prefix, id, e);
             throw BrokerErrorUtils.createRuntimeBrokerException(e);
@@ -314,28 +991,99 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         statistic.brokerPublishRequest();
     }
 
+    @Override
+    public CompletableFuture<Void> publishRequestAsync(Identifier id, Message message) {
+        CompletableFuture<Void> future = sendMessageAsync(message, createDestination(requestQueuePrefix, id), null);
+        statistic.brokerPublishRequest();
+        return future;
+    }
+
     @Override
     public Message receiveOutput(Identifier id) {
-        return receiveMessage(createDestination(taskQueuePrefix, id));
+        return receiveMessage(createOutputDestination(id), createOutputSelector(id));
+    }
+
+    @Override
+    public List<Message> receiveOutputBatch(Identifier id, int maxMessages, long timeout) {
+        return receiveBatch(createOutputDestination(id), createOutputSelector(id), maxMessages, timeout);
+    }
+
+    /**
+     * Creates the selector for the messages of an adapter instance on the task queue of its channel,
+     * null if channel task queues are not used.
+     */
+    private String createOutputSelector(Identifier id) {
+        if (!channelTaskQueues) {
+            return null;
+        }
+
+        String postfix = id.getPostfix();
+        if (postfix == null || postfix.isEmpty()) {
+            return INSTANCE_PROPERTY + " IS NULL";
+        }
+        return INSTANCE_PROPERTY + " = '" + postfix.replace("'", "''") + "'";
     }
 
     @Override
     public CancelableListener registerOutputListener(Identifier id, MessageListener listener) {
-        return setListener(listener, createDestination(taskQueuePrefix, id));
+        return setListener(listener, createOutputDestination(id), createOutputSelector(id));
     }
 
     @Override
     public void publishOutput(Identifier id, Message message) {
-        sendMessage(message, createDestination(taskQueuePrefix, id));
+        sendMessage(message, createOutputDestination(id), id);
         statistic.brokerPublishOutput();
     }
 
+    @Override
+    public CompletableFuture<Void> publishOutputAsync(Identifier id, Message message) {
+        CompletableFuture<Void> future = sendMessageAsync(message, createOutputDestination(id), id);
+        statistic.brokerPublishOutput();
+        return future;
+    }
+
+    /**
+     * Creates the task queue of an adapter instance, this is the task queue of the channel if
+     * channel task queues are used.
+     */
+    private Destination createOutputDestination(Identifier id) {
+        if (channelTaskQueues) {
+            return createDestination(taskQueuePrefix, id.returnIdWithoutPostfix());
+        }
+        return createDestination(taskQueuePrefix, id);
+    }
+
+    @Override
+    public void publishOutputBatch(Map<Identifier, List<Message>> messages) {
+        Map<Target, List<Message>> batch = new LinkedHashMap<>();
+        int amount = 0;
+        for (Map.Entry<Identifier, List<Message>> entry : messages.entrySet()) {
+            batch.put(new Target(createOutputDestination(entry.getKey()), entry.getKey()), entry.getValue());
+            amount += entry.getValue().size();
+        }
+        sendBatch(batch);
+        statistic.brokerPublishOutput(amount);
+    }
+
     @Override
     public void publishControl(Message message) {
         sendMessage(message, controlQueue);
         statistic.brokerPublishControl();
     }
 
+    @Override
+    public CompletableFuture<Void> publishControlAsync(Message message) {
+        CompletableFuture<Void> future = sendMessageAsync(message, controlQueue, null);
+        statistic.brokerPublishControl();
+        return future;
+    }
+
+    @Override
+    public void publishControlBatch(List<Message> messages) {
+        sendBatch(Collections.singletonMap(new Target(controlQueue, null), messages));
+        statistic.brokerPublishControl(messages.size());
+    }
+
     @Override
     public Message receiveControl() {
         return receiveMessage(controlQueue);
@@ -351,6 +1099,11 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         sendMessage(message, authQueue);
     }
 
+    @Override
+    public CompletableFuture<Void> publishAuthRequestAsync(Message message) {
+        return sendMessageAsync(message, authQueue, null);
+    }
+
     @Override
     public Message receiveAuthRequest() {
         return receiveMessage(authQueue);
@@ -366,6 +1119,11 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         sendMessage(message, messageInfoQueue);
     }
 
+    @Override
+    public CompletableFuture<Void> publishMessageInfoRequestAsync(Message message) {
+        return sendMessageAsync(message, messageInfoQueue, null);
+    }
+
     @Override
     public Message receiveMessageInfoRequest() {
         return receiveMessage(messageInfoQueue);
@@ -381,6 +1139,11 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         sendMessage(message, metricsQueue);
     }
 
+    @Override
+    public CompletableFuture<Void> publishMetricsRequestAsync(Message message) {
+        return sendMessageAsync(message, metricsQueue, null);
+    }
+
     @Override
     public Message receiveMetricsRequest() {
         return receiveMessage(metricsQueue);
@@ -397,34 +1160,65 @@ public class ApacheActiveMQMessageBroker implements MessageBroker {
         statistic.brokerPublishLog();
     }
 
+    @Override
+    public CompletableFuture<Void> publishLogAsync(Message message) {
+        CompletableFuture<Void> future = sendMessageAsync(message, logQueue, null);
+        statistic.brokerPublishLog();
+        return future;
+    }
+
+    @Override
+    public void publishLogBatch(List<Message> messages) {
+        sendBatch(Collections.singletonMap(new Target(logQueue, null), messages));
+        statistic.brokerPublishLog(messages.size());
+    }
+
     @Override
     public Message receiveLog() {
         return receiveMessage(logQueue);
     }
 
+    @Override
+    public List<Message> receiveLogBatch(int maxMessages, long timeout) {
+        return receiveBatch(logQueue, maxMessages, timeout);
+    }
+
     @Override
     public CancelableListener registerLogListener(MessageListener listener) {
         return setListener(listener, logQueue);
     }
 
+    /**
+     * Destination of a batch and the adapter instance that receives the messages on a channel task queue
+     */
+    private static class Target {
+        private final Destination destination;
+        private final Identifier instance;
+
+        private Target(Destination destination, Identifier instance) {
+            this.destination = destination;
+            this.instance = instance;
+        }
+
+        @Override
+        public String toString() {
+            return destination.toString();
+        }
+    }
+
     private class CancelableListenerImpl implements CancelableListener {
 
-        private final MessageConsumer consumer;
-        private final Session session;
+        private final ConsumerConnectionPool pool;
+        private final ConsumerConnectionPool.PooledConsumer consumer;
 
-        private CancelableListenerImpl(MessageConsumer consumer, Session session) {
+        private CancelableListenerImpl(ConsumerConnectionPool pool, ConsumerConnectionPool.PooledConsumer consumer) {
+            this.pool = pool;
             this.consumer = consumer;
-            this.session = session;
         }
 
         @Override
         public void cancel() {
-            try {
-                this.consumer.close();
-                this.session.close();
-            } catch (JMSException e) {
-                log.error("Could not close consumer", e);
-            }
+            pool.release(consumer);
         }
     }
 }
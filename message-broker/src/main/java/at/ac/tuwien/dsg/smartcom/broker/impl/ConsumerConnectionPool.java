@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of connections that are shared by the consumers of the message
+ * listeners. Each connection holds at most maxConsumersPerConnection consumers
+ * which are multiplexed over sessions with at most maxConsumersPerSession
+ * consumers each. Note that the listeners of a session are invoked sequentially,
+ * hence sessions should only be shared by listeners that never block.
+ *
+ * New consumers are placed on the least loaded connection. If a consumer is
+ * released and the pool becomes unbalanced, consumers of the most loaded
+ * connection are moved to the least loaded one by a background thread of the
+ * pool. Moving a consumer closes it, which waits for a message that is being
+ * handled by its listener, hence idle consumers are moved preferably and
+ * the thread that releases a consumer never waits for other listeners.
+ *
+ * @version 1.0
+ */
+class ConsumerConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(ConsumerConnectionPool.class);
+
+    private final ConnectionFactory connectionFactory;
+    private final List<PooledConnection> connections = new ArrayList<>();
+
+    private int maxConnections;
+    private int maxConsumersPerConnection;
+    private int maxConsumersPerSession;
+
+    private boolean closed = false;
+    private boolean rebalancing = false;
+
+    private final ExecutorService rebalancer;
+
+    ConsumerConnectionPool(ConnectionFactory connectionFactory, int maxConnections, int maxConsumersPerConnection, int maxConsumersPerSession) {
+        this.connectionFactory = connectionFactory;
+        this.rebalancer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("CONSUMER-POOL-REBALANCE-%d").setDaemon(true).build());
+        setLimits(maxConnections, maxConsumersPerConnection, maxConsumersPerSession);
+    }
+
+    /**
+     * Changes the limits of the pool. Existing consumers are not affected.
+     */
+    synchronized void setLimits(int maxConnections, int maxConsumersPerConnection, int maxConsumersPerSession) {
+        if (maxConnections < 1 || maxConsumersPerConnection < 1 || maxConsumersPerSession < 1) {
+            throw new IllegalArgumentException("Limits of the consumer connection pool have to be greater than 0");
+        }
+        this.maxConnections = maxConnections;
+        this.maxConsumersPerConnection = maxConsumersPerConnection;
+        this.maxConsumersPerSession = maxConsumersPerSession;
+    }
+
+    /**
+     * Creates a consumer for the destination that passes received messages to the listener.
+     *
+     * @param destination of the consumer
+     * @param listener that handles the received messages
+     * @return handle that has to be used to release the consumer
+     * @throws JMSException if the consumer could not be created or the limits of the pool have been reached
+     */
+    synchronized PooledConsumer createConsumer(Destination destination, MessageListener listener) throws JMSException {
+        return createConsumer(destination, null, listener);
+    }
+
+    /**
+     * Creates a consumer for the messages of the destination that match the selector.
+     *
+     * @param destination of the consumer
+     * @param selector of the messages, null if all messages are accepted
+     * @param listener that handles the received messages
+     * @return handle that has to be used to release the consumer
+     * @throws JMSException if the consumer could not be created or the limits of the pool have been reached
+     */
+    synchronized PooledConsumer createConsumer(Destination destination, String selector, MessageListener listener) throws JMSException {
+        if (closed) {
+            throw new JMSException("Consumer connection pool has already been closed");
+        }
+
+        PooledConsumer consumer = new PooledConsumer(destination, selector, listener);
+        attach(consumer, selectConnection());
+        return consumer;
+    }
+
+    /**
+     * Releases the consumer and closes its session if there are no other consumers left.
+     * If the pool becomes unbalanced, it is rebalanced in the background.
+     *
+     * @param consumer that should be released
+     */
+    void release(PooledConsumer consumer) {
+        MessageConsumer jmsConsumer;
+        Session emptySession;
+        boolean rebalance = false;
+
+        synchronized (this) {
+            if (consumer.released) {
+                return;
+            }
+            consumer.released = true;
+
+            jmsConsumer = consumer.consumer;
+            emptySession = detach(consumer);
+
+            if (!closed && !rebalancing && isUnbalanced()) {
+                rebalancing = true;
+                rebalance = true;
+            }
+        }
+
+        close(jmsConsumer, emptySession);
+
+        if (rebalance) {
+            try {
+                rebalancer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        rebalance();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    rebalancing = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves consumers of the most loaded connection to the least loaded one until the pool is balanced.
+     */
+    private void rebalance() {
+        while (true) {
+            PooledConsumer moved;
+            MessageConsumer movedJmsConsumer;
+            Session movedEmptySession;
+
+            synchronized (this) {
+                if (closed || !isUnbalanced()) {
+                    rebalancing = false;
+                    return;
+                }
+                moved = selectConsumerToMove(mostLoaded());
+                movedJmsConsumer = moved.consumer;
+                movedEmptySession = detach(moved);
+            }
+
+            //the old consumer has to be closed before the new one is created, otherwise the listener might be invoked concurrently
+            close(movedJmsConsumer, movedEmptySession);
+
+            synchronized (this) {
+                if (!moved.released && !closed) {
+                    try {
+                        attach(moved, leastLoaded());
+                        log.debug("Moved consumer for {} to rebalance the consumer connections", moved.destination);
+                    } catch (JMSException e) {
+                        log.error("Could not move consumer for {}", moved.destination, e);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isUnbalanced() {
+        PooledConnection source = mostLoaded();
+        PooledConnection target = leastLoaded();
+        return source != null && target != null && source.consumers - target.consumers > maxConsumersPerSession;
+    }
+
+    /**
+     * Selects an idle consumer of the connection if there is one, otherwise a consumer of its last session.
+     */
+    private PooledConsumer selectConsumerToMove(PooledConnection connection) {
+        for (PooledSession session : connection.sessions) {
+            for (PooledConsumer consumer : session.consumers) {
+                if (consumer.active.get() == 0) {
+                    return consumer;
+                }
+            }
+        }
+        return connection.sessions.get(connection.sessions.size() - 1).consumers.iterator().next();
+    }
+
+    /**
+     * Closes all connections of the pool
+     */
+    void close() {
+        rebalancer.shutdownNow();
+
+        List<PooledConnection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(connections);
+            connections.clear();
+        }
+
+        for (PooledConnection connection : toClose) {
+            try {
+                connection.connection.close();
+            } catch (JMSException e) {
+                log.warn("Error while closing consumer connection!", e);
+            }
+        }
+    }
+
+    synchronized int getConnectionCount() {
+        return connections.size();
+    }
+
+    synchronized int getSessionCount() {
+        int sessions = 0;
+        for (PooledConnection connection : connections) {
+            sessions += connection.sessions.size();
+        }
+        return sessions;
+    }
+
+    synchronized int[] getConsumersPerConnection() {
+        int[] consumers = new int[connections.size()];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = connections.get(i).consumers;
+        }
+        return consumers;
+    }
+
+    /**
+     * Returns the least loaded connection or creates a new one if there is no idle
+     * connection and the maximum number of connections has not been reached yet.
+     */
+    private PooledConnection selectConnection() throws JMSException {
+        PooledConnection connection = leastLoaded();
+
+        if ((connection == null || connection.consumers > 0) && connections.size() < maxConnections) {
+            Connection jmsConnection = connectionFactory.createConnection();
+            jmsConnection.start();
+
+            connection = new PooledConnection(jmsConnection);
+            connections.add(connection);
+            log.debug("Created consumer connection {} of {}", connections.size(), maxConnections);
+        }
+
+        if (connection.consumers >= maxConsumersPerConnection) {
+            throw new JMSException("Consumer connection pool is exhausted: " + maxConnections + " connections with "
+                    + maxConsumersPerConnection + " consumers each");
+        }
+        return connection;
+    }
+
+    private void attach(PooledConsumer consumer, PooledConnection connection) throws JMSException {
+        PooledSession session = null;
+        for (PooledSession s : connection.sessions) {
+            if (s.consumers.size() < maxConsumersPerSession && (session == null || s.consumers.size() < session.consumers.size())) {
+                session = s;
+            }
+        }
+
+        if (session == null) {
+            session = new PooledSession(connection, connection.connection.createSession(false, Session.AUTO_ACKNOWLEDGE));
+            connection.sessions.add(session);
+        }
+
+        MessageConsumer jmsConsumer = session.session.createConsumer(consumer.destination, consumer.selector);
+        jmsConsumer.setMessageListener(consumer.jmsListener);
+
+        consumer.consumer = jmsConsumer;
+        consumer.session = session;
+        session.consumers.add(consumer);
+        connection.consumers++;
+    }
+
+    /**
+     * Removes the consumer from its session.
+     *
+     * @return the session of the consumer if it has no consumers left and should be closed, null otherwise
+     */
+    private Session detach(PooledConsumer consumer) {
+        PooledSession session = consumer.session;
+        if (session == null) {
+            return null;
+        }
+        consumer.session = null;
+
+        session.consumers.remove(consumer);
+        session.connection.consumers--;
+
+        if (session.consumers.isEmpty()) {
+            session.connection.sessions.remove(session);
+            return session.session;
+        }
+        return null;
+    }
+
+    private PooledConnection leastLoaded() {
+        PooledConnection least = null;
+        for (PooledConnection connection : connections) {
+            if (least == null || connection.consumers < least.consumers) {
+                least = connection;
+            }
+        }
+        return least;
+    }
+
+    private PooledConnection mostLoaded() {
+        PooledConnection most = null;
+        for (PooledConnection connection : connections) {
+            if (most == null || connection.consumers > most.consumers) {
+                most = connection;
+            }
+        }
+        return most;
+    }
+
+    private void close(MessageConsumer consumer, Session session) {
+        try {
+            if (consumer != null) {
+                consumer.close();
+            }
+            if (session != null) {
+                session.close();
+            }
+        } catch (JMSException e) {
+            log.error("Could not close consumer", e);
+        }
+    }
+
+    private static class PooledConnection {
+        private final Connection connection;
+        private final List<PooledSession> sessions = new ArrayList<>();
+        private int consumers = 0;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private static class PooledSession {
+        private final PooledConnection connection;
+        private final Session session;
+        private final Set<PooledConsumer> consumers = new LinkedHashSet<>();
+
+        private PooledSession(PooledConnection connection, Session session) {
+            this.connection = connection;
+            this.session = session;
+        }
+    }
+
+    /**
+     * Consumer of the pool, the underlying session and JMS consumer might change
+     * if the consumer is moved to another connection.
+     */
+    static class PooledConsumer {
+        private final Destination destination;
+        private final String selector;
+        private final MessageListener jmsListener;
+
+        //number of messages that are being handled by the listener
+        private final AtomicInteger active = new AtomicInteger(0);
+
+        private MessageConsumer consumer;
+        private PooledSession session;
+        private boolean released = false;
+
+        private PooledConsumer(Destination destination, String selector, final MessageListener listener) {
+            this.destination = destination;
+            this.selector = selector;
+            this.jmsListener = new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    active.incrementAndGet();
+                    try {
+                        listener.onMessage(message);
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of a single queue that is stored in memory-mapped segment files.
+ *
+ * Entries are written sequentially as length prefixed byte arrays. The length is
+ * written after the data, therefore an entry that has been interrupted by a crash
+ * is ignored on recovery. If an entry does not fit into the current segment, the
+ * segment is closed by an end marker and a new segment is created (rolling).
+ *
+ * The position of the consumer is stored in a small memory-mapped index file. Entries
+ * that are read by poll or take are acknowledged immediately, entries that are read by
+ * pollUnacknowledged only when they are acknowledged explicitly. Therefore entries
+ * that have been read but not yet acknowledged are read again after a crash (at-least-once).
+ * Note that the explicit acknowledgement must not be mixed with the other read methods.
+ * Segments that have been acknowledged completely are deleted.
+ *
+ * The segments and the index are memory-mapped, hence written data survives a crash of
+ * the process as soon as it has been written. The operating system writes it to disk
+ * on its own behalf, sync forces this (e.g., to survive a crash of the operating system).
+ *
+ * A position in the journal is global, segment n covers the positions
+ * [n * segmentSize, (n+1) * segmentSize). Therefore the segment size of an existing
+ * journal must not be changed.
+ *
+ * @version 1.0
+ */
+class Journal {
+    private static final Logger log = LoggerFactory.getLogger(Journal.class);
+
+    static final String SEGMENT_SUFFIX = ".segment";
+    static final String INDEX_FILE = "consumer.index";
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int END_OF_SEGMENT = -1;
+
+    private final File directory;
+    private final int segmentSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    //guarded by lock
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private final RandomAccessFile indexFile;
+    private final MappedByteBuffer index;
+    private long writePosition;
+    private long readPosition;
+    private long acknowledgedPosition;
+    private boolean closed = false;
+
+    /**
+     * Opens the journal in the given directory and recovers its state if it already exists.
+     *
+     * @param directory of the journal, will be created if it does not exist
+     * @param segmentSize size of a segment file in bytes
+     * @throws IOException if the journal could not be opened
+     */
+    Journal(File directory, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        indexFile = new RandomAccessFile(new File(directory, INDEX_FILE), "rw");
+        index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+
+        recover();
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                long number = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                if (file.length() != segmentSize) {
+                    throw new IOException("Segment " + file + " has a size of " + file.length() + " bytes, expected " + segmentSize);
+                }
+                segments.put(number, new Segment(number));
+            }
+        }
+
+        if (segments.isEmpty()) {
+            writePosition = 0;
+            readPosition = 0;
+            getSegment(0);
+        } else {
+            Segment last = segments.lastEntry().getValue();
+            writePosition = last.number * segmentSize + scan(last);
+            readPosition = Math.max(index.getLong(0), segments.firstKey() * segmentSize);
+            readPosition = Math.min(readPosition, writePosition);
+        }
+        commit(readPosition);
+
+        log.debug("Opened journal {} (read position {}, write position {})", directory, readPosition, writePosition);
+    }
+
+    /**
+     * Determines the end of the written data within a segment
+     */
+    private int scan(Segment segment) {
+        int offset = 0;
+        while (offset + LENGTH_SIZE <= segmentSize) {
+            int length = segment.buffer.getInt(offset);
+            if (length == END_OF_SEGMENT) {
+                return segmentSize;
+            }
+            if (length <= 0 || offset + LENGTH_SIZE + length > segmentSize) {
+                break;
+            }
+            offset += LENGTH_SIZE + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Appends an entry to the journal
+     *
+     * @param data of the entry
+     * @throws IOException if the entry could not be written
+     */
+    void append(byte[] data) throws IOException {
+        if (data.length == 0 || data.length + LENGTH_SIZE > segmentSize) {
+            throw new IOException("Entry of " + data.length + " bytes does not fit into a segment of " + segmentSize + " bytes");
+        }
+
+        lock.lock();
+        try {
+            checkOpen();
+
+            int offset = (int) (writePosition % segmentSize);
+            if (offset + LENGTH_SIZE + data.length > segmentSize) {
+                if (offset + LENGTH_SIZE <= segmentSize) {
+                    getSegment(writePosition / segmentSize).buffer.putInt(offset, END_OF_SEGMENT);
+                }
+                writePosition = (writePosition / segmentSize + 1) * segmentSize;
+                offset = 0;
+            }
+
+            ByteBuffer buffer = getSegment(writePosition / segmentSize).buffer;
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset + LENGTH_SIZE);
+            target.put(data);
+            buffer.putInt(offset, data.length);
+
+            writePosition += LENGTH_SIZE + data.length;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the next entry and moves the consumer position behind it.
+     *
+     * @return next entry or null if there is none
+     * @throws IOException if the journal has been closed
+     */
+    byte[] poll() throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            return read();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the next entry without acknowledging it. The entry is read again after the
+     * journal has been reopened, unless it has been acknowledged in the meantime.
+     *
+     * @return next entry or null if there is none
+     * @throws IOException if the journal has been closed
+     */
+    Entry pollUnacknowledged() throws IOException {
+        lock.lock();
+        try {
+            checkOpen();
+            byte[] data = readEntry();
+            return data == null ? null : new Entry(data, readPosition);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acknowledges an entry that has been read by pollUnacknowledged and all entries before it.
+     *
+     * @param entry that has been handled
+     */
+    void acknowledge(Entry entry) {
+        lock.lock();
+        try {
+            if (!closed && entry.end > acknowledgedPosition) {
+                commit(entry.end);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the consumer position back to the first entry that has not been acknowledged,
+     * hence the entries that have been read by pollUnacknowledged are read again.
+     */
+    void rewind() {
+        lock.lock();
+        try {
+            readPosition = acknowledgedPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the next entry and waits until there is one if necessary.
+     *
+     * @return next entry
+     * @throws IOException if the journal has been closed
+     * @throws InterruptedException if the thread has been interrupted while waiting
+     */
+    byte[] take() throws IOException, InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            byte[] data;
+            while (true) {
+                checkOpen();
+                if ((data = read()) != null) {
+                    return data;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads up to max entries and waits at most for the given timeout until there is one. The
+     * read position is stored once for the whole batch.
+     *
+     * @return entries that have been read, an empty list if the timeout elapsed
+     * @throws IOException if the journal has been closed
+     * @throws InterruptedException if the thread has been interrupted while waiting
+     */
+    List<byte[]> take(int max, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            List<byte[]> entries = new ArrayList<>();
+            while (true) {
+                checkOpen();
+                byte[] data;
+                while (entries.size() < max && (data = readEntry()) != null) {
+                    entries.add(data);
+                }
+                commit(readPosition);
+
+                if (!entries.isEmpty() || nanos <= 0) {
+                    return entries;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] read() throws IOException {
+        byte[] data = readEntry();
+
+        //the reader might have skipped to a segment that has not been written yet
+        commit(readPosition);
+        return data;
+    }
+
+    /**
+     * Reads the next entry without storing the new read position.
+     */
+    private byte[] readEntry() throws IOException {
+        while (readPosition < writePosition) {
+            long number = readPosition / segmentSize;
+            int offset = (int) (readPosition % segmentSize);
+            ByteBuffer buffer = getSegment(number).buffer;
+
+            int length = offset + LENGTH_SIZE <= segmentSize ? buffer.getInt(offset) : END_OF_SEGMENT;
+            if (length == END_OF_SEGMENT) {
+                readPosition = (number + 1) * segmentSize;
+                continue;
+            }
+
+            //read directly from the mapped segment
+            byte[] data = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset + LENGTH_SIZE);
+            source.get(data);
+
+            readPosition += LENGTH_SIZE + length;
+            return data;
+        }
+        return null;
+    }
+
+    /**
+     * Stores the acknowledged position and deletes the segments that have been passed.
+     */
+    private void commit(long position) {
+        acknowledgedPosition = position;
+        index.putLong(0, position);
+
+        long current = position / segmentSize;
+        while (!segments.isEmpty() && segments.firstKey() < current) {
+            Map.Entry<Long, Segment> entry = segments.pollFirstEntry();
+            entry.getValue().delete();
+        }
+    }
+
+    private Segment getSegment(long number) throws IOException {
+        Segment segment = segments.get(number);
+        if (segment == null) {
+            segment = new Segment(number);
+            segments.put(number, segment);
+        }
+        return segment;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Journal " + directory + " has been closed");
+        }
+    }
+
+    /**
+     * Returns the amount of bytes that have been written but not yet read
+     */
+    long getBacklog() {
+        lock.lock();
+        try {
+            return writePosition - readPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the amount of segment files
+     */
+    int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the written entries and the acknowledged position to the disk.
+     */
+    void sync() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+            index.force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes and closes the journal. Threads that are waiting for entries fail.
+     */
+    void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signalAll();
+
+            index.force();
+            try {
+                indexFile.close();
+            } catch (IOException e) {
+                log.warn("Could not close index of journal {}", directory, e);
+            }
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Entry that has been read but not yet acknowledged
+     */
+    static class Entry {
+        final byte[] data;
+        private final long end;
+
+        private Entry(byte[] data, long end) {
+            this.data = data;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Memory-mapped segment file
+     */
+    private class Segment {
+        private final long number;
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long number) throws IOException {
+            this.number = number;
+            this.file = new File(directory, String.format("%020d", number) + SEGMENT_SUFFIX);
+            this.raf = new RandomAccessFile(file, "rw");
+            this.raf.setLength(segmentSize);
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+
+        void close() {
+            buffer.force();
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.warn("Could not close segment {}", file, e);
+            }
+        }
+
+        void delete() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.warn("Could not close segment {}", file, e);
+            }
+            if (!file.delete()) {
+                log.warn("Could not delete segment {}", file);
+            } else {
+                log.trace("Deleted segment {}", file);
+            }
+        }
+    }
+}
@@ -0,0 +1,651 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import at.ac.tuwien.dsg.smartcom.broker.CancelableListener;
+import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.codec.BinaryMessageCodec;
+import at.ac.tuwien.dsg.smartcom.broker.codec.MessageCodec;
+import at.ac.tuwien.dsg.smartcom.broker.utils.BrokerErrorUtils;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Durable message broker for single node deployments that does not need an external
+ * message broker. Each logical queue (input, control, auth, message info, metrics, log
+ * and the request and task queues of the adapters) is an append-only {@link Journal}
+ * of memory-mapped segment files in its own directory. Publishing appends the encoded
+ * message to the journal, consuming reads it directly from the mapped segment.
+ *
+ * The queues survive restarts of the broker: messages that have not been consumed
+ * before the shutdown (or crash) are delivered after the journal has been opened
+ * again. The queues of adapters are opened as soon as they are used again.
+ *
+ * A message that is dispatched to a listener is acknowledged after the listener has
+ * returned, hence messages that were being passed to a listener during a crash are
+ * delivered again. This is at-least-once only up to the hand-off to the listener:
+ * listeners that buffer messages themselves (e.g., the ReplicatingMessageListener that
+ * is used by the components of SmartCom) return before the message has been handled,
+ * therefore buffered messages are lost if the process crashes. Messages that are
+ * received by receive calls are acknowledged as soon as they have been returned.
+ *
+ * If a listener fails, the message is not acknowledged but delivered again. A message
+ * that fails MAX_DELIVERY_ATTEMPTS times is moved to the dead letter journal of its
+ * queue (directory deadLetter.[queue]), so that it does not block the queue.
+ *
+ * The journals are memory-mapped files, therefore published messages survive a crash of
+ * the process. By default they are forced to the disk only when the broker is closed and
+ * the operating system decides when to write them otherwise, use setSyncInterval to force
+ * them periodically (e.g., to survive a power loss).
+ *
+ * Messages of a queue with registered listeners are dispatched by a shared pool of
+ * dispatcher threads. At most one dispatcher handles a queue at a time, therefore the
+ * messages of a queue are delivered in order.
+ *
+ * @version 1.0
+ */
+public class JournalMessageBroker implements MessageBroker {
+    private static final Logger log = LoggerFactory.getLogger(JournalMessageBroker.class);
+
+    /**
+     * Default size of a segment file of a journal
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Default number of threads that dispatch messages to the listeners
+     */
+    public static final int DEFAULT_DISPATCHER_THREADS = 40;
+
+    /**
+     * Maximum number of messages a dispatcher handles at once
+     */
+    static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * Number of times a message is dispatched to the listeners before it is moved to the
+     * dead letter journal
+     */
+    static final int MAX_DELIVERY_ATTEMPTS = 5;
+
+    static final String DEAD_LETTER_PREFIX = "deadLetter.";
+
+    private final File directory;
+    private final StatisticBean statistic;
+    private final int segmentSize;
+    private final MessageCodec codec;
+    private final ExecutorService dispatcher;
+    private ScheduledExecutorService syncer;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    private final MessageQueue inputQueue;
+    private final MessageQueue controlQueue;
+    private final MessageQueue authQueue;
+    private final MessageQueue messageInfoQueue;
+    private final MessageQueue metricsQueue;
+    private final MessageQueue logQueue;
+
+    private final ConcurrentMap<Identifier, MessageQueue> requestQueues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Identifier, MessageQueue> taskQueues = new ConcurrentHashMap<>();
+
+    public JournalMessageBroker(File directory, StatisticBean statistic) throws IOException {
+        this(directory, statistic, new BinaryMessageCodec());
+    }
+
+    public JournalMessageBroker(File directory, StatisticBean statistic, MessageCodec codec) throws IOException {
+        this(directory, statistic, DEFAULT_SEGMENT_SIZE, DEFAULT_DISPATCHER_THREADS, codec);
+    }
+
+    public JournalMessageBroker(File directory, StatisticBean statistic, int segmentSize, int dispatcherThreads) throws IOException {
+        this(directory, statistic, segmentSize, dispatcherThreads, new BinaryMessageCodec());
+    }
+
+    public JournalMessageBroker(File directory, StatisticBean statistic, int segmentSize, int dispatcherThreads, MessageCodec codec) throws IOException {
+        this.directory = directory;
+        this.codec = codec;
+        this.statistic = statistic;
+        this.segmentSize = segmentSize;
+        this.dispatcher = Executors.newFixedThreadPool(dispatcherThreads, new ThreadFactoryBuilder().setNameFormat("JOURNAL-BROKER-%d").build());
+
+        inputQueue = new MessageQueue("input");
+        controlQueue = new MessageQueue("control");
+        authQueue = new MessageQueue("auth");
+        messageInfoQueue = new MessageQueue("messageInfo");
+        metricsQueue = new MessageQueue("metrics");
+        logQueue = new MessageQueue("log");
+    }
+
+    /**
+     * Forces the journals to the disk periodically. Messages that have been published
+     * within the last interval might be lost if the operating system crashes.
+     *
+     * @param interval between two syncs, 0 disables the periodic sync
+     * @param unit of the interval
+     */
+    public synchronized void setSyncInterval(long interval, TimeUnit unit) {
+        if (syncer != null) {
+            syncer.shutdown();
+            syncer = null;
+        }
+        if (interval <= 0 || closed.get()) {
+            return;
+        }
+
+        syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("JOURNAL-SYNC-%d").build());
+        syncer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Forces all journals to the disk
+     */
+    public void sync() {
+        for (MessageQueue queue : getQueues()) {
+            queue.journal.sync();
+        }
+    }
+
+    private List<MessageQueue> getQueues() {
+        List<MessageQueue> queues = new ArrayList<>();
+        Collections.addAll(queues, inputQueue, controlQueue, authQueue, messageInfoQueue, metricsQueue, logQueue);
+        queues.addAll(requestQueues.values());
+        queues.addAll(taskQueues.values());
+        return queues;
+    }
+
+    /**
+     * Stops the dispatchers and closes all journals. Unconsumed messages
+     * remain in the journals.
+     */
+    @PreDestroy
+    public void cleanUp() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (syncer != null) {
+                syncer.shutdownNow();
+            }
+        }
+
+        dispatcher.shutdown();
+        try {
+            if (!dispatcher.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+                dispatcher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            dispatcher.shutdownNow();
+        }
+
+        for (MessageQueue queue : getQueues()) {
+            queue.close();
+        }
+    }
+
+    @Override
+    public Message receiveInput() {
+        return inputQueue.receive();
+    }
+
+    @Override
+    public List<Message> receiveInputBatch(int maxMessages, long timeout) {
+        return inputQueue.receive(maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerInputListener(MessageListener listener) {
+        return inputQueue.register(listener);
+    }
+
+    @Override
+    public void publishInput(Message message) {
+        inputQueue.publish(message);
+        statistic.brokerPublishInput();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishInputAsync(Message message) {
+        try {
+            publishInput(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Message receiveRequests(Identifier id) {
+        return getQueue(requestQueues, "request.", id).receive();
+    }
+
+    @Override
+    public List<Message> receiveRequestsBatch(Identifier id, int maxMessages, long timeout) {
+        return getQueue(requestQueues, "request.", id).receive(maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerRequestListener(Identifier id, MessageListener listener) {
+        return getQueue(requestQueues, "request.", id).register(listener);
+    }
+
+    @Override
+    public void publishRequest(Identifier id, Message message) {
+        getQueue(requestQueues, "request.", id).publish(message);
+        statistic.brokerPublishRequest();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishRequestAsync(Identifier id, Message message) {
+        try {
+            publishRequest(id, message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Message receiveOutput(Identifier id) {
+        return getQueue(taskQueues, "task.", id).receive();
+    }
+
+    @Override
+    public List<Message> receiveOutputBatch(Identifier id, int maxMessages, long timeout) {
+        return getQueue(taskQueues, "task.", id).receive(maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerOutputListener(Identifier id, MessageListener listener) {
+        return getQueue(taskQueues, "task.", id).register(listener);
+    }
+
+    @Override
+    public void publishOutput(Identifier id, Message message) {
+        getQueue(taskQueues, "task.", id).publish(message);
+        statistic.brokerPublishOutput();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishOutputAsync(Identifier id, Message message) {
+        try {
+            publishOutput(id, message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public void publishOutputBatch(Map<Identifier, List<Message>> messages) {
+        int amount = 0;
+        for (Map.Entry<Identifier, List<Message>> entry : messages.entrySet()) {
+            getQueue(taskQueues, "task.", entry.getKey()).publish(entry.getValue());
+            amount += entry.getValue().size();
+        }
+        statistic.brokerPublishOutput(amount);
+    }
+
+    @Override
+    public void publishControl(Message message) {
+        controlQueue.publish(message);
+        statistic.brokerPublishControl();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishControlAsync(Message message) {
+        try {
+            publishControl(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public void publishControlBatch(List<Message> messages) {
+        controlQueue.publish(messages);
+        statistic.brokerPublishControl(messages.size());
+    }
+
+    @Override
+    public Message receiveControl() {
+        return controlQueue.receive();
+    }
+
+    @Override
+    public CancelableListener registerControlListener(MessageListener listener) {
+        return controlQueue.register(listener);
+    }
+
+    @Override
+    public void publishAuthRequest(Message message) {
+        authQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAuthRequestAsync(Message message) {
+        try {
+            publishAuthRequest(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Message receiveAuthRequest() {
+        return authQueue.receive();
+    }
+
+    @Override
+    public CancelableListener registerAuthListener(MessageListener listener) {
+        return authQueue.register(listener);
+    }
+
+    @Override
+    public void publishMessageInfoRequest(Message message) {
+        messageInfoQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMessageInfoRequestAsync(Message message) {
+        try {
+            publishMessageInfoRequest(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Message receiveMessageInfoRequest() {
+        return messageInfoQueue.receive();
+    }
+
+    @Override
+    public CancelableListener registerMessageInfoListener(MessageListener listener) {
+        return messageInfoQueue.register(listener);
+    }
+
+    @Override
+    public void publishMetricsRequest(Message message) {
+        metricsQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMetricsRequestAsync(Message message) {
+        try {
+            publishMetricsRequest(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public Message receiveMetricsRequest() {
+        return metricsQueue.receive();
+    }
+
+    @Override
+    public CancelableListener registerMetricsListener(MessageListener listener) {
+        return metricsQueue.register(listener);
+    }
+
+    @Override
+    public void publishLog(Message message) {
+        logQueue.publish(message);
+        statistic.brokerPublishLog();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishLogAsync(Message message) {
+        try {
+            publishLog(message);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    @Override
+    public void publishLogBatch(List<Message> messages) {
+        logQueue.publish(messages);
+        statistic.brokerPublishLog(messages.size());
+    }
+
+    @Override
+    public Message receiveLog() {
+        return logQueue.receive();
+    }
+
+    @Override
+    public List<Message> receiveLogBatch(int maxMessages, long timeout) {
+        return logQueue.receive(maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerLogListener(MessageListener listener) {
+        return logQueue.register(listener);
+    }
+
+    private static CompletableFuture<Void> failed(Throwable t) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    private MessageQueue getQueue(ConcurrentMap<Identifier, MessageQueue> queues, String prefix, Identifier id) {
+        MessageQueue queue = queues.get(id);
+        if (queue == null) {
+            synchronized (queues) {
+                queue = queues.get(id);
+                if (queue == null) {
+                    try {
+                        queue = new MessageQueue(prefix + URLEncoder.encode(id.getId(), "UTF-8"));
+                    } catch (IOException e) {
+                        log.error("Could not open journal for {}", id, e);
+                        throw BrokerErrorUtils.createRuntimeBrokerException(e);
+                    }
+                    queues.put(id, queue);
+                }
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Logical queue of the broker, consists of a journal and the registered listeners.
+     */
+    private class MessageQueue implements Runnable {
+        private final String name;
+        private final Journal journal;
+        private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        //accessed only by the dispatcher that holds the queue
+        private int failedAttempts = 0;
+        private Journal deadLetters;
+
+        private MessageQueue(String name) throws IOException {
+            this.name = name;
+            this.journal = new Journal(new File(directory, name), segmentSize);
+        }
+
+        void publish(Message message) {
+            append(message);
+            log.trace("Published message {} to queue {}", message, name);
+            schedule();
+        }
+
+        void publish(List<Message> messages) {
+            for (Message message : messages) {
+                append(message);
+            }
+            schedule();
+        }
+
+        private void append(Message message) {
+            try {
+                journal.append(codec.encode(message));
+            } catch (IOException e) {
+                log.error("Could not append message to queue {}", name, e);
+                throw BrokerErrorUtils.createRuntimeBrokerException(e);
+            }
+        }
+
+        Message receive() {
+            try {
+                log.trace("Receiving message from queue {}", name);
+                return codec.decode(journal.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (IOException e) {
+                log.error("Could not receive message from queue {}", name, e);
+                throw BrokerErrorUtils.createRuntimeBrokerException(e);
+            }
+        }
+
+        List<Message> receive(int maxMessages, long timeout) {
+            try {
+                log.trace("Receiving batch from queue {}", name);
+                List<Message> messages = new ArrayList<>();
+                for (byte[] data : journal.take(maxMessages, timeout, TimeUnit.MILLISECONDS)) {
+                    messages.add(codec.decode(data));
+                }
+                return messages;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Collections.emptyList();
+            } catch (IOException e) {
+                log.error("Could not receive messages from queue {}", name, e);
+                throw BrokerErrorUtils.createRuntimeBrokerException(e);
+            }
+        }
+
+        CancelableListener register(final MessageListener listener) {
+            listeners.add(listener);
+            log.trace("Registered listener for queue {}", name);
+            schedule();
+
+            return new CancelableListener() {
+                @Override
+                public void cancel() {
+                    listeners.remove(listener);
+                    log.trace("Removed listener for queue {}", name);
+                }
+            };
+        }
+
+        void close() {
+            journal.close();
+            synchronized (this) {
+                if (deadLetters != null) {
+                    deadLetters.close();
+                }
+            }
+        }
+
+        private void schedule() {
+            if (!listeners.isEmpty() && journal.getBacklog() > 0 && scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatcher.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    log.warn("Could not dispatch messages of queue {}, broker has been shut down", name);
+                }
+            }
+        }
+
+        /**
+         * Dispatches a batch of messages to the listeners and reschedules itself if there
+         * are messages left, so that the queues share the dispatcher threads fairly.
+         */
+        @Override
+        public void run() {
+            try {
+                Object[] snapshot = listeners.toArray();
+                for (int i = 0; snapshot.length > 0 && i < MAX_BATCH_SIZE; i++) {
+                    Journal.Entry entry = journal.pollUnacknowledged();
+                    if (entry == null) {
+                        break;
+                    }
+
+                    MessageListener listener = (MessageListener) snapshot[(next.getAndIncrement() & Integer.MAX_VALUE) % snapshot.length];
+                    try {
+                        listener.onMessage(codec.decode(entry.data));
+                    } catch (Exception e) {
+                        log.error("Error in message listener of queue {}", name, e);
+                        if (++failedAttempts < MAX_DELIVERY_ATTEMPTS) {
+                            //acknowledgements are cumulative, hence the message has to be delivered again before the next one
+                            journal.rewind();
+                            break;
+                        }
+                        deadLetter(entry);
+                    }
+
+                    failedAttempts = 0;
+                    journal.acknowledge(entry);
+                }
+            } catch (IOException e) {
+                log.warn("Could not dispatch messages of queue {}", name, e);
+                journal.rewind();
+            } finally {
+                scheduled.set(false);
+                if (!closed.get()) {
+                    schedule();
+                }
+            }
+        }
+
+        /**
+         * Appends a message that could not be handled to the dead letter journal of the queue.
+         */
+        private synchronized void deadLetter(Journal.Entry entry) throws IOException {
+            log.error("Message of queue {} failed {} times, moving it to the dead letter journal", name, failedAttempts);
+            if (deadLetters == null) {
+                deadLetters = new Journal(new File(directory, DEAD_LETTER_PREFIX + name), segmentSize);
+            }
+            deadLetters.append(entry.data);
+        }
+    }
+}
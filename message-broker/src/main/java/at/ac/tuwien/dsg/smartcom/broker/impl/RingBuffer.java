@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer multi-consumer queue on top of a preallocated ring buffer.
+ *
+ * Producers and consumers claim slots by advancing their cursor with a CAS. Each slot
+ * has a sequence number that acts as barrier between producers and consumers: a slot
+ * with sequence n can be written by the producer that claimed position n and read by
+ * the consumer that claimed position n after it has been published (sequence n + 1).
+ * A consumer releases the slot for the next round of the ring by setting the sequence
+ * to n + capacity. Consumers can claim a range of published slots at once.
+ *
+ * Blocking operations spin, yield and finally park (with an increasing timeout) until
+ * they can proceed.
+ *
+ * @version 1.0
+ */
+class RingBuffer<T> {
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final int SHORT_PARK_TRIES = 1000;
+    private static final long SHORT_PARK_NANOS = 50000;
+    private static final long LONG_PARK_NANOS = 1000000;
+
+    private final Object[] entries;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong publishCursor = new AtomicLong(0);
+    private final AtomicLong consumeCursor = new AtomicLong(0);
+
+    /**
+     * @param capacity of the ring buffer, will be rounded up to the next power of two
+     */
+    RingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity of ring buffer: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        entries = new Object[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return entries.length;
+    }
+
+    /**
+     * @return the approximate number of elements in the buffer
+     */
+    int size() {
+        long size = publishCursor.get() - consumeCursor.get();
+        return (int) Math.max(0, Math.min(size, entries.length));
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Adds an element to the buffer if there is a free slot.
+     *
+     * @return true if the element has been added, false if the buffer is full
+     */
+    boolean offer(T element) {
+        long position = publishCursor.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (publishCursor.compareAndSet(position, position + 1)) {
+                    entries[index] = element;
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+            position = publishCursor.get();
+        }
+    }
+
+    /**
+     * Adds an element to the buffer, waits until there is a free slot if the buffer is full.
+     */
+    void put(T element) throws InterruptedException {
+        int tries = 0;
+        while (!offer(element)) {
+            idle(tries++);
+        }
+    }
+
+    /**
+     * @return the next element or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long position = consumeCursor.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+
+            if (difference == 0) {
+                if (consumeCursor.compareAndSet(position, position + 1)) {
+                    T element = (T) entries[index];
+                    entries[index] = null;
+                    sequences.lazySet(index, position + mask + 1);
+                    return element;
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+            position = consumeCursor.get();
+        }
+    }
+
+    /**
+     * Waits until an element is available and returns it.
+     */
+    T take() throws InterruptedException {
+        int tries = 0;
+        T element;
+        while ((element = poll()) == null) {
+            idle(tries++);
+        }
+        return element;
+    }
+
+    /**
+     * Claims up to max published elements at once and adds them to the list.
+     *
+     * @return number of elements that have been added to the list
+     */
+    @SuppressWarnings("unchecked")
+    int drainTo(List<T> list, int max) {
+        long position = consumeCursor.get();
+        while (true) {
+            int available = 0;
+            while (available < max && sequences.get((int) ((position + available) & mask)) == position + available + 1) {
+                available++;
+            }
+
+            if (available == 0) {
+                long current = consumeCursor.get();
+                if (current == position) {
+                    return 0;
+                }
+                position = current;
+                continue;
+            }
+
+            if (consumeCursor.compareAndSet(position, position + available)) {
+                for (int i = 0; i < available; i++) {
+                    int index = (int) ((position + i) & mask);
+                    list.add((T) entries[index]);
+                    entries[index] = null;
+                    sequences.lazySet(index, position + i + mask + 1);
+                }
+                return available;
+            }
+            position = consumeCursor.get();
+        }
+    }
+
+    /**
+     * Waits at most for the given timeout until an element is available and claims up to
+     * max published elements at once.
+     *
+     * @return number of elements that have been added to the list, 0 if the timeout elapsed
+     */
+    int drainTo(List<T> list, int max, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int tries = 0;
+        int drained;
+        while ((drained = drainTo(list, max)) == 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return 0;
+            }
+            idle(tries++);
+        }
+        return drained;
+    }
+
+    private static void idle(int tries) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        if (tries < SPIN_TRIES) {
+            //busy spin
+        } else if (tries < YIELD_TRIES) {
+            Thread.yield();
+        } else if (tries < SHORT_PARK_TRIES) {
+            LockSupport.parkNanos(SHORT_PARK_NANOS);
+        } else {
+            LockSupport.parkNanos(LONG_PARK_NANOS);
+        }
+    }
+}
@@ -0,0 +1,552 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import at.ac.tuwien.dsg.smartcom.broker.CancelableListener;
+import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.utils.BrokerErrorUtils;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process message broker for single node deployments. Each logical queue (input,
+ * control, auth, message info, metrics, log and the request and task queues of the
+ * adapters) is a preallocated {@link RingBuffer}.
+ *
+ * Messages of a queue with registered listeners are dispatched by a shared pool of
+ * dispatcher threads. At most one dispatcher handles a queue at a time and claims up
+ * to MAX_BATCH_SIZE messages at once, therefore the messages of a queue are delivered
+ * in order. If there are several listeners on a queue, the messages are distributed
+ * among them in a round robin fashion.
+ *
+ * Publishing to a full queue blocks until there is enough space (backpressure). The
+ * asynchronous variants never block, because they are used by listeners (e.g., adapters
+ * that publish control messages) and blocking them could stall the dispatchers in a
+ * cycle of full queues. Messages that don't fit into a full queue are handed off to the
+ * overflow of the queue instead and their future completes as soon as they have been
+ * moved into the ring buffer.
+ *
+ * @version 1.0
+ */
+public class RingBufferMessageBroker implements MessageBroker {
+    private static final Logger log = LoggerFactory.getLogger(RingBufferMessageBroker.class);
+
+    /**
+     * Default capacity of the input, control, auth, message info, metrics and log queue
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+
+    /**
+     * Default capacity of the request and task queues of the adapters
+     */
+    public static final int DEFAULT_ADAPTER_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Default number of threads that dispatch messages to the listeners
+     */
+    public static final int DEFAULT_DISPATCHER_THREADS = 40;
+
+    /**
+     * Maximum number of messages a dispatcher handles at once
+     */
+    static final int MAX_BATCH_SIZE = 256;
+
+    private final StatisticBean statistic;
+    private final int adapterQueueCapacity;
+    private final ExecutorService dispatcher;
+
+    private final MessageQueue inputQueue;
+    private final MessageQueue controlQueue;
+    private final MessageQueue authQueue;
+    private final MessageQueue messageInfoQueue;
+    private final MessageQueue metricsQueue;
+    private final MessageQueue logQueue;
+
+    private final ConcurrentMap<Identifier, MessageQueue> requestQueues = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Identifier, MessageQueue> taskQueues = new ConcurrentHashMap<>();
+
+    public RingBufferMessageBroker(StatisticBean statistic) {
+        this(statistic, DEFAULT_QUEUE_CAPACITY, DEFAULT_ADAPTER_QUEUE_CAPACITY, DEFAULT_DISPATCHER_THREADS);
+    }
+
+    public RingBufferMessageBroker(StatisticBean statistic, int queueCapacity, int adapterQueueCapacity, int dispatcherThreads) {
+        this.statistic = statistic;
+        this.adapterQueueCapacity = adapterQueueCapacity;
+        this.dispatcher = Executors.newFixedThreadPool(dispatcherThreads, new ThreadFactoryBuilder().setNameFormat("RING-BROKER-%d").build());
+
+        inputQueue = new MessageQueue("input", queueCapacity);
+        controlQueue = new MessageQueue("control", queueCapacity);
+        authQueue = new MessageQueue("auth", queueCapacity);
+        messageInfoQueue = new MessageQueue("messageInfo", queueCapacity);
+        metricsQueue = new MessageQueue("metrics", queueCapacity);
+        logQueue = new MessageQueue("log", queueCapacity);
+    }
+
+    @PreDestroy
+    public void cleanUp() {
+        for (MessageQueue queue : getQueues()) {
+            queue.discardOverflow();
+        }
+        dispatcher.shutdown();
+        try {
+            if (!dispatcher.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+                dispatcher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            dispatcher.shutdownNow();
+        }
+    }
+
+    @Override
+    public Message receiveInput() {
+        return inputQueue.receive();
+    }
+
+    @Override
+    public List<Message> receiveInputBatch(int maxMessages, long timeout) {
+        return inputQueue.receive(maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerInputListener(MessageListener listener) {
+        return inputQueue.register(listener);
+    }
+
+    @Override
+    public void publishInput(Message message) {
+        inputQueue.publish(message);
+        statistic.brokerPublishInput();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishInputAsync(Message message) {
+        CompletableFuture<Void> future = inputQueue.publishAsync(message);
+        statistic.brokerPublishInput();
+        return future;
+    }
+
+    @Override
+    public Message receiveRequests(Identifier id) {
+        return getQueue(requestQueues, "request.", id).receive();
+    }
+
+    @Override
+    public List<Message> receiveRequestsBatch(Identifier id, int maxMessages, long timeout) {
+        return getQueue(requestQueues, "request.", id).receive(maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerRequestListener(Identifier id, MessageListener listener) {
+        return getQueue(requestQueues, "request.", id).register(listener);
+    }
+
+    @Override
+    public void publishRequest(Identifier id, Message message) {
+        getQueue(requestQueues, "request.", id).publish(message);
+        statistic.brokerPublishRequest();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishRequestAsync(Identifier id, Message message) {
+        CompletableFuture<Void> future = getQueue(requestQueues, "request.", id).publishAsync(message);
+        statistic.brokerPublishRequest();
+        return future;
+    }
+
+    @Override
+    public Message receiveOutput(Identifier id) {
+        return getQueue(taskQueues, "task.", id).receive();
+    }
+
+    @Override
+    public List<Message> receiveOutputBatch(Identifier id, int maxMessages, long timeout) {
+        return getQueue(taskQueues, "task.", id).receive(maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerOutputListener(Identifier id, MessageListener listener) {
+        return getQueue(taskQueues, "task.", id).register(listener);
+    }
+
+    @Override
+    public void publishOutput(Identifier id, Message message) {
+        getQueue(taskQueues, "task.", id).publish(message);
+        statistic.brokerPublishOutput();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishOutputAsync(Identifier id, Message message) {
+        CompletableFuture<Void> future = getQueue(taskQueues, "task.", id).publishAsync(message);
+        statistic.brokerPublishOutput();
+        return future;
+    }
+
+    @Override
+    public void publishOutputBatch(Map<Identifier, List<Message>> messages) {
+        int amount = 0;
+        for (Map.Entry<Identifier, List<Message>> entry : messages.entrySet()) {
+            getQueue(taskQueues, "task.", entry.getKey()).publish(entry.getValue());
+            amount += entry.getValue().size();
+        }
+        statistic.brokerPublishOutput(amount);
+    }
+
+    @Override
+    public void publishControl(Message message) {
+        controlQueue.publish(message);
+        statistic.brokerPublishControl();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishControlAsync(Message message) {
+        CompletableFuture<Void> future = controlQueue.publishAsync(message);
+        statistic.brokerPublishControl();
+        return future;
+    }
+
+    @Override
+    public void publishControlBatch(List<Message> messages) {
+        controlQueue.publish(messages);
+        statistic.brokerPublishControl(messages.size());
+    }
+
+    @Override
+    public Message receiveControl() {
+        return controlQueue.receive();
+    }
+
+    @Override
+    public CancelableListener registerControlListener(MessageListener listener) {
+        return controlQueue.register(listener);
+    }
+
+    @Override
+    public void publishAuthRequest(Message message) {
+        authQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAuthRequestAsync(Message message) {
+        return authQueue.publishAsync(message);
+    }
+
+    @Override
+    public Message receiveAuthRequest() {
+        return authQueue.receive();
+    }
+
+    @Override
+    public CancelableListener registerAuthListener(MessageListener listener) {
+        return authQueue.register(listener);
+    }
+
+    @Override
+    public void publishMessageInfoRequest(Message message) {
+        messageInfoQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMessageInfoRequestAsync(Message message) {
+        return messageInfoQueue.publishAsync(message);
+    }
+
+    @Override
+    public Message receiveMessageInfoRequest() {
+        return messageInfoQueue.receive();
+    }
+
+    @Override
+    public CancelableListener registerMessageInfoListener(MessageListener listener) {
+        return messageInfoQueue.register(listener);
+    }
+
+    @Override
+    public void publishMetricsRequest(Message message) {
+        metricsQueue.publish(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMetricsRequestAsync(Message message) {
+        return metricsQueue.publishAsync(message);
+    }
+
+    @Override
+    public Message receiveMetricsRequest() {
+        return metricsQueue.receive();
+    }
+
+    @Override
+    public CancelableListener registerMetricsListener(MessageListener listener) {
+        return metricsQueue.register(listener);
+    }
+
+    @Override
+    public void publishLog(Message message) {
+        logQueue.publish(message);
+        statistic.brokerPublishLog();
+    }
+
+    @Override
+    public CompletableFuture<Void> publishLogAsync(Message message) {
+        CompletableFuture<Void> future = logQueue.publishAsync(message);
+        statistic.brokerPublishLog();
+        return future;
+    }
+
+    @Override
+    public void publishLogBatch(List<Message> messages) {
+        logQueue.publish(messages);
+        statistic.brokerPublishLog(messages.size());
+    }
+
+    @Override
+    public Message receiveLog() {
+        return logQueue.receive();
+    }
+
+    @Override
+    public List<Message> receiveLogBatch(int maxMessages, long timeout) {
+        return logQueue.receive(maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerLogListener(MessageListener listener) {
+        return logQueue.register(listener);
+    }
+
+    private List<MessageQueue> getQueues() {
+        List<MessageQueue> queues = new ArrayList<>();
+        Collections.addAll(queues, inputQueue, controlQueue, authQueue, messageInfoQueue, metricsQueue, logQueue);
+        queues.addAll(requestQueues.values());
+        queues.addAll(taskQueues.values());
+        return queues;
+    }
+
+    private MessageQueue getQueue(ConcurrentMap<Identifier, MessageQueue> queues, String prefix, Identifier id) {
+        MessageQueue queue = queues.get(id);
+        if (queue == null) {
+            queue = new MessageQueue(prefix + id.getId(), adapterQueueCapacity);
+            MessageQueue existing = queues.putIfAbsent(id, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Message of an asynchronous publish that waits for space in a full queue.
+     */
+    private static class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingMessage(Message message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * Logical queue of the broker, consists of a ring buffer, the overflow of asynchronously
+     * published messages and the registered listeners.
+     */
+    private class MessageQueue implements Runnable {
+        private final String name;
+        private final RingBuffer<Message> buffer;
+        private final Queue<PendingMessage> overflow = new ConcurrentLinkedQueue<>();
+        private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        private MessageQueue(String name, int capacity) {
+            this.name = name;
+            this.buffer = new RingBuffer<>(capacity);
+        }
+
+        void publish(Message message) {
+            try {
+                buffer.put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted while publishing to queue {}", name);
+                throw BrokerErrorUtils.createRuntimeBrokerException(e);
+            }
+            log.trace("Published message {} to queue {}", message, name);
+            schedule();
+        }
+
+        /**
+         * Publishes a message without blocking. If the ring buffer is full (or there are
+         * older messages in the overflow), the message is added to the overflow and moved
+         * to the ring buffer by the consumers as soon as there is space.
+         */
+        CompletableFuture<Void> publishAsync(Message message) {
+            if (overflow.isEmpty() && buffer.offer(message)) {
+                log.trace("Published message {} to queue {}", message, name);
+                schedule();
+                return CompletableFuture.completedFuture(null);
+            }
+
+            PendingMessage pending = new PendingMessage(message);
+            overflow.add(pending);
+            log.trace("Queue {} is full, added message {} to the overflow", name, message);
+
+            //the consumers might have made space in the meantime
+            flushOverflow();
+            schedule();
+            return pending.future;
+        }
+
+        /**
+         * Moves messages from the overflow to the ring buffer as long as there is space.
+         */
+        private void flushOverflow() {
+            if (overflow.isEmpty()) {
+                return;
+            }
+            synchronized (overflow) {
+                PendingMessage pending;
+                while ((pending = overflow.peek()) != null && buffer.offer(pending.message)) {
+                    overflow.poll();
+                    pending.future.complete(null);
+                }
+            }
+        }
+
+        /**
+         * Fails the messages in the overflow, they will not be delivered anymore.
+         */
+        void discardOverflow() {
+            PendingMessage pending;
+            while ((pending = overflow.poll()) != null) {
+                pending.future.completeExceptionally(new IllegalStateException("Broker has been shut down"));
+            }
+        }
+
+        void publish(List<Message> messages) {
+            for (Message message : messages) {
+                try {
+                    buffer.put(message);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    log.error("Interrupted while publishing to queue {}", name);
+                    throw BrokerErrorUtils.createRuntimeBrokerException(e);
+                }
+
+                //listeners should already handle messages while the rest of a large batch is published
+                if (buffer.size() >= MAX_BATCH_SIZE) {
+                    schedule();
+                }
+            }
+            schedule();
+        }
+
+        Message receive() {
+            try {
+                log.trace("Receiving message from queue {}", name);
+                Message message = buffer.take();
+                flushOverflow();
+                return message;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
+        List<Message> receive(int maxMessages, long timeout) {
+            try {
+                log.trace("Receiving batch from queue {}", name);
+                List<Message> messages = new ArrayList<>();
+                buffer.drainTo(messages, maxMessages, timeout, TimeUnit.MILLISECONDS);
+                flushOverflow();
+                return messages;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Collections.emptyList();
+            }
+        }
+
+        CancelableListener register(final MessageListener listener) {
+            listeners.add(listener);
+            log.trace("Registered listener for queue {}", name);
+            schedule();
+
+            return new CancelableListener() {
+                @Override
+                public void cancel() {
+                    listeners.remove(listener);
+                    log.trace("Removed listener for queue {}", name);
+                }
+            };
+        }
+
+        private void schedule() {
+            if (!listeners.isEmpty() && !buffer.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    dispatcher.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    log.warn("Could not dispatch messages of queue {}, broker has been shut down", name);
+                }
+            }
+        }
+
+        /**
+         * Dispatches a batch of messages to the listeners and reschedules itself if there
+         * are messages left, so that the queues share the dispatcher threads fairly.
+         */
+        @Override
+        public void run() {
+            try {
+                Object[] snapshot = listeners.toArray();
+                if (snapshot.length > 0) {
+                    List<Message> batch = new ArrayList<>(Math.min(MAX_BATCH_SIZE, buffer.capacity()));
+                    buffer.drainTo(batch, MAX_BATCH_SIZE);
+                    flushOverflow();
+
+                    for (Message message : batch) {
+                        MessageListener listener = (MessageListener) snapshot[(next.getAndIncrement() & Integer.MAX_VALUE) % snapshot.length];
+                        try {
+                            listener.onMessage(message);
+                        } catch (Exception e) {
+                            log.error("Error in message listener of queue {}", name, e);
+                        }
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                schedule();
+            }
+        }
+    }
+}
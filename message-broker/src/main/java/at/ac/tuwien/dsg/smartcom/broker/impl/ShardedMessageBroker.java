@@ -0,0 +1,711 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import at.ac.tuwien.dsg.smartcom.broker.BatchPublishException;
+import at.ac.tuwien.dsg.smartcom.broker.BrokerMonitor;
+import at.ac.tuwien.dsg.smartcom.broker.CancelableListener;
+import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.utils.ConsistentHashRing;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Message broker that distributes the queues of the middleware over several
+ * underlying brokers (shards), e.g., several ActiveMQ instances.
+ *
+ * The request and output queues of the adapters are assigned to a shard by
+ * consistent hashing on the id of the adapter. The shared queues (input, control,
+ * auth, message info, metrics and log) exist on every shard, messages are published
+ * to the shards in a round robin fashion and listeners are registered on all shards.
+ * Note that there is no ordering guarantee for messages of shared queues.
+ *
+ * The shards are named by their position (shard-0, shard-1, ...), therefore all
+ * nodes of a cluster map the queues to the same brokers as long as they use the
+ * same shards in the same order. Adding a shard only remaps the adapter queues that
+ * are taken over by the new shard. Listeners of remapped queues are registered on
+ * the new shard too, so that messages that are still queued on the previous shard
+ * are delivered as well. For the same reason, receive calls of remapped queues poll
+ * the previous shards too.
+ *
+ * Receive calls of the input, log, request and output queues poll the shards in a
+ * round robin fashion, i.e., messages remain on the shards until they are received.
+ * The other shared queues don't support receiving with a timeout, their messages
+ * are handed over by listeners on all shards to a bounded buffer on the first receive
+ * call. The listeners block if the buffer is full, hence at most RECEIVE_BUFFER_SIZE
+ * messages per queue are taken from the shards in advance.
+ *
+ * The statistics of the queues of all shards that support monitoring are merged,
+ * i.e., the backlog of a shared queue is the sum of its backlogs on the shards.
+ *
+ * The lifecycle of the shards is handled by the creator of this broker.
+ *
+ * @version 1.0
+ */
+public class ShardedMessageBroker implements MessageBroker, BrokerMonitor {
+    private static final Logger log = LoggerFactory.getLogger(ShardedMessageBroker.class);
+
+    private static final String SHARD_PREFIX = "shard-";
+
+    /**
+     * Time in milliseconds a receive call waits for messages on one shard before it
+     * polls the next one
+     */
+    static final long POLL_INTERVAL = 50;
+
+    /**
+     * Maximum number of messages of a queue without timed receive calls that are
+     * buffered after they have been taken from the shards
+     */
+    static final int RECEIVE_BUFFER_SIZE = 16;
+
+    private final Object lock = new Object();
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    //copy on write, modified while holding the lock
+    private volatile ConsistentHashRing<MessageBroker> ring;
+    private volatile List<MessageBroker> shards;
+    private volatile List<ConsistentHashRing<MessageBroker>> previousRings = Collections.emptyList();
+
+    private final List<Registration> registrations = new ArrayList<>(); //guarded by lock
+    private final Map<QueueType, BlockingQueue<Message>> receiveBuffers = new EnumMap<>(QueueType.class); //guarded by lock
+
+    public ShardedMessageBroker(List<? extends MessageBroker> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+
+        ConsistentHashRing<MessageBroker> ring = new ConsistentHashRing<>();
+        for (MessageBroker shard : shards) {
+            ring.add(SHARD_PREFIX + ring.size(), shard);
+        }
+        this.ring = ring;
+        this.shards = Collections.unmodifiableList(ring.getNodes());
+    }
+
+    /**
+     * Adds a new shard. Listeners of shared queues and of the adapter queues that
+     * are now assigned to the new shard are registered on it.
+     *
+     * @param shard that should be added
+     */
+    public void addShard(MessageBroker shard) {
+        synchronized (lock) {
+            ConsistentHashRing<MessageBroker> newRing = ring.copy();
+            newRing.add(SHARD_PREFIX + newRing.size(), shard);
+
+            for (Registration registration : registrations) {
+                if (registration.id == null || newRing.get(registration.key()) == shard) {
+                    registration.register(shard);
+                }
+            }
+
+            List<ConsistentHashRing<MessageBroker>> rings = new ArrayList<>(previousRings);
+            rings.add(ring);
+            previousRings = Collections.unmodifiableList(rings);
+
+            ring = newRing;
+            shards = Collections.unmodifiableList(newRing.getNodes());
+            log.info("Added shard {}", shards.size() - 1);
+        }
+    }
+
+    /**
+     * Returns the shard that handles the request and output queue of an adapter
+     *
+     * @param id of the adapter
+     * @return responsible shard
+     */
+    public MessageBroker getShard(Identifier id) {
+        return ring.get(id.getId());
+    }
+
+    /**
+     * Returns the shards that might hold messages of the request and output queue of an
+     * adapter, i.e., the responsible shard followed by the ones that were responsible before
+     * shards have been added.
+     */
+    private List<MessageBroker> getShards(Identifier id) {
+        List<ConsistentHashRing<MessageBroker>> previousRings = this.previousRings;
+        MessageBroker shard = getShard(id);
+        if (previousRings.isEmpty()) {
+            return Collections.singletonList(shard);
+        }
+
+        List<MessageBroker> shards = new ArrayList<>();
+        shards.add(shard);
+        for (int i = previousRings.size() - 1; i >= 0; i--) {
+            MessageBroker previous = previousRings.get(i).get(id.getId());
+            if (!shards.contains(previous)) {
+                shards.add(previous);
+            }
+        }
+        return shards;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    @Override
+    public List<QueueStatistic> getQueueStatistics() {
+        Map<String, QueueStatistic> merged = new LinkedHashMap<>();
+        for (MessageBroker shard : shards) {
+            if (shard instanceof BrokerMonitor) {
+                for (QueueStatistic statistic : ((BrokerMonitor) shard).getQueueStatistics()) {
+                    merge(merged, statistic);
+                }
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    @Override
+    public QueueStatistic getQueueStatistic(String queue) {
+        Map<String, QueueStatistic> merged = new LinkedHashMap<>();
+        for (MessageBroker shard : shards) {
+            if (shard instanceof BrokerMonitor) {
+                QueueStatistic statistic = ((BrokerMonitor) shard).getQueueStatistic(queue);
+                if (statistic != null) {
+                    merge(merged, statistic);
+                }
+            }
+        }
+        return merged.get(queue);
+    }
+
+    private void merge(Map<String, QueueStatistic> merged, QueueStatistic statistic) {
+        QueueStatistic existing = merged.get(statistic.getName());
+        if (existing == null) {
+            existing = new QueueStatistic(statistic.getName(), 0, 0, 0, 0, 0);
+            merged.put(statistic.getName(), existing);
+        }
+        existing.setDepth(existing.getDepth() + statistic.getDepth());
+        existing.setConsumers(existing.getConsumers() + statistic.getConsumers());
+        existing.setEnqueueCount(existing.getEnqueueCount() + statistic.getEnqueueCount());
+        existing.setDequeueCount(existing.getDequeueCount() + statistic.getDequeueCount());
+        existing.setEnqueueRate(existing.getEnqueueRate() + statistic.getEnqueueRate());
+        existing.setDequeueRate(existing.getDequeueRate() + statistic.getDequeueRate());
+        existing.setOldestMessageAge(Math.max(existing.getOldestMessageAge(), statistic.getOldestMessageAge()));
+    }
+
+    private MessageBroker nextShard() {
+        List<MessageBroker> shards = this.shards;
+        return shards.get((next.getAndIncrement() & Integer.MAX_VALUE) % shards.size());
+    }
+
+    private CancelableListener register(QueueType queue, MessageListener listener) {
+        return register(new Registration(queue, null, listener), shards);
+    }
+
+    private CancelableListener register(QueueType queue, Identifier id, MessageListener listener) {
+        return register(new Registration(queue, id, listener), Collections.singletonList(getShard(id)));
+    }
+
+    private CancelableListener register(final Registration registration, List<MessageBroker> targets) {
+        synchronized (lock) {
+            for (MessageBroker target : targets) {
+                registration.register(target);
+            }
+            registrations.add(registration);
+        }
+
+        return new CancelableListener() {
+            @Override
+            public void cancel() {
+                synchronized (lock) {
+                    registrations.remove(registration);
+                }
+                registration.cancel();
+            }
+        };
+    }
+
+    /**
+     * Receives a message from the given shards, blocks until a message is available.
+     *
+     * @return the message, null if the receiving thread has been interrupted
+     */
+    private Message receive(QueueType queue, Identifier id, List<MessageBroker> shards) {
+        if (shards.size() == 1) {
+            return queue.receive(shards.get(0), id);
+        }
+
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Message> messages = receive(queue, id, shards, 1, POLL_INTERVAL);
+            if (!messages.isEmpty()) {
+                return messages.get(0);
+            }
+        }
+        log.debug("Interrupted while receiving message of queue {}", queue);
+        return null;
+    }
+
+    /**
+     * Receives a batch of messages from the given shards. The shards are polled in a round
+     * robin fashion, the first shard that provides messages returns the batch.
+     */
+    private List<Message> receive(QueueType queue, Identifier id, List<MessageBroker> shards, int maxMessages, long timeout) {
+        if (shards.size() == 1) {
+            return queue.receive(shards.get(0), id, maxMessages, timeout);
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        int offset = next.getAndIncrement() & Integer.MAX_VALUE;
+        while (true) {
+            //take the messages that are available immediately
+            for (int i = 0; i < shards.size(); i++) {
+                List<Message> messages = queue.receive(shards.get((offset + i) % shards.size()), id, maxMessages, 0);
+                if (!messages.isEmpty()) {
+                    return messages;
+                }
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                return Collections.emptyList();
+            }
+
+            //wait a bit on one of the shards before polling all of them again
+            MessageBroker shard = shards.get(offset++ % shards.size());
+            List<Message> messages = queue.receive(shard, id, maxMessages, Math.min(remaining, POLL_INTERVAL));
+            if (!messages.isEmpty()) {
+                return messages;
+            }
+        }
+    }
+
+    /**
+     * Receives a message of a shared queue without timed receive calls.
+     */
+    private Message receive(QueueType queue) {
+        try {
+            return getReceiveBuffer(queue).take();
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while receiving message of queue {}", queue);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the receive buffer of a shared queue without timed receive calls. A buffer
+     * is registered as a listener on all shards on the first call. The listeners block
+     * while the buffer is full, i.e., the remaining messages stay on the shards.
+     */
+    private BlockingQueue<Message> getReceiveBuffer(QueueType queue) {
+        synchronized (lock) {
+            BlockingQueue<Message> buffer = receiveBuffers.get(queue);
+            if (buffer == null) {
+                final BlockingQueue<Message> newBuffer = new ArrayBlockingQueue<>(RECEIVE_BUFFER_SIZE);
+                register(queue, new MessageListener() {
+                    @Override
+                    public void onMessage(Message message) {
+                        boolean interrupted = false;
+                        while (true) {
+                            try {
+                                newBuffer.put(message);
+                                break;
+                            } catch (InterruptedException e) {
+                                //the message has already been consumed, don't lose it
+                                interrupted = true;
+                            }
+                        }
+                        if (interrupted) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+                receiveBuffers.put(queue, newBuffer);
+                buffer = newBuffer;
+            }
+            return buffer;
+        }
+    }
+
+    @Override
+    public Message receiveInput() {
+        return receive(QueueType.INPUT, null, shards);
+    }
+
+    @Override
+    public List<Message> receiveInputBatch(int maxMessages, long timeout) {
+        return receive(QueueType.INPUT, null, shards, maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerInputListener(MessageListener listener) {
+        return register(QueueType.INPUT, listener);
+    }
+
+    @Override
+    public void publishInput(Message message) {
+        nextShard().publishInput(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishInputAsync(Message message) {
+        return nextShard().publishInputAsync(message);
+    }
+
+    @Override
+    public Message receiveRequests(Identifier id) {
+        return receive(QueueType.REQUEST, id, getShards(id));
+    }
+
+    @Override
+    public List<Message> receiveRequestsBatch(Identifier id, int maxMessages, long timeout) {
+        return receive(QueueType.REQUEST, id, getShards(id), maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerRequestListener(Identifier id, MessageListener listener) {
+        return register(QueueType.REQUEST, id, listener);
+    }
+
+    @Override
+    public void publishRequest(Identifier id, Message message) {
+        getShard(id).publishRequest(id, message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishRequestAsync(Identifier id, Message message) {
+        return getShard(id).publishRequestAsync(id, message);
+    }
+
+    @Override
+    public Message receiveOutput(Identifier id) {
+        return receive(QueueType.OUTPUT, id, getShards(id));
+    }
+
+    @Override
+    public List<Message> receiveOutputBatch(Identifier id, int maxMessages, long timeout) {
+        return receive(QueueType.OUTPUT, id, getShards(id), maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerOutputListener(Identifier id, MessageListener listener) {
+        return register(QueueType.OUTPUT, id, listener);
+    }
+
+    @Override
+    public void publishOutput(Identifier id, Message message) {
+        getShard(id).publishOutput(id, message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishOutputAsync(Identifier id, Message message) {
+        return getShard(id).publishOutputAsync(id, message);
+    }
+
+    @Override
+    public void publishOutputBatch(Map<Identifier, List<Message>> messages) {
+        ConsistentHashRing<MessageBroker> ring = this.ring;
+
+        Map<MessageBroker, Map<Identifier, List<Message>>> batches = new LinkedHashMap<>();
+        for (Map.Entry<Identifier, List<Message>> entry : messages.entrySet()) {
+            MessageBroker shard = ring.get(entry.getKey().getId());
+            Map<Identifier, List<Message>> batch = batches.get(shard);
+            if (batch == null) {
+                batch = new LinkedHashMap<>();
+                batches.put(shard, batch);
+            }
+            batch.put(entry.getKey(), entry.getValue());
+        }
+
+        //the batches of the other shards are published even if one of the shards fails
+        Map<Identifier, List<Message>> unpublished = new LinkedHashMap<>();
+        RuntimeException failure = null;
+        for (Map.Entry<MessageBroker, Map<Identifier, List<Message>>> entry : batches.entrySet()) {
+            try {
+                entry.getKey().publishOutputBatch(entry.getValue());
+            } catch (BatchPublishException e) {
+                failure = e;
+                unpublished.putAll(e.getUnpublished());
+            } catch (RuntimeException e) {
+                failure = e;
+                unpublished.putAll(entry.getValue());
+            }
+        }
+
+        if (failure != null) {
+            throw new BatchPublishException(failure, unpublished);
+        }
+    }
+
+    @Override
+    public void publishControl(Message message) {
+        nextShard().publishControl(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishControlAsync(Message message) {
+        return nextShard().publishControlAsync(message);
+    }
+
+    @Override
+    public void publishControlBatch(List<Message> messages) {
+        nextShard().publishControlBatch(messages);
+    }
+
+    @Override
+    public Message receiveControl() {
+        return receive(QueueType.CONTROL);
+    }
+
+    @Override
+    public CancelableListener registerControlListener(MessageListener listener) {
+        return register(QueueType.CONTROL, listener);
+    }
+
+    @Override
+    public void publishAuthRequest(Message message) {
+        nextShard().publishAuthRequest(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAuthRequestAsync(Message message) {
+        return nextShard().publishAuthRequestAsync(message);
+    }
+
+    @Override
+    public Message receiveAuthRequest() {
+        return receive(QueueType.AUTH);
+    }
+
+    @Override
+    public CancelableListener registerAuthListener(MessageListener listener) {
+        return register(QueueType.AUTH, listener);
+    }
+
+    @Override
+    public void publishMessageInfoRequest(Message message) {
+        nextShard().publishMessageInfoRequest(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMessageInfoRequestAsync(Message message) {
+        return nextShard().publishMessageInfoRequestAsync(message);
+    }
+
+    @Override
+    public Message receiveMessageInfoRequest() {
+        return receive(QueueType.MESSAGE_INFO);
+    }
+
+    @Override
+    public CancelableListener registerMessageInfoListener(MessageListener listener) {
+        return register(QueueType.MESSAGE_INFO, listener);
+    }
+
+    @Override
+    public void publishMetricsRequest(Message message) {
+        nextShard().publishMetricsRequest(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishMetricsRequestAsync(Message message) {
+        return nextShard().publishMetricsRequestAsync(message);
+    }
+
+    @Override
+    public Message receiveMetricsRequest() {
+        return receive(QueueType.METRICS);
+    }
+
+    @Override
+    public CancelableListener registerMetricsListener(MessageListener listener) {
+        return register(QueueType.METRICS, listener);
+    }
+
+    @Override
+    public void publishLog(Message message) {
+        nextShard().publishLog(message);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishLogAsync(Message message) {
+        return nextShard().publishLogAsync(message);
+    }
+
+    @Override
+    public void publishLogBatch(List<Message> messages) {
+        nextShard().publishLogBatch(messages);
+    }
+
+    @Override
+    public Message receiveLog() {
+        return receive(QueueType.LOG, null, shards);
+    }
+
+    @Override
+    public List<Message> receiveLogBatch(int maxMessages, long timeout) {
+        return receive(QueueType.LOG, null, shards, maxMessages, timeout);
+    }
+
+    @Override
+    public CancelableListener registerLogListener(MessageListener listener) {
+        return register(QueueType.LOG, listener);
+    }
+
+    /**
+     * Queues of the middleware and how to register a listener for them and how to receive
+     * their messages on a shard
+     */
+    private enum QueueType {
+        INPUT {
+            @Override
+            CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener) {
+                return shard.registerInputListener(listener);
+            }
+
+            @Override
+            Message receive(MessageBroker shard, Identifier id) {
+                return shard.receiveInput();
+            }
+
+            @Override
+            List<Message> receive(MessageBroker shard, Identifier id, int maxMessages, long timeout) {
+                return shard.receiveInputBatch(maxMessages, timeout);
+            }
+        },
+        CONTROL {
+            @Override
+            CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener) {
+                return shard.registerControlListener(listener);
+            }
+        },
+        AUTH {
+            @Override
+            CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener) {
+                return shard.registerAuthListener(listener);
+            }
+        },
+        MESSAGE_INFO {
+            @Override
+            CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener) {
+                return shard.registerMessageInfoListener(listener);
+            }
+        },
+        METRICS {
+            @Override
+            CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener) {
+                return shard.registerMetricsListener(listener);
+            }
+        },
+        LOG {
+            @Override
+            CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener) {
+                return shard.registerLogListener(listener);
+            }
+
+            @Override
+            Message receive(MessageBroker shard, Identifier id) {
+                return shard.receiveLog();
+            }
+
+            @Override
+            List<Message> receive(MessageBroker shard, Identifier id, int maxMessages, long timeout) {
+                return shard.receiveLogBatch(maxMessages, timeout);
+            }
+        },
+        REQUEST {
+            @Override
+            CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener) {
+                return shard.registerRequestListener(id, listener);
+            }
+
+            @Override
+            Message receive(MessageBroker shard, Identifier id) {
+                return shard.receiveRequests(id);
+            }
+
+            @Override
+            List<Message> receive(MessageBroker shard, Identifier id, int maxMessages, long timeout) {
+                return shard.receiveRequestsBatch(id, maxMessages, timeout);
+            }
+        },
+        OUTPUT {
+            @Override
+            CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener) {
+                return shard.registerOutputListener(id, listener);
+            }
+
+            @Override
+            Message receive(MessageBroker shard, Identifier id) {
+                return shard.receiveOutput(id);
+            }
+
+            @Override
+            List<Message> receive(MessageBroker shard, Identifier id, int maxMessages, long timeout) {
+                return shard.receiveOutputBatch(id, maxMessages, timeout);
+            }
+        };
+
+        abstract CancelableListener register(MessageBroker shard, Identifier id, MessageListener listener);
+
+        Message receive(MessageBroker shard, Identifier id) {
+            throw new UnsupportedOperationException("Queue " + this + " doesn't support receive calls on a shard");
+        }
+
+        List<Message> receive(MessageBroker shard, Identifier id, int maxMessages, long timeout) {
+            throw new UnsupportedOperationException("Queue " + this + " doesn't support timed receive calls");
+        }
+    }
+
+    /**
+     * Listener registration that might span several shards
+     */
+    private static class Registration {
+        private final QueueType queue;
+        private final Identifier id; //null for queues that exist on every shard
+        private final MessageListener listener;
+        private final List<CancelableListener> cancelables = new ArrayList<>();
+
+        private Registration(QueueType queue, Identifier id, MessageListener listener) {
+            this.queue = queue;
+            this.id = id;
+            this.listener = listener;
+        }
+
+        String key() {
+            return id.getId();
+        }
+
+        synchronized void register(MessageBroker shard) {
+            cancelables.add(queue.register(shard, id, listener));
+        }
+
+        synchronized void cancel() {
+            for (CancelableListener cancelable : cancelables) {
+                cancelable.cancel();
+            }
+            cancelables.clear();
+        }
+    }
+}
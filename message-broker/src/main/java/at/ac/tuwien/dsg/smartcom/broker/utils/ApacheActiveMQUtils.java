@@ -19,6 +19,8 @@ package at.ac.tuwien.dsg.smartcom.broker.utils;
 
 import org.apache.activemq.broker.BrokerFactory;
 import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
 
 import java.net.URI;
 
@@ -49,6 +51,13 @@ public class ApacheActiveMQUtils {
         broker = BrokerFactory.createBroker(new URI("broker:tcp://localhost:"+port));
         broker.setPersistent(persistence);
 
+        //deliver control and auth messages before pending messages of lower priority
+        PolicyEntry policy = new PolicyEntry();
+        policy.setPrioritizedMessages(true);
+        PolicyMap policyMap = new PolicyMap();
+        policyMap.setDefaultEntry(policy);
+        broker.setDestinationPolicy(policyMap);
+
         broker.deleteAllMessages();
         broker.start();
         broker.waitUntilStarted();
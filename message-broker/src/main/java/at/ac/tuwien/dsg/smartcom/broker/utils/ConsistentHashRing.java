@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.utils;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.*;
+
+/**
+ * Consistent hash ring that maps keys to nodes. Every node is placed on the ring
+ * multiple times (virtual nodes) to distribute the keys evenly. Adding a node to
+ * the ring only remaps the keys that are taken over by the new node, all other
+ * keys keep their node.
+ *
+ * The positions of a node only depend on its name, therefore rings that have been
+ * created with the same names map keys to the same nodes (e.g., on different hosts).
+ *
+ * This class is not thread-safe, use copy to create a modified version of a ring
+ * that is shared between threads.
+ *
+ * @version 1.0
+ */
+public class ConsistentHashRing<T> {
+
+    /**
+     * Default amount of virtual nodes per node
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int virtualNodes;
+    private final NavigableMap<Long, T> ring;
+    private final Map<String, T> nodes;
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Amount of virtual nodes must be positive but was "+virtualNodes);
+        }
+        this.virtualNodes = virtualNodes;
+        this.ring = new TreeMap<>();
+        this.nodes = new LinkedHashMap<>();
+    }
+
+    private ConsistentHashRing(ConsistentHashRing<T> other) {
+        this.virtualNodes = other.virtualNodes;
+        this.ring = new TreeMap<>(other.ring);
+        this.nodes = new LinkedHashMap<>(other.nodes);
+    }
+
+    /**
+     * Adds a node to the ring
+     *
+     * @param name unique name of the node that determines its positions on the ring
+     * @param node that should be added
+     */
+    public void add(String name, T node) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("There is already a node with name "+name);
+        }
+        nodes.put(name, node);
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(hash(name + "#" + i), node);
+        }
+    }
+
+    /**
+     * Returns the node that is responsible for a key
+     *
+     * @param key of the element
+     * @return responsible node or null if the ring is empty
+     */
+    public T get(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        if (entry == null) {
+            entry = ring.firstEntry(); //wrap around
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Returns all nodes in the order they have been added
+     *
+     * @return nodes of the ring
+     */
+    public List<T> getNodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Creates a copy of this ring which can be modified independently
+     *
+     * @return copy of the ring
+     */
+    public ConsistentHashRing<T> copy() {
+        return new ConsistentHashRing<>(this);
+    }
+
+    private static long hash(String key) {
+        return HASH.hashString(key, Charsets.UTF_8).asLong();
+    }
+}
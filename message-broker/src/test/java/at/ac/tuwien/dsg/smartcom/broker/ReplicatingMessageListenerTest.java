@@ -17,16 +17,24 @@
  */
 package at.ac.tuwien.dsg.smartcom.broker;
 
+import at.ac.tuwien.dsg.smartcom.broker.policy.TresholdReplicationPolicy;
 import at.ac.tuwien.dsg.smartcom.broker.utils.ApacheActiveMQUtils;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
 import javax.jms.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ReplicatingMessageListenerTest implements MessageListener {
 
@@ -118,6 +126,128 @@ public class ReplicatingMessageListenerTest implements MessageListener {
         System.out.println(counter.getCount());
     }
 
+    @Test(timeout = 20000l)
+    public void testBackpressure() throws Exception {
+        final int limit = 1000; //queue limit of a single replica
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch handled = new CountDownLatch(limit + 10);
+
+        MessageListener slowListener = new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ignored) {
+                }
+                handled.countDown();
+            }
+        };
+
+        final ReplicatingMessageListener listener = new ReplicatingMessageListener("backpressure", slowListener, new ReplicationFactory() {
+            @Override
+            public MessageListener createReplication() {
+                return new MessageListener() {
+                    @Override
+                    public void onMessage(Message message) {
+                    }
+                };
+            }
+        });
+
+        final AtomicInteger published = new AtomicInteger(0);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < limit + 10; i++) {
+                    listener.onMessage(new Message.MessageBuilder().setContent("" + i).create());
+                    published.incrementAndGet();
+                }
+            }
+        });
+        producer.start();
+
+        //the replica holds one message, the queue the others until the limit is reached
+        Thread.sleep(1000);
+        assertEquals(limit + 1, published.get());
+        assertTrue(producer.isAlive());
+
+        //producer continues as soon as the replica takes messages again
+        blocked.countDown();
+        producer.join(5000);
+        assertEquals(limit + 10, published.get());
+        assertTrue(handled.await(5, TimeUnit.SECONDS));
+
+        listener.shutdown();
+    }
+
+    @Test(timeout = 20000l)
+    public void testOrdering() throws Exception {
+        final int conversations = 20;
+        final int messages = 2000;
+        final CountDownLatch handled = new CountDownLatch(messages);
+        final Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        final AtomicInteger concurrent = new AtomicInteger(0);
+
+        for (int i = 0; i < conversations; i++) {
+            received.put("" + i, Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+
+        final MessageListener orderedListener = new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                String conversation = message.getConversationId();
+                if (!inFlight.add(conversation)) {
+                    concurrent.incrementAndGet();
+                }
+                threads.add(Thread.currentThread());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignored) {
+                }
+                received.get(conversation).add(Integer.valueOf(message.getContent()));
+                inFlight.remove(conversation);
+                handled.countDown();
+            }
+        };
+
+        ReplicaScheduler scheduler = new ReplicaScheduler(8);
+        ReplicatingMessageListener listener = new ReplicatingMessageListener("ordering", orderedListener, new ReplicationFactory() {
+            @Override
+            public MessageListener createReplication() {
+                return orderedListener;
+            }
+        }, new TresholdReplicationPolicy(), scheduler, 8, 1, OrderingKey.CONVERSATION);
+
+        for (int i = 0; i < messages; i++) {
+            listener.onMessage(new Message.MessageBuilder()
+                    .setContent("" + i)
+                    .setConversationId("" + (i % conversations))
+                    .create());
+
+            if (i == messages / 4) {
+                //scale up while messages are in flight
+                listener.replicate();
+                assertTrue(listener.getReplicas() > 1);
+            }
+        }
+
+        assertTrue(handled.await(10, TimeUnit.SECONDS));
+        assertEquals("Messages of the same conversation handled concurrently", 0, concurrent.get());
+        assertTrue("Messages should be handled in parallel", threads.size() > 1);
+
+        for (List<Integer> numbers : received.values()) {
+            assertEquals(messages / conversations, numbers.size());
+            for (int i = 1; i < numbers.size(); i++) {
+                assertTrue("Messages of a conversation out of order", numbers.get(i - 1) < numbers.get(i));
+            }
+        }
+
+        listener.shutdown();
+        scheduler.shutdown();
+    }
+
     @Override
     public void onMessage(Message message) {
         counter.countDown();
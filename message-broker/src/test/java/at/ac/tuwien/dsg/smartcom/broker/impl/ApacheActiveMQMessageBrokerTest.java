@@ -17,32 +17,52 @@
  */
 package at.ac.tuwien.dsg.smartcom.broker.impl;
 
+import at.ac.tuwien.dsg.smartcom.broker.AbstractBrokerMonitor;
+import at.ac.tuwien.dsg.smartcom.broker.BatchPublishException;
+import at.ac.tuwien.dsg.smartcom.broker.BrokerMonitor;
 import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.codec.BinaryMessageCodec;
+import at.ac.tuwien.dsg.smartcom.broker.codec.MessageCodec;
 import at.ac.tuwien.dsg.smartcom.broker.util.FreePortProviderUtil;
 import at.ac.tuwien.dsg.smartcom.broker.utils.ApacheActiveMQUtils;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.QueueStatistic;
 import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ApacheActiveMQMessageBrokerTest {
 
     ApacheActiveMQMessageBroker broker;
+    int port;
 
     @Before
     public void setUp() throws Exception {
-        int port = FreePortProviderUtil.getFreePort();
+        port = FreePortProviderUtil.getFreePort();
 
         ApacheActiveMQUtils.startActiveMQWithoutPersistence(port); //uses standard port
         broker = new ApacheActiveMQMessageBroker("localhost", port, new StatisticBean());
@@ -132,6 +152,513 @@ public class ApacheActiveMQMessageBrokerTest {
         parametrizedTest(receive, publish, listener, null);
     }
 
+    @Test
+    public void testOutputBatch() throws Exception {
+        broker.setBatchSize(3);
+
+        Identifier adapter1 = Identifier.adapter("test1");
+        Identifier adapter2 = Identifier.adapter("test2");
+
+        Map<Identifier, List<Message>> batch = new LinkedHashMap<>();
+        batch.put(adapter1, createMessages("adapter1", 5));
+        batch.put(adapter2, createMessages("adapter2", 2));
+        broker.publishOutputBatch(batch);
+
+        for (Message message : batch.get(adapter1)) {
+            assertEquals(message.getContent(), broker.receiveOutput(adapter1).getContent());
+        }
+        for (Message message : batch.get(adapter2)) {
+            assertEquals(message.getContent(), broker.receiveOutput(adapter2).getContent());
+        }
+    }
+
+    @Test
+    public void testControlBatch() throws Exception {
+        List<Message> messages = createMessages("control", 10);
+        broker.publishControlBatch(messages);
+
+        for (Message message : messages) {
+            assertEquals(message.getContent(), broker.receiveControl().getContent());
+        }
+    }
+
+    @Test
+    public void testLogBatch() throws Exception {
+        List<Message> messages = createMessages("log", 10);
+        broker.publishLogBatch(messages);
+
+        for (Message message : messages) {
+            assertEquals(message.getContent(), broker.receiveLog().getContent());
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testAsyncPublish() throws Exception {
+        Identifier adapter = Identifier.adapter("test");
+        List<Message> messages = createMessages("async", 50);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Message message : messages) {
+            futures.add(broker.publishOutputAsync(adapter, message));
+            futures.add(broker.publishControlAsync(message));
+        }
+
+        for (CompletableFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        for (Message message : messages) {
+            assertEquals(message.getContent(), broker.receiveOutput(adapter).getContent());
+            assertEquals(message.getContent(), broker.receiveControl().getContent());
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testOutputListener_notBlockedByOtherListener() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        broker.registerOutputListener(Identifier.adapter("other"), new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.countDown();
+            }
+        });
+
+        //occupy the other consumer connections, hence the next listener shares a connection with the first one
+        for (int i = 1; i < ApacheActiveMQMessageBroker.DEFAULT_CONSUMER_CONNECTIONS; i++) {
+            broker.registerOutputListener(Identifier.adapter("idle" + i), new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                }
+            });
+        }
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        broker.registerOutputListener(Identifier.adapter("blocking"), new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+
+        try {
+            broker.publishOutput(Identifier.adapter("blocking"), new Message.MessageBuilder().setContent("blocking").create());
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            broker.publishOutput(Identifier.adapter("other"), new Message.MessageBuilder().setContent("other").create());
+            assertTrue("Listener should not wait for the blocking one", received.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testControlListener_notBlockedByDataListener() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        broker.registerLogListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+
+        final CountDownLatch control = new CountDownLatch(1);
+        broker.registerControlListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                control.countDown();
+            }
+        });
+
+        try {
+            broker.publishLog(new Message.MessageBuilder().setContent("log").create());
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+            broker.publishControl(new Message.MessageBuilder().setContent("control").create());
+            assertTrue(control.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testQueueStatistic() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            broker.publishLog(new Message.MessageBuilder().setContent("" + i).create());
+        }
+
+        //samples are cached by the monitor, wait until the messages have arrived at the broker
+        QueueStatistic statistic = broker.getQueueStatistic(BrokerMonitor.LOG_QUEUE);
+        while (statistic == null || statistic.getDepth() < 3) {
+            Thread.sleep(AbstractBrokerMonitor.DEFAULT_SAMPLE_INTERVAL_MILLIS);
+            statistic = broker.getQueueStatistic(BrokerMonitor.LOG_QUEUE);
+        }
+
+        assertEquals(3, statistic.getDepth());
+        assertEquals(3, statistic.getEnqueueCount());
+        assertEquals(0, statistic.getDequeueCount());
+        assertTrue(statistic.getOldestMessageAge() >= 0);
+    }
+
+    @Test(timeout = 20000l)
+    public void testReceiveBatch() throws Exception {
+        broker.publishLogBatch(createMessages("log", 5));
+
+        List<Message> messages = broker.receiveLogBatch(3, 5000);
+        assertEquals(3, messages.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("log" + i, messages.get(i).getContent());
+        }
+
+        messages = broker.receiveLogBatch(10, 5000);
+        assertEquals(2, messages.size());
+        assertEquals("log3", messages.get(0).getContent());
+        assertEquals("log4", messages.get(1).getContent());
+
+        assertTrue(broker.receiveLogBatch(10, 100).isEmpty());
+    }
+
+    @Test(timeout = 20000l)
+    public void testReceive_cachedConsumerDoesNotHoldMessages() throws Exception {
+        final Identifier id = Identifier.adapter("adapter");
+        broker.publishRequest(id, new Message.MessageBuilder().setContent("request0").create());
+        broker.publishRequest(id, new Message.MessageBuilder().setContent("request1").create());
+
+        //the consumer of this thread stays open after the receive
+        assertEquals("request0", broker.receiveRequests(id).getContent());
+
+        CompletableFuture<Message> future = CompletableFuture.supplyAsync(new Supplier<Message>() {
+            @Override
+            public Message get() {
+                return broker.receiveRequests(id);
+            }
+        });
+        assertEquals("request1", future.get(5, TimeUnit.SECONDS).getContent());
+    }
+
+    @Test(timeout = 20000l)
+    public void testPublishBatch_failure() throws Exception {
+        //fails to encode the fourth message of the batch
+        ApacheActiveMQMessageBroker failing = new ApacheActiveMQMessageBroker("localhost", port, false, new StatisticBean(), new MessageCodec() {
+            private final MessageCodec codec = new BinaryMessageCodec();
+
+            @Override
+            public byte[] encode(Message message) throws IOException {
+                if ("fail".equals(message.getContent())) {
+                    throw new IOException("Could not encode message");
+                }
+                return codec.encode(message);
+            }
+
+            @Override
+            public Message decode(byte[] data) throws IOException {
+                return codec.decode(data);
+            }
+        });
+        try {
+            failing.setBatchSize(2);
+            //commits only by size
+            failing.setBatchInterval(TimeUnit.SECONDS.toMicros(60));
+
+            List<Message> batch = createMessages("log", 3);
+            batch.add(new Message.MessageBuilder().setContent("fail").create());
+            batch.add(new Message.MessageBuilder().setContent("log4").create());
+            try {
+                failing.publishLogBatch(batch);
+                fail("Publishing the batch should fail");
+            } catch (BatchPublishException e) {
+                //the first two messages have been committed
+                assertEquals(batch.subList(2, 5), e.getUnpublished().get(null));
+            }
+
+            //the rolled back messages are not committed by the next batch of the thread
+            failing.publishLogBatch(createMessages("next", 1));
+            assertEquals("log0", failing.receiveLog().getContent());
+            assertEquals("log1", failing.receiveLog().getContent());
+            assertEquals("next0", failing.receiveLog().getContent());
+            assertTrue(failing.receiveLogBatch(10, 500).isEmpty());
+        } finally {
+            failing.cleanUp();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testReceive_decodeFailureIsRedelivered() throws Exception {
+        //fails to decode the first two received messages
+        final AtomicInteger decoded = new AtomicInteger();
+        ApacheActiveMQMessageBroker failing = new ApacheActiveMQMessageBroker("localhost", port, false, new StatisticBean(), new MessageCodec() {
+            private final MessageCodec codec = new BinaryMessageCodec();
+
+            @Override
+            public byte[] encode(Message message) throws IOException {
+                return codec.encode(message);
+            }
+
+            @Override
+            public Message decode(byte[] data) throws IOException {
+                if (decoded.incrementAndGet() <= 2) {
+                    throw new IOException("Could not decode message");
+                }
+                return codec.decode(data);
+            }
+        });
+        try {
+            failing.publishLog(new Message.MessageBuilder().setContent("log").create());
+            try {
+                failing.receiveLog();
+                fail("Receiving the message should fail");
+            } catch (RuntimeException ignored) {
+            }
+
+            failing.publishLogBatch(createMessages("batch", 2));
+            try {
+                failing.receiveLogBatch(10, 1000);
+                fail("Receiving the batch should fail");
+            } catch (RuntimeException ignored) {
+            }
+
+            //none of the messages has been acknowledged
+            List<Message> received = new ArrayList<>();
+            while (received.size() < 3) {
+                List<Message> batch = failing.receiveLogBatch(10, 1000);
+                assertTrue("Messages have been lost", !batch.isEmpty());
+                received.addAll(batch);
+            }
+            List<String> contents = new ArrayList<>();
+            for (Message message : received) {
+                contents.add(message.getContent());
+            }
+            Collections.sort(contents);
+            assertEquals(Arrays.asList("batch0", "batch1", "log"), contents);
+        } finally {
+            failing.cleanUp();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testReceive_localConsumersAreBounded() throws Exception {
+        for (int i = 0; i < 3 * ApacheActiveMQMessageBroker.MAX_LOCAL_CONSUMERS; i++) {
+            Identifier id = Identifier.adapter("adapter" + i);
+            broker.publishRequest(id, new Message.MessageBuilder().setContent("request" + i).create());
+            assertEquals("request" + i, broker.receiveRequests(id).getContent());
+            assertTrue(broker.getLocalConsumerCount() <= ApacheActiveMQMessageBroker.MAX_LOCAL_CONSUMERS);
+        }
+        assertEquals(ApacheActiveMQMessageBroker.MAX_LOCAL_CONSUMERS, broker.getLocalConsumerCount());
+
+        //a closed consumer is created again if the thread receives from its destination again
+        Identifier id = Identifier.adapter("adapter0");
+        broker.publishRequest(id, new Message.MessageBuilder().setContent("again").create());
+        assertEquals("again", broker.receiveRequests(id).getContent());
+    }
+
+    @Test(timeout = 20000l)
+    public void testReceive_sessionsOfTerminatedThreadsAreClosed() throws Exception {
+        final Identifier id = Identifier.adapter("adapter");
+        for (int i = 0; i < 10; i++) {
+            broker.publishRequest(id, new Message.MessageBuilder().setContent("request" + i).create());
+        }
+
+        for (int i = 0; i < 10; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    broker.receiveRequests(id);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+
+        //the session of the publishing thread and the one of the last receiving thread are left
+        assertEquals(2, broker.getSessionCount());
+    }
+
+    @Test(timeout = 20000l)
+    public void testReferencePassing() throws Exception {
+        ApacheActiveMQMessageBroker localBroker = new ApacheActiveMQMessageBroker("localhost", -1, true, new StatisticBean());
+        try {
+            localBroker.setReferencePassing(true);
+
+            Identifier id = Identifier.adapter("adapter");
+            Message message = new Message.MessageBuilder()
+                    .setContent("content")
+                    .setSenderId(Identifier.component("sender"))
+                    .setRefersTo(Identifier.message("original"))
+                    .create();
+            localBroker.publishOutput(id, message);
+            localBroker.publishOutputBatch(Collections.singletonMap(id, createMessages("batch", 2)));
+
+            //the receiver gets a snapshot of the message at the time it has been published
+            message.setContent("modified");
+
+            Message received = localBroker.receiveOutput(id);
+            assertEquals("content", received.getContent());
+            assertEquals(Identifier.component("sender"), received.getSenderId());
+            assertEquals(Identifier.message("original"), received.getRefersTo());
+
+            List<Message> batch = localBroker.receiveOutputBatch(id, 10, 5000);
+            assertEquals(2, batch.size());
+            assertEquals("batch0", batch.get(0).getContent());
+        } finally {
+            localBroker.cleanUp();
+        }
+    }
+
+    @Test
+    public void testChannelTaskQueues_receive() throws Exception {
+        broker.setChannelTaskQueues(true);
+
+        Identifier instance1 = Identifier.adapter("channel", "peer1");
+        Identifier instance2 = Identifier.adapter("channel", "peer2");
+
+        Map<Identifier, List<Message>> batch = new LinkedHashMap<>();
+        batch.put(instance1, createMessages("instance1", 3));
+        batch.put(instance2, createMessages("instance2", 3));
+        broker.publishOutputBatch(batch);
+        broker.publishOutput(instance1, new Message.MessageBuilder().setContent("single").create());
+
+        for (Message message : batch.get(instance2)) {
+            assertEquals(message.getContent(), broker.receiveOutput(instance2).getContent());
+        }
+        for (Message message : batch.get(instance1)) {
+            assertEquals(message.getContent(), broker.receiveOutput(instance1).getContent());
+        }
+        assertEquals("single", broker.receiveOutput(instance1).getContent());
+    }
+
+    @Test(timeout = 20000l)
+    public void testChannelTaskQueues_listener() throws Exception {
+        broker.setChannelTaskQueues(true);
+
+        final int amount = 20;
+        List<Identifier> instances = new ArrayList<>();
+        final List<List<String>> received = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(5 * amount);
+        for (int i = 0; i < 5; i++) {
+            instances.add(Identifier.adapter("channel", "peer" + i));
+
+            final List<String> list = Collections.synchronizedList(new ArrayList<String>());
+            received.add(list);
+            broker.registerOutputListener(instances.get(i), new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    list.add(message.getContent());
+                    latch.countDown();
+                }
+            });
+        }
+
+        for (int j = 0; j < amount; j++) {
+            for (int i = 0; i < instances.size(); i++) {
+                broker.publishOutput(instances.get(i), new Message.MessageBuilder().setContent("peer" + i + "." + j).create());
+            }
+        }
+
+        latch.await();
+        for (int i = 0; i < instances.size(); i++) {
+            List<String> list = received.get(i);
+            assertEquals(amount, list.size());
+            for (int j = 0; j < amount; j++) {
+                assertEquals("peer" + i + "." + j, list.get(j));
+            }
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testChannelTaskQueues_instancesOnSeveralNodes() throws Exception {
+        ApacheActiveMQMessageBroker node = new ApacheActiveMQMessageBroker("localhost", port, new StatisticBean());
+        try {
+            broker.setChannelTaskQueues(true);
+            node.setChannelTaskQueues(true);
+
+            final Identifier local = Identifier.adapter("channel", "local");
+            final Identifier remote = Identifier.adapter("channel", "remote");
+            final List<String> receivedLocal = Collections.synchronizedList(new ArrayList<String>());
+            final List<String> receivedRemote = Collections.synchronizedList(new ArrayList<String>());
+            final CountDownLatch latch = new CountDownLatch(20);
+
+            broker.registerOutputListener(local, new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    receivedLocal.add(message.getContent());
+                    latch.countDown();
+                }
+            });
+            node.registerOutputListener(remote, new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    receivedRemote.add(message.getContent());
+                    latch.countDown();
+                }
+            });
+
+            //every node consumes only the messages of its own instances
+            for (int i = 0; i < 10; i++) {
+                broker.publishOutput(local, new Message.MessageBuilder().setContent("local" + i).create());
+                broker.publishOutput(remote, new Message.MessageBuilder().setContent("remote" + i).create());
+            }
+
+            latch.await();
+            for (int i = 0; i < 10; i++) {
+                assertEquals("local" + i, receivedLocal.get(i));
+                assertEquals("remote" + i, receivedRemote.get(i));
+            }
+        } finally {
+            node.cleanUp();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testChannelTaskQueues_blockingInstance() throws Exception {
+        broker.setChannelTaskQueues(true);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch received = new CountDownLatch(1);
+        Identifier blocking = Identifier.adapter("channel", "blocking");
+        Identifier other = Identifier.adapter("channel", "other");
+
+        broker.registerOutputListener(blocking, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        broker.registerOutputListener(other, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.countDown();
+            }
+        });
+
+        try {
+            broker.publishOutput(blocking, new Message.MessageBuilder().setContent("blocking").create());
+            broker.publishOutput(other, new Message.MessageBuilder().setContent("other").create());
+            assertTrue("Messages of other instances should not wait for a blocking instance", received.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private List<Message> createMessages(String prefix, int amount) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < amount; i++) {
+            messages.add(new Message.MessageBuilder().setContent(prefix + i).create());
+        }
+        return messages;
+    }
+
     void parametrizedTest(final Method receive, final Method publish, Method listener, final Identifier identifier) throws IllegalAccessException, InvocationTargetException, InterruptedException, BrokenBarrierException {
         Message msg = new Message.MessageBuilder().setContent("TestInput").create();
         if (identifier == null) {
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import at.ac.tuwien.dsg.smartcom.broker.util.FreePortProviderUtil;
+import at.ac.tuwien.dsg.smartcom.broker.utils.ApacheActiveMQUtils;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConsumerConnectionPoolTest {
+
+    private ActiveMQConnectionFactory connectionFactory;
+    private ConsumerConnectionPool pool;
+    private Connection connection;
+    private Session session;
+
+    @Before
+    public void setUp() throws Exception {
+        int port = FreePortProviderUtil.getFreePort();
+        ApacheActiveMQUtils.startActiveMQWithoutPersistence(port);
+
+        connectionFactory = new ActiveMQConnectionFactory("tcp://localhost:" + port);
+        pool = new ConsumerConnectionPool(connectionFactory, 2, 4, 2);
+
+        connection = connectionFactory.createConnection();
+        connection.start();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        connection.close();
+        ApacheActiveMQUtils.stopActiveMQ();
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        List<ConsumerConnectionPool.PooledConsumer> consumers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            consumers.add(pool.createConsumer(session.createQueue("queue" + i), new NoopListener()));
+        }
+
+        assertEquals(2, pool.getConnectionCount());
+        assertEquals(4, pool.getSessionCount());
+        assertArrayEquals(new int[]{4, 4}, pool.getConsumersPerConnection());
+
+        try {
+            pool.createConsumer(session.createQueue("exhausted"), new NoopListener());
+            fail("Pool should be exhausted");
+        } catch (JMSException ignored) {
+        }
+
+        pool.release(consumers.get(0));
+        assertNotNull(pool.createConsumer(session.createQueue("queue"), new NoopListener()));
+    }
+
+    @Test(timeout = 5000l)
+    public void testRebalance() throws Exception {
+        List<ConsumerConnectionPool.PooledConsumer> consumers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            consumers.add(pool.createConsumer(session.createQueue("queue" + i), new NoopListener()));
+        }
+
+        //connections are filled alternately, therefore these consumers are all on the same connection
+        pool.release(consumers.get(0));
+        pool.release(consumers.get(2));
+        pool.release(consumers.get(4));
+
+        awaitBalanced();
+    }
+
+    @Test(timeout = 10000l)
+    public void testRebalance_busyListener() throws Exception {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        List<ConsumerConnectionPool.PooledConsumer> consumers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            MessageListener listener = new NoopListener();
+            if (i == 1) {
+                //blocks while handling its message until the end of the test
+                listener = new MessageListener() {
+                    @Override
+                    public void onMessage(Message message) {
+                        busy.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                };
+            }
+            consumers.add(pool.createConsumer(session.createQueue("queue" + i), listener));
+        }
+
+        try {
+            session.createProducer(session.createQueue("queue1")).send(session.createTextMessage("message"));
+            assertTrue(busy.await(5, TimeUnit.SECONDS));
+
+            //releasing the consumers of the other connection unbalances the pool, but doesn't wait for the busy listener
+            long start = System.currentTimeMillis();
+            pool.release(consumers.get(0));
+            pool.release(consumers.get(2));
+            pool.release(consumers.get(4));
+            assertTrue("Release has been blocked", System.currentTimeMillis() - start < 2000);
+
+            //the idle consumers are moved instead of the busy one
+            awaitBalanced();
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testReceiveAfterRebalance() throws Exception {
+        List<ConsumerConnectionPool.PooledConsumer> consumers = new ArrayList<>();
+        List<CountDownLatch> latches = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            CountDownLatch latch = new CountDownLatch(1);
+            latches.add(latch);
+            consumers.add(pool.createConsumer(session.createQueue("queue" + i), new LatchListener(latch)));
+        }
+
+        pool.release(consumers.get(0));
+        pool.release(consumers.get(2));
+        pool.release(consumers.get(4));
+        awaitBalanced();
+
+        MessageProducer producer = session.createProducer(null);
+        for (int i = 0; i < 8; i++) {
+            producer.send(session.createQueue("queue" + i), session.createTextMessage("message" + i));
+        }
+
+        for (int i = 0; i < 8; i++) {
+            if (i == 0 || i == 2 || i == 4) {
+                continue;
+            }
+            assertTrue("No message received for queue" + i, latches.get(i).await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private void awaitBalanced() throws InterruptedException {
+        int[] load = pool.getConsumersPerConnection();
+        while (Math.abs(load[0] - load[1]) > 2) {
+            Thread.sleep(10);
+            load = pool.getConsumersPerConnection();
+        }
+        assertEquals(5, load[0] + load[1]);
+    }
+
+    private static class NoopListener implements MessageListener {
+        @Override
+        public void onMessage(Message message) {
+        }
+    }
+
+    private static class LatchListener implements MessageListener {
+        private final CountDownLatch latch;
+
+        private LatchListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.codec.BinaryMessageCodec;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class JournalMessageBrokerTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private JournalMessageBroker broker;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("broker");
+        broker = createBroker();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.cleanUp();
+    }
+
+    @Test(timeout = 5000l)
+    public void testPublishReceive() throws Exception {
+        Identifier adapter = Identifier.adapter("adapter", "peer");
+
+        broker.publishInput(createMessage("input"));
+        broker.publishControl(createMessage("control"));
+        broker.publishAuthRequest(createMessage("auth"));
+        broker.publishMessageInfoRequest(createMessage("mis"));
+        broker.publishMetricsRequest(createMessage("metrics"));
+        broker.publishLog(createMessage("log"));
+        broker.publishRequest(adapter, createMessage("request"));
+        broker.publishOutput(adapter, createMessage("output"));
+
+        assertEquals("input", broker.receiveInput().getContent());
+        assertEquals("control", broker.receiveControl().getContent());
+        assertEquals("auth", broker.receiveAuthRequest().getContent());
+        assertEquals("mis", broker.receiveMessageInfoRequest().getContent());
+        assertEquals("metrics", broker.receiveMetricsRequest().getContent());
+        assertEquals("log", broker.receiveLog().getContent());
+        assertEquals("request", broker.receiveRequests(adapter).getContent());
+        assertEquals("output", broker.receiveOutput(adapter).getContent());
+    }
+
+    @Test(timeout = 20000l)
+    public void testListenerOrder() throws Exception {
+        final int amount = 2000;
+        final Identifier adapter = Identifier.adapter("adapter");
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(amount);
+
+        broker.registerOutputListener(adapter, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.add(message.getContent());
+                latch.countDown();
+            }
+        });
+
+        Map<Identifier, List<Message>> batch = new HashMap<>();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < amount; i++) {
+            messages.add(createMessage("output" + i));
+        }
+        batch.put(adapter, messages);
+        broker.publishOutputBatch(batch);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < amount; i++) {
+            assertEquals("output" + i, received.get(i));
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testDurability() throws Exception {
+        Identifier adapter = Identifier.adapter("adapter", "peer");
+        for (int i = 0; i < 500; i++) {
+            broker.publishOutput(adapter, createMessage("output" + i));
+            broker.publishLog(createMessage("log" + i));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals("output" + i, broker.receiveOutput(adapter).getContent());
+        }
+        broker.cleanUp();
+
+        //unconsumed messages are delivered after a restart, consumed ones are not
+        broker = createBroker();
+        for (int i = 200; i < 500; i++) {
+            assertEquals("output" + i, broker.receiveOutput(adapter).getContent());
+        }
+        for (int i = 0; i < 500; i++) {
+            assertEquals("log" + i, broker.receiveLog().getContent());
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testDurability_unhandledMessages() throws Exception {
+        final Identifier adapter = Identifier.adapter("adapter", "peer");
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        //simulates a crash while the listener is handling the third message
+        broker.registerOutputListener(adapter, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.add(message.getContent());
+                if ("output2".equals(message.getContent())) {
+                    blocked.countDown();
+                    while (release.getCount() > 0) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                }
+            }
+        });
+
+        for (int i = 0; i < 5; i++) {
+            broker.publishOutput(adapter, createMessage("output" + i));
+        }
+        blocked.await();
+        broker.cleanUp();
+        release.countDown();
+        assertEquals(Arrays.asList("output0", "output1", "output2"), received);
+
+        //the message that has not been handled completely is delivered again
+        broker = createBroker();
+        for (int i = 2; i < 5; i++) {
+            assertEquals("output" + i, broker.receiveOutput(adapter).getContent());
+        }
+    }
+
+    @Test(timeout = 5000l)
+    public void testListenerFailure_deliveredAgain() throws Exception {
+        final Identifier adapter = Identifier.adapter("adapter", "peer");
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger failures = new AtomicInteger(2);
+        final CountDownLatch latch = new CountDownLatch(3);
+
+        broker.registerOutputListener(adapter, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.add(message.getContent());
+                if ("output1".equals(message.getContent()) && failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("failed to handle message");
+                }
+                latch.countDown();
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            broker.publishOutput(adapter, createMessage("output" + i));
+        }
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("output0", "output1", "output1", "output1", "output2"), received);
+    }
+
+    @Test(timeout = 5000l)
+    public void testListenerFailure_deadLetter() throws Exception {
+        final Identifier adapter = Identifier.adapter("adapter", "peer");
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        broker.registerOutputListener(adapter, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                if ("poison".equals(message.getContent())) {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException("failed to handle message");
+                }
+                latch.countDown();
+            }
+        });
+
+        broker.publishOutput(adapter, createMessage("poison"));
+        broker.publishOutput(adapter, createMessage("output"));
+        assertTrue("Message after the failing one should be delivered", latch.await(2, TimeUnit.SECONDS));
+        assertEquals(JournalMessageBroker.MAX_DELIVERY_ATTEMPTS, attempts.get());
+
+        broker.cleanUp();
+        Journal deadLetters = new Journal(new File(directory, JournalMessageBroker.DEAD_LETTER_PREFIX + "task.adapter.peer"), SEGMENT_SIZE);
+        try {
+            assertEquals("poison", new BinaryMessageCodec().decode(deadLetters.poll()).getContent());
+            assertNull(deadLetters.poll());
+        } finally {
+            deadLetters.close();
+        }
+    }
+
+    @Test(timeout = 5000l)
+    public void testSyncInterval() throws Exception {
+        Identifier adapter = Identifier.adapter("adapter", "peer");
+        broker.setSyncInterval(10, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++) {
+            broker.publishOutput(adapter, createMessage("output" + i));
+            Thread.sleep(5);
+        }
+        broker.setSyncInterval(0, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("output" + i, broker.receiveOutput(adapter).getContent());
+        }
+    }
+
+    private JournalMessageBroker createBroker() throws Exception {
+        return new JournalMessageBroker(directory, new StatisticBean(), SEGMENT_SIZE, 4);
+    }
+
+    private Message createMessage(String content) {
+        return new Message.MessageBuilder()
+                .setContent(content)
+                .setType("type")
+                .setSenderId(Identifier.peer("sender"))
+                .create();
+    }
+}
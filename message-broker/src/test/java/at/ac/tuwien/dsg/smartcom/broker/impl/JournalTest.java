@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int SEGMENT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private Journal journal;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("journal");
+        journal = new Journal(directory, SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.close();
+    }
+
+    @Test
+    public void testAppendAndPoll() throws Exception {
+        assertNull(journal.poll());
+
+        for (int i = 0; i < 10; i++) {
+            journal.append(entry(i));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("entry" + i, new String(journal.poll(), UTF8));
+        }
+        assertNull(journal.poll());
+        assertEquals(0, journal.getBacklog());
+    }
+
+    @Test
+    public void testRollingAndDeletion() throws Exception {
+        //each entry takes 4 + 40 bytes, i.e., 5 entries per segment
+        int amount = 30;
+        for (int i = 0; i < amount; i++) {
+            journal.append(largeEntry(i));
+        }
+        assertEquals(6, journal.getSegmentCount());
+        assertEquals(6, segmentFiles());
+
+        for (int i = 0; i < amount; i++) {
+            assertArrayEquals(largeEntry(i), journal.poll());
+        }
+
+        //only the segment that is currently written is left
+        assertEquals(1, journal.getSegmentCount());
+        assertEquals(1, segmentFiles());
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            journal.append(largeEntry(i));
+        }
+        for (int i = 0; i < 7; i++) {
+            assertArrayEquals(largeEntry(i), journal.poll());
+        }
+        journal.close();
+
+        journal = new Journal(directory, SEGMENT_SIZE);
+        journal.append(largeEntry(20));
+        for (int i = 7; i <= 20; i++) {
+            assertArrayEquals(largeEntry(i), journal.poll());
+        }
+        assertNull(journal.poll());
+    }
+
+    @Test
+    public void testRecovery_unacknowledged() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            journal.append(largeEntry(i));
+        }
+
+        //entries 0-5 are handled, 6-8 have been read but not handled yet
+        Journal.Entry handled = null;
+        for (int i = 0; i < 6; i++) {
+            handled = journal.pollUnacknowledged();
+            assertArrayEquals(largeEntry(i), handled.data);
+        }
+        journal.acknowledge(handled);
+        for (int i = 6; i < 9; i++) {
+            assertArrayEquals(largeEntry(i), journal.pollUnacknowledged().data);
+        }
+
+        //the first segment has been acknowledged completely, the second one is still in use
+        assertEquals(3, journal.getSegmentCount());
+        journal.close();
+
+        journal = new Journal(directory, SEGMENT_SIZE);
+        for (int i = 6; i < 20; i++) {
+            Journal.Entry entry = journal.pollUnacknowledged();
+            assertArrayEquals(largeEntry(i), entry.data);
+            journal.acknowledge(entry);
+        }
+        assertNull(journal.pollUnacknowledged());
+        assertEquals(1, journal.getSegmentCount());
+    }
+
+    @Test
+    public void testRecovery_incompleteEntry() throws Exception {
+        journal.append(entry(0));
+        journal.close();
+
+        //simulate a crash while writing the second entry: data written, length missing
+        File segment = new File(directory, String.format("%020d", 0) + Journal.SEGMENT_SUFFIX);
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.seek(4 + entry(0).length + 4);
+        file.write(entry(1));
+        file.close();
+
+        journal = new Journal(directory, SEGMENT_SIZE);
+        journal.append(entry(2));
+
+        assertEquals("entry0", new String(journal.poll(), UTF8));
+        assertEquals("entry2", new String(journal.poll(), UTF8));
+        assertNull(journal.poll());
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testAppend_entryTooLarge() throws Exception {
+        journal.append(new byte[SEGMENT_SIZE]);
+    }
+
+    @Test(timeout = 5000l)
+    public void testTake() throws Exception {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    journal.append(entry(0));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        writer.start();
+
+        assertEquals("entry0", new String(journal.take(), UTF8));
+    }
+
+    @Test(timeout = 5000l)
+    public void testTakeBatch() throws Exception {
+        assertTrue(journal.take(10, 50, TimeUnit.MILLISECONDS).isEmpty());
+
+        for (int i = 0; i < 5; i++) {
+            journal.append(entry(i));
+        }
+
+        List<byte[]> entries = journal.take(3, 1, TimeUnit.SECONDS);
+        assertEquals(3, entries.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("entry" + i, new String(entries.get(i), UTF8));
+        }
+
+        //the read position of the batch has been stored
+        journal.close();
+        journal = new Journal(directory, SEGMENT_SIZE);
+        entries = journal.take(10, 1, TimeUnit.SECONDS);
+        assertEquals(2, entries.size());
+        assertEquals("entry3", new String(entries.get(0), UTF8));
+    }
+
+    private int segmentFiles() {
+        int count = 0;
+        for (String name : directory.list()) {
+            if (name.endsWith(Journal.SEGMENT_SUFFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] entry(int i) {
+        return ("entry" + i).getBytes(UTF8);
+    }
+
+    private static byte[] largeEntry(int i) {
+        byte[] data = new byte[40];
+        for (int j = 0; j < data.length; j++) {
+            data[j] = (byte) (i + j);
+        }
+        return data;
+    }
+}
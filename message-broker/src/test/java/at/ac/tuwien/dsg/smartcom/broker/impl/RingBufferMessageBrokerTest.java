@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import at.ac.tuwien.dsg.smartcom.broker.CancelableListener;
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RingBufferMessageBrokerTest {
+
+    private RingBufferMessageBroker broker;
+    private StatisticBean statistic;
+
+    @Before
+    public void setUp() throws Exception {
+        statistic = new StatisticBean();
+        broker = new RingBufferMessageBroker(statistic, 1024, 16, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.cleanUp();
+    }
+
+    @Test(timeout = 5000l)
+    public void testPublishReceive() throws Exception {
+        Identifier adapter = Identifier.adapter("adapter", "peer");
+
+        broker.publishInput(createMessage("input"));
+        broker.publishControl(createMessage("control"));
+        broker.publishAuthRequest(createMessage("auth"));
+        broker.publishMessageInfoRequest(createMessage("mis"));
+        broker.publishMetricsRequest(createMessage("metrics"));
+        broker.publishLog(createMessage("log"));
+        broker.publishRequest(adapter, createMessage("request"));
+        broker.publishOutput(adapter, createMessage("output"));
+
+        assertEquals("input", broker.receiveInput().getContent());
+        assertEquals("control", broker.receiveControl().getContent());
+        assertEquals("auth", broker.receiveAuthRequest().getContent());
+        assertEquals("mis", broker.receiveMessageInfoRequest().getContent());
+        assertEquals("metrics", broker.receiveMetricsRequest().getContent());
+        assertEquals("log", broker.receiveLog().getContent());
+        assertEquals("request", broker.receiveRequests(adapter).getContent());
+        assertEquals("output", broker.receiveOutput(adapter).getContent());
+    }
+
+    @Test(timeout = 20000l)
+    public void testListenerOrder() throws Exception {
+        final int amount = 10000;
+        final Identifier adapter = Identifier.adapter("adapter");
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch latch = new CountDownLatch(amount);
+
+        broker.registerOutputListener(adapter, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.add(message.getContent());
+                latch.countDown();
+            }
+        });
+
+        //the adapter queue is smaller than the amount of messages, publishing has to wait for the listener
+        for (int i = 0; i < amount; i++) {
+            broker.publishOutput(adapter, createMessage("" + i));
+        }
+
+        latch.await();
+        for (int i = 0; i < amount; i++) {
+            assertEquals("" + i, received.get(i));
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testConcurrentPublishWithListeners() throws Exception {
+        final int publishers = 4;
+        final int amount = 20000;
+        final Set<String> received = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch latch = new CountDownLatch(publishers * amount);
+
+        for (int i = 0; i < 3; i++) {
+            broker.registerInputListener(new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    received.add(message.getContent());
+                    latch.countDown();
+                }
+            });
+        }
+
+        for (int i = 0; i < publishers; i++) {
+            final int publisher = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < amount; j++) {
+                        broker.publishInput(createMessage(publisher + "." + j));
+                    }
+                }
+            }.start();
+        }
+
+        latch.await();
+        assertEquals(publishers * amount, received.size());
+    }
+
+    @Test(timeout = 5000l)
+    public void testBatch() throws Exception {
+        Identifier adapter1 = Identifier.adapter("adapter1");
+        Identifier adapter2 = Identifier.adapter("adapter2");
+
+        Map<Identifier, List<Message>> batch = new LinkedHashMap<>();
+        batch.put(adapter1, Arrays.asList(createMessage("a"), createMessage("b")));
+        batch.put(adapter2, Arrays.asList(createMessage("c")));
+        broker.publishOutputBatch(batch);
+        broker.publishLogBatch(Arrays.asList(createMessage("d"), createMessage("e")));
+
+        assertEquals("a", broker.receiveOutput(adapter1).getContent());
+        assertEquals("b", broker.receiveOutput(adapter1).getContent());
+        assertEquals("c", broker.receiveOutput(adapter2).getContent());
+        assertEquals("d", broker.receiveLog().getContent());
+        assertEquals("e", broker.receiveLog().getContent());
+    }
+
+    @Test(timeout = 5000l)
+    public void testCancel() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        CancelableListener listener = broker.registerControlListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                latch.countDown();
+            }
+        });
+
+        broker.publishControl(createMessage("first"));
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+
+        listener.cancel();
+        broker.publishControl(createMessage("second"));
+        assertEquals("second", broker.receiveControl().getContent());
+    }
+
+    @Test(timeout = 5000l)
+    public void testPublishAsync_fullQueueDoesNotBlock() throws Exception {
+        final Identifier adapter = Identifier.adapter("adapter", "peer");
+        for (int i = 0; i < 16; i++) {
+            broker.publishOutput(adapter, createMessage("output" + i));
+        }
+
+        //the task queue is full, but the asynchronous publish returns immediately
+        CompletableFuture<Void> first = broker.publishOutputAsync(adapter, createMessage("overflow0"));
+        CompletableFuture<Void> second = broker.publishOutputAsync(adapter, createMessage("overflow1"));
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+
+        List<Message> received = new ArrayList<>();
+        while (received.size() < 18) {
+            received.addAll(broker.receiveOutputBatch(adapter, 10, 1000));
+        }
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+
+        //the messages of the overflow are delivered in order after the others
+        assertEquals("output15", received.get(15).getContent());
+        assertEquals("overflow0", received.get(16).getContent());
+        assertEquals("overflow1", received.get(17).getContent());
+    }
+
+    @Test(timeout = 5000l)
+    public void testPublishAsync_listenerOfFullQueue() throws Exception {
+        final Identifier adapter = Identifier.adapter("adapter", "peer");
+        for (int i = 0; i < 1024; i++) {
+            broker.publishControl(createMessage("control" + i));
+        }
+
+        //like an output adapter that publishes a control message for every task, while the control queue is full
+        final CountDownLatch handled = new CountDownLatch(32);
+        broker.registerOutputListener(adapter, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                broker.publishControlAsync(createMessage("ack"));
+                handled.countDown();
+            }
+        });
+        for (int i = 0; i < 32; i++) {
+            broker.publishOutput(adapter, createMessage("output" + i));
+        }
+        assertTrue("Listener must not block on the full control queue", handled.await(2, TimeUnit.SECONDS));
+    }
+
+    private static Message createMessage(String content) {
+        return new Message.MessageBuilder().setContent(content).create();
+    }
+}
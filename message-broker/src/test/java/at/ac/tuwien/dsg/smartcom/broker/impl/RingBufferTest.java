@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+
+    @Test
+    public void testOfferPoll() throws Exception {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        assertNull(buffer.poll());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        assertEquals(Integer.valueOf(0), buffer.poll());
+        assertTrue(buffer.offer(4));
+
+        for (int i = 1; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), buffer.poll());
+        }
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testDrainTo() throws Exception {
+        RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        for (int i = 0; i < 6; i++) {
+            buffer.offer(i);
+        }
+
+        List<Integer> list = new ArrayList<>();
+        assertEquals(4, buffer.drainTo(list, 4));
+        assertEquals(2, buffer.drainTo(list, 4));
+        assertEquals(0, buffer.drainTo(list, 4));
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(Integer.valueOf(i), list.get(i));
+        }
+    }
+
+    @Test(timeout = 5000l)
+    public void testDrainTo_timeout() throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        List<Integer> list = new ArrayList<>();
+        assertEquals(0, buffer.drainTo(list, 4, 50, TimeUnit.MILLISECONDS));
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                buffer.offer(0);
+            }
+        });
+        producer.start();
+
+        assertEquals(1, buffer.drainTo(list, 4, 2, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(0), list.get(0));
+    }
+
+    @Test(timeout = 20000l)
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        final int producers = 4;
+        final int consumers = 4;
+        final int amount = 20000;
+
+        final ConcurrentHashMap<Integer, Boolean> received = new ConcurrentHashMap<>();
+        final AtomicInteger counter = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(producers * amount);
+
+        for (int i = 0; i < producers; i++) {
+            final int offset = i * amount;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < amount; j++) {
+                            buffer.put(offset + j);
+                        }
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }.start();
+        }
+
+        for (int i = 0; i < consumers; i++) {
+            final boolean batch = i % 2 == 0;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    List<Integer> list = new ArrayList<>();
+                    while (!isInterrupted()) {
+                        list.clear();
+                        if (batch) {
+                            if (buffer.drainTo(list, 16) == 0) {
+                                Thread.yield();
+                            }
+                        } else {
+                            try {
+                                list.add(buffer.take());
+                            } catch (InterruptedException e) {
+                                break;
+                            }
+                        }
+
+                        for (Integer element : list) {
+                            if (received.put(element, true) == null) {
+                                counter.incrementAndGet();
+                            }
+                            latch.countDown();
+                        }
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        latch.await();
+        assertEquals(producers * amount, counter.get());
+        assertTrue(buffer.isEmpty());
+    }
+}
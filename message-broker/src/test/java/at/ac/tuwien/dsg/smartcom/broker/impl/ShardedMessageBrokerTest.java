@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.impl;
+
+import at.ac.tuwien.dsg.smartcom.broker.CancelableListener;
+import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.util.FreePortProviderUtil;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
+import org.apache.activemq.broker.BrokerFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ShardedMessageBrokerTest {
+
+    private static final int SHARDS = 3;
+
+    private final List<BrokerService> services = new ArrayList<>();
+    private final List<ApacheActiveMQMessageBroker> shards = new ArrayList<>();
+    private ShardedMessageBroker broker;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < SHARDS; i++) {
+            shards.add(startShard());
+        }
+        broker = new ShardedMessageBroker(shards);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ApacheActiveMQMessageBroker shard : shards) {
+            shard.cleanUp();
+        }
+        for (BrokerService service : services) {
+            service.stop();
+            service.waitUntilStopped();
+        }
+    }
+
+    @Test(timeout = 30000l)
+    public void testOutput() throws Exception {
+        Set<MessageBroker> used = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            Identifier adapter = Identifier.adapter("adapter" + i);
+            used.add(broker.getShard(adapter));
+
+            broker.publishOutput(adapter, createMessage("output" + i));
+            assertEquals("output" + i, broker.getShard(adapter).receiveOutput(adapter).getContent());
+        }
+        assertEquals("Adapters should be spread across all shards", SHARDS, used.size());
+
+        Identifier adapter = Identifier.adapter("batch");
+        Map<Identifier, List<Message>> batch = new LinkedHashMap<>();
+        batch.put(adapter, Arrays.asList(createMessage("batch0"), createMessage("batch1")));
+        broker.publishOutputBatch(batch);
+
+        assertEquals("batch0", broker.receiveOutput(adapter).getContent());
+        assertEquals("batch1", broker.receiveOutput(adapter).getContent());
+    }
+
+    @Test(timeout = 30000l)
+    public void testInput_spreadAcrossShards() throws Exception {
+        for (int i = 0; i < SHARDS; i++) {
+            broker.publishInput(createMessage("input" + i));
+        }
+
+        //round robin, every shard holds one of the messages
+        Set<String> received = new HashSet<>();
+        for (MessageBroker shard : shards) {
+            received.add(shard.receiveInput().getContent());
+        }
+        assertEquals(SHARDS, received.size());
+    }
+
+    @Test(timeout = 30000l)
+    public void testInput_listener() throws Exception {
+        final int amount = 3 * SHARDS;
+        final CountDownLatch latch = new CountDownLatch(amount);
+        final Set<String> received = Collections.synchronizedSet(new HashSet<String>());
+
+        CancelableListener listener = broker.registerInputListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                received.add(message.getContent());
+                latch.countDown();
+            }
+        });
+
+        for (int i = 0; i < amount; i++) {
+            broker.publishInput(createMessage("input" + i));
+        }
+
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+        assertEquals(amount, received.size());
+        listener.cancel();
+    }
+
+    @Test(timeout = 30000l)
+    public void testReceiveControl() throws Exception {
+        for (int i = 0; i < SHARDS; i++) {
+            broker.publishControl(createMessage("control" + i));
+        }
+
+        Set<String> received = new HashSet<>();
+        for (int i = 0; i < SHARDS; i++) {
+            received.add(broker.receiveControl().getContent());
+        }
+        assertEquals(SHARDS, received.size());
+    }
+
+    @Test(timeout = 30000l)
+    public void testAddShard() throws Exception {
+        List<Identifier> adapters = new ArrayList<>();
+        Map<Identifier, MessageBroker> before = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            Identifier adapter = Identifier.adapter("adapter" + i);
+            adapters.add(adapter);
+            before.put(adapter, broker.getShard(adapter));
+        }
+
+        Identifier moved = null;
+        ApacheActiveMQMessageBroker newShard = startShard();
+        shards.add(newShard);
+
+        final Map<Identifier, CountDownLatch> latches = new HashMap<>();
+        for (final Identifier adapter : adapters) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            latches.put(adapter, latch);
+            broker.registerOutputListener(adapter, new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    latch.countDown();
+                }
+            });
+        }
+
+        broker.addShard(newShard);
+        assertEquals(SHARDS + 1, broker.getShardCount());
+
+        int remapped = 0;
+        for (Identifier adapter : adapters) {
+            MessageBroker shard = broker.getShard(adapter);
+            if (shard != before.get(adapter)) {
+                assertSame("Adapters may only move to the new shard", newShard, shard);
+                moved = adapter;
+                remapped++;
+            }
+        }
+        assertTrue("Some adapters should move to the new shard", remapped > 0);
+        assertTrue("Only a fraction of the adapters should move", remapped < adapters.size() / 2);
+
+        //listeners that have been registered before the shard has been added receive messages of the new shard
+        broker.publishOutput(moved, createMessage("moved"));
+        assertTrue(latches.get(moved).await(20, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 30000l)
+    public void testReceiveInput_pollsAllShards() throws Exception {
+        assertTrue(broker.receiveInputBatch(10, 100).isEmpty());
+
+        for (int i = 0; i < SHARDS; i++) {
+            broker.publishInput(createMessage("input" + i));
+        }
+
+        Set<String> received = new HashSet<>();
+        while (received.size() < SHARDS) {
+            for (Message message : broker.receiveInputBatch(10, 1000)) {
+                received.add(message.getContent());
+            }
+        }
+        assertEquals(SHARDS, received.size());
+
+        //messages stay on the shards until they are received
+        broker.publishLog(createMessage("log"));
+        assertEquals("log", broker.receiveLog().getContent());
+        assertTrue(broker.receiveLogBatch(10, 100).isEmpty());
+    }
+
+    @Test(timeout = 30000l)
+    public void testReceiveOutput_afterAddShard() throws Exception {
+        ApacheActiveMQMessageBroker newShard = startShard();
+        shards.add(newShard);
+
+        //find an adapter that is moved to the new shard
+        ShardedMessageBroker extended = new ShardedMessageBroker(shards);
+        Identifier moved = null;
+        for (int i = 0; moved == null; i++) {
+            Identifier adapter = Identifier.adapter("adapter" + i);
+            if (extended.getShard(adapter) == newShard) {
+                moved = adapter;
+            }
+        }
+
+        MessageBroker previous = broker.getShard(moved);
+        broker.publishOutput(moved, createMessage("old"));
+        broker.publishRequest(moved, createMessage("oldRequest"));
+        broker.addShard(newShard);
+        assertSame(newShard, broker.getShard(moved));
+        broker.publishOutput(moved, createMessage("new"));
+
+        //messages that are still queued on the previous shard are received as well
+        Set<String> received = new HashSet<>();
+        received.add(broker.receiveOutput(moved).getContent());
+        received.add(broker.receiveOutput(moved).getContent());
+        assertEquals(new HashSet<>(Arrays.asList("old", "new")), received);
+        assertEquals("oldRequest", broker.receiveRequestsBatch(moved, 10, 1000).get(0).getContent());
+
+        assertTrue(broker.receiveOutputBatch(moved, 10, 100).isEmpty());
+        assertTrue(previous.receiveOutputBatch(moved, 10, 0).isEmpty());
+    }
+
+    private ApacheActiveMQMessageBroker startShard() throws Exception {
+        int port = FreePortProviderUtil.getFreePort();
+        BrokerService service = BrokerFactory.createBroker(new URI("broker:tcp://localhost:" + port));
+        service.setPersistent(false);
+        service.setUseJmx(false);
+        service.setBrokerName("shard" + services.size());
+        service.start();
+        service.waitUntilStarted();
+        services.add(service);
+
+        return new ApacheActiveMQMessageBroker("localhost", port, new StatisticBean());
+    }
+
+    private Message createMessage(String content) {
+        return new Message.MessageBuilder().setContent(content).create();
+    }
+}
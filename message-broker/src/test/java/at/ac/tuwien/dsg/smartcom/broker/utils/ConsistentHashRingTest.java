@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.broker.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testGet_emptyRing() throws Exception {
+        assertNull(new ConsistentHashRing<String>().get("key"));
+    }
+
+    @Test
+    public void testDistribution() throws Exception {
+        ConsistentHashRing<String> ring = createRing(4);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            String node = ring.get("adapter." + i);
+            Integer count = counts.get(node);
+            counts.put(node, count == null ? 1 : count + 1);
+        }
+
+        assertEquals(4, counts.size());
+        for (Integer count : counts.values()) {
+            assertTrue("Uneven distribution: " + counts, count > KEYS / 4 / 2 && count < KEYS / 4 * 2);
+        }
+    }
+
+    @Test
+    public void testAdd_minimalRemapping() throws Exception {
+        ConsistentHashRing<String> ring = createRing(4);
+        ConsistentHashRing<String> extended = ring.copy();
+        extended.add("node4", "node4");
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String before = ring.get("adapter." + i);
+            String after = extended.get("adapter." + i);
+
+            if (!before.equals(after)) {
+                assertEquals("Keys may only move to the new node", "node4", after);
+                moved++;
+            }
+        }
+
+        //roughly a fifth of the keys should move to the new node
+        assertTrue("Moved " + moved + " keys", moved > KEYS / 10 && moved < KEYS * 3 / 10);
+        assertEquals(4, ring.size());
+        assertEquals(5, extended.size());
+    }
+
+    @Test
+    public void testSameNamesSameMapping() throws Exception {
+        ConsistentHashRing<String> ring1 = createRing(3);
+        ConsistentHashRing<String> ring2 = createRing(3);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring1.get("adapter." + i), ring2.get("adapter." + i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdd_duplicateName() throws Exception {
+        ConsistentHashRing<String> ring = createRing(2);
+        ring.add("node0", "other");
+    }
+
+    private ConsistentHashRing<String> createRing(int nodes) {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        for (int i = 0; i < nodes; i++) {
+            ring.add("node" + i, "node" + i);
+        }
+        return ring;
+    }
+}
@@ -114,7 +114,13 @@ public class MongoDBMessageQueryDAO implements MessageQueryDAO {
                 .setTtl((Long) object.get("ttl"))
                 .setLanguage((String) object.get("language"))
                 .setSecurityToken((String) object.get("securityToken"));
-        return messageBuilder.create();
+        Message message = messageBuilder.create();
+
+        //large contents are stored compressed and decompressed when they are accessed
+        if (object.containsField("compressedContent")) {
+            message.setCompressedContent((byte[]) object.get("compressedContent"));
+        }
+        return message;
     }
 
     private Identifier deserializeIdentifier(DBObject id) {
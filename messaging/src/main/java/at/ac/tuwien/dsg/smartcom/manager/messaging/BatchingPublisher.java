@@ -0,0 +1,323 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.manager.messaging;
+
+import at.ac.tuwien.dsg.smartcom.broker.BatchPublishException;
+import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.manager.messaging.util.Pair;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces the output and log messages that the Messaging and Routing Manager
+ * publishes to the broker. Messages are queued and drained by tasks of the given
+ * executors, each drain publishes whatever has been queued in the meantime as one
+ * batch. Therefore a batch consists of a single message under low load and grows
+ * with the load without adding any delay.
+ *
+ * If the executors are stages, the queued messages are bounded by the queue capacity
+ * of the stage and count to its queue depth. If the capacity is reached, further
+ * messages are handled according to the overload behaviour of the stage.
+ *
+ * Messages of a batch that could not be published are retried once. If the retry fails as
+ * well, a communication error is published for every output message that has not been
+ * delivered, like an output adapter does if it fails to deliver a message.
+ *
+ * @version 1.0
+ */
+public class BatchingPublisher {
+    private static final Logger log = LoggerFactory.getLogger(BatchingPublisher.class);
+
+    /**
+     * Maximum amount of messages that are published within one batch
+     */
+    static final int MAX_BATCH_SIZE = 500;
+
+    private final MessageBroker broker;
+
+    private final Drainer<Pair<Identifier, Message>> outputDrainer;
+    private final Drainer<Message> logDrainer;
+
+    /**
+     * Creates a new batching publisher
+     *
+     * @param broker that is used to publish the batches
+     * @param outputExecutor executor that publishes output batches (bounded if it is a stage)
+     * @param logExecutor executor that publishes log batches (bounded if it is a stage)
+     * @param maxDrainers maximum number of tasks that publish batches of the same kind concurrently
+     */
+    public BatchingPublisher(MessageBroker broker, Executor outputExecutor, Executor logExecutor, int maxDrainers) {
+        this.broker = broker;
+
+        this.outputDrainer = new Drainer<Pair<Identifier, Message>>(outputExecutor, maxDrainers) {
+            @Override
+            protected void publish(List<Pair<Identifier, Message>> batch) {
+                Map<Identifier, List<Message>> messages = new LinkedHashMap<>();
+                for (Pair<Identifier, Message> pair : batch) {
+                    List<Message> list = messages.get(pair.first);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        messages.put(pair.first, list);
+                    }
+                    list.add(pair.second);
+                }
+                publishOutputBatch(messages);
+            }
+        };
+
+        this.logDrainer = new Drainer<Message>(logExecutor, maxDrainers) {
+            @Override
+            protected void publish(List<Message> batch) {
+                publishLogBatch(batch);
+            }
+        };
+    }
+
+    private void publishOutputBatch(Map<Identifier, List<Message>> messages) {
+        try {
+            broker.publishOutputBatch(messages);
+        } catch (BatchPublishException e) {
+            log.warn("Could not publish {} output messages, retrying", count(e.getUnpublished()), e);
+            try {
+                broker.publishOutputBatch(e.getUnpublished());
+            } catch (BatchPublishException e1) {
+                reportFailure(e1.getUnpublished(), e1);
+            } catch (RuntimeException e1) {
+                reportFailure(e.getUnpublished(), e1);
+            }
+        } catch (RuntimeException e) {
+            //it is unknown which messages have been published
+            reportFailure(messages, e);
+        }
+    }
+
+    private void publishLogBatch(List<Message> messages) {
+        try {
+            broker.publishLogBatch(messages);
+        } catch (BatchPublishException e) {
+            List<Message> unpublished = new ArrayList<>();
+            for (List<Message> list : e.getUnpublished().values()) {
+                unpublished.addAll(list);
+            }
+
+            log.warn("Could not publish {} log messages, retrying", unpublished.size(), e);
+            try {
+                broker.publishLogBatch(unpublished);
+            } catch (RuntimeException e1) {
+                log.error("Could not publish batch of {} log messages", unpublished.size(), e1);
+            }
+        } catch (RuntimeException e) {
+            log.error("Could not publish batch of {} log messages", messages.size(), e);
+        }
+    }
+
+    /**
+     * Publishes a communication error for each output message that has not been delivered
+     */
+    private void reportFailure(Map<Identifier, List<Message>> messages, Exception e) {
+        log.error("Could not publish {} output messages", count(messages), e);
+        for (Map.Entry<Identifier, List<Message>> entry : messages.entrySet()) {
+            for (Message message : entry.getValue()) {
+                try {
+                    broker.publishControl(PredefinedMessageHelper.createCommunicationErrorMessage(message,
+                            "Could not publish message to adapter " + entry.getKey() + ": " + e.getMessage()));
+                } catch (RuntimeException e1) {
+                    log.error("Could not publish communication error for message {}", message.getId(), e1);
+                }
+            }
+        }
+    }
+
+    private static int count(Map<Identifier, List<Message>> messages) {
+        int count = 0;
+        for (List<Message> list : messages.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    /**
+     * Publish an output message to each of the given adapters.
+     *
+     * @param adapters receiver destination ids of the message
+     * @param message that should be published
+     */
+    public void publishOutput(List<Identifier> adapters, Message message) {
+        for (Identifier adapter : adapters) {
+            outputDrainer.add(new Pair<>(adapter, message));
+        }
+    }
+
+    /**
+     * Publish a log message.
+     *
+     * @param message that should be logged
+     */
+    public void publishLog(Message message) {
+        logDrainer.add(message);
+    }
+
+    /**
+     * Queue of elements that is drained by at most maxDrainers tasks of an executor.
+     * A new task is only started if there is no active one or if the queued elements
+     * exceed what the active tasks can handle within one batch. If the executor is a
+     * stage, the queue is bounded by the capacity of the stage.
+     */
+    private static abstract class Drainer<T> implements Runnable {
+        private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private final AtomicInteger active = new AtomicInteger(0);
+
+        private final Executor executor;
+        private final Stage stage;
+        private final Semaphore capacity;
+        private final int maxDrainers;
+
+        private Drainer(Executor executor, int maxDrainers) {
+            this.executor = executor;
+            this.maxDrainers = maxDrainers;
+
+            if (executor instanceof Stage) {
+                this.stage = (Stage) executor;
+                this.capacity = new Semaphore(stage.getQueueCapacity());
+            } else {
+                this.stage = null;
+                this.capacity = new Semaphore(Integer.MAX_VALUE);
+            }
+        }
+
+        void add(T element) {
+            if (capacity.tryAcquire() || overloaded(element)) {
+                queue.add(element);
+                pending.incrementAndGet();
+                if (stage != null) {
+                    stage.addBacklog(1);
+                }
+            }
+
+            //also if the element has been dropped, there might be elements left by a discarded task
+            schedule();
+        }
+
+        /**
+         * Handles an element according to the overload behaviour of the stage if its capacity is reached.
+         *
+         * @return true if the element can be queued, false if it has been handled already
+         */
+        private boolean overloaded(T element) {
+            stage.recordOverload();
+            switch (stage.getOverload()) {
+                case BLOCK:
+                    try {
+                        capacity.acquire();
+                        return true;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for stage " + stage.getName(), e);
+                    }
+                case CALLER_RUNS:
+                    try {
+                        publish(Collections.singletonList(element));
+                    } catch (Exception e) {
+                        log.error("Could not publish message", e);
+                    }
+                    return false;
+                default:
+                    log.debug("Stage {} is overloaded, discarding message", stage.getName());
+                    return false;
+            }
+        }
+
+        private void schedule() {
+            while (true) {
+                int drainers = active.get();
+                if (drainers >= maxDrainers || (drainers > 0 && pending.get() <= drainers * MAX_BATCH_SIZE)) {
+                    return;
+                }
+
+                if (active.compareAndSet(drainers, drainers + 1)) {
+                    if (!submit()) {
+                        //the queued elements are drained by the next task that is accepted
+                        active.decrementAndGet();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private boolean submit() {
+            if (stage != null) {
+                return stage.tryExecute(this);
+            }
+
+            try {
+                executor.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                log.error("Could not schedule the publishing of {} messages", pending.get(), e);
+                return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            List<T> batch = new ArrayList<>();
+            while (true) {
+                T element;
+                while (batch.size() < MAX_BATCH_SIZE && (element = queue.poll()) != null) {
+                    batch.add(element);
+                }
+
+                if (batch.isEmpty()) {
+                    break;
+                }
+                pending.addAndGet(-batch.size());
+                capacity.release(batch.size());
+                if (stage != null) {
+                    stage.addBacklog(-batch.size());
+                }
+
+                try {
+                    publish(batch);
+                } catch (Exception e) {
+                    log.error("Could not publish batch of {} messages", batch.size(), e);
+                }
+                batch = new ArrayList<>();
+            }
+
+            active.decrementAndGet();
+
+            //elements might have been added after the queue has been drained but before this task finished
+            if (pending.get() > 0) {
+                schedule();
+            }
+        }
+
+        protected abstract void publish(List<T> batch);
+    }
+}
@@ -18,7 +18,7 @@
 package at.ac.tuwien.dsg.smartcom.manager.messaging;
 
 import at.ac.tuwien.dsg.smartcom.broker.*;
-import at.ac.tuwien.dsg.smartcom.broker.policy.DynamicReplicationPolicy;
+import at.ac.tuwien.dsg.smartcom.broker.policy.LatencyReplicationPolicy;
 import at.ac.tuwien.dsg.smartcom.model.Message;
 import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
 import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
@@ -31,26 +31,44 @@ public class InputHandler implements MessageListener{
 
     private final MessagingAndRoutingManagerImpl manager;
     private final MessageBroker broker;
+    private final InputFlowControl inputFlowControl;
     private final StatisticBean statistic;
+    private final ReplicaScheduler replicaScheduler;
 
     private ReplicatingMessageListener inputListener;
     private ReplicatingMessageListener controlListener;
     private CancelableListener cancelableInputListener;
     private CancelableListener cancelableControlListener;
 
-    public InputHandler(MessagingAndRoutingManagerImpl manager, MessageBroker broker, StatisticBean statistic) {
+    public InputHandler(MessagingAndRoutingManagerImpl manager, MessageBroker broker, InputFlowControl inputFlowControl, StatisticBean statistic, ReplicaScheduler replicaScheduler) {
         this.manager = manager;
         this.broker = broker;
+        this.inputFlowControl = inputFlowControl;
         this.statistic = statistic;
+        this.replicaScheduler = replicaScheduler;
     }
 
     public void init() {
-        inputListener = new ReplicatingMessageListener("input", this, new ReplicationFactory() {
+        //returns the credit of an input message as soon as it has been handed over to the manager,
+        //credits of messages that have been published on other nodes are not released by this node
+        final MessageListener creditingListener = new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                try {
+                    InputHandler.this.onMessage(message);
+                } finally {
+                    inputFlowControl.release(message);
+                }
+            }
+        };
+
+        inputListener = new ReplicatingMessageListener("input", creditingListener, new ReplicationFactory() {
             @Override
             public MessageListener createReplication() {
-                return InputHandler.this;
+                return creditingListener;
             }
-        }, new DynamicReplicationPolicy());
+        }, new LatencyReplicationPolicy(), replicaScheduler);
+        inputListener.observeBrokerQueue(broker, BrokerMonitor.INPUT_QUEUE);
         cancelableInputListener = broker.registerInputListener(inputListener);
 
         controlListener = new ReplicatingMessageListener("control", this, new ReplicationFactory() {
@@ -58,7 +76,8 @@ public class InputHandler implements MessageListener{
             public MessageListener createReplication() {
                 return InputHandler.this;
             }
-        }, new DynamicReplicationPolicy());
+        }, new LatencyReplicationPolicy(), replicaScheduler);
+        controlListener.observeBrokerQueue(broker, BrokerMonitor.CONTROL_QUEUE);
         cancelableControlListener = broker.registerControlListener(controlListener);
     }
 
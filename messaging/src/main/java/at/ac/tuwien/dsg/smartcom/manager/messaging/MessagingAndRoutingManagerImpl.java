@@ -17,7 +17,9 @@
  */
 package at.ac.tuwien.dsg.smartcom.manager.messaging;
 
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
 import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
 import at.ac.tuwien.dsg.smartcom.callback.CollectiveInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.NotificationCallback;
 import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchCollectiveException;
@@ -32,9 +34,10 @@ import at.ac.tuwien.dsg.smartcom.manager.messaging.util.KeyProvider;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.util.Pair;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.util.TimeBasedUUID;
 import at.ac.tuwien.dsg.smartcom.model.*;
+import at.ac.tuwien.dsg.smartcom.statistic.StageMonitor;
+import at.ac.tuwien.dsg.smartcom.statistic.StageStatistic;
 import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
 import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.picocontainer.annotations.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,10 +46,24 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * Default implementation of the Messaging & Routing Manager.
  *
+ * Messages are processed in a pipeline of stages, each with its own threads and a
+ * bounded queue (see {@link Stage}):
+ *
+ * <ul>
+ *     <li>accept: assigns the id of a message (in the thread of the sender)</li>
+ *     <li>route: determines the receivers, separate stages per lane (see {@link MessagingLanes})</li>
+ *     <li>resolve: resolves the receivers to peers and adapters</li>
+ *     <li>enforce-policy: enforces the delivery policies based on acknowledgements and errors</li>
+ *     <li>publish: publishes the messages to the adapters</li>
+ *     <li>log: logs the messages</li>
+ * </ul>
+ *
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @author Ognjen Scekic
  * @version 1.0
@@ -56,9 +73,18 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 	
 	private final static int MAP_SIZE_LIMIT = 20000;
 
-	private ExecutorService executor;
-    private ExecutorService brokerExecutor;
-    private ExecutorService logExecutor;
+	/**
+	 * Maximum number of members of a collective that are delivered by a single thread
+	 */
+	final static int FAN_OUT_CHUNK_SIZE = 250;
+
+	private final Map<MessagingLanes.Lane, Stage> routeStages = new EnumMap<>(MessagingLanes.Lane.class);
+	private Stage resolveStage;
+	private Stage policyStage;
+	private Stage publishStage;
+	private Stage logStage;
+	private ForkJoinPool fanOutPool; //delivers messages to large collectives in parallel
+    private BatchingPublisher publisher;
 
 	private final Map<Identifier, NotificationCallback> callbacks = new HashMap<>();
 
@@ -79,9 +105,21 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
     @Inject
     private StatisticBean statistic;
 
+    @Inject
+    private InputFlowControl inputFlowControl;
+
+    @Inject
+    private ReplicaScheduler replicaScheduler;
+
 	@Inject
 	private MessageLogLevel logLevel;
 
+	@Inject
+	private MessagingLanes lanes;
+
+	@Inject
+	private MessagingStages stages;
+
     private final Identifier localId = Identifier.component(this.hashCode() + "");
 
 	private InputHandler inputHandler;
@@ -89,20 +127,46 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 	private PolicyEnforcer policyEnforcer;
 
 	/**
-    * Initializes the executors for message sending.
+    * Initializes the stages for message sending.
     */
 	@PostConstruct
     public void init() {
-    	ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("MARM-thread-%d").build();
-    	executor = Executors.newFixedThreadPool(10, namedThreadFactory);
+    	//separate routing stages per lane, a full lane is handled by the sending thread itself
+    	for (MessagingLanes.Lane lane : MessagingLanes.Lane.values()) {
+    		routeStages.put(lane, new Stage("route-" + lane.name().toLowerCase(), lanes.getThreads(lane),
+    				lanes.getQueueCapacity(), Stage.Overload.CALLER_RUNS));
+    	}
+
+    	resolveStage = stages.createStage(MessagingStages.Type.RESOLVE);
+    	policyStage = stages.createStage(MessagingStages.Type.ENFORCE_POLICY);
+    	publishStage = stages.createStage(MessagingStages.Type.PUBLISH);
+    	logStage = stages.createStage(MessagingStages.Type.LOG);
+
+    	//collective deliveries block in the resolve stage until all chunks are done, use the same parallelism
+    	fanOutPool = new ForkJoinPool(resolveStage.getThreads(), new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+			@Override
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("MARM-fan-out-thread-" + thread.getPoolIndex());
+				return thread;
+			}
+		}, null, false);
 
-        ThreadFactory brokerThreadFactory = new ThreadFactoryBuilder().setNameFormat("Broker-thread-%d").build();
-        brokerExecutor = Executors.newFixedThreadPool(10, brokerThreadFactory);
+        //coalesces the messages published by the stages above into batches
+        publisher = new BatchingPublisher(broker, publishStage, logStage, publishStage.getThreads());
 
-        ThreadFactory logThreadFactory = new ThreadFactoryBuilder().setNameFormat("LOG-thread-%d").setPriority(Thread.MIN_PRIORITY).build();
-        logExecutor = Executors.newFixedThreadPool(10, logThreadFactory);
+        statistic.setStageMonitor(new StageMonitor() {
+			@Override
+			public List<StageStatistic> getStageStatistics() {
+				List<StageStatistic> statistics = new ArrayList<>();
+				for (Stage stage : getStages()) {
+					statistics.add(stage.getStatistic());
+				}
+				return statistics;
+			}
+		});
 
-		inputHandler = new InputHandler(this, broker, statistic);
+		inputHandler = new InputHandler(this, broker, inputFlowControl, statistic, replicaScheduler);
 		inputHandler.init();
 
 		routingRuleEngine = new RoutingRuleEngine();
@@ -110,48 +174,44 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
     }
 
     /**
-     * Stops the executors for and cancels all active Futures.
+     * Stops the stages in the order of the pipeline.
      */
 	@PreDestroy
     public void destroy() {
-        log.info("Executor will be shut down");
+        log.info("Stages will be shut down");
 
 		inputHandler.destroy();
 		routingRuleEngine.clear();
 
-        brokerExecutor.shutdown();
-        try {
-            if (!brokerExecutor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
-                brokerExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            log.error("Could not await termination of executor. forcing shutdown", e);
-            brokerExecutor.shutdownNow();
-        }
-
-        logExecutor.shutdown();
-        try {
-            if (!logExecutor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
-                logExecutor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            log.error("Could not await termination of executor. forcing shutdown", e);
-            logExecutor.shutdownNow();
-        }
+		for (Stage stage : getStages()) {
+			stage.shutdown();
+		}
 
-        executor.shutdown();
-        try {
-            if (!executor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
-                executor.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            log.error("Could not await termination of executor. forcing shutdown", e);
-            executor.shutdownNow();
-        }
+		fanOutPool.shutdown();
+		try {
+			if (!fanOutPool.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+				fanOutPool.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			log.error("Could not await termination of fan-out pool. forcing shutdown", e);
+			fanOutPool.shutdownNow();
+		}
 
-        log.info("Executor shutdown complete!");
+        log.info("Stage shutdown complete!");
     }
 
+	/**
+	 * @return all stages in the order of the pipeline
+	 */
+	private List<Stage> getStages() {
+		List<Stage> list = new ArrayList<>(routeStages.values());
+		list.add(resolveStage);
+		list.add(policyStage);
+		list.add(publishStage);
+		list.add(logStage);
+		return list;
+	}
+
 	@Override
 	public Identifier send(final Message message) {
         statistic.sendingRequestReceived();
@@ -163,8 +223,12 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 			return null;
 		}
 
+		if (message.getTtl() > 0 && message.getExpiration() == 0) {
+			message.setExpiration(System.currentTimeMillis() + message.getTtl());
+		}
+
         log.trace("Received message: {}", message);
-		logExecutor.submit(new Runnable() {
+		logStage.execute(new Runnable() {
 
 			@Override
 			public void run() {
@@ -199,27 +263,32 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 
 			private void log() {
 				statistic.logRequest();
-				broker.publishLog(message.clone());
+				publisher.publishLog(message.clone());
 			}
 		});
 
-        executor.submit(
-            new Runnable() {
+        if (PredefinedMessageHelper.CONTROL_TYPE.equals(message.getType()) &&
+                (PredefinedMessageHelper.ACK_SUBTYPE.equals(message.getSubtype()) ||
+                PredefinedMessageHelper.COMERROR_SUBTYPE.equals(message.getSubtype()) ||
+                PredefinedMessageHelper.TIMEOUT_SUBTYPE.equals(message.getSubtype()))) {
+            policyStage.execute(new Runnable() {
 
                 @Override
                 public void run() {
-                    if (PredefinedMessageHelper.CONTROL_TYPE.equals(message.getType()) &&
-                            (PredefinedMessageHelper.ACK_SUBTYPE.equals(message.getSubtype()) ||
-                            PredefinedMessageHelper.COMERROR_SUBTYPE.equals(message.getSubtype()))) {
-                        statistic.internalMessageSendingRequest();
-						policyEnforcer.enforcePeerDeliveryPolicy(message);
-                    } else {
-                        statistic.externalMessageSendingRequest();
-						MessagingAndRoutingManagerImpl.this.handleMessage(message);
-                    }
+                    statistic.internalMessageSendingRequest();
+                    policyEnforcer.enforcePeerDeliveryPolicy(message);
                 }
-					
-        });
+            });
+        } else {
+            routeStages.get(MessagingLanes.getLane(message)).execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    statistic.externalMessageSendingRequest();
+                    MessagingAndRoutingManagerImpl.this.handleMessage(message);
+                }
+            });
+        }
 		//futureList.add(future); //we probably won't need this at all, as sending should mean ultimately just 
 		//passing the msg to the appropriate broker. 
 		//Therefore, it would be just wasting time to track futures just to be able to cancel them.
@@ -264,14 +333,17 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
         }
 	}
 
-	protected void handleMessage(Message msg)  {
-		boolean isPrimaryRecipient = false;
-		ArrayList<Identifier> receiverList = new ArrayList<>();
+	/**
+	 * Routes a message to its receivers, the receivers are resolved in the resolve stage.
+	 *
+	 * @param msg message
+	 */
+	protected void handleMessage(final Message msg)  {
+		final ArrayList<Identifier> receiverList = new ArrayList<>();
 		Identifier receiver = msg.getReceiverId();
 
 		if (msg.getReceiverId() != null){
 			receiverList.add(receiver); //this is the original receiver
-			isPrimaryRecipient = true;	//ex createDataStruct. For the original receiver we need to create the data structure to track delivery of messages
 		}
 
 		receiverList.addAll(determineReceivers(msg));
@@ -281,6 +353,16 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 			return;
 		}
 
+		final boolean hasPrimaryRecipient = receiver != null; //ex createDataStruct. For the original receiver we need to create the data structure to track delivery of messages
+		resolveStage.execute(new Runnable() {
+			@Override
+			public void run() {
+				deliver(msg, receiverList, hasPrimaryRecipient);
+			}
+		});
+	}
+
+	private void deliver(Message msg, List<Identifier> receiverList, boolean isPrimaryRecipient) {
 		for (Identifier rec : receiverList){
 			if (rec.getType() == IdentifierType.COMPONENT){
                 statistic.componentMessageSendingRequest();
@@ -323,27 +405,91 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 			policyEnforcer.registerCollectiveMessageDeliveryAttempt(msg, colInfo);
 		}
 
-		for (Identifier peer : colInfo.getPeers()){
-			try {
-                Message localMessage = msg.clone();
-                localMessage.setReceiverId(peer);
-				deliverToPeer(localMessage, peer, createDataStruct, true);
-			} catch (Exception e) {
-
-				Message m = PredefinedMessageHelper.createCommunicationErrorMessage(msg, "Delivery to peer " + peer.getId() + " failed.");
-				policyEnforcer.enforceCollectiveDeliveryPolicy(m);
-				if (colInfo.getDeliveryPolicy() == DeliveryPolicy.Collective.TO_ALL_MEMBERS){
-					break;
+		List<Identifier> peers = new ArrayList<>(colInfo.getPeers());
+
+		//resolve the information of all members at once instead of one by one
+		Map<Identifier, PeerInfo> peerInfos = peerInfoProvider.getPeerInfos(peers);
+
+		CollectiveDelivery delivery = new CollectiveDelivery(msg, colInfo, peers, peerInfos, createDataStruct);
+		if (peers.size() <= FAN_OUT_CHUNK_SIZE) {
+			delivery.deliverChunk();
+		} else {
+			fanOutPool.invoke(delivery);
+		}
+	}
+
+	/**
+	 * Delivers a message to a range of the members of a collective. Large ranges are split
+	 * into chunks that are delivered in parallel by the fan-out pool.
+	 */
+	private class CollectiveDelivery extends RecursiveAction {
+		private final Message msg;
+		private final CollectiveInfo colInfo;
+		private final List<Identifier> peers;
+		private final Map<Identifier, PeerInfo> peerInfos;
+		private final boolean createDataStruct;
+		private final AtomicBoolean aborted; //shared by all chunks of a delivery
+		private final int from;
+		private final int to;
+
+		private CollectiveDelivery(Message msg, CollectiveInfo colInfo, List<Identifier> peers, Map<Identifier, PeerInfo> peerInfos, boolean createDataStruct) {
+			this(msg, colInfo, peers, peerInfos, createDataStruct, new AtomicBoolean(false), 0, peers.size());
+		}
+
+		private CollectiveDelivery(Message msg, CollectiveInfo colInfo, List<Identifier> peers, Map<Identifier, PeerInfo> peerInfos,
+								   boolean createDataStruct, AtomicBoolean aborted, int from, int to) {
+			this.msg = msg;
+			this.colInfo = colInfo;
+			this.peers = peers;
+			this.peerInfos = peerInfos;
+			this.createDataStruct = createDataStruct;
+			this.aborted = aborted;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= FAN_OUT_CHUNK_SIZE) {
+				deliverChunk();
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new CollectiveDelivery(msg, colInfo, peers, peerInfos, createDataStruct, aborted, from, middle),
+					new CollectiveDelivery(msg, colInfo, peers, peerInfos, createDataStruct, aborted, middle, to));
+		}
+
+		private void deliverChunk() {
+			for (int i = from; i < to && !aborted.get(); i++) {
+				Identifier peer = peers.get(i);
+				try {
+					Message localMessage = msg.clone();
+					localMessage.setReceiverId(peer);
+					deliverToPeer(localMessage, peer, peerInfos.get(peer), createDataStruct, true);
+				} catch (Exception e) {
+
+					Message m = PredefinedMessageHelper.createCommunicationErrorMessage(msg, "Delivery to peer " + peer.getId() + " failed.");
+					policyEnforcer.enforceCollectiveDeliveryPolicy(m);
+					if (colInfo.getDeliveryPolicy() == DeliveryPolicy.Collective.TO_ALL_MEMBERS){
+						aborted.set(true); //stops the other chunks as well
+					}
 				}
 			}
 		}
 	}
-	
-	private void deliverToPeer(final Message msg, Identifier recipient, boolean writeToDataStruct, boolean isIntendedForCollective) throws CommunicationException, NoSuchPeerException {
+
+	private void deliverToPeer(Message msg, Identifier recipient, boolean writeToDataStruct, boolean isIntendedForCollective) throws CommunicationException, NoSuchPeerException {
+		deliverToPeer(msg, recipient, peerInfoProvider.getPeerInfo(recipient), writeToDataStruct, isIntendedForCollective);
+	}
+
+	private void deliverToPeer(Message msg, Identifier recipient, PeerInfo peerInfo, boolean writeToDataStruct, boolean isIntendedForCollective) throws CommunicationException, NoSuchPeerException {
 
 		boolean doSend = true;
 
-		PeerInfo peerInfo = peerInfoProvider.getPeerInfo(recipient);
+		if (peerInfo == null) {
+			throw new NoSuchPeerException(recipient);
+		}
 
         if (peerInfo.getPrivacyPolicies() != null) {
             for (PrivacyPolicy privacyPolicy : peerInfo.getPrivacyPolicies()) {
@@ -364,7 +510,7 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 		}
 
 		//returned values will be according to the peer delivery policy (e.g., only one ID for DeliveryPolicy.PREFERRED)
-		final List<Identifier> listOfAdapterIDs = determineAdapters(peerInfo);
+		List<Identifier> listOfAdapterIDs = determineAdapters(peerInfo);
 		if (listOfAdapterIDs.size() == 0){
 			throw new RoutingException(new ErrorCode(2, "Unable to determine the adapter for message delivery to peer " + peerInfo.getId()));
 		}
@@ -373,15 +519,7 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 			msg.setSubtype(""); //because writeToDataStruct = false means this is not a primary receiver. Therefore, no need to ACK.
 		}
 
-        brokerExecutor.submit(new Runnable() {
-
-            @Override
-            public void run() {
-                for (Identifier adapter : listOfAdapterIDs){
-                    broker.publishOutput(adapter, msg);
-                }
-            }
-        });
+        publisher.publishOutput(listOfAdapterIDs, msg);
 	}
 
 	/**
@@ -459,11 +597,12 @@ public class MessagingAndRoutingManagerImpl implements MessagingAndRoutingManage
 
 	public void handleComponentMessage(final Message msg, Identifier receiver){
 		if (PredefinedMessageHelper.AUTH_TYPE.equals(msg.getType())) {
-			brokerExecutor.submit(new Runnable() {
+			broker.publishAuthRequestAsync(msg).exceptionally(new Function<Throwable, Void>() {
 
 				@Override
-				public void run() {
-					broker.publishAuthRequest(msg);
+				public Void apply(Throwable throwable) {
+					log.error("Could not publish authentication request {}", msg, throwable);
+					return null;
 				}
 			});
 		} else {
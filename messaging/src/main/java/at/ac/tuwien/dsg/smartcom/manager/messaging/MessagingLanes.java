@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.manager.messaging;
+
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
+
+/**
+ * Configuration of the lanes of the Messaging and Routing Manager. Messages are
+ * handled by separate executors depending on their type, therefore control messages
+ * (e.g., acknowledgements) and authentication requests never queue behind a
+ * backlog of data messages. Each lane has its own share of threads and a bounded
+ * queue, if the queue of a lane is full the sender handles the message itself.
+ *
+ * @version 1.0
+ */
+public class MessagingLanes {
+
+    public static final int DEFAULT_CONTROL_THREADS = 3;
+    public static final int DEFAULT_AUTH_THREADS = 2;
+    public static final int DEFAULT_DATA_THREADS = 10;
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /**
+     * Lanes of the Messaging and Routing Manager
+     */
+    public enum Lane {
+        CONTROL, AUTH, DATA
+    }
+
+    private final int controlThreads;
+    private final int authThreads;
+    private final int dataThreads;
+    private final int queueCapacity;
+
+    public MessagingLanes() {
+        this(DEFAULT_CONTROL_THREADS, DEFAULT_AUTH_THREADS, DEFAULT_DATA_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param controlThreads number of threads that handle control messages
+     * @param authThreads number of threads that handle authentication requests
+     * @param dataThreads number of threads that handle all other messages
+     * @param queueCapacity maximum number of pending messages per lane
+     */
+    public MessagingLanes(int controlThreads, int authThreads, int dataThreads, int queueCapacity) {
+        if (controlThreads < 1 || authThreads < 1 || dataThreads < 1) {
+            throw new IllegalArgumentException("Each lane requires at least one thread");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity has to be positive");
+        }
+        this.controlThreads = controlThreads;
+        this.authThreads = authThreads;
+        this.dataThreads = dataThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Determines the lane that handles a message.
+     *
+     * @param message that should be handled
+     * @return lane of the message
+     */
+    public static Lane getLane(Message message) {
+        if (PredefinedMessageHelper.CONTROL_TYPE.equals(message.getType())) {
+            return Lane.CONTROL;
+        }
+        if (PredefinedMessageHelper.AUTH_TYPE.equals(message.getType())) {
+            return Lane.AUTH;
+        }
+        return Lane.DATA;
+    }
+
+    public int getThreads(Lane lane) {
+        switch (lane) {
+            case CONTROL:
+                return controlThreads;
+            case AUTH:
+                return authThreads;
+            default:
+                return dataThreads;
+        }
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+}
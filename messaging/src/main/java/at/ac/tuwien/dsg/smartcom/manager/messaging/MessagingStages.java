@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.manager.messaging;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Configuration of the stages of the Messaging and Routing Manager that follow the
+ * routing of a message (see {@link MessagingLanes} for the routing stages):
+ *
+ * <ul>
+ *     <li>resolve: resolves the receivers of a message to peers and their adapters</li>
+ *     <li>enforce-policy: enforces the delivery policies based on acknowledgements and errors</li>
+ *     <li>publish: publishes the messages to the adapters via the broker</li>
+ *     <li>log: logs the messages according to the log level</li>
+ * </ul>
+ *
+ * Each stage has its own threads, a bounded queue and an overload behaviour.
+ *
+ * @version 1.0
+ */
+public class MessagingStages {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /**
+     * Stages that follow the routing of a message
+     */
+    public enum Type {
+        RESOLVE(10, Stage.Overload.CALLER_RUNS),
+        ENFORCE_POLICY(3, Stage.Overload.CALLER_RUNS),
+        PUBLISH(10, Stage.Overload.CALLER_RUNS),
+        LOG(10, Stage.Overload.CALLER_RUNS);
+
+        private final int defaultThreads;
+        private final Stage.Overload defaultOverload;
+
+        Type(int defaultThreads, Stage.Overload defaultOverload) {
+            this.defaultThreads = defaultThreads;
+            this.defaultOverload = defaultOverload;
+        }
+
+        /**
+         * @return name of the stage, used for the threads and the statistic
+         */
+        public String getStageName() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    private final Map<Type, Integer> threads = new EnumMap<>(Type.class);
+    private final Map<Type, Integer> queueCapacities = new EnumMap<>(Type.class);
+    private final Map<Type, Stage.Overload> overloads = new EnumMap<>(Type.class);
+
+    public MessagingStages() {
+        for (Type type : Type.values()) {
+            configure(type, type.defaultThreads, DEFAULT_QUEUE_CAPACITY, type.defaultOverload);
+        }
+    }
+
+    /**
+     * Configures a stage.
+     *
+     * @param type of the stage
+     * @param threads number of threads of the stage
+     * @param queueCapacity maximum number of waiting tasks of the stage
+     * @param overload behaviour of the stage if its queue is full
+     * @return this configuration
+     */
+    public MessagingStages configure(Type type, int threads, int queueCapacity, Stage.Overload overload) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Each stage requires at least one thread");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity has to be positive");
+        }
+        if (overload == null) {
+            throw new IllegalArgumentException("Overload behaviour is required");
+        }
+        this.threads.put(type, threads);
+        this.queueCapacities.put(type, queueCapacity);
+        this.overloads.put(type, overload);
+        return this;
+    }
+
+    public int getThreads(Type type) {
+        return threads.get(type);
+    }
+
+    public int getQueueCapacity(Type type) {
+        return queueCapacities.get(type);
+    }
+
+    public Stage.Overload getOverload(Type type) {
+        return overloads.get(type);
+    }
+
+    /**
+     * Creates a new stage with the configuration of the given type.
+     *
+     * @param type of the stage
+     * @return the stage
+     */
+    public Stage createStage(Type type) {
+        return new Stage(type.getStageName(), getThreads(type), getQueueCapacity(type), getOverload(type));
+    }
+}
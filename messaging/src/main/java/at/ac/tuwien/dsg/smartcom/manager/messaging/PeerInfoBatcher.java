@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.manager.messaging;
+
+import at.ac.tuwien.dsg.smartcom.callback.BulkPeerInfoCallback;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.PeerInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the requests for peer information that arrive within a short window
+ * and resolves them with a single call of a BulkPeerInfoCallback (similar to a
+ * DataLoader). The window starts with the first request of a batch, a batch that
+ * reaches the maximum size is resolved immediately. Requests for the same peer
+ * within a batch share the same result.
+ *
+ * @version 1.0
+ */
+public class PeerInfoBatcher {
+    private static final Logger log = LoggerFactory.getLogger(PeerInfoBatcher.class);
+
+    private final BulkPeerInfoCallback callback;
+    private final ScheduledExecutorService executor;
+    private final long window;
+    private final TimeUnit unit;
+    private final int maxBatchSize;
+
+    private final Object lock = new Object();
+    private final Set<Batch> pending = new HashSet<>();
+    private Batch current;
+    private boolean closed = false;
+
+    /**
+     * Creates a new batcher
+     *
+     * @param callback that resolves the batches
+     * @param executor that resolves the batches and schedules the end of the windows
+     * @param window time a batch waits for further requests
+     * @param unit of the window
+     * @param maxBatchSize maximum number of peers that are resolved within one batch
+     */
+    public PeerInfoBatcher(BulkPeerInfoCallback callback, ScheduledExecutorService executor, long window, TimeUnit unit, int maxBatchSize) {
+        this.callback = callback;
+        this.executor = executor;
+        this.window = window;
+        this.unit = unit;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Request the information about a peer.
+     *
+     * @param id of the peer
+     * @return future of the peer information, the result is null if there is no such peer
+     */
+    public Future<PeerInfo> load(Identifier id) {
+        return loadAll(Collections.singleton(id)).get(id);
+    }
+
+    /**
+     * Request the information about several peers.
+     *
+     * @param ids of the peers
+     * @return futures of the peer information by peer id, the result is null if there is no such peer
+     */
+    public Map<Identifier, Future<PeerInfo>> loadAll(Collection<Identifier> ids) {
+        Map<Identifier, Future<PeerInfo>> futures = new HashMap<>();
+        List<Batch> full = new ArrayList<>();
+
+        //the peers are added at once, hence they are not split up by the end of a window
+        synchronized (lock) {
+            if (closed) {
+                for (Identifier id : ids) {
+                    CompletableFuture<PeerInfo> future = new CompletableFuture<>();
+                    future.completeExceptionally(new IllegalStateException("Batcher has been closed"));
+                    futures.put(id, future);
+                }
+                return futures;
+            }
+
+            for (Identifier id : ids) {
+                Batch batch = currentBatch();
+                futures.put(id, batch.add(id));
+
+                if (batch.requests.size() >= maxBatchSize) {
+                    current = null;
+                    full.add(batch);
+                }
+            }
+        }
+
+        for (Batch batch : full) {
+            executor.execute(batch);
+        }
+        return futures;
+    }
+
+    private Batch currentBatch() {
+        if (current == null) {
+            current = new Batch();
+            pending.add(current);
+            executor.schedule(current, window, unit);
+        }
+        return current;
+    }
+
+    /**
+     * Closes the batcher. Requests that have not been resolved yet and all further
+     * requests fail, hence nobody waits for a batch that is never resolved after the
+     * executor has been shut down.
+     */
+    public void close() {
+        List<Batch> unresolved;
+        synchronized (lock) {
+            closed = true;
+            current = null;
+            unresolved = new ArrayList<>(pending);
+            pending.clear();
+            for (Batch batch : unresolved) {
+                batch.resolved = true;
+            }
+        }
+
+        Exception e = new IllegalStateException("Batcher has been closed");
+        for (Batch batch : unresolved) {
+            for (CompletableFuture<PeerInfo> future : batch.requests.values()) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private class Batch implements Runnable {
+        private final Map<Identifier, CompletableFuture<PeerInfo>> requests = new HashMap<>();
+        private boolean resolved = false;
+
+        private CompletableFuture<PeerInfo> add(Identifier id) {
+            CompletableFuture<PeerInfo> future = requests.get(id);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                requests.put(id, future);
+            }
+            return future;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                //a full batch is resolved before its window ends
+                if (resolved) {
+                    return;
+                }
+                resolved = true;
+                pending.remove(this);
+
+                //no further requests are added to the batch
+                if (current == this) {
+                    current = null;
+                }
+            }
+
+            log.debug("Resolving peer information of {} peers", requests.size());
+            try {
+                Map<Identifier, PeerInfo> peerInfos = callback.getPeerInfos(requests.keySet());
+                for (Map.Entry<Identifier, CompletableFuture<PeerInfo>> entry : requests.entrySet()) {
+                    entry.getValue().complete(peerInfos == null ? null : peerInfos.get(entry.getKey()));
+                }
+            } catch (Exception e) {
+                log.error("Error while resolving the peer information of {} peers", requests.size(), e);
+                for (CompletableFuture<PeerInfo> future : requests.values()) {
+                    future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
@@ -17,7 +17,14 @@
  */
 package at.ac.tuwien.dsg.smartcom.manager.messaging;
 
-import at.ac.tuwien.dsg.smartcom.callback.PeerInfoCallback;
+import at.ac.tuwien.dsg.smartcom.callback.BulkPeerInfoCallback;
+import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchPeerException;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.PeerInfo;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Service that provides peer information internally. Usually provides a cache of
@@ -26,5 +33,28 @@ import at.ac.tuwien.dsg.smartcom.callback.PeerInfoCallback;
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @version 1.0
  */
-public interface PeerInfoService extends PeerInfoCallback {
+public interface PeerInfoService extends BulkPeerInfoCallback {
+
+    /**
+     * Resolves the peer information of several peers at once (e.g., of all
+     * members of a collective).
+     *
+     * @param ids of the peers
+     * @return peer information by peer id, peers that don't exist or have no information are missing
+     */
+    @Override
+    default Map<Identifier, PeerInfo> getPeerInfos(Collection<Identifier> ids) {
+        Map<Identifier, PeerInfo> peerInfos = new HashMap<>();
+        for (Identifier id : ids) {
+            try {
+                PeerInfo peerInfo = getPeerInfo(id);
+                if (peerInfo != null) {
+                    peerInfos.put(id, peerInfo);
+                }
+            } catch (NoSuchPeerException ignored) {
+                //the peer is missing in the result
+            }
+        }
+        return peerInfos;
+    }
 }
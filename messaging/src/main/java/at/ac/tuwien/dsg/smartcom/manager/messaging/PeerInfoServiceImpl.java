@@ -17,6 +17,7 @@
  */
 package at.ac.tuwien.dsg.smartcom.manager.messaging;
 
+import at.ac.tuwien.dsg.smartcom.callback.BulkPeerInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.PeerInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchPeerException;
 import at.ac.tuwien.dsg.smartcom.manager.dao.PeerChannelAddressResolverDAO;
@@ -32,12 +33,14 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
+ * Caches the peer information that is provided by the PeerInfoCallback. If the callback
+ * is a BulkPeerInfoCallback, concurrent cache misses are coalesced by a PeerInfoBatcher
+ * and resolved with a single bulk request.
+ *
  * @author Philipp Zeppezauer (philipp.zeppezauer@gmail.com)
  * @version 1.0
  */
@@ -45,7 +48,25 @@ public class PeerInfoServiceImpl implements PeerInfoService {
     private static final Logger log = LoggerFactory.getLogger(PeerInfoService.class);
     private static final int DEFAULT_CACHE_SIZE = 1000;
 
+    /**
+     * Time in milliseconds that cache misses are collected before they are resolved at once
+     */
+    static final long BATCH_WINDOW = 2;
+
+    /**
+     * Maximum number of peers that are resolved with a single bulk request
+     */
+    static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Maximum time in milliseconds to wait for the resolution of a batch
+     */
+    static final long BATCH_TIMEOUT = 5000;
+    private static final int BATCH_THREADS = 4;
+
     private ExecutorService executor;
+    private ScheduledExecutorService batchExecutor;
+    private PeerInfoBatcher batcher;
 
     private final LoadingCache<Identifier, PeerInfo> cache;
 
@@ -70,22 +91,18 @@ public class PeerInfoServiceImpl implements PeerInfoService {
                             public PeerInfo load(Identifier id) throws Exception {
                                 log.debug("loading peerinfo for peer {} from peer manager", id);
 
-                                final PeerInfo peerInfo = callback.getPeerInfo(id);
+                                final PeerInfo peerInfo;
+                                if (batcher == null) {
+                                    peerInfo = callback.getPeerInfo(id);
+                                } else {
+                                    peerInfo = await(batcher.load(id));
+                                }
 
                                 if (peerInfo == null) {
                                     throw new PeerInfoUnavailableException();
                                 }
 
-                                //speed up the retrieval (saving the data in the db might be expensive
-                                executor.submit(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        for (PeerChannelAddress address : peerInfo.getAddresses()) {
-                                            dao.insert(address);
-                                        }
-                                    }
-                                });
-
+                                storeAddresses(peerInfo);
                                 return peerInfo;
                             }
                         });
@@ -95,6 +112,11 @@ public class PeerInfoServiceImpl implements PeerInfoService {
     @PostConstruct
     public void init() {
         executor  = Executors.newSingleThreadExecutor();
+
+        if (callback instanceof BulkPeerInfoCallback) {
+            batchExecutor = Executors.newScheduledThreadPool(BATCH_THREADS);
+            batcher = new PeerInfoBatcher((BulkPeerInfoCallback) callback, batchExecutor, BATCH_WINDOW, TimeUnit.MILLISECONDS, MAX_BATCH_SIZE);
+        }
     }
 
     @PreDestroy
@@ -107,6 +129,12 @@ public class PeerInfoServiceImpl implements PeerInfoService {
             log.error("Could not await termination of executor. forcing shutdown", e);
             executor.shutdownNow();
         }
+
+        if (batcher != null) {
+            //fails the requests that are still waiting for their batch
+            batcher.close();
+            batchExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -123,6 +151,68 @@ public class PeerInfoServiceImpl implements PeerInfoService {
         }
     }
 
+    /**
+     * Returns the cached peer information at once and loads only the missing ones.
+     * If the callback supports bulk requests, the missing ones are resolved in batches.
+     */
+    @Override
+    public Map<Identifier, PeerInfo> getPeerInfos(Collection<Identifier> ids) {
+        Map<Identifier, PeerInfo> peerInfos = new HashMap<>(cache.getAllPresent(ids));
+
+        List<Identifier> missing = new ArrayList<>();
+        for (Identifier id : ids) {
+            if (!peerInfos.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return peerInfos;
+        }
+
+        if (batcher == null) {
+            peerInfos.putAll(PeerInfoService.super.getPeerInfos(missing));
+            return peerInfos;
+        }
+
+        for (Map.Entry<Identifier, Future<PeerInfo>> entry : batcher.loadAll(missing).entrySet()) {
+            try {
+                PeerInfo peerInfo = await(entry.getValue());
+                if (peerInfo != null) {
+                    cache.put(entry.getKey(), peerInfo);
+                    storeAddresses(peerInfo);
+                    peerInfos.put(entry.getKey(), peerInfo);
+                }
+            } catch (Exception e) {
+                log.error("Error while retrieving peerinfo for peer {}", entry.getKey(), e);
+            }
+        }
+        return peerInfos;
+    }
+
+    private PeerInfo await(Future<PeerInfo> future) throws Exception {
+        try {
+            return future.get(BATCH_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void storeAddresses(final PeerInfo peerInfo) {
+        //speed up the retrieval (saving the data in the db might be expensive
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (PeerChannelAddress address : peerInfo.getAddresses()) {
+                    dao.insert(address);
+                }
+            }
+        });
+    }
+
     private class PeerInfoUnavailableException extends Exception {
     }
 }
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.manager.messaging;
+
+import at.ac.tuwien.dsg.smartcom.statistic.StageStatistic;
+import at.ac.tuwien.dsg.smartcom.utils.SlidingWindowCounter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stage of the message processing pipeline of the Messaging and Routing Manager.
+ * A stage has its own threads and a bounded queue of tasks. If the queue is full,
+ * the stage is overloaded and handles further tasks according to its overload
+ * behaviour until the queue has space again.
+ *
+ * The stage measures how long tasks wait in its queue and how long it takes
+ * to handle them, therefore a bottleneck shows up in the statistic of the
+ * stage before the memory runs out.
+ *
+ * @version 1.0
+ */
+public class Stage implements Executor {
+    private static final Logger log = LoggerFactory.getLogger(Stage.class);
+
+    /**
+     * Defines the window of the latency and throughput metrics
+     */
+    private static final int WINDOW_SECONDS = 10;
+
+    /**
+     * Behaviour of a stage if its queue is full
+     */
+    public enum Overload {
+        /**
+         * The submitting thread waits until the queue has space (back-pressure)
+         */
+        BLOCK,
+
+        /**
+         * The submitting thread handles the task itself
+         */
+        CALLER_RUNS,
+
+        /**
+         * The task is discarded
+         */
+        DROP
+    }
+
+    private final String name;
+    private final int threads;
+    private final int queueCapacity;
+    private final Overload overload;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+    private final AtomicInteger backlog = new AtomicInteger(0);
+    private final SlidingWindowCounter taskCounter;
+    private final SlidingWindowCounter queueTimeCounter; //nanoseconds
+    private final SlidingWindowCounter serviceTimeCounter; //nanoseconds
+
+    /**
+     * @param name of the stage, used for the threads and the statistic
+     * @param threads number of threads that handle the tasks of the stage
+     * @param queueCapacity maximum number of waiting tasks
+     * @param overload behaviour if the queue is full
+     */
+    public Stage(final String name, int threads, int queueCapacity, final Overload overload) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Stage " + name + " requires at least one thread");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity of stage " + name + " has to be positive");
+        }
+        this.name = name;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.overload = overload;
+
+        taskCounter = new SlidingWindowCounter(WINDOW_SECONDS, TimeUnit.SECONDS);
+        queueTimeCounter = new SlidingWindowCounter(WINDOW_SECONDS, TimeUnit.SECONDS);
+        serviceTimeCounter = new SlidingWindowCounter(WINDOW_SECONDS, TimeUnit.SECONDS);
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("MARM-" + name + "-thread-%d").build();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                overloaded(task, executor);
+            }
+        });
+        executor.prestartAllCoreThreads();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tryExecute(task);
+    }
+
+    /**
+     * Executes a task like execute but tells the caller whether the task has been discarded.
+     *
+     * @param task that should be executed
+     * @return false if the task has been discarded because the stage is overloaded (DROP) or has been shut down
+     */
+    public boolean tryExecute(Runnable task) {
+        try {
+            executor.execute(new StageTask(task));
+            return true;
+        } catch (TaskDiscardedException e) {
+            return false;
+        }
+    }
+
+    private void overloaded(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            log.debug("Stage {} has been shut down, discarding task", name);
+            throw new TaskDiscardedException();
+        }
+        overloaded.increment();
+
+        switch (overload) {
+            case BLOCK:
+                try {
+                    executor.getQueue().put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for stage " + name, e);
+                }
+                break;
+            case CALLER_RUNS:
+                task.run();
+                break;
+            case DROP:
+                log.debug("Stage {} is overloaded, discarding task", name);
+                throw new TaskDiscardedException();
+        }
+    }
+
+    /**
+     * Records elements that tasks of this stage buffer themselves to handle them in
+     * batches (e.g., the BatchingPublisher). They are part of the queue depth of the stage.
+     *
+     * @param elements number of elements that have been buffered (negative if they have been handled)
+     */
+    public void addBacklog(int elements) {
+        backlog.addAndGet(elements);
+    }
+
+    /**
+     * Records that an element has not been buffered because the backlog of the stage
+     * is full and the overload behaviour has been applied instead.
+     */
+    public void recordOverload() {
+        overloaded.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public Overload getOverload() {
+        return overload;
+    }
+
+    public StageStatistic getStatistic() {
+        StageStatistic statistic = new StageStatistic(name, threads, executor.getActiveCount(),
+                executor.getQueue().size() + backlog.get(), queueCapacity, completed.sum(), overloaded.sum());
+
+        long tasks = taskCounter.getSum();
+        statistic.setThroughput(tasks * 1000.0 / taskCounter.getWindowMillis());
+        if (tasks > 0) {
+            statistic.setQueueLatency(queueTimeCounter.getSum() / 1000000.0 / tasks);
+            statistic.setServiceLatency(serviceTimeCounter.getSum() / 1000000.0 / tasks);
+        }
+        return statistic;
+    }
+
+    /**
+     * Stops the stage, waiting tasks are handled if the stage finishes them within a second.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1000, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            log.error("Could not await termination of stage {}. forcing shutdown", name, e);
+            executor.shutdownNow();
+        }
+    }
+
+    private static class TaskDiscardedException extends RejectedExecutionException {
+    }
+
+    /**
+     * Measures the time a task waits in the queue and the time needed to handle it.
+     */
+    private class StageTask implements Runnable {
+        private final Runnable task;
+        private final long submitted = System.nanoTime();
+
+        private StageTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                long end = System.nanoTime();
+                completed.increment();
+                taskCounter.increase();
+                queueTimeCounter.add(start - submitted);
+                serviceTimeCounter.add(end - start);
+            }
+        }
+    }
+}
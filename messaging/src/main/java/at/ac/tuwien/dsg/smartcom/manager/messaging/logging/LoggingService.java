@@ -18,7 +18,7 @@
 package at.ac.tuwien.dsg.smartcom.manager.messaging.logging;
 
 import at.ac.tuwien.dsg.smartcom.broker.*;
-import at.ac.tuwien.dsg.smartcom.broker.policy.DynamicReplicationPolicy;
+import at.ac.tuwien.dsg.smartcom.broker.policy.LatencyReplicationPolicy;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.logging.dao.LoggingDAO;
 import at.ac.tuwien.dsg.smartcom.model.Message;
 import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
@@ -42,6 +42,9 @@ public class LoggingService implements MessageListener {
     @Inject
     private StatisticBean statistic;
 
+    @Inject
+    private ReplicaScheduler replicaScheduler;
+
     private CancelableListener registration;
     private ReplicatingMessageListener listener;
 
@@ -52,7 +55,8 @@ public class LoggingService implements MessageListener {
             public MessageListener createReplication() {
                 return LoggingService.this;
             }
-        }, new DynamicReplicationPolicy());
+        }, new LatencyReplicationPolicy(), replicaScheduler);
+        listener.observeBrokerQueue(broker, BrokerMonitor.LOG_QUEUE);
         registration = broker.registerLogListener(listener);
     }
 
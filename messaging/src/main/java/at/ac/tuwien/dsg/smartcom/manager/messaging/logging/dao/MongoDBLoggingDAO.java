@@ -17,6 +17,7 @@
  */
 package at.ac.tuwien.dsg.smartcom.manager.messaging.logging.dao;
 
+import at.ac.tuwien.dsg.smartcom.model.ContentCompression;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
 import com.mongodb.BasicDBObject;
@@ -37,13 +38,22 @@ public class MongoDBLoggingDAO implements LoggingDAO {
     private static final String LOGGING_COLLECTION = "MESSAGE_LOGGING_COLLECTION";
 
     private final DBCollection coll;
+    private final int compressionThreshold;
 
     public MongoDBLoggingDAO(String host, int port, String database) throws UnknownHostException {
         this(new MongoClient(host, port), database, LOGGING_COLLECTION);
     }
 
     public MongoDBLoggingDAO(MongoClient client, String database, String collection) {
+        this(client, database, collection, ContentCompression.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param compressionThreshold size in bytes above which the content is stored compressed, 0 or less disables compression
+     */
+    public MongoDBLoggingDAO(MongoClient client, String database, String collection, int compressionThreshold) {
         coll = client.getDB(database).getCollection(collection);
+        this.compressionThreshold = compressionThreshold;
     }
 
     @Override
@@ -55,18 +65,29 @@ public class MongoDBLoggingDAO implements LoggingDAO {
     }
 
     private BasicDBObject serializeMessage(Message message) {
-        return new BasicDBObject()
+        BasicDBObject dbObject = new BasicDBObject()
                 .append("_id", message.getId().getId())
                 .append("type", message.getType())
                 .append("subtype", message.getSubtype())
                 .append("sender", serializeIdentifier(message.getSenderId()))
                 .append("receiver", serializeIdentifier(message.getReceiverId()))
-                .append("content", message.getContent())
                 .append("conversationId", message.getConversationId())
                 .append("ttl", message.getTtl())
                 .append("language", message.getLanguage())
                 .append("securityToken", message.getSecurityToken()) //TODO should we log the security token too?
                 .append("created", new Date());
+
+        //large contents are stored compressed, contents that have been received compressed are not decompressed
+        byte[] compressed = message.getCompressedContent();
+        if (compressed == null) {
+            compressed = ContentCompression.compress(message.getContent(), compressionThreshold);
+        }
+        if (compressed == null) {
+            dbObject.append("content", message.getContent());
+        } else {
+            dbObject.append("compressedContent", compressed);
+        }
+        return dbObject;
     }
 
     private BasicDBObject serializeIdentifier(Identifier identifier) {
@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.manager.messaging;
+
+import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.BatchPublishException;
+import at.ac.tuwien.dsg.smartcom.broker.MessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.model.Identifier;
+import at.ac.tuwien.dsg.smartcom.model.Message;
+import at.ac.tuwien.dsg.smartcom.statistic.StageStatistic;
+import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingPublisherTest {
+
+    private static final int MESSAGES = 5000;
+
+    private SimpleMessageBroker broker;
+    private ExecutorService outputExecutor;
+    private ExecutorService logExecutor;
+    private BatchingPublisher publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new SimpleMessageBroker();
+        outputExecutor = Executors.newFixedThreadPool(4);
+        logExecutor = Executors.newFixedThreadPool(4);
+        publisher = new BatchingPublisher(broker, outputExecutor, logExecutor, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        outputExecutor.shutdownNow();
+        logExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 20000l)
+    public void testPublishOutput() throws Exception {
+        Identifier adapter1 = Identifier.adapter("adapter1");
+        Identifier adapter2 = Identifier.adapter("adapter2");
+
+        final CountDownLatch latch = new CountDownLatch(2 * MESSAGES);
+        final List<Message> received1 = Collections.synchronizedList(new ArrayList<Message>());
+        final List<Message> received2 = Collections.synchronizedList(new ArrayList<Message>());
+
+        broker.registerOutputListener(adapter1, new CollectingListener(received1, latch));
+        broker.registerOutputListener(adapter2, new CollectingListener(received2, latch));
+
+        for (int i = 0; i < MESSAGES; i++) {
+            publisher.publishOutput(Arrays.asList(adapter1, adapter2), new Message.MessageBuilder().setContent("" + i).create());
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(MESSAGES, received1.size());
+        assertEquals(MESSAGES, received2.size());
+    }
+
+    @Test(timeout = 20000l)
+    public void testPublishLog() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(MESSAGES);
+        final List<Message> received = Collections.synchronizedList(new ArrayList<Message>());
+
+        broker.registerLogListener(new CollectingListener(received, latch));
+
+        for (int i = 0; i < MESSAGES; i++) {
+            publisher.publishLog(new Message.MessageBuilder().setContent("" + i).create());
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(MESSAGES, received.size());
+    }
+
+    @Test(timeout = 20000l)
+    public void testPublishOutput_partialBatchIsRetried() throws Exception {
+        final Identifier adapter1 = Identifier.adapter("adapter1");
+        Identifier adapter2 = Identifier.adapter("adapter2");
+        final AtomicInteger attempts = new AtomicInteger(0);
+
+        //the first attempt publishes only the messages of the first adapter
+        publisher = new BatchingPublisher(createBroker(new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("publishOutputBatch".equals(method.getName()) && attempts.getAndIncrement() == 0) {
+                    Map<Identifier, List<Message>> messages = new LinkedHashMap<>((Map<Identifier, List<Message>>) args[0]);
+                    broker.publishOutputBatch(Collections.singletonMap(adapter1, messages.remove(adapter1)));
+                    throw new BatchPublishException(new IllegalStateException("connection lost"), messages);
+                }
+                return method.invoke(broker, args);
+            }
+        }), outputExecutor, logExecutor, 1);
+
+        final CountDownLatch latch = new CountDownLatch(2);
+        final List<Message> received1 = Collections.synchronizedList(new ArrayList<Message>());
+        final List<Message> received2 = Collections.synchronizedList(new ArrayList<Message>());
+        broker.registerOutputListener(adapter1, new CollectingListener(received1, latch));
+        broker.registerOutputListener(adapter2, new CollectingListener(received2, latch));
+
+        publisher.publishOutput(Arrays.asList(adapter1, adapter2), new Message.MessageBuilder().setContent("message").create());
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(attempts.get() > 1);
+        assertEquals(1, received1.size());
+        assertEquals(1, received2.size());
+    }
+
+    @Test(timeout = 20000l)
+    public void testPublishOutput_failureIsReported() throws Exception {
+        final Identifier adapter = Identifier.adapter("adapter");
+        publisher = new BatchingPublisher(createBroker(new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("publishOutputBatch".equals(method.getName())) {
+                    throw new BatchPublishException(new IllegalStateException("connection lost"), (Map<Identifier, List<Message>>) args[0]);
+                }
+                return method.invoke(broker, args);
+            }
+        }), outputExecutor, logExecutor, 1);
+
+        Message message = new Message.MessageBuilder()
+                .setId(Identifier.message("message"))
+                .setSenderId(Identifier.component("sender"))
+                .setReceiverId(Identifier.peer("peer"))
+                .setContent("message")
+                .create();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Message> errors = Collections.synchronizedList(new ArrayList<Message>());
+        broker.registerControlListener(new CollectingListener(errors, latch));
+
+        publisher.publishOutput(Arrays.asList(adapter), message);
+
+        //the message has not been delivered, hence the sender is notified like by a failing adapter
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Message error = errors.get(0);
+        assertEquals(PredefinedMessageHelper.COMERROR_SUBTYPE, error.getSubtype());
+        assertEquals(Identifier.message("message"), error.getRefersTo());
+        assertEquals(Identifier.component("sender"), error.getReceiverId());
+    }
+
+    private MessageBroker createBroker(InvocationHandler handler) {
+        return (MessageBroker) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{MessageBroker.class}, handler);
+    }
+
+    @Test(timeout = 20000l)
+    public void testPublishOutput_dropUnderSaturation() throws Exception {
+        Identifier adapter = Identifier.adapter("adapter");
+        Stage stage = new Stage("publish", 1, 10, Stage.Overload.DROP);
+        try {
+            publisher = new BatchingPublisher(broker, stage, logExecutor, 1);
+
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicInteger received = new AtomicInteger(0);
+            broker.registerOutputListener(adapter, new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    received.incrementAndGet();
+                }
+            });
+
+            //blocks the only thread of the stage
+            publisher.publishOutput(Arrays.asList(adapter), new Message.MessageBuilder().setContent("first").create());
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 100; i++) {
+                publisher.publishOutput(Arrays.asList(adapter), new Message.MessageBuilder().setContent("" + i).create());
+            }
+
+            StageStatistic statistic = stage.getStatistic();
+            assertEquals("Only the capacity of the stage should be buffered", 10, statistic.getDepth());
+            assertEquals(90, statistic.getOverloaded());
+
+            release.countDown();
+            waitFor(received, 11);
+
+            //the publisher still works after the saturation
+            publisher.publishOutput(Arrays.asList(adapter), new Message.MessageBuilder().setContent("last").create());
+            waitFor(received, 12);
+            assertEquals(0, stage.getStatistic().getDepth());
+        } finally {
+            stage.shutdown();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testPublishOutput_discardedTask() throws Exception {
+        Identifier adapter = Identifier.adapter("adapter");
+        Stage stage = new Stage("publish", 1, 1, Stage.Overload.DROP);
+        try {
+            publisher = new BatchingPublisher(broker, stage, logExecutor, 1);
+
+            final List<Message> received = Collections.synchronizedList(new ArrayList<Message>());
+            broker.registerOutputListener(adapter, new CollectingListener(received, new CountDownLatch(0)));
+
+            //occupy the thread and the queue of the stage
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(2);
+            for (int i = 0; i < 2; i++) {
+                stage.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                        done.countDown();
+                    }
+                });
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+            }
+
+            //the message is buffered but the task that publishes it is discarded
+            publisher.publishOutput(Arrays.asList(adapter), new Message.MessageBuilder().setContent("first").create());
+
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+
+            //the buffer is full, hence the message is dropped but the buffered one is published
+            publisher.publishOutput(Arrays.asList(adapter), new Message.MessageBuilder().setContent("dropped").create());
+            while (received.isEmpty()) {
+                Thread.sleep(10);
+            }
+            assertEquals("first", received.get(0).getContent());
+
+            publisher.publishOutput(Arrays.asList(adapter), new Message.MessageBuilder().setContent("last").create());
+            while (received.size() < 2) {
+                Thread.sleep(10);
+            }
+            assertEquals("last", received.get(1).getContent());
+        } finally {
+            stage.shutdown();
+        }
+    }
+
+    private void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        while (counter.get() < expected) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(expected, counter.get());
+    }
+
+    private static class CollectingListener implements MessageListener {
+        private final List<Message> received;
+        private final CountDownLatch latch;
+
+        private CollectingListener(List<Message> received, CountDownLatch latch) {
+            this.received = received;
+            this.latch = latch;
+        }
+
+        @Override
+        public void onMessage(Message message) {
+            received.add(message);
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.manager.messaging;
+
+import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
+import at.ac.tuwien.dsg.smartcom.adapter.InputAdapter;
+import at.ac.tuwien.dsg.smartcom.adapter.InputPullAdapter;
+import at.ac.tuwien.dsg.smartcom.adapter.InputPushAdapter;
+import at.ac.tuwien.dsg.smartcom.adapter.OutputAdapter;
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
+import at.ac.tuwien.dsg.smartcom.broker.MessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
+import at.ac.tuwien.dsg.smartcom.callback.CollectiveInfoCallback;
+import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchCollectiveException;
+import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchPeerException;
+import at.ac.tuwien.dsg.smartcom.manager.AdapterManager;
+import at.ac.tuwien.dsg.smartcom.manager.MessagingAndRoutingManager;
+import at.ac.tuwien.dsg.smartcom.model.*;
+import at.ac.tuwien.dsg.smartcom.statistic.StatisticBean;
+import at.ac.tuwien.dsg.smartcom.utils.PicoHelper;
+import at.ac.tuwien.dsg.smartcom.utils.PredefinedMessageHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CollectiveDeliveryTest {
+
+    private static final Identifier ADAPTER = Identifier.adapter("adapter");
+    private static final Identifier UNKNOWN_PEER = Identifier.peer("unknown");
+
+    private PicoHelper pico;
+    private SimpleMessageBroker broker;
+    private MessagingAndRoutingManager manager;
+    private SimplePeerInfoService peerInfoService;
+    private SimpleCollectiveInfoCallback collectiveInfoCallback;
+
+    @Before
+    public void setUp() throws Exception {
+        pico = new PicoHelper();
+        pico.addComponent(MessagingAndRoutingManagerImpl.class);
+        pico.addComponent(new SimplePeerInfoService());
+        pico.addComponent(new SimpleCollectiveInfoCallback());
+        pico.addComponent(new SimpleAdapterManager());
+        pico.addComponent(SimpleMessageBroker.class);
+        pico.addComponent(StatisticBean.class);
+        pico.addComponent(InputFlowControl.class);
+        pico.addComponent(ReplicaScheduler.class);
+        pico.addComponent(MessagingLanes.class);
+        pico.addComponent(MessagingStages.class);
+        pico.addComponent(MessageLogLevel.class, MessageLogLevel.NONE);
+
+        broker = pico.getComponent(SimpleMessageBroker.class);
+        manager = pico.getComponent(MessagingAndRoutingManager.class);
+        peerInfoService = pico.getComponent(SimplePeerInfoService.class);
+        collectiveInfoCallback = pico.getComponent(SimpleCollectiveInfoCallback.class);
+
+        pico.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pico.stop();
+    }
+
+    @Test(timeout = 20000l)
+    public void testDeliverToLargeCollective() throws Exception {
+        int members = MessagingAndRoutingManagerImpl.FAN_OUT_CHUNK_SIZE * 8 + 3;
+        collectiveInfoCallback.createCollective("large", members, DeliveryPolicy.Collective.TO_ANY);
+
+        Set<Identifier> receivers = deliver("large", members);
+
+        assertEquals(members, receivers.size());
+        assertEquals("Members should be resolved at once", 1, peerInfoService.bulkRequests.get());
+        assertEquals(0, peerInfoService.singleRequests.get());
+    }
+
+    @Test(timeout = 20000l)
+    public void testDeliverToSmallCollective_unknownPeer() throws Exception {
+        int members = 10;
+        collectiveInfoCallback.createCollective("small", members, DeliveryPolicy.Collective.TO_ANY);
+        collectiveInfoCallback.collectives.get(Identifier.collective("small")).getPeers().add(UNKNOWN_PEER);
+
+        Set<Identifier> receivers = deliver("small", members);
+
+        assertEquals(members, receivers.size());
+        assertTrue(!receivers.contains(UNKNOWN_PEER));
+    }
+
+    private Set<Identifier> deliver(String collective, int expected) throws InterruptedException {
+        final Set<Identifier> receivers = Collections.newSetFromMap(new ConcurrentHashMap<Identifier, Boolean>());
+        final CountDownLatch latch = new CountDownLatch(expected);
+        broker.registerOutputListener(ADAPTER, new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                receivers.add(message.getReceiverId());
+                latch.countDown();
+            }
+        });
+
+        manager.send(new Message.MessageBuilder()
+                .setContent("broadcast")
+                .setType(PredefinedMessageHelper.DATA_TYPE)
+                .setReceiverId(Identifier.collective(collective))
+                .setSenderId(Identifier.component("sender"))
+                .create());
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        return receivers;
+    }
+
+    private static class SimplePeerInfoService implements PeerInfoService {
+        private final AtomicInteger singleRequests = new AtomicInteger(0);
+        private final AtomicInteger bulkRequests = new AtomicInteger(0);
+
+        @Override
+        public PeerInfo getPeerInfo(Identifier id) throws NoSuchPeerException {
+            singleRequests.incrementAndGet();
+            return createPeerInfo(id);
+        }
+
+        @Override
+        public Map<Identifier, PeerInfo> getPeerInfos(Collection<Identifier> ids) {
+            bulkRequests.incrementAndGet();
+            Map<Identifier, PeerInfo> peerInfos = new HashMap<>();
+            for (Identifier id : ids) {
+                PeerInfo peerInfo = createPeerInfo(id);
+                if (peerInfo != null) {
+                    peerInfos.put(id, peerInfo);
+                }
+            }
+            return peerInfos;
+        }
+
+        private PeerInfo createPeerInfo(Identifier id) {
+            if (UNKNOWN_PEER.equals(id)) {
+                return null;
+            }
+            return new PeerInfo(id, DeliveryPolicy.Peer.PREFERRED, null, new ArrayList<PeerChannelAddress>());
+        }
+    }
+
+    private static class SimpleCollectiveInfoCallback implements CollectiveInfoCallback {
+        private final Map<Identifier, CollectiveInfo> collectives = new HashMap<>();
+
+        private void createCollective(String id, int members, DeliveryPolicy.Collective policy) {
+            List<Identifier> peers = new ArrayList<>();
+            for (int i = 0; i < members; i++) {
+                peers.add(Identifier.peer(id + "-peer" + i));
+            }
+            collectives.put(Identifier.collective(id), new CollectiveInfo(Identifier.collective(id), peers, policy));
+        }
+
+        @Override
+        public CollectiveInfo getCollectiveInfo(Identifier collective) throws NoSuchCollectiveException {
+            CollectiveInfo info = collectives.get(collective);
+            if (info == null) {
+                throw new NoSuchCollectiveException();
+            }
+            return info;
+        }
+    }
+
+    private static class SimpleAdapterManager implements AdapterManager {
+
+        @Override
+        public Identifier addPushAdapter(InputPushAdapter adapter) {
+            return null;
+        }
+
+        @Override
+        public Identifier addPullAdapter(InputPullAdapter adapter, long period, boolean deleteIfSuccessful) {
+            return null;
+        }
+
+        @Override
+        public InputAdapter removeInputAdapter(Identifier adapterId) {
+            return null;
+        }
+
+        @Override
+        public Identifier registerOutputAdapter(Class<? extends OutputAdapter> adapter) {
+            return null;
+        }
+
+        @Override
+        public void removeOutputAdapter(Identifier adapterId) {
+        }
+
+        @Override
+        public List<Identifier> createEndpointForPeer(PeerInfo peerInfo) {
+            return Collections.singletonList(ADAPTER);
+        }
+    }
+}
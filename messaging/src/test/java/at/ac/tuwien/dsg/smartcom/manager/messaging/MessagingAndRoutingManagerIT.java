@@ -18,6 +18,8 @@
 package at.ac.tuwien.dsg.smartcom.manager.messaging;
 
 import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.InputFlowControl;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
 import at.ac.tuwien.dsg.smartcom.callback.CollectiveInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.NotificationCallback;
 import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchCollectiveException;
@@ -81,6 +83,10 @@ public class MessagingAndRoutingManagerIT {
         pico.addComponent(AddressResolver.class);
         pico.addComponent(new MongoDBPeerChannelAddressResolverDAO(mongo, "test-resolver", "resolver"));
         pico.addComponent(StatisticBean.class);
+        pico.addComponent(InputFlowControl.class);
+        pico.addComponent(ReplicaScheduler.class);
+        pico.addComponent(MessagingLanes.class);
+        pico.addComponent(MessagingStages.class);
 		pico.addComponent(MessageLogLevel.class, MessageLogLevel.NONE);
         
     	peerInfoService = pico.getComponent(PeerInfoService.class);
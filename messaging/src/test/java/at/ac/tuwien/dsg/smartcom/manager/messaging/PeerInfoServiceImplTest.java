@@ -17,6 +17,7 @@
  */
 package at.ac.tuwien.dsg.smartcom.manager.messaging;
 
+import at.ac.tuwien.dsg.smartcom.callback.BulkPeerInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.PeerInfoCallback;
 import at.ac.tuwien.dsg.smartcom.callback.exception.NoSuchPeerException;
 import at.ac.tuwien.dsg.smartcom.manager.dao.PeerChannelAddressResolverDAO;
@@ -30,10 +31,16 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.*;
 
 public class PeerInfoServiceImplTest {
 
@@ -81,9 +88,166 @@ public class PeerInfoServiceImplTest {
         assertEquals(PEER_COUNT, callback.getRetrieveCounter());
     }
 
+    @Test(timeout = 20000l)
+    public void testGetPeerInfo_bulkCallback() throws Exception {
+        PicoHelper pico = new PicoHelper();
+        pico.addComponent(PeerInfoServiceImpl.class);
+        pico.addComponent(new BulkPeerInfoCallbackImpl());
+        pico.addComponent(new AddressResolver());
+
+        final PeerInfoService peerInfoService = pico.getComponent(PeerInfoService.class);
+        BulkPeerInfoCallbackImpl callback = pico.getComponent(BulkPeerInfoCallbackImpl.class);
+        pico.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(PEER_COUNT);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(PEER_COUNT);
+            final List<PeerInfo> peerInfos = Collections.synchronizedList(new ArrayList<PeerInfo>());
+            for (int i = 0; i < PEER_COUNT; i++) {
+                final Identifier peer = Identifier.peer("peer" + i);
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            peerInfos.add(peerInfoService.getPeerInfo(peer));
+                        } catch (Exception ignored) {
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+
+            start.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(PEER_COUNT, peerInfos.size());
+            assertFalse(peerInfos.contains(null));
+
+            assertEquals(0, callback.getRetrieveCounter());
+            assertTrue("Concurrent cache misses should be resolved in batches", callback.getBulkRetrieveCounter() < PEER_COUNT);
+        } finally {
+            executor.shutdownNow();
+            pico.stop();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testGetPeerInfos_bulkCallback() throws Exception {
+        PicoHelper pico = new PicoHelper();
+        pico.addComponent(PeerInfoServiceImpl.class);
+        pico.addComponent(new BulkPeerInfoCallbackImpl());
+        pico.addComponent(new AddressResolver());
+
+        PeerInfoService peerInfoService = pico.getComponent(PeerInfoService.class);
+        BulkPeerInfoCallbackImpl callback = pico.getComponent(BulkPeerInfoCallbackImpl.class);
+        pico.start();
+
+        try {
+            List<Identifier> peers = new ArrayList<>();
+            for (int i = 0; i < PEER_COUNT; i++) {
+                peers.add(Identifier.peer("peer" + i));
+            }
+            peers.add(Identifier.peer("unknown"));
+
+            Map<Identifier, PeerInfo> peerInfos = peerInfoService.getPeerInfos(peers);
+            assertEquals(PEER_COUNT, peerInfos.size());
+            assertFalse(peerInfos.containsKey(Identifier.peer("unknown")));
+            assertEquals(1, callback.getBulkRetrieveCounter());
+
+            //all of them are cached now
+            assertNotNull(peerInfoService.getPeerInfo(Identifier.peer("peer0")));
+            assertEquals(PEER_COUNT, peerInfoService.getPeerInfos(peers.subList(0, PEER_COUNT)).size());
+            assertEquals(1, callback.getBulkRetrieveCounter());
+            assertEquals(0, callback.getRetrieveCounter());
+        } finally {
+            pico.stop();
+        }
+    }
+
+    @Test(timeout = 20000l)
+    public void testGetPeerInfo_bulkCallbackDoesNotRespond() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        PicoHelper pico = new PicoHelper();
+        pico.addComponent(PeerInfoServiceImpl.class);
+        pico.addComponent(new BulkPeerInfoCallbackImpl() {
+            @Override
+            public Map<Identifier, PeerInfo> getPeerInfos(Collection<Identifier> ids) {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                return super.getPeerInfos(ids);
+            }
+        });
+        pico.addComponent(new AddressResolver());
+
+        PeerInfoService peerInfoService = pico.getComponent(PeerInfoService.class);
+        pico.start();
+
+        try {
+            //the request gives up instead of waiting forever
+            long start = System.currentTimeMillis();
+            assertNull(peerInfoService.getPeerInfo(Identifier.peer("peer0")));
+            assertTrue(System.currentTimeMillis() - start >= PeerInfoServiceImpl.BATCH_TIMEOUT);
+        } finally {
+            release.countDown();
+            pico.stop();
+        }
+    }
+
+    @Test(timeout = 5000l)
+    public void testPeerInfoBatcher_close() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            PeerInfoBatcher batcher = new PeerInfoBatcher(new BulkPeerInfoCallbackImpl(), executor, 1, TimeUnit.HOURS, PEER_COUNT);
+            Future<PeerInfo> pending = batcher.load(Identifier.peer("peer0"));
+
+            //the pending request and all further ones fail instead of waiting for the window
+            batcher.close();
+            assertFailed(pending);
+            assertFailed(batcher.load(Identifier.peer("peer1")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertFailed(Future<PeerInfo> future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Request should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private class BulkPeerInfoCallbackImpl extends PeerInfoCallbackImpl implements BulkPeerInfoCallback {
+
+        private AtomicInteger bulkRetrieveCounter = new AtomicInteger(0);
+
+        @Override
+        public Map<Identifier, PeerInfo> getPeerInfos(Collection<Identifier> ids) {
+            bulkRetrieveCounter.incrementAndGet();
+            Map<Identifier, PeerInfo> peerInfos = new HashMap<>();
+            for (Identifier id : ids) {
+                PeerInfo peerInfo = peerInfoMap.get(id);
+                if (peerInfo != null) {
+                    peerInfos.put(id, peerInfo);
+                }
+            }
+            return peerInfos;
+        }
+
+        public int getBulkRetrieveCounter() {
+            return bulkRetrieveCounter.intValue();
+        }
+    }
+
     private class PeerInfoCallbackImpl implements PeerInfoCallback {
 
-        private Map<Identifier, PeerInfo> peerInfoMap = new HashMap<>();
+        protected Map<Identifier, PeerInfo> peerInfoMap = new HashMap<>();
         private AtomicInteger retrieveCounter = new AtomicInteger(0);
 
         private PeerInfoCallbackImpl() {
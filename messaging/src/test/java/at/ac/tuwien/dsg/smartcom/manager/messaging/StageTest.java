@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.manager.messaging;
+
+import at.ac.tuwien.dsg.smartcom.statistic.StageStatistic;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StageTest {
+
+    private Stage stage;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (stage != null) {
+            stage.shutdown();
+        }
+    }
+
+    @Test(timeout = 5000l)
+    public void testStatistic() throws Exception {
+        stage = new Stage("test", 2, 10, Stage.Overload.CALLER_RUNS);
+
+        final CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            stage.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException ignored) {
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        Thread.sleep(50); //statistic is updated after the task
+
+        StageStatistic statistic = stage.getStatistic();
+        assertEquals("test", statistic.getName());
+        assertEquals(2, statistic.getThreads());
+        assertEquals(10, statistic.getCapacity());
+        assertEquals(10, statistic.getCompleted());
+        assertEquals(0, statistic.getOverloaded());
+        assertEquals(0, statistic.getDepth());
+        assertTrue(statistic.getServiceLatency() >= 4);
+        assertTrue("Tasks should have waited for the two threads", statistic.getQueueLatency() > 0);
+        assertTrue(statistic.getThroughput() > 0);
+    }
+
+    @Test(timeout = 5000l)
+    public void testOverload_callerRuns() throws Exception {
+        stage = new Stage("test", 1, 1, Stage.Overload.CALLER_RUNS);
+        fillStage();
+
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        stage.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        });
+
+        assertSame(Thread.currentThread(), thread.get());
+        assertEquals(1, stage.getStatistic().getOverloaded());
+    }
+
+    @Test(timeout = 5000l)
+    public void testOverload_drop() throws Exception {
+        stage = new Stage("test", 1, 1, Stage.Overload.DROP);
+        fillStage();
+
+        final AtomicBoolean executed = new AtomicBoolean(false);
+        stage.execute(new Runnable() {
+            @Override
+            public void run() {
+                executed.set(true);
+            }
+        });
+
+        release.countDown();
+        stage.shutdown();
+        assertFalse(executed.get());
+        assertEquals(1, stage.getStatistic().getOverloaded());
+        assertEquals(2, stage.getStatistic().getCompleted());
+    }
+
+    @Test(timeout = 5000l)
+    public void testOverload_block() throws Exception {
+        stage = new Stage("test", 1, 1, Stage.Overload.BLOCK);
+        fillStage();
+
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final CountDownLatch executed = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stage.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        executed.countDown();
+                    }
+                });
+                submitted.countDown();
+            }
+        }).start();
+
+        assertFalse("Submitter should wait for the stage", submitted.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(1, stage.getStatistic().getDepth());
+
+        release.countDown();
+        assertTrue(submitted.await(1, TimeUnit.SECONDS));
+        assertTrue(executed.await(1, TimeUnit.SECONDS));
+        assertEquals(1, stage.getStatistic().getOverloaded());
+    }
+
+    /**
+     * Blocks the only thread of the stage and fills its queue
+     */
+    private void fillStage() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        stage.execute(blocking);
+        assertTrue(blocked.await(1, TimeUnit.SECONDS));
+
+        stage.execute(blocking);
+        assertEquals(1, stage.getStatistic().getDepth());
+    }
+}
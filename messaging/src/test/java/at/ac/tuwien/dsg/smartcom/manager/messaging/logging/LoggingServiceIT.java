@@ -18,6 +18,7 @@
 package at.ac.tuwien.dsg.smartcom.manager.messaging.logging;
 
 import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.logging.dao.LoggingDAO;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.logging.dao.MongoDBLoggingDAO;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
@@ -56,6 +57,7 @@ public class LoggingServiceIT {
         pico = new PicoHelper();
         pico.addComponent(SimpleMessageBroker.class);
         pico.addComponent(LoggingDAO.class, new MongoDBLoggingDAO(client, "test-logging", "logging"));
+        pico.addComponent(ReplicaScheduler.class);
         pico.addComponent(LoggingService.class);
         pico.addComponent(StatisticBean.class);
 
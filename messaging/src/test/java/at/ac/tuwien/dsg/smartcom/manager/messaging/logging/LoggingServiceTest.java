@@ -18,6 +18,7 @@
 package at.ac.tuwien.dsg.smartcom.manager.messaging.logging;
 
 import at.ac.tuwien.dsg.smartcom.SimpleMessageBroker;
+import at.ac.tuwien.dsg.smartcom.broker.ReplicaScheduler;
 import at.ac.tuwien.dsg.smartcom.manager.messaging.logging.dao.LoggingDAO;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.Message;
@@ -46,6 +47,7 @@ public class LoggingServiceTest {
         pico = new PicoHelper();
         pico.addComponent(SimpleMessageBroker.class);
         pico.addComponent(new SimpleLoggingDAO());
+        pico.addComponent(ReplicaScheduler.class);
         pico.addComponent(LoggingService.class);
         pico.addComponent(StatisticBean.class);
 
@@ -17,6 +17,7 @@
  */
 package at.ac.tuwien.dsg.smartcom.manager.messaging.logging.dao;
 
+import at.ac.tuwien.dsg.smartcom.model.ContentCompression;
 import at.ac.tuwien.dsg.smartcom.model.Identifier;
 import at.ac.tuwien.dsg.smartcom.model.IdentifierType;
 import at.ac.tuwien.dsg.smartcom.model.Message;
@@ -30,6 +31,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 
 public class MongoDBLoggingDAOTest {
@@ -95,4 +97,26 @@ public class MongoDBLoggingDAOTest {
         }
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPersist_compressedContent() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            content.append("testContent").append(i % 10);
+        }
+
+        Message message = new Message.MessageBuilder()
+                .setId(Identifier.message("compressedId"))
+                .setContent(content.toString())
+                .setType("testType")
+                .setSenderId(Identifier.peer("sender"))
+                .setReceiverId(Identifier.peer("receiver"))
+                .create();
+
+        logger.persist(message);
+
+        DBObject dbObject = collection.findOne(Identifier.message("compressedId").getId());
+        assertFalse(dbObject.containsField("content"));
+        assertEquals(content.toString(), ContentCompression.decompress((byte[]) dbObject.get("compressedContent")));
+    }
+}
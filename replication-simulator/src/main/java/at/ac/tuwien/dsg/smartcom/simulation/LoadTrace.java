@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.simulation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Arrival trace that defines how many messages arrive per second. Traces can be
+ * synthetic or loaded from the CSV files that are recorded by the performance demo
+ * (one row per sample, one column per second).
+ *
+ * @version 1.0
+ */
+public class LoadTrace {
+
+    private final double[] rates; //messages per second
+
+    public LoadTrace(double[] rates) {
+        this.rates = Arrays.copyOf(rates, rates.length);
+    }
+
+    /**
+     * @return the duration of the trace in seconds
+     */
+    public int getSeconds() {
+        return rates.length;
+    }
+
+    /**
+     * @param second of the trace
+     * @return the messages that arrive within that second
+     */
+    public double getRate(int second) {
+        return rates[second];
+    }
+
+    /**
+     * Concatenates this trace with another one
+     *
+     * @param trace that follows this trace
+     * @return the new trace
+     */
+    public LoadTrace followedBy(LoadTrace trace) {
+        double[] result = Arrays.copyOf(rates, rates.length + trace.rates.length);
+        System.arraycopy(trace.rates, 0, result, rates.length, trace.rates.length);
+        return new LoadTrace(result);
+    }
+
+    /**
+     * Creates a trace with a constant rate.
+     *
+     * @param rate messages per second
+     * @param seconds duration of the trace
+     * @return the trace
+     */
+    public static LoadTrace constant(double rate, int seconds) {
+        double[] rates = new double[seconds];
+        Arrays.fill(rates, rate);
+        return new LoadTrace(rates);
+    }
+
+    /**
+     * Creates a trace that increases the rate linearly.
+     *
+     * @param from messages per second at the beginning
+     * @param to messages per second at the end
+     * @param seconds duration of the trace
+     * @return the trace
+     */
+    public static LoadTrace ramp(double from, double to, int seconds) {
+        double[] rates = new double[seconds];
+        for (int i = 0; i < seconds; i++) {
+            rates[i] = from + (to - from) * i / Math.max(1, seconds - 1);
+        }
+        return new LoadTrace(rates);
+    }
+
+    /**
+     * Loads a trace from a performance demo CSV file. The file contains a header
+     * line and one line per sample, the values are separated by semicolons and
+     * the first column contains the name of the sample.
+     *
+     * @param reader of the CSV file
+     * @param sample row of the sample that should be loaded (starting at 0)
+     * @return the trace
+     * @throws IOException if the file can't be read or there is no such sample
+     */
+    public static LoadTrace fromPerformanceCsv(Reader reader, int sample) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        in.readLine(); //header
+
+        String line;
+        int row = 0;
+        while ((line = in.readLine()) != null) {
+            if (row++ != sample) {
+                continue;
+            }
+
+            String[] values = line.split(";");
+            List<Double> rates = new ArrayList<>();
+            for (int i = 1; i < values.length; i++) {
+                if (!values[i].trim().isEmpty()) {
+                    rates.add(Double.valueOf(values[i].trim()));
+                }
+            }
+
+            double[] result = new double[rates.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = rates.get(i);
+            }
+            return new LoadTrace(result);
+        }
+        throw new IOException("There is no sample " + sample);
+    }
+}
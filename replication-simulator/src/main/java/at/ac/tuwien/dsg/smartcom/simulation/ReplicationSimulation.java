@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.simulation;
+
+import at.ac.tuwien.dsg.smartcom.broker.policy.DynamicReplicationPolicy;
+import at.ac.tuwien.dsg.smartcom.broker.policy.LatencyReplicationPolicy;
+import at.ac.tuwien.dsg.smartcom.broker.policy.TresholdReplicationPolicy;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the replication policies on a load trace and prints the results.
+ *
+ * Usage: ReplicationSimulation [serviceTimeMicros [performance.csv [sample]]]
+ *
+ * Without a CSV file a synthetic trace is used that ramps up, holds a high load
+ * and drops to a low load afterwards.
+ *
+ * @version 1.0
+ */
+public class ReplicationSimulation {
+
+    private static final long DEFAULT_SERVICE_TIME_MICROS = 2000;
+
+    public static void main(String[] args) throws IOException {
+        long serviceTime = args.length > 0 ? Long.valueOf(args[0]) : DEFAULT_SERVICE_TIME_MICROS;
+
+        LoadTrace trace;
+        if (args.length > 1) {
+            try (Reader reader = new FileReader(args[1])) {
+                trace = LoadTrace.fromPerformanceCsv(reader, args.length > 2 ? Integer.valueOf(args[2]) : 0);
+            }
+        } else {
+            trace = LoadTrace.ramp(0, 2000, 60)
+                    .followedBy(LoadTrace.constant(2000, 120))
+                    .followedBy(LoadTrace.constant(200, 120));
+        }
+
+        ReplicationSimulator simulator = new ReplicationSimulator(trace, serviceTime, TimeUnit.MICROSECONDS);
+
+        System.out.println(simulator.simulate("Treshold", new TresholdReplicationPolicy()));
+        System.out.println(simulator.simulate("Dynamic", new DynamicReplicationPolicy()));
+        System.out.println(simulator.simulate("Latency", new LatencyReplicationPolicy()));
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.simulation;
+
+import at.ac.tuwien.dsg.smartcom.broker.ReplicatingMessageListener;
+import at.ac.tuwien.dsg.smartcom.broker.policy.ReplicationPolicy;
+import at.ac.tuwien.dsg.smartcom.broker.policy.ReplicationPolicyResult;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates a {@link ReplicatingMessageListener} in virtual time. The messages of a load
+ * trace arrive in an internal queue and are handled by the replicas in FIFO order, the
+ * replication policy is called in fixed intervals and decides about the replicas the same
+ * way as in the listener: new replicas start immediately, removed replicas finish the message
+ * they are currently handling.
+ *
+ * The simulation is deterministic, the same trace, parameters and seed lead to the same result.
+ *
+ * @version 1.0
+ */
+public class ReplicationSimulator {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LoadTrace trace;
+    private final long serviceTimeNanos;
+
+    private int maxReplicas = ReplicatingMessageListener.DEFAULT_MAX_REPLICAS;
+    private long intervalNanos = TimeUnit.SECONDS.toNanos(10);
+    private Long seed = null;
+
+    /**
+     * @param trace arrivals of the messages
+     * @param serviceTime mean time that is required by a replica to handle a message
+     * @param unit of the service time
+     */
+    public ReplicationSimulator(LoadTrace trace, long serviceTime, TimeUnit unit) {
+        this.trace = trace;
+        this.serviceTimeNanos = unit.toNanos(serviceTime);
+    }
+
+    public ReplicationSimulator setMaxReplicas(int maxReplicas) {
+        this.maxReplicas = maxReplicas;
+        return this;
+    }
+
+    /**
+     * @param interval in which the replication policy is called
+     * @param unit of the interval
+     * @return this simulator
+     */
+    public ReplicationSimulator setPolicyInterval(long interval, TimeUnit unit) {
+        this.intervalNanos = unit.toNanos(interval);
+        return this;
+    }
+
+    /**
+     * Use exponentially distributed service times instead of a constant service time.
+     *
+     * @param seed of the random number generator
+     * @return this simulator
+     */
+    public ReplicationSimulator setRandomServiceTime(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Runs the simulation until all messages of the trace have been handled.
+     *
+     * @param name of the policy that is used in the result
+     * @param policy that decides about the replicas
+     * @return the result of the simulation
+     */
+    public SimulationResult simulate(String name, ReplicationPolicy policy) {
+        return new Run(policy).run(name);
+    }
+
+    /**
+     * State of a single simulation run
+     */
+    private class Run {
+        private final ReplicationPolicy policy;
+        private final Random random = seed == null ? null : new Random(seed);
+
+        private final Queue<Long> queue = new ArrayDeque<>(); //arrival times of waiting messages
+        private final PriorityQueue<long[]> busy = new PriorityQueue<>(11, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] o1, long[] o2) {
+                return Long.compare(o1[0], o2[0]); //completion time, service time
+            }
+        });
+
+        private int replicas = 1;
+        private int retiring = 0; //removed replicas that still handle a message
+
+        private long[] latencies = new long[1024];
+        private int handled = 0;
+        private final List<SimulationResult.ReplicaSample> timeline = new ArrayList<>();
+
+        private long now = 0;
+        private double threadNanos = 0;
+
+        //statistics since the last call of the policy
+        private int intervalReceived = 0;
+        private int intervalHandled = 0;
+        private long intervalServiceTime = 0;
+
+        //state of the arrival generator
+        private int second = 0; //second of the trace whose arrivals are generated
+        private int arrivalsInSecond = 0;
+        private int arrivalIndex = 0;
+        private double carry = 0;
+
+        private Run(ReplicationPolicy policy) {
+            this.policy = policy;
+            if (trace.getSeconds() > 0) {
+                loadSecond();
+            }
+        }
+
+        private SimulationResult run(String name) {
+            long nextTick = intervalNanos;
+
+            while (true) {
+                long nextArrival = nextArrival();
+                long nextCompletion = busy.isEmpty() ? Long.MAX_VALUE : busy.peek()[0];
+
+                if (nextArrival == Long.MAX_VALUE && nextCompletion == Long.MAX_VALUE) {
+                    break; //all messages have been handled
+                }
+
+                if (nextCompletion <= nextArrival && nextCompletion <= nextTick) {
+                    advance(nextCompletion);
+                    complete(busy.poll());
+                } else if (nextArrival <= nextTick) {
+                    advance(nextArrival);
+                    arrivalIndex++;
+                    arrive();
+                } else {
+                    advance(nextTick);
+                    tick();
+                    nextTick += intervalNanos;
+                }
+            }
+
+            return new SimulationResult(name, Arrays.copyOf(latencies, handled), timeline,
+                    threadNanos / SECOND, now / (double) SECOND);
+        }
+
+        private void advance(long time) {
+            threadNanos += (double) (replicas + retiring) * (time - now);
+            now = time;
+        }
+
+        /**
+         * @return the time of the next arrival, the arrivals of a second are evenly spaced
+         */
+        private long nextArrival() {
+            while (arrivalIndex >= arrivalsInSecond) {
+                second++;
+                if (second >= trace.getSeconds()) {
+                    return Long.MAX_VALUE;
+                }
+                loadSecond();
+            }
+            return second * SECOND + arrivalIndex * (SECOND / arrivalsInSecond);
+        }
+
+        /**
+         * Determines the arrivals of the current second of the trace, fractions are carried over.
+         */
+        private void loadSecond() {
+            double arrivals = trace.getRate(second) + carry;
+            arrivalsInSecond = (int) arrivals;
+            carry = arrivals - arrivalsInSecond;
+            arrivalIndex = 0;
+        }
+
+        private void arrive() {
+            intervalReceived++;
+            queue.add(now);
+            startIdleReplicas();
+        }
+
+        private void complete(long[] completion) {
+            intervalHandled++;
+            intervalServiceTime += completion[1];
+
+            if (retiring > 0) {
+                retiring--;
+            } else {
+                startIdleReplicas();
+            }
+        }
+
+        private void startIdleReplicas() {
+            while (!queue.isEmpty() && busy.size() - retiring < replicas) {
+                long arrival = queue.poll();
+                long serviceTime = serviceTime();
+                busy.add(new long[]{now + serviceTime, serviceTime});
+                record(now + serviceTime - arrival);
+            }
+        }
+
+        private long serviceTime() {
+            if (random == null) {
+                return serviceTimeNanos;
+            }
+            return Math.max(1, (long) (-Math.log(1 - random.nextDouble()) * serviceTimeNanos));
+        }
+
+        private void record(long latency) {
+            if (handled == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[handled++] = latency;
+        }
+
+        private void tick() {
+            ReplicationPolicyResult result = policy.determineReplicationPolicy(intervalReceived, replicas, queue.size(),
+                    intervalHandled, null, intervalServiceTime, TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+
+            switch (result.getType()) {
+                case UPSCALE:
+                    int remain = Math.min(maxReplicas - replicas, result.getAmount());
+                    if (remain > 0) {
+                        replicas += remain;
+                        startIdleReplicas();
+                    }
+                    break;
+
+                case DOWNSCALE:
+                    remain = Math.min(replicas - 1, result.getAmount());
+                    if (remain > 0) {
+                        int idle = replicas - (busy.size() - retiring);
+                        retiring += Math.max(0, remain - idle); //busy replicas stop after their current message
+                        replicas -= remain;
+                    }
+                    break;
+
+                case NOSCALE:
+                    //do nothing
+                    break;
+            }
+
+            timeline.add(new SimulationResult.ReplicaSample(now / (double) SECOND, replicas));
+
+            intervalReceived = 0;
+            intervalHandled = 0;
+            intervalServiceTime = 0;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.simulation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of a simulation run: the latencies of the messages (from their arrival until
+ * they have been handled), the number of replicas over time and the thread-seconds
+ * the replicas consumed.
+ *
+ * @version 1.0
+ */
+public class SimulationResult {
+
+    private final String policy;
+    private final long[] latencies; //sorted, in nanoseconds
+    private final List<ReplicaSample> replicas;
+    private final double threadSeconds;
+    private final double duration; //in seconds
+
+    SimulationResult(String policy, long[] latencies, List<ReplicaSample> replicas, double threadSeconds, double duration) {
+        this.policy = policy;
+        this.latencies = Arrays.copyOf(latencies, latencies.length);
+        Arrays.sort(this.latencies);
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.threadSeconds = threadSeconds;
+        this.duration = duration;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public int getMessages() {
+        return latencies.length;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in milliseconds that is not exceeded by the given percentage of messages
+     */
+    public double getLatencyPercentile(double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return toMillis(latencies[Math.max(0, Math.min(latencies.length - 1, index))]);
+    }
+
+    public double getMaxLatency() {
+        return latencies.length == 0 ? 0 : toMillis(latencies[latencies.length - 1]);
+    }
+
+    /**
+     * @return the number of replicas after each call of the policy
+     */
+    public List<ReplicaSample> getReplicas() {
+        return replicas;
+    }
+
+    public int getMaxReplicas() {
+        int max = 0;
+        for (ReplicaSample sample : replicas) {
+            max = Math.max(max, sample.getReplicas());
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of times the number of replicas changed
+     */
+    public int getScalingChanges() {
+        int changes = 0;
+        for (int i = 1; i < replicas.size(); i++) {
+            if (replicas.get(i).getReplicas() != replicas.get(i - 1).getReplicas()) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @return the sum of the lifetime of all replica threads in seconds
+     */
+    public double getThreadSeconds() {
+        return threadSeconds;
+    }
+
+    /**
+     * @return the simulated time in seconds until all messages have been handled
+     */
+    public double getDuration() {
+        return duration;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return a report of the result in a human readable form
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%s: %d messages in %.1fs%n", policy, getMessages(), duration));
+        builder.append(String.format("  latency p50 %.1fms, p90 %.1fms, p99 %.1fms, max %.1fms%n",
+                getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99), getMaxLatency()));
+        builder.append(String.format("  replicas max %d, changes %d, thread-seconds %.1f%n",
+                getMaxReplicas(), getScalingChanges(), threadSeconds));
+        builder.append("  timeline");
+        for (ReplicaSample sample : replicas) {
+            builder.append(' ').append(sample.getReplicas());
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return report();
+    }
+
+    /**
+     * Number of replicas at a point in time of the simulation
+     */
+    public static class ReplicaSample {
+        private final double time;
+        private final int replicas;
+
+        ReplicaSample(double time, int replicas) {
+            this.time = time;
+            this.replicas = replicas;
+        }
+
+        /**
+         * @return the time in seconds since the start of the simulation
+         */
+        public double getTime() {
+            return time;
+        }
+
+        public int getReplicas() {
+            return replicas;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2014 Technische Universitat Wien (TUW), Distributed Systems Group E184 (http://dsg.tuwien.ac.at)
+ *
+ * This work was partially supported by the EU FP7 FET SmartSociety (http://www.smart-society-project.eu/).
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package at.ac.tuwien.dsg.smartcom.simulation;
+
+import at.ac.tuwien.dsg.smartcom.broker.policy.LatencyReplicationPolicy;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplicationSimulatorTest {
+
+    @Test
+    public void testSimulate_singleReplica() throws Exception {
+        //400 messages per second with 2ms service time can be handled by a single replica
+        SimulationResult result = new ReplicationSimulator(LoadTrace.constant(400, 30), 2, TimeUnit.MILLISECONDS)
+                .setMaxReplicas(1)
+                .simulate("single", new LatencyReplicationPolicy());
+
+        assertEquals(12000, result.getMessages());
+        assertEquals(2.0, result.getLatencyPercentile(99), 0.001);
+        assertEquals(1, result.getMaxReplicas());
+        assertEquals(result.getDuration(), result.getThreadSeconds(), 0.001);
+    }
+
+    @Test
+    public void testSimulate_overload() throws Exception {
+        //600 messages per second exceed the capacity of a single replica by 100 messages per second
+        SimulationResult result = new ReplicationSimulator(LoadTrace.constant(600, 10), 2, TimeUnit.MILLISECONDS)
+                .setMaxReplicas(1)
+                .simulate("single", new LatencyReplicationPolicy());
+
+        assertEquals(6000, result.getMessages());
+        assertEquals(12.0, result.getDuration(), 0.01); //backlog of 1000 messages takes 2 more seconds
+        assertTrue(result.getMaxLatency() > 1900);
+    }
+
+    @Test
+    public void testSimulate_latencyPolicy() throws Exception {
+        LoadTrace trace = LoadTrace.constant(2000, 300);
+        SimulationResult result = new ReplicationSimulator(trace, 2, TimeUnit.MILLISECONDS)
+                .simulate("latency", new LatencyReplicationPolicy());
+
+        //4 replicas are busy, 5 keep the utilization at 80%
+        assertEquals(5, result.getReplicas().get(result.getReplicas().size() - 1).getReplicas());
+        assertTrue("Replicas should not oscillate", result.getScalingChanges() <= 2);
+        assertEquals(2.0, result.getLatencyPercentile(90), 0.001);
+    }
+
+    @Test
+    public void testSimulate_deterministic() throws Exception {
+        LoadTrace trace = LoadTrace.ramp(0, 3000, 60).followedBy(LoadTrace.constant(500, 60));
+        ReplicationSimulator simulator = new ReplicationSimulator(trace, 2, TimeUnit.MILLISECONDS)
+                .setRandomServiceTime(42)
+                .setMaxReplicas(10)
+                .setPolicyInterval(5, TimeUnit.SECONDS);
+
+        SimulationResult result1 = simulator.simulate("latency", new LatencyReplicationPolicy());
+        SimulationResult result2 = simulator.simulate("latency", new LatencyReplicationPolicy());
+
+        assertEquals(result1.report(), result2.report());
+        assertTrue(result1.getMaxReplicas() <= 10);
+    }
+
+    @Test
+    public void testFromPerformanceCsv() throws Exception {
+        String csv = "Timestamp:;0;1;2;\n" +
+                "Sample 0;10.5;20;30;\n" +
+                "Sample 1;1;2;\n";
+
+        LoadTrace trace = LoadTrace.fromPerformanceCsv(new StringReader(csv), 1);
+        assertEquals(2, trace.getSeconds());
+        assertEquals(2.0, trace.getRate(1), 0.001);
+
+        trace = LoadTrace.fromPerformanceCsv(new StringReader(csv), 0);
+        assertEquals(3, trace.getSeconds());
+        assertEquals(10.5, trace.getRate(0), 0.001);
+    }
+}